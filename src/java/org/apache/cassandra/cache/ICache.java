@@ -0,0 +1,51 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.util.Set;
+
+/**
+ * Storage of cache entries. InstrumentedCache counts requests and hits on top of it.
+ */
+public interface ICache<K, V>
+{
+    /** in entries, unless the implementation weighs entries otherwise */
+    public int capacity();
+
+    public void setCapacity(int capacity);
+
+    public void put(K key, V value);
+
+    public V get(K key);
+
+    public void remove(K key);
+
+    public int size();
+
+    /** entries removed to make room for others since cache creation */
+    public long evictions();
+
+    public void clear();
+
+    public Set<K> keySet();
+}
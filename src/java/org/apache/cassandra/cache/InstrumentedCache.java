@@ -24,12 +24,9 @@ package org.apache.cassandra.cache;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.reardencommerce.kernel.collections.shared.evictable.ConcurrentLinkedHashMap;
-
 public class InstrumentedCache<K, V>
 {
-    private int capacity;
-    private final ConcurrentLinkedHashMap<K, V> map;
+    private final ICache<K, V> map;
     private final AtomicLong requests = new AtomicLong(0);
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong lastRequests = new AtomicLong(0);
@@ -38,8 +35,12 @@ public class InstrumentedCache<K, V>
 
     public InstrumentedCache(int capacity)
     {
-        this.capacity = capacity;
-        map = ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.SECOND_CHANCE, capacity);
+        this(new ConcurrentLinkedHashCache<K, V>(capacity));
+    }
+
+    public InstrumentedCache(ICache<K, V> map)
+    {
+        this.map = map;
     }
 
     public void put(K key, V value)
@@ -68,7 +69,7 @@ public class InstrumentedCache<K, V>
 
     public int getCapacity()
     {
-        return capacity;
+        return map.capacity();
     }
 
     public boolean isCapacitySetManually()
@@ -79,7 +80,6 @@ public class InstrumentedCache<K, V>
     public void updateCapacity(int capacity)
     {
         map.setCapacity(capacity);
-        this.capacity = capacity;
     }
 
     public void setCapacity(int capacity)
@@ -98,6 +98,11 @@ public class InstrumentedCache<K, V>
         return hits.get();
     }
 
+    public long getEvictions()
+    {
+        return map.evictions();
+    }
+
     public long getRequests()
     {
         return requests.get();
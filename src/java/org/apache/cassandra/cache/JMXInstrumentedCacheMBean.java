@@ -23,6 +23,7 @@ package org.apache.cassandra.cache;
 
 public interface JMXInstrumentedCacheMBean
 {
+    /** in entries, or in megabytes for caches of serialized values */
     public int getCapacity();
     public void setCapacity(int capacity);
     public int getSize();
@@ -33,6 +34,9 @@ public interface JMXInstrumentedCacheMBean
     /** total cache hit count since cache creation */
     public long getHits();
 
+    /** total count of entries evicted to make room for others since cache creation */
+    public long getEvictions();
+
     /**
      * hits / requests since the last time getHitRate was called.  serious telemetry apps should not use this,
      * and should instead track the deltas from getHits / getRequests themselves, since those will not be
@@ -0,0 +1,408 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.cassandra.io.SSTable;
+
+/**
+ * Key cache, which keeps entries packed in a long array: no objects per entry and no allocation per lookup.
+ * Entry is keyed by sstable generation and 128 bit hash of the key (the one bloom filters are probed with),
+ * so two keys of the same sstable are mixed up only if both their hashes collide.
+ *
+ * The table is set associative: key hash picks a bucket of WAYS slots, key is looked up only in it and,
+ * when all its slots are taken, replaces an entry of the bucket which was not hit since the last
+ * eviction pass over it (CLOCK). Each slot is SLOT longs: hash1, hash2, position, size and
+ * sstable generation in the high int of the last one, its low bits are flags.
+ *
+ * Buckets are locked by stripes; the table is resized with all stripes locked.
+ */
+public class PackedKeyCache implements JMXInstrumentedCacheMBean
+{
+    private static final int WAYS = 8;
+    private static final int SLOT = 5;
+    private static final int BUCKET = WAYS * SLOT;
+    private static final int META = 4;
+    // stripe of bucket is its number modulo LOCKS, so the table never has fewer buckets than that
+    private static final int LOCKS = 64;
+    private static final int MAX_BUCKETS = 1 << 24;
+
+    private static final long OCCUPIED = 1;
+    private static final long REFERENCED = 2;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCKS];
+    // null when capacity is 0
+    private volatile long[] table;
+    private volatile int capacity;
+    private volatile boolean capacitySetManually;
+
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong lastRequests = new AtomicLong(0);
+    private final AtomicLong lastHits = new AtomicLong(0);
+
+    public PackedKeyCache(int capacity)
+    {
+        for (int i = 0; i < LOCKS; i++)
+            locks[i] = new ReentrantLock();
+        updateCapacity(capacity);
+    }
+
+    public PackedKeyCache(String table, String name, int capacity)
+    {
+        this(capacity);
+        try
+        {
+            // registered under the interface of other caches, which it does not follow the name of
+            AbstractCache.registerMBean(new StandardMBean(this, JMXInstrumentedCacheMBean.class), table, name);
+        }
+        catch (NotCompliantMBeanException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int bucketOffset(long[] t, long hash1)
+    {
+        int buckets = t.length / BUCKET;
+        return (int) (hash1 & (buckets - 1)) * BUCKET;
+    }
+
+    private static boolean matches(long[] t, int slot, int sstable, long hash1, long hash2)
+    {
+        long meta = t[slot + META];
+        return (meta & OCCUPIED) != 0 && (int) (meta >>> 32) == sstable && t[slot] == hash1 && t[slot + 1] == hash2;
+    }
+
+    /**
+     * @return cached position of the key in sstable data file or null. Only a hit allocates (the result)
+     */
+    public SSTable.PositionSize get(int sstable, long hash1, long hash2)
+    {
+        if (capacity == 0)
+            return null;
+
+        requests.incrementAndGet();
+        ReentrantLock lock = locks[(int) (hash1 & (LOCKS - 1))];
+        lock.lock();
+        try
+        {
+            long[] t = table;
+            if (t == null)
+                return null;
+            int bucket = bucketOffset(t, hash1);
+            for (int slot = bucket; slot < bucket + BUCKET; slot += SLOT)
+            {
+                if (matches(t, slot, sstable, hash1, hash2))
+                {
+                    t[slot + META] |= REFERENCED;
+                    hits.incrementAndGet();
+                    return new SSTable.PositionSize(t[slot + 2], t[slot + 3]);
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public void put(int sstable, long hash1, long hash2, long position, long rowSize)
+    {
+        if (capacity == 0)
+            return;
+
+        ReentrantLock lock = locks[(int) (hash1 & (LOCKS - 1))];
+        lock.lock();
+        try
+        {
+            long[] t = table;
+            if (t == null)
+                return;
+            int bucket = bucketOffset(t, hash1);
+            int free = -1;
+            boolean occupied = false;
+            for (int slot = bucket; slot < bucket + BUCKET; slot += SLOT)
+            {
+                if (matches(t, slot, sstable, hash1, hash2))
+                {
+                    t[slot + 2] = position;
+                    t[slot + 3] = rowSize;
+                    return;
+                }
+                if ((t[slot + META] & OCCUPIED) == 0)
+                {
+                    if (free < 0)
+                        free = slot;
+                }
+                else
+                {
+                    occupied = true;
+                }
+            }
+
+            if (free >= 0 && size.get() < capacity)
+            {
+                size.incrementAndGet();
+            }
+            else if (occupied)
+            {
+                free = victim(t, bucket, hash2);
+                evictions.incrementAndGet();
+            }
+            else
+            {
+                // cache is full, but has nothing to evict in this bucket
+                return;
+            }
+            write(t, free, sstable, hash1, hash2, position, rowSize);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private static void write(long[] t, int slot, int sstable, long hash1, long hash2, long position, long rowSize)
+    {
+        t[slot] = hash1;
+        t[slot + 1] = hash2;
+        t[slot + 2] = position;
+        t[slot + 3] = rowSize;
+        t[slot + META] = ((long) sstable << 32) | OCCUPIED;
+    }
+
+    /**
+     * @return occupied slot of bucket, which was not hit since it was passed by the previous search
+     */
+    private static int victim(long[] t, int bucket, long hash2)
+    {
+        int start = (int) (hash2 >>> 61); // 0..WAYS-1, so evictions do not always start at the first slot
+        for (int i = 0; ; i++)
+        {
+            int slot = bucket + ((start + i) % WAYS) * SLOT;
+            long meta = t[slot + META];
+            if ((meta & OCCUPIED) == 0)
+                continue;
+            if ((meta & REFERENCED) == 0)
+                return slot;
+            t[slot + META] = meta & ~REFERENCED;
+        }
+    }
+
+    private void lockAll()
+    {
+        for (ReentrantLock lock : locks)
+            lock.lock();
+    }
+
+    private void unlockAll()
+    {
+        for (ReentrantLock lock : locks)
+            lock.unlock();
+    }
+
+    private static int bucketsFor(int capacity)
+    {
+        if (capacity == 0)
+            return 0;
+        int buckets = LOCKS;
+        while (buckets < MAX_BUCKETS && (long) buckets * WAYS < capacity)
+            buckets *= 2;
+        return buckets;
+    }
+
+    public synchronized void updateCapacity(int capacity)
+    {
+        int buckets = bucketsFor(capacity);
+        long[] old = table;
+        if ((old == null ? 0 : old.length / BUCKET) == buckets)
+        {
+            this.capacity = capacity;
+            return;
+        }
+
+        lockAll();
+        try
+        {
+            long[] t = buckets == 0 ? null : new long[buckets * BUCKET];
+            int count = 0;
+            if (t != null && old != null)
+            {
+                // entries which do not fit into their new bucket are dropped
+                for (int slot = 0; slot < old.length && count < capacity; slot += SLOT)
+                {
+                    if ((old[slot + META] & OCCUPIED) == 0)
+                        continue;
+                    int bucket = bucketOffset(t, old[slot]);
+                    for (int s = bucket; s < bucket + BUCKET; s += SLOT)
+                    {
+                        if ((t[s + META] & OCCUPIED) == 0)
+                        {
+                            System.arraycopy(old, slot, t, s, SLOT);
+                            count++;
+                            break;
+                        }
+                    }
+                }
+            }
+            table = t;
+            size.set(count);
+            this.capacity = capacity;
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+    public void setCapacity(int capacity)
+    {
+        updateCapacity(capacity);
+        capacitySetManually = true;
+    }
+
+    public boolean isCapacitySetManually()
+    {
+        return capacitySetManually;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getSize()
+    {
+        return size.get();
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public double getRecentHitRate()
+    {
+        long r = requests.get();
+        long h = hits.get();
+        try
+        {
+            return ((double)(h - lastHits.get())) / (r - lastRequests.get());
+        }
+        finally
+        {
+            lastRequests.set(r);
+            lastHits.set(h);
+        }
+    }
+
+    public void clear()
+    {
+        lockAll();
+        try
+        {
+            long[] t = table;
+            if (t != null)
+                table = new long[t.length];
+            size.set(0);
+            requests.set(0);
+            hits.set(0);
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Writes every entry as int sstable, long hash1, long hash2, long position, long size.
+     * Stripes are locked one at a time while their entries are copied out.
+     *
+     * @return count of entries written
+     */
+    public int write(DataOutput out) throws IOException
+    {
+        int count = 0;
+        long[] copy = new long[0];
+        for (int stripe = 0; stripe < LOCKS; stripe++)
+        {
+            int n = 0;
+            locks[stripe].lock();
+            try
+            {
+                long[] t = table;
+                if (t == null)
+                    return count;
+                int buckets = t.length / BUCKET;
+                if (copy.length < buckets / LOCKS * BUCKET)
+                    copy = new long[buckets / LOCKS * BUCKET];
+                for (int bucket = stripe; bucket < buckets; bucket += LOCKS)
+                {
+                    for (int slot = bucket * BUCKET; slot < (bucket + 1) * BUCKET; slot += SLOT)
+                    {
+                        if ((t[slot + META] & OCCUPIED) == 0)
+                            continue;
+                        System.arraycopy(t, slot, copy, n, SLOT);
+                        n += SLOT;
+                    }
+                }
+            }
+            finally
+            {
+                locks[stripe].unlock();
+            }
+
+            for (int slot = 0; slot < n; slot += SLOT)
+            {
+                out.writeInt((int) (copy[slot + META] >>> 32));
+                out.writeLong(copy[slot]);
+                out.writeLong(copy[slot + 1]);
+                out.writeLong(copy[slot + 2]);
+                out.writeLong(copy[slot + 3]);
+            }
+            count += n / SLOT;
+        }
+        return count;
+    }
+}
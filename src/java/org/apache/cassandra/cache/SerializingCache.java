@@ -0,0 +1,312 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.io.ICompactSerializer2;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Cache, which keeps values serialized in direct memory, so they neither take heap nor are scanned by GC.
+ * Capacity is in megabytes of serialized values, least recently used are evicted first.
+ *
+ * get returns a new deserialized copy of the value, so cached values cannot be updated in place;
+ * writers must remove them instead.
+ *
+ * Entries are spread over segments by key hash. Every segment is an access ordered map with its own lock
+ * and equal share of capacity. Memory of a removed entry is freed at once, or by the last reader
+ * still deserializing it.
+ */
+public class SerializingCache<K, V> implements ICache<K, V>
+{
+    private static final int SEGMENTS = 16;
+
+    private static final ThreadLocal<DataOutputBuffer> serializeBuffer = new ThreadLocal<DataOutputBuffer>()
+    {
+        @Override
+        protected DataOutputBuffer initialValue()
+        {
+            return new DataOutputBuffer();
+        }
+    };
+
+    private final ICompactSerializer2<V> serializer;
+    private final Segment<K>[] segments;
+    private volatile int capacity;
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * @param capacity in megabytes
+     */
+    public SerializingCache(int capacity, ICompactSerializer2<V> serializer)
+    {
+        this.serializer = serializer;
+        this.capacity = capacity;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment<K>();
+    }
+
+    private Segment<K> segmentFor(K key)
+    {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12) ^ (h >>> 7) ^ (h >>> 4);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private long segmentCapacity()
+    {
+        return capacity * 1024L * 1024L / SEGMENTS;
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+        for (Segment<K> segment : segments)
+        {
+            synchronized (segment)
+            {
+                evict(segment, segmentCapacity());
+            }
+        }
+    }
+
+    public void put(K key, V value)
+    {
+        long segmentCapacity = segmentCapacity();
+        DataOutputBuffer buffer = serializeBuffer.get();
+        buffer.reset();
+        try
+        {
+            serializer.serialize(value, buffer);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        if (buffer.getLength() > segmentCapacity)
+        {
+            remove(key);
+            return;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect(buffer.getLength());
+        bytes.put(buffer.getData(), 0, buffer.getLength());
+        bytes.flip();
+        Memory memory = new Memory(bytes);
+
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            Memory previous = segment.put(key, memory);
+            segment.weight += memory.size();
+            if (previous != null)
+            {
+                segment.weight -= previous.size();
+                previous.unreference();
+            }
+            evict(segment, segmentCapacity);
+        }
+    }
+
+    /**
+     * must be called with segment locked
+     */
+    private void evict(Segment<K> segment, long segmentCapacity)
+    {
+        Iterator<Memory> iter = segment.values().iterator();
+        while (segment.weight > segmentCapacity && iter.hasNext())
+        {
+            Memory eldest = iter.next();
+            iter.remove();
+            segment.weight -= eldest.size();
+            eldest.unreference();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public V get(K key)
+    {
+        Segment<K> segment = segmentFor(key);
+        Memory memory;
+        synchronized (segment)
+        {
+            memory = segment.get(key);
+            if (memory == null)
+                return null;
+            // segment holds a reference until entry is removed under this lock, so memory is not freed yet
+            memory.reference();
+        }
+
+        try
+        {
+            return serializer.deserialize(new DataInputStream(ByteBufferUtil.inputStream(memory.bytes)));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            memory.unreference();
+        }
+    }
+
+    public void remove(K key)
+    {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            Memory memory = segment.remove(key);
+            if (memory != null)
+            {
+                segment.weight -= memory.size();
+                memory.unreference();
+            }
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment<K> segment : segments)
+        {
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes taken by serialized values
+     */
+    public long weightedSize()
+    {
+        long weight = 0;
+        for (Segment<K> segment : segments)
+        {
+            synchronized (segment)
+            {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public long evictions()
+    {
+        return evictions.get();
+    }
+
+    public void clear()
+    {
+        for (Segment<K> segment : segments)
+        {
+            synchronized (segment)
+            {
+                for (Memory memory : segment.values())
+                    memory.unreference();
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * @return snapshot of keys
+     */
+    public Set<K> keySet()
+    {
+        Set<K> keys = new HashSet<K>();
+        for (Segment<K> segment : segments)
+        {
+            synchronized (segment)
+            {
+                keys.addAll(segment.keySet());
+            }
+        }
+        return keys;
+    }
+
+    private static class Segment<K> extends LinkedHashMap<K, Memory>
+    {
+        private static final long serialVersionUID = 1L;
+
+        long weight;
+
+        Segment()
+        {
+            super(16, 0.75f, true);
+        }
+    }
+
+    /**
+     * Direct buffer of serialized value, freed when the last reference is released
+     */
+    private static class Memory
+    {
+        final ByteBuffer bytes;
+        // the one of cache segment and one per reader
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Memory(ByteBuffer bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        int size()
+        {
+            return bytes.capacity();
+        }
+
+        void reference()
+        {
+            references.incrementAndGet();
+        }
+
+        void unreference()
+        {
+            if (references.decrementAndGet() == 0)
+                FileUtils.clean(bytes);
+        }
+    }
+}
@@ -19,10 +19,12 @@
 package org.apache.cassandra.concurrent;
 
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -34,7 +36,20 @@ import javax.management.ObjectName;
 
 public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor implements JMXEnabledThreadPoolExecutorMBean
 {
+    /* null if the JVM cannot tell how much a thread allocated */
+    private static final com.sun.management.ThreadMXBean threadMXBean = allocationMXBean();
+
     private final String mbeanName;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    /* allocated by the worker thread before the current task */
+    private final ThreadLocal<long[]> allocatedBefore = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
 
     public JMXEnabledThreadPoolExecutor(String threadPoolName)
     {
@@ -104,6 +119,38 @@ public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor i
         return super.shutdownNow();
     }
 
+    private static com.sun.management.ThreadMXBean allocationMXBean()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled())
+            return null;
+        return allocationBean;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r)
+    {
+        super.beforeExecute(t, r);
+        if (threadMXBean != null)
+            allocatedBefore.get()[0] = threadMXBean.getThreadAllocatedBytes(t.getId());
+    }
+
+    @Override
+    public void afterExecute(Runnable r, Throwable t)
+    {
+        if (threadMXBean != null)
+            allocatedBytes.addAndGet(threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore.get()[0]);
+        super.afterExecute(r, t);
+    }
+
+    public long getAllocatedBytes()
+    {
+        return threadMXBean == null ? -1 : allocatedBytes.get();
+    }
+
     /**
      * Get the number of completed tasks
      */
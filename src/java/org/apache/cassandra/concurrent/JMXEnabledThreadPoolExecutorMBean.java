@@ -20,4 +20,9 @@ package org.apache.cassandra.concurrent;
 
 public interface JMXEnabledThreadPoolExecutorMBean extends IExecutorMBean
 {
+    /**
+     * Get the number of bytes allocated on the heap by tasks of this pool, or -1 if the JVM
+     * does not measure allocations of threads; sample it periodically for the allocation rate
+     */
+    public long getAllocatedBytes();
 }
\ No newline at end of file
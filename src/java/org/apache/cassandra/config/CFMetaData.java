@@ -31,6 +31,9 @@ public final class CFMetaData
 {
     public final static double DEFAULT_KEY_CACHE_SIZE = 200000;
     public final static double DEFAULT_ROW_CACHE_SIZE = 0.0;
+    public final static int DEFAULT_LEVELED_SSTABLE_SIZE_IN_MB = 5;
+    public final static int DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB = 64;
+    public final static int DEFAULT_ROW_CACHE_SIZE_IN_MB = 0;
 
     public final String tableName;            // name of table which has this column family
     public final String cfName;               // name of the column family
@@ -56,13 +59,41 @@ public final class CFMetaData
     
     /** MM: row processor descriptors **/
     public final List<Pair<Class<? extends IRowProcessor>,Properties>> rowProcessors;
+
+    /** where memtables of this CF keep their data **/
+    public final DatabaseDescriptor.MemtableMode memtableMode;
+
+    /** layout of bloom filters of new sstables **/
+    public final DatabaseDescriptor.BloomFilterMode bloomFilterMode;
+
+    /** how sstables are picked for minor compaction **/
+    public final DatabaseDescriptor.CompactionStrategy compactionStrategy;
+    /** size of sstables written by leveled compaction **/
+    public final int leveledSSTableSizeInMB;
+
+    /** compression of data files of new sstables **/
+    public final DatabaseDescriptor.Compression compression;
+    /** size of uncompressed chunks, data files are compressed by **/
+    public final int compressionChunkSizeInKB;
+    /** where row cache keeps rows **/
+    public final DatabaseDescriptor.RowCacheMode rowCacheMode;
+    /** capacity of offheap row cache **/
+    public final int rowCacheSizeInMB;
     
     CFMetaData(String tableName, String cfName, String columnType, AbstractType comparator, AbstractType subcolumnComparator,
                boolean bloomColumns,
                String comment, double rowCacheSize, double keyCacheSize, int rowCacheSavePeriodInSeconds, int keyCacheSavePeriodInSeconds,
                boolean domainSplit, String domainCFName, Token domainMin, Token domainMax,
                int gcGraceSeconds,
-               List<Pair<Class<? extends IRowProcessor>,Properties>> rowProcClasses
+               List<Pair<Class<? extends IRowProcessor>,Properties>> rowProcClasses,
+               DatabaseDescriptor.MemtableMode memtableMode,
+               DatabaseDescriptor.BloomFilterMode bloomFilterMode,
+               DatabaseDescriptor.CompactionStrategy compactionStrategy,
+               int leveledSSTableSizeInMB,
+               DatabaseDescriptor.Compression compression,
+               int compressionChunkSizeInKB,
+               DatabaseDescriptor.RowCacheMode rowCacheMode,
+               int rowCacheSizeInMB
                )
     {
         this.tableName = tableName;
@@ -84,6 +115,14 @@ public final class CFMetaData
         this.gcGraceSeconds = gcGraceSeconds;
         
         this.rowProcessors = rowProcClasses;
+        this.memtableMode = memtableMode;
+        this.bloomFilterMode = bloomFilterMode;
+        this.compactionStrategy = compactionStrategy;
+        this.leveledSSTableSizeInMB = leveledSSTableSizeInMB;
+        this.compression = compression;
+        this.compressionChunkSizeInKB = compressionChunkSizeInKB;
+        this.rowCacheMode = rowCacheMode;
+        this.rowCacheSizeInMB = rowCacheSizeInMB;
     }
 
     // a quick and dirty pretty printer for describing the column family...
@@ -112,7 +151,15 @@ public final class CFMetaData
                 && other.keyCacheSavePeriodInSeconds == keyCacheSavePeriodInSeconds
                 && other.domainSplit == domainSplit
                 && other.domainCFName.equals(domainCFName)
-                && other.domainMinToken.compareTo( domainMinToken )==0;
+                && other.domainMinToken.compareTo( domainMinToken )==0
+                && other.memtableMode == memtableMode
+                && other.bloomFilterMode == bloomFilterMode
+                && other.compactionStrategy == compactionStrategy
+                && other.leveledSSTableSizeInMB == leveledSSTableSizeInMB
+                && other.compression == compression
+                && other.compressionChunkSizeInKB == compressionChunkSizeInKB
+                && other.rowCacheMode == rowCacheMode
+                && other.rowCacheSizeInMB == rowCacheSizeInMB;
     }
 
 }
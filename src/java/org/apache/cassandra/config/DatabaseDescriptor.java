@@ -96,6 +96,11 @@ public class DatabaseDescriptor
         batch
     }
 
+    public static enum CommitLogMode {
+        standard,
+        mmap
+    }
+
     public static enum DiskAccessMode {
         auto,
         mmap,
@@ -109,6 +114,31 @@ public class DatabaseDescriptor
         offheap
     }
 
+    public static enum MemtableMode {
+        standard,
+        offheap
+    }
+
+    public static enum BloomFilterMode {
+        standard,
+        blocked
+    }
+
+    public static enum CompactionStrategy {
+        sizetiered,
+        leveled
+    }
+
+    public static enum Compression {
+        none,
+        snappy
+    }
+
+    public static enum RowCacheMode {
+        standard,
+        offheap
+    }
+
     public static final String random = "RANDOM";
     public static final String ophf = "OPHF";
     private static int storagePort = 7000;
@@ -147,6 +177,7 @@ public class DatabaseDescriptor
 
     private static int minimumCompactionThreshold = 4; // compact this many sstables min at a time
     private static int maximumCompactionThreshold = 32; // compact this many sstables max at a time
+    private static int concurrentCompactors = 0; // 0 = one per data directory plus one
 
     private static double flushDataBufferSizeInMB = 32;
     private static double flushIndexBufferSizeInMB = 8;
@@ -173,6 +204,8 @@ public class DatabaseDescriptor
     private static int memtableThroughput = 64;
     /* Number of objects in millions in the memtable before it is dumped */
     private static double memtableOperations = 0.1;
+    /* Estimated heap size of all memtables together, exceeding which forces flush of the largest. 0 disables */
+    private static int memtableTotalSpaceInMB = 0;
     /* 
      * This parameter enables or disables consistency checks. 
      * If set to false the read repairs are disable for very
@@ -199,6 +232,7 @@ public class DatabaseDescriptor
     private static String initialToken = null;
 
     private static CommitLogSync commitLogSync;
+    private static CommitLogMode commitLogMode = CommitLogMode.standard;
     private static double commitLogSyncBatchMS;
     private static int commitLogSyncPeriodMS;
     private static int maxCommitLogSegmentsActive=4;
@@ -230,6 +264,11 @@ public class DatabaseDescriptor
      * decomissioning
      */
     private static int streamInMBits = 600;
+
+    /**
+     * Files streamed to a host at the same time, each over its own connection.
+     */
+    private static int streamFilesInFlight = 4;
     
     public static int thriftMaxMessageLengthMB = 16;
     public static int thriftFramedTransportSizeMB = 15;
@@ -373,6 +412,19 @@ public class DatabaseDescriptor
                 
             }
 
+            String commitLogModeRaw = xmlUtils.getNodeValue("/Storage/CommitLogMode");
+            if (commitLogModeRaw != null)
+            {
+                try
+                {
+                    commitLogMode = CommitLogMode.valueOf(commitLogModeRaw);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("CommitLogMode must be either 'standard' or 'mmap'");
+                }
+            }
+
             String lfc = xmlUtils.getNodeValue("/Storage/CommitLogCompression");
             if (lfc != null)
             {
@@ -721,10 +773,24 @@ public class DatabaseDescriptor
             {
                 throw new ConfigurationException("Memtable object count must be a positive double");
             }
+            /* Memory budget for memtables of all column families in MB */
+            String memtableTotalSpace = xmlUtils.getNodeValue("/Storage/MemtableTotalSpaceInMB");
+            if ( memtableTotalSpace != null )
+                memtableTotalSpaceInMB = Integer.parseInt(memtableTotalSpace);
+            if (memtableTotalSpaceInMB < 0)
+            {
+                throw new ConfigurationException("MemtableTotalSpaceInMB must be positive or 0 to disable it");
+            }
 
             String streamInLimit = xmlUtils.getNodeValue("/Storage/StreamInLimit");
             if ( streamInLimit != null )
                 streamInMBits = Integer.parseInt(streamInLimit);
+
+            String filesInFlight = xmlUtils.getNodeValue("/Storage/StreamFilesInFlight");
+            if (filesInFlight != null)
+                streamFilesInFlight = Integer.parseInt(filesInFlight);
+            if (streamFilesInFlight < 1)
+                throw new ConfigurationException("StreamFilesInFlight must be at least 1");
             
             /* This parameter enables or disables consistency checks.
              * If set to false the read repairs are disable for very
@@ -768,6 +834,18 @@ public class DatabaseDescriptor
                 dataArchiveThrottle = Integer.parseInt(dataArThrottleString);
             }
 
+            String rawCompactors = xmlUtils.getNodeValue("/Storage/ConcurrentCompactors");
+            if (rawCompactors != null)
+            {
+                concurrentCompactors = Integer.parseInt(rawCompactors);
+                if (concurrentCompactors < 1)
+                    throw new ConfigurationException("ConcurrentCompactors must be at least 1");
+            }
+            else
+            {
+                concurrentCompactors = dataFileDirectories.length + 1;
+            }
+
             for (String datadir : dataFileDirectories)
             {
                 if (datadir.equals(logFileDirectory))
@@ -883,7 +961,15 @@ public class DatabaseDescriptor
                                                                             SystemTable.STATUS_CF,
                                                                             null,null,
                                                                             0,
-                                                                            null
+                                                                            null,
+                                                                            MemtableMode.standard,
+                                                                            BloomFilterMode.standard,
+                                                                            CompactionStrategy.sizetiered,
+                                                                            CFMetaData.DEFAULT_LEVELED_SSTABLE_SIZE_IN_MB,
+                                                                            Compression.none,
+                                                                            CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                                                                            RowCacheMode.standard,
+                                                                            CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB
                                                                             ));
 
             systemMeta.cfMetaData.put(HintedHandOffManager.HINTS_CF, new CFMetaData(Table.SYSTEM_TABLE,
@@ -901,7 +987,15 @@ public class DatabaseDescriptor
                                                                                     HintedHandOffManager.HINTS_CF,
                                                                                     null,null,
                                                                                     0,
-                                                                                    null
+                                                                                    null,
+                                                                                    MemtableMode.standard,
+                                                                                    BloomFilterMode.standard,
+                                                                                    CompactionStrategy.sizetiered,
+                                                                                    CFMetaData.DEFAULT_LEVELED_SSTABLE_SIZE_IN_MB,
+                                                                                    Compression.none,
+                                                                                    CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB,
+                                                                            RowCacheMode.standard,
+                                                                            CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB
                                                                                     ));
 
             // Configured local storages
@@ -1263,6 +1357,102 @@ public class DatabaseDescriptor
                     logger.info("Column level bloom filter in on for "+cfName);
                 }
             }                    
+            MemtableMode memtableMode = MemtableMode.standard;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "MemtableMode")) != null)
+            {
+                try
+                {
+                    memtableMode = MemtableMode.valueOf(value);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("MemtableMode of " + cfName + " must be either 'standard' or 'offheap'");
+                }
+
+                if (memtableMode == MemtableMode.offheap)
+                    logger.info("Memtables of " + cfName + " will keep data in offheap slabs");
+            }
+            BloomFilterMode bloomFilterMode = BloomFilterMode.standard;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "BloomFilterMode")) != null)
+            {
+                try
+                {
+                    bloomFilterMode = BloomFilterMode.valueOf(value);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("BloomFilterMode of " + cfName + " must be either 'standard' or 'blocked'");
+                }
+
+                if (bloomFilterMode == BloomFilterMode.blocked)
+                    logger.info("New sstables of " + cfName + " will have cache-blocked bloom filters");
+            }
+            CompactionStrategy compactionStrategy = CompactionStrategy.sizetiered;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "CompactionStrategy")) != null)
+            {
+                try
+                {
+                    compactionStrategy = CompactionStrategy.valueOf(value);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("CompactionStrategy of " + cfName + " must be either 'sizetiered' or 'leveled'");
+                }
+
+                if (compactionStrategy == CompactionStrategy.leveled)
+                    logger.info("SSTables of " + cfName + " will be compacted into levels");
+            }
+            int leveledSSTableSize = CFMetaData.DEFAULT_LEVELED_SSTABLE_SIZE_IN_MB;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "LeveledSSTableSizeInMB")) != null)
+            {
+                leveledSSTableSize = Integer.parseInt(value);
+                if (leveledSSTableSize < 1)
+                    throw new ConfigurationException("LeveledSSTableSizeInMB of " + cfName + " must be at least 1");
+            }
+            Compression compression = Compression.none;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "Compression")) != null)
+            {
+                try
+                {
+                    compression = Compression.valueOf(value);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("Compression of " + cfName + " must be either 'none' or 'snappy'");
+                }
+
+                if (compression != Compression.none)
+                    logger.info("New sstables of " + cfName + " will have " + compression + " compressed data files");
+            }
+            int compressionChunkSize = CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "CompressionChunkSizeInKB")) != null)
+            {
+                compressionChunkSize = Integer.parseInt(value);
+                if (compressionChunkSize < 1 || compressionChunkSize > 1024)
+                    throw new ConfigurationException("CompressionChunkSizeInKB of " + cfName + " must be between 1 and 1024");
+            }
+            RowCacheMode rowCacheMode = RowCacheMode.standard;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "RowCacheMode")) != null)
+            {
+                try
+                {
+                    rowCacheMode = RowCacheMode.valueOf(value);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new ConfigurationException("RowCacheMode of " + cfName + " must be either 'standard' or 'offheap'");
+                }
+            }
+            int rowCacheSizeInMB = CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB;
+            if ((value = XMLUtils.getAttributeValue(columnFamily, "RowCacheSizeInMB")) != null)
+            {
+                rowCacheSizeInMB = Integer.parseInt(value);
+                if (rowCacheSizeInMB < 0)
+                    throw new ConfigurationException("RowCacheSizeInMB of " + cfName + " must not be negative");
+            }
+            if (rowCacheMode == RowCacheMode.offheap)
+                logger.info("Row cache of " + cfName + " will keep up to " + rowCacheSizeInMB + "MB of serialized rows offheap");
+
             // MM: parse out domain split for this CF
             boolean splitByDomain = false;
             if ((value = XMLUtils.getAttributeValue(columnFamily, "SplitByDomain")) != null)
@@ -1350,7 +1540,7 @@ public class DatabaseDescriptor
                     String postfix='_'+domainToken.toString();
                     domainToken = getPartitioner().getToken(domainToken.toString()+((char)0));
                     Token domainMax = domain==255 ? getPartitioner().getToken(Integer.toHexString(0)) : getPartitioner().getToken(Integer.toHexString(domain+1));
-                    meta.cfMetaData.put(cfName+postfix, new CFMetaData(tableName, cfName+postfix, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, true,cfName, domainToken,domainMax,gcGraceInSeconds,processors));
+                    meta.cfMetaData.put(cfName+postfix, new CFMetaData(tableName, cfName+postfix, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, true,cfName, domainToken,domainMax,gcGraceInSeconds,processors,memtableMode,bloomFilterMode,compactionStrategy,leveledSSTableSize,compression,compressionChunkSize,rowCacheMode,rowCacheSizeInMB));
                 }
             }
             else if (splitByNativeDomain != 0)
@@ -1358,12 +1548,12 @@ public class DatabaseDescriptor
                 for (int domain = 0; domain < splitByNativeDomain; domain++)
                 {
                     String domainName = cfName + "_" + domain;
-                    meta.cfMetaData.put(domainName, new CFMetaData(tableName, domainName, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, false,cfName,null,null,gcGraceInSeconds,processors));
+                    meta.cfMetaData.put(domainName, new CFMetaData(tableName, domainName, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, false,cfName,null,null,gcGraceInSeconds,processors,memtableMode,bloomFilterMode,compactionStrategy,leveledSSTableSize,compression,compressionChunkSize,rowCacheMode,rowCacheSizeInMB));
                 }
             }
             else
             {
-                meta.cfMetaData.put(cfName, new CFMetaData(tableName, cfName, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, false,cfName,null,null,gcGraceInSeconds,processors));
+                meta.cfMetaData.put(cfName, new CFMetaData(tableName, cfName, columnType, comparator, subcolumnComparator, bloomColumns, comment, rowCacheSize, keyCacheSize, keyCacheSavePeriod, rowCacheSavePeriod, false,cfName,null,null,gcGraceInSeconds,processors,memtableMode,bloomFilterMode,compactionStrategy,leveledSSTableSize,compression,compressionChunkSize,rowCacheMode,rowCacheSizeInMB));
             }
         }
     }
@@ -1634,6 +1824,16 @@ public class DatabaseDescriptor
     {
         DatabaseDescriptor.memtableOperations = memtableOperations;
     }
+
+    public static int getMemtableTotalSpaceInMB()
+    {
+        return memtableTotalSpaceInMB;
+    }
+
+    public static void setMemtableTotalSpaceInMB(int memtableTotalSpaceInMB)
+    {
+        DatabaseDescriptor.memtableTotalSpaceInMB = memtableTotalSpaceInMB;
+    }
     
     private static Random consistencyRandom = new Random();
     
@@ -1785,6 +1985,16 @@ public class DatabaseDescriptor
         streamInMBits = newMBits;
     }
 
+    public static int getStreamFilesInFlight()
+    {
+        return streamFilesInFlight;
+    }
+
+    public static void setStreamFilesInFlight(int filesInFlight)
+    {
+        streamFilesInFlight = filesInFlight;
+    }
+
     public static int getPhiConvictThreshold()
     {
         return phiConvictThreshold;
@@ -1813,6 +2023,14 @@ public class DatabaseDescriptor
         return maximumCompactionThreshold;
     }
 
+    /**
+     * @return number of compactions, which may run at the same time
+     */
+    public static int getConcurrentCompactors()
+    {
+        return concurrentCompactors;
+    }
+
     public static long getRowWarningThreshold()
     {
         return rowWarningThreshold;
@@ -1936,6 +2154,51 @@ public class DatabaseDescriptor
         return cfMetaData==null ? false : cfMetaData.bloomColumns;
     }
 
+    public static BloomFilterMode getBloomFilterMode(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return cfMetaData==null ? BloomFilterMode.standard : cfMetaData.bloomFilterMode;
+    }
+
+    public static CompactionStrategy getCompactionStrategy(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return cfMetaData==null ? CompactionStrategy.sizetiered : cfMetaData.compactionStrategy;
+    }
+
+    public static Compression getCompression(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return cfMetaData==null ? Compression.none : cfMetaData.compression;
+    }
+
+    public static RowCacheMode getRowCacheMode(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return cfMetaData==null ? RowCacheMode.standard : cfMetaData.rowCacheMode;
+    }
+
+    public static int getRowCacheSizeInMB(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return cfMetaData==null ? CFMetaData.DEFAULT_ROW_CACHE_SIZE_IN_MB : cfMetaData.rowCacheSizeInMB;
+    }
+
+    /**
+     * @return size of uncompressed chunks of compressed data files in bytes
+     */
+    public static int getCompressionChunkSize(String tableName, String cfName)
+    {
+        assert tableName != null;
+        CFMetaData cfMetaData = getCFMetaData(tableName, cfName);
+        return 1024 * (cfMetaData==null ? CFMetaData.DEFAULT_COMPRESSION_CHUNK_SIZE_IN_KB : cfMetaData.compressionChunkSizeInKB);
+    }
+
     /**
      * @return The absolute number of keys that should be cached per table.
      */
@@ -1988,6 +2251,19 @@ public class DatabaseDescriptor
         return commitLogSync;
     }
 
+    public static CommitLogMode getCommitLogMode()
+    {
+        return commitLogMode;
+    }
+
+    /**
+     * for tests, must be set before commit log is used
+     */
+    public static void setCommitLogMode(CommitLogMode mode)
+    {
+        commitLogMode = mode;
+    }
+
     public static boolean isLogFileCompression()
     {
         return logFileCompression;
@@ -122,10 +122,10 @@ public class BinaryMemtable implements IFlushable
         return keys;
     }
 
-    private SSTableReader writeSortedContents(List<DecoratedKey> sortedKeys) throws IOException
+    private SSTableReader writeSortedContents(List<DecoratedKey> sortedKeys, String location) throws IOException
     {
         logger.info("Writing " + this);
-        String path = cfs.getFlushPath();
+        String path = cfs.getFlushPath(location);
         SSTableWriter writer = new SSTableWriter(path, sortedKeys.size(), sortedKeys.size()*10, StorageService.getPartitioner());
         
         boolean bloomColumns = writer.getBloomFilterWriter().isBloomColumns();
@@ -157,19 +157,40 @@ public class BinaryMemtable implements IFlushable
         return sstable;
     }
 
-    public void flushAndSignal(final Condition condition, ExecutorService sorter, final ExecutorService writer)
+    public int getCurrentThroughput()
+    {
+        return currentSize.get();
+    }
+
+    public void flushAndSignal(final Condition condition, ExecutorService sorter, final ExecutorService writer, final String location)
     {
         sorter.submit(new Runnable()
         {
             public void run()
             {
-                final List<DecoratedKey> sortedKeys = getSortedKeys();
+                final List<DecoratedKey> sortedKeys;
+                try
+                {
+                    sortedKeys = getSortedKeys();
+                }
+                catch (RuntimeException e)
+                {
+                    condition.signalAll();
+                    throw e;
+                }
                 writer.submit(new WrappedRunnable()
                 {
                     public void runMayThrow() throws IOException
                     {
-                        cfs.addSSTable(writeSortedContents(sortedKeys));
-                        condition.signalAll();
+                        try
+                        {
+                            cfs.addSSTable(writeSortedContents(sortedKeys, location));
+                        }
+                        finally
+                        {
+                            // failed flush must give its capacity back too, or writes get blocked for good
+                            condition.signalAll();
+                        }
                     }
                 });
             }
@@ -18,7 +18,6 @@
 
 package org.apache.cassandra.db;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Collection;
@@ -27,7 +26,6 @@ import org.apache.log4j.Logger;
 import org.apache.commons.lang.ArrayUtils;
 
 import org.apache.cassandra.db.marshal.AbstractType;
-import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.utils.FBUtilities;
 
 
@@ -173,17 +171,8 @@ public class Column implements IColumn
     {
         digest.update(name);
         digest.update(value);
-        DataOutputBuffer buffer = new DataOutputBuffer();
-        try
-        {
-            buffer.writeLong(timestamp);
-            buffer.writeBoolean(isMarkedForDelete);
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
-        }
-        digest.update(buffer.getData(), 0, buffer.getLength());
+        FBUtilities.updateWithLong(digest, timestamp);
+        digest.update((byte) (isMarkedForDelete ? 1 : 0));
     }
 
     public int getLocalDeletionTime()
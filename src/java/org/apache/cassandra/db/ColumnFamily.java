@@ -19,18 +19,19 @@
 package org.apache.cassandra.db;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
+import org.apache.cassandra.service.DigestVersions;
 import org.apache.cassandra.utils.FBUtilities;
 
 
@@ -335,19 +336,20 @@ public class ColumnFamily implements IColumnContainer
 
     public static byte[] digest(ColumnFamily cf)
     {
-        MessageDigest digest;
-        try
-        {
-            digest = MessageDigest.getInstance("MD5");
-        }
-        catch (NoSuchAlgorithmException e)
-        {
-            throw new AssertionError(e);
-        }
+        return digest(cf, DigestVersions.getVersion());
+    }
+
+    /**
+     * @return digest of the version, prefixed with the version since VERSION_2
+     */
+    public static byte[] digest(ColumnFamily cf, int version)
+    {
+        MessageDigest digest = DigestVersions.newReadDigest(version);
         if (cf != null)
             cf.updateDigest(digest);
 
-        return digest.digest();
+        byte[] hash = digest.digest();
+        return version == DigestVersions.VERSION_1 ? hash : ArrayUtils.addAll(new byte[]{ (byte) version }, hash);
     }
 
     public void updateDigest(MessageDigest digest)
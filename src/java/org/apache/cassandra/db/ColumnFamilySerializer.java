@@ -31,6 +31,7 @@ import org.apache.cassandra.db.marshal.Types;
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.io.util.CalcSizeOutput;
+import org.apache.cassandra.utils.FBUtilities;
 
 public class ColumnFamilySerializer implements ICompactSerializer2<ColumnFamily>
 {
@@ -95,6 +96,29 @@ public class ColumnFamilySerializer implements ICompactSerializer2<ColumnFamily>
         }
     }
 
+    /**
+     * @return number of bytes serialize will write, computed without serializing
+     */
+    public int serializedSize(ColumnFamily columnFamily)
+    {
+        if (columnFamily == null)
+            return utfSize("");
+
+        int size = utfSize(columnFamily.name())
+                   + utfSize(columnFamily.type_)
+                   + utfSize(columnFamily.getComparatorName())
+                   + utfSize(columnFamily.getSubComparatorName())
+                   + DBConstants.intSize_ + DBConstants.longSize_ + DBConstants.intSize_;
+        for (IColumn column : columnFamily.getSortedColumns())
+            size += column.serializedSize();
+        return size;
+    }
+
+    private static int utfSize(String s)
+    {
+        return IColumn.UtfPrefix_ + FBUtilities.encodedUTF8Length(s);
+    }
+
     public void serializeWithIndexes(ColumnFamily columnFamily, DataOutput dos, boolean skipBloom)
     {
         ColumnIndexer.serialize(columnFamily, dos,skipBloom);
@@ -156,7 +180,14 @@ public class ColumnFamilySerializer implements ICompactSerializer2<ColumnFamily>
 
     public ColumnFamily deserializeFromSSTable(SSTableReader sstable, DataInput file) throws IOException
     {
-        ColumnFamily cf = sstable.makeColumnFamily();
+        return deserializeFromSSTable(sstable.makeColumnFamily(), file);
+    }
+
+    /**
+     * reads data written by {@link #serializeForSSTable(ColumnFamily, DataOutput)} into empty cf
+     */
+    public ColumnFamily deserializeFromSSTable(ColumnFamily cf, DataInput file) throws IOException
+    {
         deserializeFromSSTableNoColumns(cf, file);
         deserializeColumns(file, cf);
         return cf;
@@ -24,6 +24,7 @@ import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.regex.Matcher;
@@ -66,8 +67,8 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     /*
      * submitFlush first puts [Binary]Memtable.getSortedContents on the flushSorter executor,
-     * which then puts the sorted results on the writer executor.  This is because sorting is CPU-bound,
-     * and writing is disk-bound; we want to be able to do both at once.  When the write is complete,
+     * which then puts the sorted results on the writer executor of the disk chosen for the flush (see FlushWriters).
+     * This is because sorting is CPU-bound, and writing is disk-bound; we want to be able to do both at once.  When the write is complete,
      * we turn the writer into an SSTableReader and add it to ssTables_ where it is available for reads.
      *
      * For BinaryMemtable that's about all that happens.  For live Memtables there are two other things
@@ -86,20 +87,23 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                                                TimeUnit.SECONDS,
                                                new ArrayBlockingQueue<Runnable>(Runtime.getRuntime().availableProcessors()),
                                                new NamedThreadFactory("FLUSH-SORTER-POOL"));
-    private static final ExecutorService flushWriter
-            = new JMXEnabledThreadPoolExecutor(1,
-                                               DatabaseDescriptor.getAllDataFileLocations().length,
-                                               Integer.MAX_VALUE,
-                                               TimeUnit.SECONDS,
-                                               new ArrayBlockingQueue<Runnable>(DatabaseDescriptor.getAllDataFileLocations().length
-                                                       + DatabaseDescriptor.getFlushQueueSize()),
-                                               new NamedThreadFactory("FLUSH-WRITER-POOL",DatabaseDescriptor.getCompactionPriority()));
     public static final ExecutorService postFlushExecutor = new JMXEnabledThreadPoolExecutor("MEMTABLE-POST-FLUSHER");
 
     private static final int KEY_RANGE_FILE_BUFFER_SIZE = 256 * 1024;
+    private static final int ROW_CACHE_WRITE_STRIPES = 1024;
 
     private Set<Memtable> memtablesPendingFlush = new ConcurrentSkipListSet<Memtable>();
 
+    /*
+     * Memtables, whose flush failed, are resubmitted to FlushWriters after a growing delay until they get written.
+     * While any of them is not flushed, commit log segments of this CF are not discarded, because they hold its data.
+     */
+    private static final ScheduledThreadPoolExecutor flushRetryExecutor = new RetryingScheduledThreadPoolExecutor("FLUSH-RETRY");
+    private static final long FLUSH_RETRY_DELAY = 1000;
+    private static final long FLUSH_RETRY_MAX_DELAY = 60000;
+
+    private Set<Memtable> memtablesFailedFlush = new ConcurrentSkipListSet<Memtable>();
+
     private final String table_;
     public final String columnFamily_;
     private final boolean isSuper_;
@@ -107,18 +111,27 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public final CFMetaData metadata;
 
     private volatile Integer memtableSwitchCount = 0;
+    /* switches made by MeteredFlusher */
+    volatile int memtableBudgetSwitchCount = 0;
 
     /* This is used to generate the next index for a SSTable */
     private AtomicInteger fileIndexGenerator_ = new AtomicInteger(0);
 
     /* active memtable associated with this ColumnFamilyStore. */
-    private Memtable memtable_;
+    private volatile Memtable memtable_;
 
     // TODO binarymemtable ops are not threadsafe (do they need to be?)
     private AtomicReference<BinaryMemtable> binaryMemtable_;
 
     /* SSTables on disk for this column family */
     private SSTableTracker ssTables_;
+    private final ICompactionStrategy compactionStrategy;
+
+    /**
+     * writes to keys of serialized row cache, counted by stripe of key hash, so a reader caching a row
+     * can tell it might have missed one (see cacheRow)
+     */
+    private final AtomicLongArray rowCacheWrites = new AtomicLongArray(ROW_CACHE_WRITE_STRIPES);
 
     private LatencyTracker readStats_ = new LatencyTracker();
     private LatencyTracker writeStats_ = new LatencyTracker();
@@ -139,20 +152,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         metadata = DatabaseDescriptor.getCFMetaData(table, columnFamilyName);
         
         fileIndexGenerator_.set(indexValue);
-        memtable_ = new Memtable(this);
+        memtable_ = createMemtable();
         binaryMemtable_ = new AtomicReference<BinaryMemtable>(new BinaryMemtable(this));
 
         if (logger_.isDebugEnabled())
             logger_.debug("Starting CFS " + columnFamily_);
         // scan for data files corresponding to this CF
         List<File> sstableFiles = new ArrayList<File>();
-        Pattern auxFilePattern = Pattern.compile("(.*)(-Filter\\.db$|-Index\\.db$)");
+        Pattern auxFilePattern = Pattern.compile("(.*)(-Filter\\.db$|-Index\\.db$|-Summary\\.db$|-CompressionInfo\\.db$)");
         Pattern tmpCacheFilePattern = Pattern.compile(table + "-" + columnFamilyName + "-(Key|Row)Cache.*\\.tmp$");
         for (File file : files())
         {
             String filename = file.getName();
 
-            /* look for and remove orphans. An orphan is a -Filter.db or -Index.db with no corresponding -Data.db. */
+            /* look for and remove orphans. An orphan is a -Filter.db, -Index.db, -Summary.db or -CompressionInfo.db with no corresponding -Data.db. */
             Matcher matcher = auxFilePattern.matcher(file.getAbsolutePath());
             if (matcher.matches())
             {
@@ -187,7 +200,6 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
         // scan for sstables corresponding to this cf and load them
         ssTables_ = new SSTableTracker(table, columnFamilyName);
-        Set<String> savedKeys = readSavedCache(DatabaseDescriptor.getSerializedKeyCachePath(table, columnFamilyName), false);
         List<SSTableReader> sstables = new ArrayList<SSTableReader>();
         for (File file : sstableFiles)
         {
@@ -198,7 +210,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             SSTableReader sstable;
             try
             {
-                sstable = SSTableReader.open(filename, savedKeys, ssTables_);
+                sstable = SSTableReader.open(filename, ssTables_);
             }
             catch (IOException ex)
             {
@@ -208,6 +220,12 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             sstables.add(sstable);
         }
         ssTables_.add(sstables);
+        ssTables_.loadSavedKeyCache();
+
+        if (metadata != null && metadata.compactionStrategy == DatabaseDescriptor.CompactionStrategy.leveled)
+            compactionStrategy = new LeveledCompactionStrategy(LeveledManifest.manifestFile(table, columnFamilyName), metadata.leveledSSTableSizeInMB, sstables);
+        else
+            compactionStrategy = new SizeTieredCompactionStrategy();
     }
 
     protected Set<String> readSavedCache(File path, boolean sort)
@@ -483,6 +501,18 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return new File(location, ssTableFileName).getAbsolutePath();
     }
 
+    /**
+     * @param location table directory chosen for flush on memtable switch
+     * @return a temporary file name for an sstable in location, if it is not null
+     */
+    public String getFlushPath(String location) throws IOException
+    {
+        if (location == null)
+            return getFlushPath();
+
+        return new File(location, getTempSSTableFileName()).getAbsolutePath();
+    }
+
     /**
      * @return path with enough space on disk to write ss table or null, if no disk space left
      */
@@ -520,62 +550,42 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                              columnFamily_, SSTable.TEMPFILE_MARKER, fileIndexGenerator_.incrementAndGet());
     }
 
-    /** flush the given memtable and swap in a new one for its CFS, if it hasn't been frozen already.  threadsafe. */
-    Future<?> maybeSwitchMemtable(Memtable oldMemtable, final boolean writeCommitLog) 
+    /**
+     * flush the given memtable and swap in a new one for its CFS, if it hasn't been switched already.  threadsafe.
+     *
+     * Writers are never blocked by this. Instead, every write reserves the current memtable (see {@link #startWrite()})
+     * before it goes to the commit log, so all mutations, which got to the commit log before the context we obtain here,
+     * are written to the old memtable. Mutations, which reserved the old memtable, but got to the log after the context,
+     * are flushed too and just replayed once more on recovery.
+     */
+    Future<?> maybeSwitchMemtable(final Memtable oldMemtable, final boolean writeCommitLog) 
     {
-        if (oldMemtable.isFrozen())
+        if (!oldMemtable.startSwitch())
         {
-            logger_.debug("memtable is already frozen; another thread must be flushing it");
+            logger_.debug("memtable is already switched; another thread must be flushing it");
             return null;
         }
+        assert oldMemtable == memtable_;
 
-        /**
-         *  If we can get the writelock, that means no new updates can come in and 
-         *  all ongoing updates to memtables have completed. We can get the tail
-         *  of the log and use it as the starting position for log replay on recovery.
-         */
-        Table.flusherLock.writeLock().lock();
         try
         {
-            if (oldMemtable.isFrozen())
-            {
-                return null;
-            }
-            oldMemtable.freeze();
-
-            // dont wait with write lock held for commit log queue - only obtain future and continue
             // the future due to the single threaded nature of commit log will position itself in queue
-            // after all mutations which possibly have been written to flushing memtable and
+            // after all mutations, which reserved memtables before the fresh one is set below, and
             // on get() will return commit log position of memtable flush start
             final Future<CommitLogContext> ctx = writeCommitLog ? CommitLog.instance().getContext() : null;
-//            logger_.info(columnFamily_ + " has reached its threshold; switching in a fresh Memtable at " + ctx);
+
+            // readers look at the current memtable first and then at pending ones, so put it there before switching
+            memtablesPendingFlush.add(oldMemtable);
+            memtable_ = createMemtable();
+            // writers, which failed to reserve old memtable after this, will find the fresh one
+            oldMemtable.freeze();
+
+            // flush waits for writes reserved the old memtable to complete before writing it out
             final Condition condition = submitFlush(oldMemtable);
-            memtable_ = new Memtable(this);
-            // a second executor that makes sure the onMemtableFlushes get called in the right order,
-            // while keeping the wait-for-flush (future.get) out of anything latency-sensitive.
-            return postFlushExecutor.submit(new WrappedRunnable()
-            {
-                public void runMayThrow() throws InterruptedException, IOException
-                {
-                    condition.await();
-                    if (writeCommitLog)
-                    {
-                        // if we're not writing to the commit log, we are replaying the log, so marking
-                        // the log header with "you can discard anything written before the context" is not valid
-                        try {
-                            CommitLogContext ctxValue = ctx.get();
-                            logger_.info(columnFamily_ + " has reached its threshold; switched in a fresh Memtable at " + ctxValue);
-                            CommitLog.instance().discardCompletedSegments(table_, columnFamily_, ctxValue);
-                        } catch (ExecutionException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                }
-            });
+            return submitPostFlush(oldMemtable, condition, ctx, FLUSH_RETRY_DELAY);
         }
         finally
         {
-            Table.flusherLock.writeLock().unlock();
             if (memtableSwitchCount == Integer.MAX_VALUE)
             {
                 memtableSwitchCount = 0;
@@ -584,6 +594,61 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
+    /**
+     * a second executor that makes sure the onMemtableFlushes get called in the right order,
+     * while keeping the wait-for-flush (future.get) out of anything latency-sensitive.
+     *
+     * @param ctx commit log position of the memtable flush start or null, if commit log is not written
+     * @param retryDelay delay before the memtable is flushed again, if this flush fails
+     */
+    private Future<?> submitPostFlush(final Memtable oldMemtable, final Condition condition, final Future<CommitLogContext> ctx, final long retryDelay)
+    {
+        return postFlushExecutor.submit(new WrappedRunnable()
+        {
+            public void runMayThrow() throws InterruptedException, IOException
+            {
+                condition.await();
+                if (memtablesPendingFlush.contains(oldMemtable))
+                {
+                    memtablesFailedFlush.add(oldMemtable);
+                    logger_.error("Flush of " + oldMemtable + " failed; retrying in " + retryDelay + " ms, commit log segments of " + columnFamily_ + " are kept until then");
+                    flushRetryExecutor.schedule(new Runnable()
+                    {
+                        public void run()
+                        {
+                            submitPostFlush(oldMemtable, submitFlush(oldMemtable), ctx, Math.min(retryDelay * 2, FLUSH_RETRY_MAX_DELAY));
+                        }
+                    }, retryDelay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                memtablesFailedFlush.remove(oldMemtable);
+                if (ctx != null)
+                {
+                    // if we're not writing to the commit log, we are replaying the log, so marking
+                    // the log header with "you can discard anything written before the context" is not valid
+                    try {
+                        CommitLogContext ctxValue = ctx.get();
+                        if (!memtablesFailedFlush.isEmpty())
+                        {
+                            // older segments still hold data of the memtables not flushed yet
+                            logger_.warn(columnFamily_ + " has " + memtablesFailedFlush.size() + " memtables failed to flush; not discarding commit log segments up to " + ctxValue);
+                            return;
+                        }
+                        logger_.info(columnFamily_ + " has reached its threshold; switched in a fresh Memtable at " + ctxValue);
+                        CommitLog.instance().discardCompletedSegments(table_, columnFamily_, ctxValue);
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        });
+    }
+
+    private Memtable createMemtable()
+    {
+        return metadata.memtableMode == DatabaseDescriptor.MemtableMode.offheap ? new OffheapMemtable(this) : new Memtable(this);
+    }
+
     void switchBinaryMemtable(String key, byte[] buffer) 
     {
         binaryMemtable_.set(new BinaryMemtable(this));
@@ -624,22 +689,40 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         submitFlush(binaryMemtable_.get());
     }
 
+    /**
+     * Reserves the current memtable for a write. Must be called before the mutation is added to the commit log
+     * and followed by {@link Memtable#finishWrite()} after it was applied.
+     *
+     * @return reserved memtable
+     */
+    Memtable startWrite()
+    {
+        while (true)
+        {
+            Memtable memtable = memtable_;
+            if (memtable.startWrite())
+                return memtable;
+            // it is frozen, so fresh memtable is already set
+        }
+    }
+
     /**
      * Insert/Update the column family for this key.
-     * Caller is responsible for acquiring Table.flusherLock!
-     * param @ lock - lock that needs to be used.
+     * Caller is responsible for reserving memtable by startWrite()!
+     * param @ memtable - memtable reserved for this write
      * param @ key - key for update/insert
      * param @ columnFamily - columnFamily changes
+     * @return true, if memtable should be flushed
      */
-    Memtable apply(String key, ColumnFamily columnFamily) throws IOException
+    boolean apply(Memtable memtable, String key, ColumnFamily columnFamily) throws IOException
     {
         long start = System.nanoTime();
         
-        boolean flushRequested = memtable_.isThresholdViolated();
-        memtable_.put(key, columnFamily);
+        boolean flushRequested = memtable.isThresholdViolated();
+        memtable.put(key, columnFamily);
         writeStats_.addNano(System.nanoTime() - start);
         
-        return flushRequested ? memtable_ : null;
+        return flushRequested;
     }
 
     /*
@@ -726,9 +809,10 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
      */
     public boolean isKeyInRemainingSSTables(DecoratedKey key, Set<SSTable> sstablesToIgnore)
     {
+        BloomFilter.Hash keyHash = BloomFilter.hash(key.key);
         for (SSTableReader sstable : ssTables_)
         {
-            if (!sstablesToIgnore.contains(sstable) && sstable.getBloomFilter().isPresent(key.key))
+            if (!sstablesToIgnore.contains(sstable) && sstable.getBloomFilter().isPresent(keyHash))
                 return true;
         }
         return false;
@@ -747,9 +831,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public void addSSTable(SSTableReader sstable)
     {
         ssTables_.add(Arrays.asList(sstable));
+        compactionStrategy.replaced(Collections.<SSTableReader>emptyList(), Arrays.asList(sstable));
         CompactionManager.instance.submitMinorIfNeeded(this);
     }
 
+    public ICompactionStrategy getCompactionStrategy()
+    {
+        return compactionStrategy;
+    }
+
     /*
      * Add up all the files sizes this is the worst case file
      * size for compaction of all the list of files given.
@@ -759,7 +849,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         long expectedFileSize = 0;
         for (SSTableReader sstable : sstables)
         {
-            long size = sstable.length();
+            long size = sstable.onDiskLength();
             expectedFileSize = expectedFileSize + size;
         }
         return expectedFileSize;
@@ -774,9 +864,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         SSTableReader maxFile = null;
         for (SSTableReader sstable : sstables)
         {
-            if (sstable.length() > maxSize)
+            if (sstable.onDiskLength() > maxSize)
             {
-                maxSize = sstable.length();
+                maxSize = sstable.onDiskLength();
                 maxFile = sstable;
             }
         }
@@ -803,6 +893,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public void markCompacted(Collection<SSTableReader> sstables) throws IOException
     {
         ssTables_.markCompacted(sstables);
+        compactionStrategy.replaced(sstables, Collections.<SSTableReader>emptyList());
     }
 
     boolean isCompleteSSTables(Collection<SSTableReader> sstables)
@@ -810,13 +901,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return ssTables_.getSSTables().equals(new HashSet<SSTableReader>(sstables));
     }
 
-    void replaceCompactedSSTables(Collection<SSTableReader> sstables, Iterable<SSTableReader> replacements)
+    void replaceCompactedSSTables(Collection<SSTableReader> sstables, Collection<SSTableReader> replacements)
     {
         ssTables_.replace(sstables, replacements);
+        compactionStrategy.replaced(sstables, replacements);
     }
 
     /**
-     * submits flush sort on the flushSorter executor, which will in turn submit to flushWriter when sorted.
+     * submits flush sort on the flushSorter executor, which will in turn submit to the writer of the
+     * disk the flush is allocated to, when sorted.
      * TODO because our executors use CallerRunsPolicy, when flushSorter fills up, no writes will proceed
      * because the next flush will start executing on the caller, mutation-stage thread that has the
      * flush write lock held.  (writes aquire this as a read lock before proceeding.)
@@ -827,8 +920,10 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     Condition submitFlush(IFlushable flushable)
     {
         logger_.info("Enqueuing flush of " + flushable);
-        final Condition condition = new SimpleCondition();
-        flushable.flushAndSignal(condition, flushSorter, flushWriter);
+        String location = estimateFlushPath();
+        int disk = FlushWriters.instance.diskOf(location);
+        Condition condition = FlushWriters.instance.startFlush(disk, flushable.getCurrentThroughput());
+        flushable.flushAndSignal(condition, flushSorter, FlushWriters.instance.writer(disk), location);
         return condition;
     }
 
@@ -847,58 +942,51 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getMemtableThreadSafe().getCurrentThroughput();
     }
 
+    public long getMemtableLiveSize()
+    {
+        return getMemtableThreadSafe().getLiveSize();
+    }
+
+    public long getMemtablesPendingFlushLiveSize()
+    {
+        long size = 0;
+        for (Memtable memtable : memtablesPendingFlush)
+            size += memtable.getLiveSize();
+        return size;
+    }
+
+    public int getMemtableBudgetSwitchCount()
+    {
+        return memtableBudgetSwitchCount;
+    }
+
     public int getMemtableSwitchCount()
     {
         return memtableSwitchCount;
     }
 
     /**
-     * get the current memtable in a threadsafe fashion.  note that simply "return memtable_" is
-     * incorrect; you need to lock to introduce a thread safe happens-before ordering.
+     * get the current memtable.
      *
-     * do NOT use this method to do either a put or get on the memtable object, since it could be
-     * flushed in the meantime (and its executor terminated).
+     * do NOT use this method to do a put on the memtable object, since it could be
+     * flushed in the meantime. Use startWrite for this.
      *
      * also do NOT make this method public or it will really get impossible to reason about these things.
      * @return
      */
-    private Memtable getMemtableThreadSafe()
+    Memtable getMemtableThreadSafe()
     {
-        Table.flusherLock.readLock().lock();
-        try
-        {
-            return memtable_;
-        }
-        finally
-        {
-            Table.flusherLock.readLock().unlock();
-        }
+        return memtable_;
     }
 
     public Iterator<DecoratedKey> memtableKeyIterator(DecoratedKey startWith) throws ExecutionException, InterruptedException
     {
-        Table.flusherLock.readLock().lock();
-        try
-        {
-             return memtable_.getKeyIterator(startWith);
-        }
-        finally
-        {
-            Table.flusherLock.readLock().unlock();
-        }
+        return memtable_.getKeyIterator(startWith);
     }
 
     public Iterator<Map.Entry<DecoratedKey, ColumnFamily>> memtableEntryIterator()
     {
-        Table.flusherLock.readLock().lock();
-        try
-        {
-            return memtable_.getEntryIterator();
-        }
-        finally
-        {
-            Table.flusherLock.readLock().unlock();
-        }
+        return memtable_.getEntryIterator();
     }
 
     public Collection<SSTableReader> getSSTables()
@@ -931,10 +1019,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return readStats_.getTotalLatencyMicros();
     }
 
-// TODO this actually isn't a good meature of pending tasks
     public int getPendingTasks()
     {
-        return Table.flusherLock.getQueueLength();
+        return memtablesPendingFlush.size();
     }
 
     public long getWriteCount()
@@ -977,14 +1064,45 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         ColumnFamily cached;
         if ((cached = ssTables_.getRowCache().get(key)) == null)
         {
+            int stripe = rowCacheWriteStripe(key);
+            long writes = rowCacheWrites.get(stripe);
             cached = getTopLevelColumns(new IdentityQueryFilter(key, new QueryPath(columnFamily_)), Integer.MIN_VALUE);
             if (cached == null)
                 return null;
             ssTables_.getRowCache().put(key, cached);
+            // serialized row could miss a write, which was applied after it was read, but invalidated before it was put
+            if (ssTables_.isRowCacheSerialized() && rowCacheWrites.get(stripe) != writes)
+                ssTables_.getRowCache().remove(key);
         }
         return cached;
     }
 
+    private static int rowCacheWriteStripe(String key)
+    {
+        return key.hashCode() & (ROW_CACHE_WRITE_STRIPES - 1);
+    }
+
+    /**
+     * Applies a write to the cached row, if there is one. Serialized rows cannot be updated in place,
+     * so they are invalidated instead. Must be called after the write was applied to the memtable.
+     */
+    void updateRowCache(String key, ColumnFamily columnFamily)
+    {
+        if (ssTables_.getRowCache().getCapacity() == 0)
+            return;
+
+        if (ssTables_.isRowCacheSerialized())
+        {
+            rowCacheWrites.incrementAndGet(rowCacheWriteStripe(key));
+            ssTables_.getRowCache().remove(key);
+            return;
+        }
+
+        ColumnFamily cachedRow = ssTables_.getRowCache().getInternal(key);
+        if (cachedRow != null)
+            cachedRow.addAll(columnFamily);
+    }
+
     /**
      * get a list of columns starting from a given column, in a specified order.
      * only the latest version of a column is returned.
@@ -1078,9 +1196,32 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                 iterators.add(iter);
             }
 
-            /* add the SSTables on disk */
-            for (SSTableReader sstable : ssTables_)
+            /* add the SSTables on disk, which key range and bloom filters may contain the key. it is hashed once for all of them */
+            Set<SSTableReader> allSSTables = ssTables_.getSSTables();
+            SSTableReader[] sstables = new SSTableReader[allSSTables.size()];
+            int count = 0;
+            for (SSTableReader sstable : allSSTables)
             {
+                if (sstable.mayContainKey(filter.getDecoratedKey()))
+                    sstables[count++] = sstable;
+            }
+            if (count < sstables.length)
+                sstables = Arrays.copyOf(sstables, count);
+            BloomFilter[] filters = new BloomFilter[sstables.length];
+            for (int i = 0; i < sstables.length; i++)
+                filters[i] = sstables[i].getBloomFilter();
+            boolean[] present = new boolean[sstables.length];
+            BloomFilter.isPresent(filter.getKeyHash(), filters, present);
+
+            for (int i = 0; i < sstables.length; i++)
+            {
+                SSTableReader sstable = sstables[i];
+                if (!present[i])
+                {
+                    sstable.getBloomFilterTracker().addNegativeCount();
+                    continue;
+                }
+
                 iter = filter.getSSTableColumnIterator(sstable);
                 if (iter.getColumnFamily() != null)
                 {
@@ -1311,21 +1452,16 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             File dataDirectory = sourceFile.getParentFile().getParentFile();
             String snapshotDirectoryPath = Table.getSnapshotPath(dataDirectory.getAbsolutePath(), table_, snapshotName);
 
-            // create hard links for table data,index,filter files
-            File targetLink = new File(snapshotDirectoryPath, sourceFile.getName());
-            CLibrary.createHardLink(sourceFile, targetLink);
-
-            sourceFile = new File(ssTable.indexFilename());
-            targetLink = new File(snapshotDirectoryPath, sourceFile.getName());
-            CLibrary.createHardLink(sourceFile, targetLink);
-
-            sourceFile = new File(ssTable.filterFilename());
-            targetLink = new File(snapshotDirectoryPath, sourceFile.getName());
-            CLibrary.createHardLink(sourceFile, targetLink);
+            // create hard links for table data,index,filter and compression info files
+            for (String filename : ssTable.getAllFilenames())
+            {
+                File source = new File(filename);
+                CLibrary.createHardLink(source, new File(snapshotDirectoryPath, source.getName()));
+            }
 
             if (logger_.isDebugEnabled())
                 logger_.debug("Snapshot for " + table_ + " table data file " + sourceFile.getAbsolutePath() +
-                    " created as " + targetLink.getAbsolutePath());
+                    " created in " + snapshotDirectoryPath);
         }
     }
 
@@ -1413,12 +1549,22 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return Iterables.concat(positions);
     }
 
+    /**
+     * for testing.  drops cached key positions and caches the saved ones, as on start.
+     */
+    void reloadSavedKeyCache()
+    {
+        ssTables_.getKeyCache().clear();
+        ssTables_.loadSavedKeyCache();
+    }
+
     /**
      * for testing.  no effort is made to clear historical memtables.
      */
     void clearUnsafe()
     {
         memtable_.clearUnsafe();
+        compactionStrategy.replaced(ssTables_.getSSTables(), Collections.<SSTableReader>emptyList());
         ssTables_.clearUnsafe();
         ssTables_.getRowCache().clear();
         ssTables_.getKeyCache().clear();
@@ -1580,6 +1726,29 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     {
         return ssTables_.estimatedKeys();
     }
+
+    public Map<String, Long> getSSTableOpenTimes()
+    {
+        Map<String, Long> times = new TreeMap<String, Long>();
+        for (SSTableReader sstable : getSSTables())
+        {
+            if (sstable.getOpenTime() >= 0)
+                times.put(sstable.getFilename(), sstable.getOpenTime());
+        }
+        return times;
+    }
+
+    public List<String> getSSTablesWithRebuiltSummary()
+    {
+        List<String> files = new ArrayList<String>();
+        for (SSTableReader sstable : getSSTables())
+        {
+            if (sstable.isSummaryRebuilt())
+                files.add(sstable.getFilename());
+        }
+        Collections.sort(files);
+        return files;
+    }
     
     public void resetStats()
     {
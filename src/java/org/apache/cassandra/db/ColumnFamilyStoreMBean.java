@@ -19,6 +19,8 @@
 package org.apache.cassandra.db;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The MBean interface for ColumnFamilyStore
@@ -53,6 +55,27 @@ public interface ColumnFamilyStoreMBean
      */
     public int getMemtableSwitchCount();
 
+    /**
+     * Returns estimated bytes of memory taken by the current memtable,
+     * including object overhead. This is what is checked against MemtableTotalSpaceInMB.
+     *
+     * @return estimated live size of the memtable
+     */
+    public long getMemtableLiveSize();
+
+    /**
+     * @return estimated live size of memtables, which are being flushed now
+     */
+    public long getMemtablesPendingFlushLiveSize();
+
+    /**
+     * Returns the number of memtable switches forced by exceeding
+     * MemtableTotalSpaceInMB of all column families.
+     *
+     * @return the number of memtable switches forced by memory budget
+     */
+    public int getMemtableBudgetSwitchCount();
+
     /**
      * Triggers an immediate memtable flush.
      */
@@ -187,4 +210,15 @@ public interface ColumnFamilyStoreMBean
     long getBloomFilterColumnNegatives();
 
     double getRecentBloomFilterNegativeRatio();
+
+    /**
+     * @return ms spent to open each live sstable from disk on startup, by sstable file name
+     */
+    public Map<String, Long> getSSTableOpenTimes();
+
+    /**
+     * @return file names of live sstables, which index summary was rebuilt by scanning their index on startup
+     * (summary component was missing or stale)
+     */
+    public List<String> getSSTablesWithRebuiltSummary();
 }
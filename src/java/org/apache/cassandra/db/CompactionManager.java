@@ -25,7 +25,9 @@ import java.net.InetAddress;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.management.*;
@@ -37,6 +39,7 @@ import org.apache.commons.collections.iterators.FilterIterator;
 import org.apache.commons.lang.StringUtils;
 
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.proc.IRowProcessor;
@@ -53,6 +56,15 @@ import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
+/**
+ * Runs compactions on a pool of ConcurrentCompactors threads.
+ *
+ * Compactions of a column family never share sstables: minor compaction picks its bucket only among sstables,
+ * which are not being compacted, while major compaction, cleanup and anticompaction need all sstables of
+ * column family, so they wait for its running compactions to finish (and hold back new minor ones meanwhile).
+ * Writes are spread between data directories: at most ceil(ConcurrentCompactors / DataFileDirectories)
+ * compactions write to the same directory at once, others wait for it.
+ */
 public class CompactionManager implements CompactionManagerMBean
 {
     public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CompactionManager";
@@ -76,12 +88,24 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
-    private CompactionExecutor executor = new CompactionExecutor();
+    private final CompactionExecutor executor = new CompactionExecutor(DatabaseDescriptor.getConcurrentCompactors());
     private Map<ColumnFamilyStore, Integer> estimatedCompactions = new NonBlockingHashMap<ColumnFamilyStore, Integer>();
 
+    /** sstables of column families, which are being compacted now. guarded by itself */
+    private final Map<ColumnFamilyStore, Set<SSTableReader>> compacting = new HashMap<ColumnFamilyStore, Set<SSTableReader>>();
+    /** number of compactions of column family, waiting for all its sstables. guarded by compacting */
+    private final Map<ColumnFamilyStore, Integer> waitingForAll = new HashMap<ColumnFamilyStore, Integer>();
+
+    private final String[] dataDirectories = DatabaseDescriptor.getAllDataFileLocations();
+    /** number of compactions writing to each data directory. guarded by itself */
+    private final int[] writingCompactions = new int[dataDirectories.length];
+    private final int maxCompactionsPerDisk = (DatabaseDescriptor.getConcurrentCompactors() + dataDirectories.length - 1) / dataDirectories.length;
+
+    private final List<CompactionInfo> inProgress = new CopyOnWriteArrayList<CompactionInfo>();
+
     /**
      * Call this whenever a compaction might be needed on the given columnfamily.
-     * It's okay to over-call (within reason) since the compactions are single-threaded,
+     * It's okay to over-call (within reason) since sstables already being compacted are skipped,
      * and if a call is unnecessary, it will just be no-oped in the bucketing phase.
      */
     public Future<Integer> submitMinorIfNeeded(final ColumnFamilyStore cfs)
@@ -97,36 +121,110 @@ public class CompactionManager implements CompactionManagerMBean
                 }
                 logger.debug("Checking to see if compaction of " + cfs.columnFamily_ + " would be useful");
 
-                Set<List<SSTableReader>> buckets = getBuckets(
-                        convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                updateEstimateFor(cfs, buckets);
-                
-                for (List<SSTableReader> sstables : buckets)
+                List<SSTableReader> sstables = markMinorCompacting(cfs, minimumCompactionThreshold, maximumCompactionThreshold);
+                if (sstables == null)
+                    return 0;
+
+                try
                 {
-                    if (sstables.size() >= minimumCompactionThreshold)
-                    {
-                        // if we have too many to compact all at once, compact older ones first -- this avoids
-                        // re-compacting files we just created.
-                        Collections.sort(sstables);
-                        return doCompaction(cfs, sstables.subList(0, Math.min(sstables.size(), maximumCompactionThreshold)), getDefaultGcBefore(cfs));
-                    }
+                    return doCompaction(cfs, sstables, getDefaultGcBefore(cfs));
+                }
+                finally
+                {
+                    unmarkCompacting(cfs, sstables);
                 }
-                return 0;
             }
         };
         return executor.submit(callable);
     }
 
-    private void updateEstimateFor(ColumnFamilyStore cfs, Set<List<SSTableReader>> buckets)
+    /**
+     * Asks compaction strategy of column family for sstables to compact among ones not being compacted
+     * and marks them compacting.
+     *
+     * @return sstables to compact or null, if nothing to do
+     */
+    List<SSTableReader> markMinorCompacting(ColumnFamilyStore cfs, int minThreshold, int maxThreshold)
     {
-        int n = 0;
-        for (List<SSTableReader> sstables : buckets)
+        synchronized (compacting)
         {
-            if (sstables.size() >= minimumCompactionThreshold)
+            if (waitingForAll.containsKey(cfs))
             {
-                n += 1 + sstables.size() / (maximumCompactionThreshold - minimumCompactionThreshold);
+                logger.debug("Major compaction of " + cfs.columnFamily_ + " is pending; skipping minor one");
+                return null;
             }
+
+            Set<SSTableReader> marked = compactingOf(cfs);
+            ICompactionStrategy strategy = cfs.getCompactionStrategy();
+            Collection<SSTableReader> sstables = cfs.getSSTables();
+            updateEstimateFor(cfs, sstables);
+
+            List<SSTableReader> toCompact = strategy.getNextBackgroundSSTables(sstables, marked, minThreshold, maxThreshold);
+            if (toCompact != null)
+                marked.addAll(toCompact);
+            return toCompact;
         }
+    }
+
+    /**
+     * Waits for all running compactions of column family to finish and marks all its sstables compacting.
+     * Minor compactions of the column family are not started meanwhile.
+     *
+     * @return sstables marked
+     */
+    Collection<SSTableReader> markAllCompacting(ColumnFamilyStore cfs)
+    {
+        synchronized (compacting)
+        {
+            Integer waiting = waitingForAll.get(cfs);
+            waitingForAll.put(cfs, waiting == null ? 1 : waiting + 1);
+            try
+            {
+                while (!compactingOf(cfs).isEmpty())
+                {
+                    compacting.wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+            finally
+            {
+                waiting = waitingForAll.remove(cfs);
+                if (waiting > 1)
+                    waitingForAll.put(cfs, waiting - 1);
+            }
+
+            Collection<SSTableReader> sstables = cfs.getSSTables();
+            compactingOf(cfs).addAll(sstables);
+            return sstables;
+        }
+    }
+
+    void unmarkCompacting(ColumnFamilyStore cfs, Collection<SSTableReader> sstables)
+    {
+        synchronized (compacting)
+        {
+            compactingOf(cfs).removeAll(sstables);
+            compacting.notifyAll();
+        }
+    }
+
+    private Set<SSTableReader> compactingOf(ColumnFamilyStore cfs)
+    {
+        Set<SSTableReader> sstables = compacting.get(cfs);
+        if (sstables == null)
+        {
+            sstables = new HashSet<SSTableReader>();
+            compacting.put(cfs, sstables);
+        }
+        return sstables;
+    }
+
+    private void updateEstimateFor(ColumnFamilyStore cfs, Collection<SSTableReader> sstables)
+    {
+        int n = cfs.getCompactionStrategy().getEstimatedRemainingTasks(sstables, minimumCompactionThreshold, maximumCompactionThreshold);
         estimatedCompactions.put(cfs, n);
     }
 
@@ -140,12 +238,35 @@ public class CompactionManager implements CompactionManagerMBean
                 {
                     // this column family is completely out of local node range.
                     // so we can just remove its files
-                    doCleanupDelete( cfStore );
+                    try {
+                        cfStore.forceBlockingFlush();
+                    } catch (Exception e) {
+                        logger.error("Flush prior cleanup failed. Still continuing with cleanup",e);
+                    }
+                    Collection<SSTableReader> sstables = markAllCompacting(cfStore);
+                    try
+                    {
+                        doCleanupDelete(cfStore, sstables);
+                    }
+                    finally
+                    {
+                        unmarkCompacting(cfStore, sstables);
+                    }
                 } else
                 {
                     CFMetaData cfMetaData = DatabaseDescriptor.getCFMetaData(cfStore.getTable().name, cfStore.getColumnFamilyName());
                     if (!cfMetaData.domainSplit) // domain split CF dont need cleanup: if its 1st key is in local range, every key in it is
-                        doCleanupCompaction(cfStore);
+                    {
+                        Collection<SSTableReader> sstables = markAllCompacting(cfStore);
+                        try
+                        {
+                            doCleanupCompaction(cfStore, sstables);
+                        }
+                        finally
+                        {
+                            unmarkCompacting(cfStore, sstables);
+                        }
+                    }
                     else
                         logger.info("Skipping cleanup of "+cfStore.getColumnFamilyName()+" - its data do belong to this node");
                 }
@@ -166,22 +287,28 @@ public class CompactionManager implements CompactionManagerMBean
                 // requested ranges
                 CFMetaData cfMetaData = DatabaseDescriptor.getCFMetaData(cfStore.getTable().name, cfStore.getColumnFamilyName());
                 Range cfRange = new Range(cfMetaData.domainMinToken,cfMetaData.domainMaxToken);
-                if ( cfMetaData.domainSplit && Range.isRangeInRanges(cfRange, ranges))
+                if ( cfMetaData.domainSplit && !Range.isRangeInRanges(cfRange, ranges) && !Range.isTokenInRanges(cfMetaData.domainMinToken, ranges) )
                 {
-                    logger.debug(cfStore.getColumnFamilyName()+"' range "+cfRange+" contained fully in "+ranges);
-                
-                    return doLinkReaders( cfStore, cfStore.getSSTables(), target);
-        
-                } else
+                    logger.debug(cfStore.getColumnFamilyName()+"' range "+cfRange+" is completely out of "+ranges);
+
+                    return Collections.emptyList(); // this CF is out of ranges completely
+                }
+
+                // sstables must not be compacted away, until they are linked or anticompacted
+                Collection<SSTableReader> sstables = markAllCompacting(cfStore);
+                try
                 {
-                    if ( cfMetaData.domainSplit && !Range.isTokenInRanges(cfMetaData.domainMinToken, ranges) )
+                    if ( cfMetaData.domainSplit && Range.isRangeInRanges(cfRange, ranges))
                     {
-                        logger.debug(cfStore.getColumnFamilyName()+"' range "+cfRange+" is completely out of "+ranges);
-                    
-                        return Collections.emptyList(); // this CF is out of ranges completely
-                    
-                    } else
-                        return doAntiCompaction(cfStore, cfStore.getSSTables(), ranges, target);
+                        logger.debug(cfStore.getColumnFamilyName()+"' range "+cfRange+" contained fully in "+ranges);
+
+                        return doLinkReaders( cfStore, sstables, target);
+                    }
+                    return doAntiCompaction(cfStore, sstables, ranges, target);
+                }
+                finally
+                {
+                    unmarkCompacting(cfStore, sstables);
                 }
             }
         };
@@ -189,6 +316,22 @@ public class CompactionManager implements CompactionManagerMBean
         return executor.submit(callable);
     }
 
+    /**
+     * Anticompacts just the given sstables for streaming to target. Caller must hold them until it is done,
+     * so that they are not deleted if compacted meanwhile.
+     */
+    public Future<List<String>> submitAnticompaction(final ColumnFamilyStore cfStore, final Collection<SSTableReader> sstables, final Collection<Range> ranges, final InetAddress target)
+    {
+        Callable<List<String>> callable = new Callable<List<String>>()
+        {
+            public List<String> call() throws IOException
+            {
+                return doAntiCompaction(cfStore, sstables, ranges, target);
+            }
+        };
+        return executor.submit(callable);
+    }
+
     public Future submitMajor(final ColumnFamilyStore cfStore)
     {
         return submitMajor(cfStore, 0, getDefaultGcBefore(cfStore));
@@ -200,24 +343,32 @@ public class CompactionManager implements CompactionManagerMBean
         {
             public Object call() throws IOException
             {
-                Collection<SSTableReader> sstables;
-                if (skip > 0)
+                Collection<SSTableReader> marked = markAllCompacting(cfStore);
+                try
                 {
-                    sstables = new ArrayList<SSTableReader>();
-                    for (SSTableReader sstable : cfStore.getSSTables())
+                    Collection<SSTableReader> sstables;
+                    if (skip > 0)
                     {
-                        if (sstable.length() < skip * 1024L * 1024L * 1024L)
+                        sstables = new ArrayList<SSTableReader>();
+                        for (SSTableReader sstable : marked)
                         {
-                            sstables.add(sstable);
+                            if (sstable.length() < skip * 1024L * 1024L * 1024L)
+                            {
+                                sstables.add(sstable);
+                            }
                         }
                     }
+                    else
+                    {
+                        sstables = marked;
+                    }
+
+                    doCompaction(cfStore, sstables, gcBefore);
                 }
-                else
+                finally
                 {
-                    sstables = cfStore.getSSTables();
+                    unmarkCompacting(cfStore, marked);
                 }
-
-                doCompaction(cfStore, sstables, gcBefore);
                 return this;
             }
         };
@@ -277,7 +428,7 @@ public class CompactionManager implements CompactionManagerMBean
 
     /**
      * For internal use and testing only.  The rest of the system should go through the submit* methods,
-     * which are properly serialized.
+     * which mark sstables compacting, so concurrent compactions do not pick them.
      */
     int doCompaction(ColumnFamilyStore cfs, Collection<SSTableReader> sstables, int gcBefore) throws IOException
     {
@@ -304,9 +455,9 @@ public class CompactionManager implements CompactionManagerMBean
         }
         sstables = smallerSSTables;
 
-        // new sstables from flush can be added during a compaction, but only the compaction can remove them,
-        // so in our single-threaded compaction world this is a valid way of determining if we're compacting
-        // all the sstables (that existed when we started)
+        // new sstables from flush can be added during a compaction, but only the compaction holding them can
+        // remove them, and other compactions of this CF replace their sstables by new ones, so this is a valid way
+        // of determining if we're compacting all the sstables (that existed when we started)
         boolean major = cfs.isCompleteSSTables(sstables);
 
         long startTime = System.currentTimeMillis();
@@ -314,69 +465,91 @@ public class CompactionManager implements CompactionManagerMBean
 
         boolean columnBloom = cfs.metadata.bloomColumns;
         
-        final long expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), SSTableReader.getApproximateKeyCount(sstables, columnBloom));
+        long expectedKeys = SSTableReader.getApproximateKeyCount(sstables, columnBloom);
+        // when output is split into several sstables, size bloom filters for keys of a single one
+        long maxSSTableSize = cfs.getCompactionStrategy().getMaxSSTableSize();
+        long expectedSize = SSTable.getTotalBytes(sstables);
+        if (maxSSTableSize < expectedSize)
+            expectedKeys = (long) (expectedKeys * ((double) maxSSTableSize / expectedSize)) + 1;
+        final long expectedBloomFilterSize = Math.max(DatabaseDescriptor.getIndexInterval(), expectedKeys);
         if (logger.isDebugEnabled())
           logger.debug("Expected bloom filter size : " + expectedBloomFilterSize);
 
         IRowProcessor chain = new RowProcessorChain().add( new RemoveDeletedRowProcessor(gcBefore) ).addAll(cfs.metadata.rowProcessors).build();
         
-        String newFilename = new File(compactionFileLocation, cfs.getTempSSTableFileName()).getAbsolutePath();
-        CompactionWriterIterator ci = new CompactionWriterIterator(cfs, sstables, chain, major, newFilename, expectedBloomFilterSize ); 
-        Iterator<CompactionIterator.CompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
-
-        executor.beginCompaction(cfs, ci);
-
-        Map<DecoratedKey, SSTable.PositionSize> cachedKeys = new HashMap<DecoratedKey, SSTable.PositionSize>();
+        CompactionInfo info = beginCompaction(cfs, "compaction", sstables, compactionFileLocation);
+        // cached keys per output sstable
+        List<Map<DecoratedKey, SSTable.PositionSize>> cachedKeys = new ArrayList<Map<DecoratedKey, SSTable.PositionSize>>();
         boolean preheatKeyCache = Boolean.getBoolean("compaction_preheat_key_cache");
+        List<SSTableReader> newSSTables;
 
         try
         {
-            if (!nni.hasNext())
-            {
-                // don't mark compacted in the finally block, since if there _is_ nondeleted data,
-                // we need to sync it (via closeAndOpen) first, so there is no period during which
-                // a crash could cause data loss.
-                cfs.markCompacted(sstables);
-                return 0;
-            }
+            String newFilename = new File(compactionFileLocation, cfs.getTempSSTableFileName()).getAbsolutePath();
+            CompactionWriterIterator ci = new CompactionWriterIterator(cfs, sstables, chain, major, newFilename, expectedBloomFilterSize );
+            ci.setMaxSSTableSize(maxSSTableSize);
+            Iterator<CompactionIterator.CompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
+            info.ci = ci;
 
-            
-            while (nni.hasNext())
+            try
             {
-                CompactionIterator.CompactedRow row = nni.next();
-                totalkeysWritten++;
+                if (!nni.hasNext())
+                {
+                    // don't mark compacted in the finally block, since if there _is_ nondeleted data,
+                    // we need to sync it (via closeAndOpen) first, so there is no period during which
+                    // a crash could cause data loss.
+                    cfs.markCompacted(sstables);
+                    return 0;
+                }
 
-                if (row.rowSize > DatabaseDescriptor.getRowWarningThreshold())
-                    logger.warn("Large row " + row.key.key + " in " + cfs.getColumnFamilyName() + " " +  row.rowSize + " bytes");
-                cfs.addToCompactedRowStats(row.rowSize);
 
-                if (preheatKeyCache)
+                while (nni.hasNext())
                 {
-                    for (SSTableReader sstable : sstables)
+                    CompactionIterator.CompactedRow row = nni.next();
+                    totalkeysWritten++;
+
+                    if (row.rowSize > DatabaseDescriptor.getRowWarningThreshold())
+                        logger.warn("Large row " + row.key.key + " in " + cfs.getColumnFamilyName() + " " +  row.rowSize + " bytes");
+                    cfs.addToCompactedRowStats(row.rowSize);
+
+                    if (preheatKeyCache)
                     {
-                        if (sstable.getCachedPosition(row.key) != null)
+                        for (SSTableReader sstable : sstables)
                         {
-                            cachedKeys.put(row.key, new SSTable.PositionSize(row.rowPosition, row.rowSize));
-                            break;
+                            if (sstable.getCachedPosition(row.key) != null)
+                            {
+                                while (cachedKeys.size() <= ci.getLastRowOutput())
+                                    cachedKeys.add(new HashMap<DecoratedKey, SSTable.PositionSize>());
+                                cachedKeys.get(ci.getLastRowOutput()).put(row.key, new SSTable.PositionSize(row.rowPosition, row.rowSize));
+                                break;
+                            }
                         }
                     }
                 }
             }
+            finally
+            {
+                ci.close();
+            }
+
+            newSSTables = ci.closeAndOpenReaders();
         }
         finally
         {
-            ci.close();
+            endCompaction(info);
         }
 
-        SSTableReader ssTable = ci.closeAndOpenReader();
-        cfs.replaceCompactedSSTables(sstables, Arrays.asList(ssTable));
-        for (Entry<DecoratedKey, SSTable.PositionSize> entry : cachedKeys.entrySet()) // empty if preheat is off
-            ssTable.cacheKey(entry.getKey(), entry.getValue());
+        cfs.replaceCompactedSSTables(sstables, newSSTables);
+        for (int i = 0; i < cachedKeys.size(); i++) // empty if preheat is off
+        {
+            for (Entry<DecoratedKey, SSTable.PositionSize> entry : cachedKeys.get(i).entrySet())
+                newSSTables.get(i).cacheKey(entry.getKey(), entry.getValue());
+        }
         submitMinorIfNeeded(cfs);
 
         String format = "Compacted to %s.  %d/%d bytes for %d keys.  Time: %dms";
         long dTime = System.currentTimeMillis() - startTime;
-        logger.info(String.format(format, ssTable.getFilename() , SSTable.getTotalBytes(sstables), ssTable.length(), totalkeysWritten, dTime));
+        logger.info(String.format(format, StringUtils.join(newSSTables, ","), SSTable.getTotalBytes(sstables), SSTable.getTotalBytes(newSSTables), totalkeysWritten, dTime));
         return sstables.size();
     }
 
@@ -410,21 +583,30 @@ public class CompactionManager implements CompactionManagerMBean
         FileUtils.createDirectory(compactionFileLocation);
         String newFilename = new File(compactionFileLocation, cfs.getTempSSTableFileName()).getAbsolutePath();
 
-        AntiCompactionIterator ci = new AntiCompactionIterator(cfs, sstables, ranges, getDefaultGcBefore(cfs), cfs.isCompleteSSTables(sstables),newFilename, expectedBloomFilterSize);
-        Iterator<CompactionIterator.CompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
-        executor.beginCompaction(cfs, ci);
-
+        AntiCompactionIterator ci;
+        CompactionInfo info = beginCompaction(cfs, target == null ? "cleanup" : "anticompaction", sstables, compactionFileLocation);
         try
         {
-            while (nni.hasNext())
+            ci = new AntiCompactionIterator(cfs, sstables, ranges, getDefaultGcBefore(cfs), cfs.isCompleteSSTables(sstables),newFilename, expectedBloomFilterSize);
+            Iterator<CompactionIterator.CompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
+            info.ci = ci;
+
+            try
             {
-                CompactionIterator.CompactedRow row = nni.next();
-                totalKeysWritten++;
+                while (nni.hasNext())
+                {
+                    CompactionIterator.CompactedRow row = nni.next();
+                    totalKeysWritten++;
+                }
+            }
+            finally
+            {
+                ci.close();
             }
         }
         finally
         {
-            ci.close();
+            endCompaction(info);
         }
         
         if (ci.writer() != null) {
@@ -531,9 +713,8 @@ public class CompactionManager implements CompactionManagerMBean
      *
      * @throws IOException
      */
-    private void doCleanupCompaction(ColumnFamilyStore cfs) throws IOException
+    private void doCleanupCompaction(ColumnFamilyStore cfs, Collection<SSTableReader> originalSSTables) throws IOException
     {
-        Collection<SSTableReader> originalSSTables = cfs.getSSTables();
         List<SSTableReader> sstables = doAntiCompactionReturnReaders(cfs, originalSSTables, StorageService.instance.getLocalRanges(cfs.getTable().name), null);
         if (!sstables.isEmpty())
         {
@@ -545,17 +726,11 @@ public class CompactionManager implements CompactionManagerMBean
      * Cleaning up sstables by removing it.
      * 
      * @param cfStore
+     * @param sstables
      * @throws IOException 
      */
-    protected void doCleanupDelete(ColumnFamilyStore cfs) throws IOException
+    protected void doCleanupDelete(ColumnFamilyStore cfs, Collection<SSTableReader> sstables) throws IOException
     {
-        try {
-            cfs.forceBlockingFlush();
-        } catch (Exception e) {
-            logger.error("Flush prior cleanup failed. Still continuing with cleanup",e);
-        }
-        Collection<SSTableReader> sstables = cfs.getSSTables();
-        
         if (sstables.isEmpty())
             return;
         
@@ -588,7 +763,8 @@ public class CompactionManager implements CompactionManagerMBean
             protected void finishRowWrite(CompactedRow compactedRow) {};
         };
         
-        executor.beginCompaction(cfs, ci);
+        CompactionInfo info = beginCompaction(cfs, "validation", sstables, null);
+        info.ci = ci;
         try
         {
             Iterator<CompactionIterator.CompactedRow> nni = new FilterIterator(ci, PredicateUtils.notNullPredicate());
@@ -605,6 +781,7 @@ public class CompactionManager implements CompactionManagerMBean
         finally
         {
             ci.close();
+            endCompaction(info);
         }
     }
 
@@ -665,7 +842,7 @@ public class CompactionManager implements CompactionManagerMBean
         return buckets.keySet();
     }
 
-    private static Collection<Pair<SSTableReader, Long>> convertSSTablesToPairs(Collection<SSTableReader> collection)
+    static Collection<Pair<SSTableReader, Long>> convertSSTablesToPairs(Collection<SSTableReader> collection)
     {
         Collection<Pair<SSTableReader, Long>> tablePairs = new HashSet<Pair<SSTableReader, Long>>();
         for(SSTableReader table: collection)
@@ -739,9 +916,7 @@ public class CompactionManager implements CompactionManagerMBean
                 {
                     logger.debug("Estimating compactions for " + cfs.columnFamily_);
 
-                    final Set<List<SSTableReader>> buckets =
-                            getBuckets(convertSSTablesToPairs(cfs.getSSTables()), 50L * 1024L * 1024L);
-                    updateEstimateFor(cfs, buckets);
+                    updateEstimateFor(cfs, cfs.getSSTables());
                 }
             };
             executor.submit(runnable);
@@ -766,71 +941,172 @@ public class CompactionManager implements CompactionManagerMBean
         }
     }
 
-    private class CompactionExecutor extends DebuggableThreadPoolExecutor
+    /**
+     * Registers compaction in progress. If it writes to data directory, waits until less than
+     * maxCompactionsPerDisk compactions write there.
+     *
+     * @param location directory compaction writes to; null if it writes nothing
+     */
+    private CompactionInfo beginCompaction(ColumnFamilyStore cfs, String type, Collection<SSTableReader> sstables, String location)
     {
-        private volatile ColumnFamilyStore cfs;
-        private volatile CompactionIterator ci;
-
-        public CompactionExecutor()
+        int disk = -1;
+        if (location != null)
         {
-            super("COMPACTION-POOL", DatabaseDescriptor.getCompactionPriority());
+            disk = FlushWriters.instance.diskOf(location);
+            synchronized (writingCompactions)
+            {
+                while (writingCompactions[disk] >= maxCompactionsPerDisk)
+                {
+                    try
+                    {
+                        writingCompactions.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new AssertionError(e);
+                    }
+                }
+                writingCompactions[disk]++;
+            }
         }
 
-        @Override
-        public void afterExecute(Runnable r, Throwable t)
+        Set<String> readDirectories = new TreeSet<String>();
+        for (SSTableReader sstable : sstables)
+            readDirectories.add(dataDirectories[FlushWriters.instance.diskOf(sstable.getFilename())]);
+
+        CompactionInfo info = new CompactionInfo(cfs, type, readDirectories, disk < 0 ? null : dataDirectories[disk], disk);
+        inProgress.add(info);
+        return info;
+    }
+
+    private void endCompaction(CompactionInfo info)
+    {
+        inProgress.remove(info);
+        if (info.disk >= 0)
         {
-            super.afterExecute(r, t);
-            cfs = null;
-            ci = null;
+            synchronized (writingCompactions)
+            {
+                writingCompactions[info.disk]--;
+                writingCompactions.notifyAll();
+            }
         }
+    }
 
-        void beginCompaction(ColumnFamilyStore cfs, CompactionIterator ci)
+    private static class CompactionExecutor extends DebuggableThreadPoolExecutor
+    {
+        public CompactionExecutor(int threads)
         {
-            this.cfs = cfs;
-            this.ci = ci;
+            super(threads,
+                  threads,
+                  Integer.MAX_VALUE,
+                  TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<Runnable>(),
+                  new NamedThreadFactory("COMPACTION-POOL", DatabaseDescriptor.getCompactionPriority()));
         }
+    }
 
-        public String getColumnFamilyName()
+    private static class CompactionInfo
+    {
+        private final ColumnFamilyStore cfs;
+        private final String type;
+        private final Set<String> readDirectories;
+        private final String writeDirectory;
+        private final int disk;
+        private volatile CompactionIterator ci;
+
+        CompactionInfo(ColumnFamilyStore cfs, String type, Set<String> readDirectories, String writeDirectory, int disk)
         {
-            return cfs == null ? null : cfs.getColumnFamilyName();
+            this.cfs = cfs;
+            this.type = type;
+            this.readDirectories = readDirectories;
+            this.writeDirectory = writeDirectory;
+            this.disk = disk;
         }
 
-        public Long getBytesTotal()
+        Long getBytesTotal()
         {
+            CompactionIterator ci = this.ci;
             return ci == null ? null : ci.getTotalBytes();
         }
 
-        public Long getBytesCompleted()
+        Long getBytesCompleted()
         {
+            CompactionIterator ci = this.ci;
             return ci == null ? null : ci.getBytesRead();
         }
-        
-        public boolean isMajor()
+
+        boolean isMajor()
         {
+            CompactionIterator ci = this.ci;
             return ci == null ? false : ci.isMajor();
         }
-        
-        
+
+        public String toString()
+        {
+            return String.format("%s%s of %s.%s, progress %s/%s, reading %s%s",
+                                 isMajor() ? "major " : "",
+                                 type,
+                                 cfs.getTable().name,
+                                 cfs.getColumnFamilyName(),
+                                 getBytesCompleted(),
+                                 getBytesTotal(),
+                                 StringUtils.join(readDirectories, ","),
+                                 writeDirectory == null ? "" : ", writing " + writeDirectory);
+        }
+    }
+
+    private CompactionInfo oldestInProgress()
+    {
+        Iterator<CompactionInfo> iter = inProgress.iterator();
+        return iter.hasNext() ? iter.next() : null;
     }
 
     public String getColumnFamilyInProgress()
     {
-        return executor.getColumnFamilyName();
+        CompactionInfo info = oldestInProgress();
+        return info == null ? null : info.cfs.getColumnFamilyName();
     }
 
     public Long getBytesTotalInProgress()
     {
-        return executor.getBytesTotal();
+        CompactionInfo info = oldestInProgress();
+        return info == null ? null : info.getBytesTotal();
     }
 
     public Long getBytesCompacted()
     {
-        return executor.getBytesCompleted();
+        CompactionInfo info = oldestInProgress();
+        return info == null ? null : info.getBytesCompleted();
     }
     
     public boolean isMajorCompaction()
     {
-        return executor.isMajor();
+        CompactionInfo info = oldestInProgress();
+        return info == null ? false : info.isMajor();
+    }
+
+    public List<String> getCompactionsInProgress()
+    {
+        List<String> compactions = new ArrayList<String>();
+        for (CompactionInfo info : inProgress)
+            compactions.add(info.toString());
+        return compactions;
+    }
+
+    public Map<String, Integer> getWritingCompactions()
+    {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        synchronized (writingCompactions)
+        {
+            for (int i = 0; i < dataDirectories.length; i++)
+                map.put(dataDirectories[i], writingCompactions[i]);
+        }
+        return map;
+    }
+
+    public int getConcurrentCompactors()
+    {
+        return executor.getMaximumPoolSize();
     }
 
     public int getPendingTasks()
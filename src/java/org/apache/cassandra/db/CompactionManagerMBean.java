@@ -18,6 +18,9 @@
 
 package org.apache.cassandra.db;
 
+import java.util.List;
+import java.util.Map;
+
 public interface CompactionManagerMBean
 {    
     /**
@@ -41,25 +44,40 @@ public interface CompactionManagerMBean
     public void setMaximumCompactionThreshold(int threshold);
 
     /**
-     * @return the columnfamily currently being compacted; null if none
+     * @return the columnfamily being compacted longest; null if none
      */
     public String getColumnFamilyInProgress();
 
     /**
-     * @return the total (data, not including index and filter) bytes being compacted; null if none
+     * @return the total (data, not including index and filter) bytes being compacted by the longest running compaction; null if none
      */
     public Long getBytesTotalInProgress();
 
     /**
-     * @return the progress on the current compaction; null if none
+     * @return the progress on the longest running compaction; null if none
      */
     public Long getBytesCompacted();
     
     /**
-     * @return true, if currently running compaction is major, false - minor or no compaction currently running
+     * @return true, if the longest running compaction is major, false - minor or no compaction currently running
      */
     public boolean isMajorCompaction();
 
+    /**
+     * @return description and progress of every compaction currently running
+     */
+    public List<String> getCompactionsInProgress();
+
+    /**
+     * @return number of compactions currently writing to each data directory
+     */
+    public Map<String, Integer> getWritingCompactions();
+
+    /**
+     * @return number of compactions, which may run at the same time
+     */
+    public int getConcurrentCompactors();
+
     /**
      * @return estimated number of compactions remaining to perform
      */
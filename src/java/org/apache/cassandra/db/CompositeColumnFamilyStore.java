@@ -7,6 +7,9 @@ package org.apache.cassandra.db;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 
 import com.sun.jmx.snmp.tasks.Task;
@@ -151,6 +154,108 @@ public class CompositeColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.apache.cassandra.db.ColumnFamilyStoreMBean#getMemtableLiveSize()
+     */
+    @Override
+    public long getMemtableLiveSize()
+    {
+        try {
+            return traverse(new Task<Long>()
+            {
+                long r=0;
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#process(org.apache.cassandra.db.ColumnFamilyStore)
+                 */
+                @Override
+                public boolean process(ColumnFamilyStore cfs)
+                {
+                    r+=cfs.getMemtableLiveSize();
+                    return true;
+                }
+                
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#result()
+                 */
+                @Override
+                public Long result()
+                {
+                    return r;
+                }
+            });
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.cassandra.db.ColumnFamilyStoreMBean#getMemtablesPendingFlushLiveSize()
+     */
+    @Override
+    public long getMemtablesPendingFlushLiveSize()
+    {
+        try {
+            return traverse(new Task<Long>()
+            {
+                long r=0;
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#process(org.apache.cassandra.db.ColumnFamilyStore)
+                 */
+                @Override
+                public boolean process(ColumnFamilyStore cfs)
+                {
+                    r+=cfs.getMemtablesPendingFlushLiveSize();
+                    return true;
+                }
+                
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#result()
+                 */
+                @Override
+                public Long result()
+                {
+                    return r;
+                }
+            });
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.cassandra.db.ColumnFamilyStoreMBean#getMemtableBudgetSwitchCount()
+     */
+    @Override
+    public int getMemtableBudgetSwitchCount()
+    {
+        try {
+            return traverse(new Task<Integer>()
+            {
+                int r=0;
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#process(org.apache.cassandra.db.ColumnFamilyStore)
+                 */
+                @Override
+                public boolean process(ColumnFamilyStore cfs)
+                {
+                    r+=cfs.getMemtableBudgetSwitchCount();
+                    return true;
+                }
+                
+                /* (non-Javadoc)
+                 * @see org.apache.cassandra.db.CompositeColumnFamilyStore.Task#result()
+                 */
+                @Override
+                public Integer result()
+                {
+                    return r;
+                }
+            });
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apache.cassandra.db.ColumnFamilyStoreMBean#forceFlush()
      */
@@ -1030,4 +1135,57 @@ public class CompositeColumnFamilyStore implements ColumnFamilyStoreMBean
         return 0;
     }
 
+
+    @Override
+    public Map<String, Long> getSSTableOpenTimes()
+    {
+        try {
+            return traverse(new Task<Map<String, Long>>()
+            {
+                Map<String, Long> r = new TreeMap<String, Long>();
+
+                @Override
+                public boolean process(ColumnFamilyStore cfs)
+                {
+                    r.putAll(cfs.getSSTableOpenTimes());
+                    return true;
+                }
+
+                @Override
+                public Map<String, Long> result()
+                {
+                    return r;
+                }
+            });
+        } catch (IOException e) {
+            return new TreeMap<String, Long>();
+        }
+    }
+
+    @Override
+    public List<String> getSSTablesWithRebuiltSummary()
+    {
+        try {
+            return traverse(new Task<List<String>>()
+            {
+                List<String> r = new ArrayList<String>();
+
+                @Override
+                public boolean process(ColumnFamilyStore cfs)
+                {
+                    r.addAll(cfs.getSSTablesWithRebuiltSummary());
+                    return true;
+                }
+
+                @Override
+                public List<String> result()
+                {
+                    return r;
+                }
+            });
+        } catch (IOException e) {
+            return new ArrayList<String>();
+        }
+    }
+
 }
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.SimpleCondition;
+
+/**
+ * Memtable flush writers, one per data directory, so memtables allocated to different disks
+ * are written in parallel, while a single disk is not thrashed by several concurrent flushes.
+ *
+ * Each writer queues at most FlushQueueSize memtables; when more than (FlushQueueSize + 1) memtables per disk
+ * are pending flush in total, writes are blocked in Table.apply until some flush completes. This
+ * keeps memory used by memtables bounded, when disks cannot keep up with the write rate.
+ */
+public class FlushWriters implements FlushWritersMBean
+{
+    public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=FlushWriters";
+    private static final Logger logger = Logger.getLogger(FlushWriters.class);
+    public static final FlushWriters instance;
+
+    static
+    {
+        instance = new FlushWriters(DatabaseDescriptor.getAllDataFileLocations(), DatabaseDescriptor.getFlushQueueSize());
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName(MBEAN_OBJECT_NAME));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final String[] directories;
+    private final ExecutorService[] writers;
+    private final AtomicLong[] pendingBytes;
+    private final AtomicInteger[] pendingFlushes;
+
+    private final int maxPendingFlushes;
+    private final AtomicInteger totalPendingFlushes = new AtomicInteger(0);
+    private final AtomicLong blockedWrites = new AtomicLong(0);
+
+    FlushWriters(String[] dataFileDirectories, int queueSize)
+    {
+        directories = new String[dataFileDirectories.length];
+        writers = new ExecutorService[dataFileDirectories.length];
+        pendingBytes = new AtomicLong[dataFileDirectories.length];
+        pendingFlushes = new AtomicInteger[dataFileDirectories.length];
+        for (int i = 0; i < dataFileDirectories.length; i++)
+        {
+            directories[i] = new File(dataFileDirectories[i]).getAbsolutePath();
+            // single thread pool blocks submitter, when queue is full
+            writers[i] = new JMXEnabledThreadPoolExecutor(1,
+                                                          1,
+                                                          Integer.MAX_VALUE,
+                                                          TimeUnit.SECONDS,
+                                                          new LinkedBlockingQueue<Runnable>(queueSize),
+                                                          new NamedThreadFactory(i == 0 ? "FLUSH-WRITER-POOL" : "FLUSH-WRITER-POOL-" + i,
+                                                                                 DatabaseDescriptor.getCompactionPriority()));
+            pendingBytes[i] = new AtomicLong(0);
+            pendingFlushes[i] = new AtomicInteger(0);
+        }
+        maxPendingFlushes = dataFileDirectories.length * (queueSize + 1);
+    }
+
+    /**
+     * @param location table directory, as returned by DiskAllocator, or null
+     * @return index of data directory, which location is on
+     */
+    int diskOf(String location)
+    {
+        if (location != null)
+        {
+            for (int i = 0; i < directories.length; i++)
+            {
+                if (location.startsWith(directories[i] + File.separator))
+                    return i;
+            }
+        }
+        return 0;
+    }
+
+    ExecutorService writer(int disk)
+    {
+        return writers[disk];
+    }
+
+    /**
+     * Accounts flush of bytes to the disk as pending until returned condition is signalled by flush.
+     */
+    Condition startFlush(final int disk, final long bytes)
+    {
+        pendingBytes[disk].addAndGet(bytes);
+        pendingFlushes[disk].incrementAndGet();
+        totalPendingFlushes.incrementAndGet();
+
+        return new SimpleCondition()
+        {
+            @Override
+            public synchronized void signalAll()
+            {
+                if (isSignaled())
+                    return;
+                pendingBytes[disk].addAndGet(-bytes);
+                pendingFlushes[disk].decrementAndGet();
+                flushCompleted();
+                super.signalAll();
+            }
+        };
+    }
+
+    private void flushCompleted()
+    {
+        if (totalPendingFlushes.decrementAndGet() <= maxPendingFlushes)
+        {
+            synchronized (totalPendingFlushes)
+            {
+                totalPendingFlushes.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks caller, while too many memtables are waiting for flush.
+     * Must not be called holding memtable reserved for write, as flush waits for all such writes.
+     */
+    void awaitFlushCapacity()
+    {
+        if (totalPendingFlushes.get() <= maxPendingFlushes)
+            return;
+
+        blockedWrites.incrementAndGet();
+        if (logger.isDebugEnabled())
+            logger.debug("Too many memtables pending flush; blocking write");
+
+        synchronized (totalPendingFlushes)
+        {
+            while (totalPendingFlushes.get() > maxPendingFlushes)
+            {
+                try
+                {
+                    totalPendingFlushes.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+
+    public Map<String, Long> getPendingFlushBytes()
+    {
+        Map<String, Long> map = new HashMap<String, Long>();
+        for (int i = 0; i < directories.length; i++)
+            map.put(directories[i], pendingBytes[i].get());
+        return map;
+    }
+
+    public Map<String, Integer> getPendingFlushes()
+    {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        for (int i = 0; i < directories.length; i++)
+            map.put(directories[i], pendingFlushes[i].get());
+        return map;
+    }
+
+    public int getMaxPendingFlushes()
+    {
+        return maxPendingFlushes;
+    }
+
+    public long getBlockedWrites()
+    {
+        return blockedWrites.get();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.SSTableReader;
+
+/**
+ * Picks sstables of a column family for minor compactions (CompactionStrategy attribute of ColumnFamily).
+ *
+ * Several compactions of a column family may run at once, so sstables being compacted must not be picked again.
+ * CompactionManager calls getNextBackgroundSSTables under its lock, so a strategy sees one call at a time.
+ */
+public interface ICompactionStrategy
+{
+    /**
+     * @param sstables all live sstables of the column family
+     * @param compacting sstables of the column family, which are being compacted now
+     * @return sstables to compact next; null if no compaction is needed
+     */
+    List<SSTableReader> getNextBackgroundSSTables(Collection<SSTableReader> sstables, Set<SSTableReader> compacting, int minThreshold, int maxThreshold);
+
+    /**
+     * @return estimated number of minor compactions needed
+     */
+    int getEstimatedRemainingTasks(Collection<SSTableReader> sstables, int minThreshold, int maxThreshold);
+
+    /**
+     * @return size of sstables compaction output is split into; Long.MAX_VALUE to write a single sstable
+     */
+    long getMaxSSTableSize();
+
+    /**
+     * Called after removed sstables are replaced by added ones in the column family: by flush or streaming
+     * (nothing removed), by compaction or by cleanup (nothing added).
+     */
+    void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added);
+}
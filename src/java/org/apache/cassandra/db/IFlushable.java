@@ -26,5 +26,13 @@ import java.util.concurrent.locks.Condition;
 
 public interface IFlushable
 {
-    public void flushAndSignal(Condition condition, ExecutorService sorter, ExecutorService writer);
+    /**
+     * @param location table directory to flush to, chosen by DiskAllocator; null if none has enough space now
+     */
+    public void flushAndSignal(Condition condition, ExecutorService sorter, ExecutorService writer, String location);
+
+    /**
+     * @return serialized bytes to write
+     */
+    public int getCurrentThroughput();
 }
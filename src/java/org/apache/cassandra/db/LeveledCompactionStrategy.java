@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.SSTableReader;
+
+/**
+ * Compacts sstables into levels of fixed size, non-overlapping sstables (see LeveledManifest), so a read
+ * touches at most one sstable per level plus level 0 ones. Costs about twice as much compaction I/O as
+ * size-tiered strategy, so it fits read-heavy column families with frequently updated rows.
+ */
+public class LeveledCompactionStrategy implements ICompactionStrategy
+{
+    private final long maxSSTableSize;
+    private final LeveledManifest manifest;
+
+    public LeveledCompactionStrategy(File manifestFile, int sstableSizeInMB, Collection<SSTableReader> sstables)
+    {
+        maxSSTableSize = sstableSizeInMB * 1024L * 1024L;
+        manifest = LeveledManifest.create(manifestFile, maxSSTableSize, sstables);
+    }
+
+    public List<SSTableReader> getNextBackgroundSSTables(Collection<SSTableReader> sstables, Set<SSTableReader> compacting, int minThreshold, int maxThreshold)
+    {
+        return manifest.getCompactionCandidates(compacting, minThreshold, maxThreshold);
+    }
+
+    public int getEstimatedRemainingTasks(Collection<SSTableReader> sstables, int minThreshold, int maxThreshold)
+    {
+        return manifest.getEstimatedTasks(minThreshold, maxThreshold);
+    }
+
+    public long getMaxSSTableSize()
+    {
+        return maxSSTableSize;
+    }
+
+    public void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added)
+    {
+        manifest.replaced(removed, added);
+    }
+
+    public LeveledManifest getManifest()
+    {
+        return manifest;
+    }
+}
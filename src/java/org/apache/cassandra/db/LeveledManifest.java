@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONValue;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.SSTable;
+import org.apache.cassandra.io.SSTableReader;
+
+/**
+ * Levels of sstables of a column family, compacted by LeveledCompactionStrategy.
+ *
+ * Level 0 holds flushed sstables, which may overlap. Each next level holds non-overlapping sstables of
+ * about maxSSTableSize bytes, and is 10 times larger than the previous one: level N holds up to 10^N sstables.
+ * When level 0 has minThreshold sstables, they are compacted together with overlapping sstables of level 1
+ * into level 1. When level N grows over its size, one of its sstables is compacted with overlapping sstables
+ * of level N+1 into level N+1, taking sstables of the level in turn by key. So a key is in at most one sstable
+ * per level above 0.
+ *
+ * Levels are saved to the manifest file <CF>.json in the first data directory of the table, by sstable
+ * generation. SSTables missing from the manifest (e.g. written before crash) are on level 0.
+ *
+ * Compaction candidates are picked from sstables known to the manifest rather than from the column family,
+ * because the manifest learns about replaced sstables a bit later: this way a picker never sees compacted
+ * sstables already replaced but not yet leveled, which could make its output overlap them.
+ */
+public class LeveledManifest
+{
+    private static final Logger logger = Logger.getLogger(LeveledManifest.class);
+
+    static final int MAX_LEVELS = 9;
+
+    private final File manifestFile;
+    private final long maxSSTableSize;
+    private final Map<SSTableReader, Integer> levels = new HashMap<SSTableReader, Integer>();
+    /** first key of sstable of each level, which was compacted to the next level last time */
+    private final DecoratedKey[] lastCompactedKeys = new DecoratedKey[MAX_LEVELS];
+
+    LeveledManifest(File manifestFile, long maxSSTableSize)
+    {
+        this.manifestFile = manifestFile;
+        this.maxSSTableSize = maxSSTableSize;
+    }
+
+    public static File manifestFile(String table, String columnFamily)
+    {
+        return new File(DatabaseDescriptor.getAllDataFileLocationsForTable(table)[0], columnFamily + ".json");
+    }
+
+    /**
+     * Reads levels of sstables from manifest file. SSTables, which overlap others of their level, are put
+     * to level 0, so a stale manifest cannot break the invariant.
+     */
+    static LeveledManifest create(File manifestFile, long maxSSTableSize, Collection<SSTableReader> sstables)
+    {
+        LeveledManifest manifest = new LeveledManifest(manifestFile, maxSSTableSize);
+        Map<Integer, Integer> saved = load(manifestFile);
+
+        List<SSTableReader>[] byLevel = manifest.newLevels();
+        for (SSTableReader sstable : sstables)
+        {
+            Integer level = saved.get(generation(sstable));
+            byLevel[level == null || level >= MAX_LEVELS ? 0 : level].add(sstable);
+        }
+
+        for (int level = 0; level < MAX_LEVELS; level++)
+        {
+            Collections.sort(byLevel[level], FIRST_KEY_COMPARATOR);
+            SSTableReader previous = null;
+            for (SSTableReader sstable : byLevel[level])
+            {
+                if (level > 0 && (sstable.getFirstKey() == null || previous != null && previous.getLastKey().compareTo(sstable.getFirstKey()) >= 0))
+                {
+                    logger.warn(sstable + " overlaps " + previous + " on level " + level + "; moving it to level 0");
+                    manifest.levels.put(sstable, 0);
+                    continue;
+                }
+                manifest.levels.put(sstable, level);
+                previous = sstable;
+            }
+        }
+        return manifest;
+    }
+
+    private static Map<Integer, Integer> load(File manifestFile)
+    {
+        Map<Integer, Integer> generations = new HashMap<Integer, Integer>();
+        if (!manifestFile.exists())
+            return generations;
+
+        try
+        {
+            Reader reader = new FileReader(manifestFile);
+            try
+            {
+                Map manifest = (Map) JSONValue.parse(reader);
+                for (Object o : (List) manifest.get("levels"))
+                {
+                    Map level = (Map) o;
+                    int number = ((Number) level.get("level")).intValue();
+                    for (Object generation : (List) level.get("members"))
+                        generations.put(((Number) generation).intValue(), number);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Cannot read " + manifestFile + "; all sstables are put to level 0", e);
+            generations.clear();
+        }
+        return generations;
+    }
+
+    private synchronized void save()
+    {
+        List<Map<String, Object>> levelList = new ArrayList<Map<String, Object>>();
+        List<SSTableReader>[] byLevel = byLevel(levels.keySet());
+        for (int level = 0; level < MAX_LEVELS; level++)
+        {
+            if (byLevel[level].isEmpty())
+                continue;
+
+            List<Integer> members = new ArrayList<Integer>();
+            for (SSTableReader sstable : byLevel[level])
+                members.add(generation(sstable));
+            Map<String, Object> levelMap = new LinkedHashMap<String, Object>();
+            levelMap.put("level", level);
+            levelMap.put("members", members);
+            levelList.add(levelMap);
+        }
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        manifest.put("levels", levelList);
+
+        File tmpFile = new File(manifestFile.getPath() + ".tmp");
+        try
+        {
+            Writer writer = new FileWriter(tmpFile);
+            try
+            {
+                writer.write(JSONValue.toJSONString(manifest));
+            }
+            finally
+            {
+                writer.close();
+            }
+            if (!tmpFile.renameTo(manifestFile))
+            {
+                // rename does not replace existing files on some platforms
+                manifestFile.delete();
+                if (!tmpFile.renameTo(manifestFile))
+                    throw new IOException("Cannot rename " + tmpFile + " to " + manifestFile);
+            }
+        }
+        catch (IOException e)
+        {
+            // sstables will be re-leveled from level 0 after restart
+            logger.error("Cannot save " + manifestFile, e);
+        }
+    }
+
+    synchronized int getLevel(SSTableReader sstable)
+    {
+        Integer level = levels.get(sstable);
+        return level == null ? 0 : level;
+    }
+
+    /**
+     * @return number of sstables on each level
+     */
+    synchronized int[] getLevelSizes()
+    {
+        int[] sizes = new int[MAX_LEVELS];
+        for (Integer level : levels.values())
+            sizes[level]++;
+        return sizes;
+    }
+
+    synchronized void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added)
+    {
+        if (removed.isEmpty())
+        {
+            // flushed or streamed
+            for (SSTableReader sstable : added)
+                levels.put(sstable, 0);
+            return;
+        }
+
+        int minLevel = Integer.MAX_VALUE, maxLevel = 0;
+        for (SSTableReader sstable : removed)
+        {
+            Integer level = levels.remove(sstable);
+            int l = level == null ? 0 : level;
+            minLevel = Math.min(minLevel, l);
+            maxLevel = Math.max(maxLevel, l);
+        }
+
+        if (!added.isEmpty())
+        {
+            // sstables of a single level are promoted to the next one; otherwise they were merged into the upper level
+            int newLevel = Math.min(minLevel == maxLevel ? maxLevel + 1 : maxLevel, MAX_LEVELS - 1);
+            for (Map.Entry<SSTableReader, Integer> entry : levels.entrySet())
+            {
+                if (entry.getValue() == newLevel && overlapsAny(entry.getKey(), added))
+                {
+                    logger.warn("Compacted sstables " + added + " overlap " + entry.getKey() + " on level " + newLevel + "; putting them to level 0");
+                    newLevel = 0;
+                    break;
+                }
+            }
+            for (SSTableReader sstable : added)
+                levels.put(sstable, newLevel);
+
+            if (logger.isDebugEnabled())
+                logger.debug("Leveled " + added + " to level " + newLevel + "; sstables per level " + Arrays.toString(getLevelSizes()));
+        }
+
+        save();
+    }
+
+    /**
+     * @return sstables to compact next, none of which is being compacted, or null if levels are within their sizes
+     */
+    synchronized List<SSTableReader> getCompactionCandidates(Set<SSTableReader> compacting, int minThreshold, int maxThreshold)
+    {
+        List<SSTableReader>[] byLevel = byLevel(levels.keySet());
+
+        // push data out of the upper over-full levels first, so lower levels get room
+        for (int level = MAX_LEVELS - 2; level > 0; level--)
+        {
+            if (SSTable.getTotalBytes(byLevel[level]) <= maxBytesForLevel(level))
+                continue;
+
+            List<SSTableReader> candidates = pickFromLevel(level, byLevel[level], byLevel[level + 1], compacting);
+            if (candidates != null)
+                return candidates;
+        }
+
+        // level 0 sstables overlap each other, so only one compaction of them may run at a time
+        List<SSTableReader> level0 = byLevel[0];
+        if (level0.size() < minThreshold || !Collections.disjoint(level0, compacting))
+            return null;
+
+        // compact older ones first
+        Collections.sort(level0);
+        List<SSTableReader> candidates = new ArrayList<SSTableReader>(level0.subList(0, Math.min(level0.size(), maxThreshold)));
+        DecoratedKey first = null, last = null;
+        for (SSTableReader sstable : candidates)
+        {
+            if (sstable.getFirstKey() == null)
+                continue;
+            if (first == null || sstable.getFirstKey().compareTo(first) < 0)
+                first = sstable.getFirstKey();
+            if (last == null || sstable.getLastKey().compareTo(last) > 0)
+                last = sstable.getLastKey();
+        }
+        List<SSTableReader> overlapping = overlapping(first, last, byLevel[1]);
+        if (!Collections.disjoint(overlapping, compacting))
+            return null;
+
+        candidates.addAll(overlapping);
+        return candidates;
+    }
+
+    private List<SSTableReader> pickFromLevel(int level, List<SSTableReader> sstables, List<SSTableReader> nextLevel, Set<SSTableReader> compacting)
+    {
+        Collections.sort(sstables, FIRST_KEY_COMPARATOR);
+
+        // continue from the key compacted last time
+        int start = 0;
+        if (lastCompactedKeys[level] != null)
+        {
+            while (start < sstables.size() && sstables.get(start).getFirstKey().compareTo(lastCompactedKeys[level]) <= 0)
+                start++;
+        }
+
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            SSTableReader sstable = sstables.get((start + i) % sstables.size());
+            if (compacting.contains(sstable))
+                continue;
+
+            List<SSTableReader> overlapping = overlapping(sstable.getFirstKey(), sstable.getLastKey(), nextLevel);
+            if (!Collections.disjoint(overlapping, compacting))
+                continue;
+
+            lastCompactedKeys[level] = sstable.getFirstKey();
+            List<SSTableReader> candidates = new ArrayList<SSTableReader>(overlapping.size() + 1);
+            candidates.add(sstable);
+            candidates.addAll(overlapping);
+            return candidates;
+        }
+        return null;
+    }
+
+    synchronized int getEstimatedTasks(int minThreshold, int maxThreshold)
+    {
+        List<SSTableReader>[] byLevel = byLevel(levels.keySet());
+        int n = byLevel[0].size() >= minThreshold ? 1 + byLevel[0].size() / Math.max(1, maxThreshold) : 0;
+        for (int level = 1; level < MAX_LEVELS - 1; level++)
+        {
+            long excess = SSTable.getTotalBytes(byLevel[level]) - maxBytesForLevel(level);
+            if (excess > 0)
+                n += (int) ((excess + maxSSTableSize - 1) / maxSSTableSize);
+        }
+        return n;
+    }
+
+    long maxBytesForLevel(int level)
+    {
+        return (long) Math.pow(10, level) * maxSSTableSize;
+    }
+
+    private List<SSTableReader>[] byLevel(Collection<SSTableReader> sstables)
+    {
+        List<SSTableReader>[] byLevel = newLevels();
+        for (SSTableReader sstable : sstables)
+            byLevel[getLevel(sstable)].add(sstable);
+        return byLevel;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<SSTableReader>[] newLevels()
+    {
+        List<SSTableReader>[] byLevel = new List[MAX_LEVELS];
+        for (int level = 0; level < MAX_LEVELS; level++)
+            byLevel[level] = new ArrayList<SSTableReader>();
+        return byLevel;
+    }
+
+    private static List<SSTableReader> overlapping(DecoratedKey first, DecoratedKey last, Collection<SSTableReader> sstables)
+    {
+        List<SSTableReader> overlapping = new ArrayList<SSTableReader>();
+        if (first == null)
+            return overlapping;
+
+        for (SSTableReader sstable : sstables)
+        {
+            if (sstable.getFirstKey() != null && sstable.getFirstKey().compareTo(last) <= 0 && sstable.getLastKey().compareTo(first) >= 0)
+                overlapping.add(sstable);
+        }
+        return overlapping;
+    }
+
+    private static boolean overlapsAny(SSTableReader sstable, Collection<SSTableReader> sstables)
+    {
+        return !overlapping(sstable.getFirstKey(), sstable.getLastKey(), sstables).isEmpty();
+    }
+
+    private static int generation(SSTableReader sstable)
+    {
+        return ColumnFamilyStore.getGenerationFromFileName(sstable.getFilename());
+    }
+
+    private static final Comparator<SSTableReader> FIRST_KEY_COMPARATOR = new Comparator<SSTableReader>()
+    {
+        public int compare(SSTableReader o1, SSTableReader o2)
+        {
+            if (o1.getFirstKey() == null)
+                return o2.getFirstKey() == null ? 0 : -1;
+            if (o2.getFirstKey() == null)
+                return 1;
+            return o1.getFirstKey().compareTo(o2.getFirstKey());
+        }
+    };
+}
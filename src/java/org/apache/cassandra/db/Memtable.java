@@ -21,13 +21,16 @@ package org.apache.cassandra.db;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 
 import org.apache.log4j.Logger;
@@ -44,6 +47,8 @@ import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.io.SSTableWriter;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.SimpleCondition;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 public class Memtable implements Comparable<Memtable>, IFlushable
@@ -51,17 +56,40 @@ public class Memtable implements Comparable<Memtable>, IFlushable
     private static final Logger logger = Logger.getLogger(Memtable.class);
 
     private volatile boolean isFrozen;
+    private final AtomicBoolean isSwitching = new AtomicBoolean(false);
 
-    private final int THRESHOLD = DatabaseDescriptor.getMemtableThroughput() * 1024*1024; // not static since we might want to change at runtime
+    /**
+     * number of writes, which reserved this memtable by {@link #startWrite()} and have not finished yet.
+     * Flush waits for it to drop to 0 after the memtable was frozen.
+     */
+    private final AtomicInteger writers = new AtomicInteger(0);
+    private final SimpleCondition writesCompleted = new SimpleCondition();
+
+    protected final int THRESHOLD = DatabaseDescriptor.getMemtableThroughput() * 1024*1024; // not static since we might want to change at runtime
     private final int THRESHOLD_COUNT = (int)(DatabaseDescriptor.getMemtableOperations() * 1024*1024);
 
     private final AtomicInteger currentThroughput = new AtomicInteger(0);
     private final AtomicInteger currentOperations = new AtomicInteger(0);
 
+    /**
+     * estimated heap bytes taken by contents of this memtable. Overwritten columns are not subtracted,
+     * so it is rather an upper bound
+     */
+    protected final AtomicLong liveSize = new AtomicLong(0);
+
+    /** BigIntegerToken of RandomPartitioner together with its BigInteger */
+    private static final int TOKEN_SIZE = 80;
+    private static final int DECORATED_KEY_SIZE = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 2 * ObjectSizes.REFERENCE) + TOKEN_SIZE;
+    private static final int COLUMN_FAMILY_SIZE = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 7 * ObjectSizes.REFERENCE)
+                                                  + ObjectSizes.ATOMIC_LONG + ObjectSizes.ATOMIC_INTEGER + ObjectSizes.SKIPLIST;
+    private static final int COLUMN_SIZE = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 2 * ObjectSizes.REFERENCE + 8 + 1);
+    private static final int SUPER_COLUMN_SIZE = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 5 * ObjectSizes.REFERENCE)
+                                                 + ObjectSizes.ATOMIC_LONG + ObjectSizes.ATOMIC_INTEGER + ObjectSizes.SKIPLIST;
+
     private final long creationTime;
     private final ConcurrentNavigableMap<DecoratedKey, ColumnFamily> columnFamilies = new ConcurrentSkipListMap<DecoratedKey, ColumnFamily>();
-    private final IPartitioner partitioner = StorageService.getPartitioner();
-    private final ColumnFamilyStore cfs;
+    protected final IPartitioner partitioner = StorageService.getPartitioner();
+    protected final ColumnFamilyStore cfs;
 
     public Memtable(ColumnFamilyStore cfs)
     {
@@ -97,6 +125,20 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         return currentOperations.get();
     }
 
+    /**
+     * @return estimated bytes of memory taken by this memtable. Unlike {@link #getCurrentThroughput()} accounts for
+     * object overhead, which dominates for small columns.
+     */
+    public long getLiveSize()
+    {
+        return liveSize.get();
+    }
+
+    long getCreationTime()
+    {
+        return creationTime;
+    }
+
     boolean isThresholdViolated()
     {
         return currentThroughput.get() >= this.THRESHOLD || currentOperations.get() >= this.THRESHOLD_COUNT;
@@ -107,35 +149,119 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         return isFrozen;
     }
 
+    /**
+     * Memtable can be switched only once; only the thread, which got true here, may do it.
+     */
+    boolean startSwitch()
+    {
+        return isSwitching.compareAndSet(false, true);
+    }
+
+    /**
+     * Makes all subsequent {@link #startWrite()} fail. Writes started before are still allowed to complete.
+     */
     void freeze()
     {
         isFrozen = true;
     }
 
+    /**
+     * Reserves memtable for a write, so it will not be flushed until {@link #finishWrite()}.
+     *
+     * @return false, if memtable is already frozen and a write must go to the fresh one
+     */
+    boolean startWrite()
+    {
+        writers.incrementAndGet();
+        if (isFrozen)
+        {
+            finishWrite();
+            return false;
+        }
+        return true;
+    }
+
+    void finishWrite()
+    {
+        // writer sees isFrozen here, if flush saw it still in progress
+        if (writers.decrementAndGet() == 0 && isFrozen)
+            writesCompleted.signalAll();
+    }
+
+    /**
+     * Waits for writes started before freeze to complete
+     */
+    private void awaitWrites() throws InterruptedException
+    {
+        assert isFrozen;
+        if (writers.get() > 0)
+            writesCompleted.await();
+    }
+
     /**
      * Should only be called by ColumnFamilyStore.apply.  NOT a public API.
-     * (CFS handles locking to avoid submitting an op
-     *  to a flushing memtable.  Any other way is unsafe.)
+     * (caller must reserve memtable by {@link #startWrite()}, so it is not
+     *  flushed concurrently.  Any other way is unsafe.)
     */
     void put(String key, ColumnFamily columnFamily)
     {
-        assert !isFrozen; // not 100% foolproof but hell, it's an assert
-        resolve(key, columnFamily);
+        assert writers.get() > 0; // not 100% foolproof but hell, it's an assert
+        currentThroughput.addAndGet(columnFamily.size());
+        currentOperations.addAndGet((columnFamily.getColumnCount() == 0)
+                ? columnFamily.isMarkedForDelete() ? 1 : 0
+                : columnFamily.getColumnCount());
+
+        resolve(partitioner.decorateKey(key), columnFamily);
     }
 
-    private void resolve(String key, ColumnFamily cf)
+    protected void resolve(DecoratedKey decoratedKey, ColumnFamily cf)
     {
-        currentThroughput.addAndGet(cf.size());
-        currentOperations.addAndGet((cf.getColumnCount() == 0)
-                ? cf.isMarkedForDelete() ? 1 : 0
-                : cf.getColumnCount());
-
-        DecoratedKey decoratedKey = partitioner.decorateKey(key);
         ColumnFamily oldCf = columnFamilies.putIfAbsent(decoratedKey, cf);
         if (oldCf == null)
+        {
+            liveSize.addAndGet(measureKey(decoratedKey) + COLUMN_FAMILY_SIZE + measureColumns(cf.getSortedColumns()));
             return;
+        }
 
         oldCf.resolve(cf);
+        liveSize.addAndGet(measureColumns(cf.getSortedColumns()));
+    }
+
+    /**
+     * @return estimated heap bytes of memtable map entry with the key
+     */
+    protected static long measureKey(DecoratedKey key)
+    {
+        return ObjectSizes.SKIPLIST_ENTRY + DECORATED_KEY_SIZE + ObjectSizes.sizeOf(key.key);
+    }
+
+    private static long measureColumns(Collection<IColumn> columns)
+    {
+        long size = 0;
+        for (IColumn column : columns)
+        {
+            size += ObjectSizes.SKIPLIST_ENTRY + ObjectSizes.sizeOfArray(column.name());
+            if (column instanceof SuperColumn)
+                size += SUPER_COLUMN_SIZE + measureColumns(column.getSubColumns());
+            else
+                size += COLUMN_SIZE + ObjectSizes.sizeOfArray(column.value());
+        }
+        return size;
+    }
+
+    /**
+     * @return number of rows in this memtable
+     */
+    protected int size()
+    {
+        return columnFamilies.size();
+    }
+
+    /**
+     * Called after memtable contents were flushed and became available for reads from sstable.
+     */
+    protected void release()
+    {
     }
 
     // for debugging
@@ -143,8 +269,10 @@ public class Memtable implements Comparable<Memtable>, IFlushable
     {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
-        for (Map.Entry<DecoratedKey, ColumnFamily> entry : columnFamilies.entrySet())
+        Iterator<Map.Entry<DecoratedKey, ColumnFamily>> iter = getEntryIterator();
+        while (iter.hasNext())
         {
+            Map.Entry<DecoratedKey, ColumnFamily> entry = iter.next();
             builder.append(entry.getKey()).append(": ").append(entry.getValue()).append(", ");
         }
         builder.append("}");
@@ -152,12 +280,12 @@ public class Memtable implements Comparable<Memtable>, IFlushable
     }
 
 
-    private SSTableReader writeSortedContents() 
+    private SSTableReader writeSortedContents(String location) 
     {
         BloomFilterWriter bloomFilterWriter = null;
         try {
             logger.info("Writing " + this);
-            SSTableWriter writer = new SSTableWriter(cfs.getFlushPath(), columnFamilies.size(),getCurrentOperations(), StorageService.getPartitioner());
+            SSTableWriter writer = new SSTableWriter(cfs.getFlushPath(location), size(),getCurrentOperations(), StorageService.getPartitioner());
             
             boolean bloomColumns = writer.getBloomFilterWriter().isBloomColumns();
             bloomFilterWriter = writer.getBloomFilterWriter();
@@ -172,8 +300,10 @@ public class Memtable implements Comparable<Memtable>, IFlushable
             }
             
             DataOutputBuffer buffer = new DataOutputBuffer();
-            for (Map.Entry<DecoratedKey, ColumnFamily> entry : columnFamilies.entrySet())
+            Iterator<Map.Entry<DecoratedKey, ColumnFamily>> iter = getEntryIterator();
+            while (iter.hasNext())
             {
+                Map.Entry<DecoratedKey, ColumnFamily> entry = iter.next();
                 buffer.reset();
                 
                 DecoratedKey key = entry.getKey();
@@ -206,16 +336,26 @@ public class Memtable implements Comparable<Memtable>, IFlushable
         }
     }
 
-    public void flushAndSignal(final Condition condition, ExecutorService sorter, final ExecutorService writer)
+    public void flushAndSignal(final Condition condition, ExecutorService sorter, final ExecutorService writer, final String location)
     {
         cfs.getMemtablesPendingFlush().add(this); // it's ok for the MT to briefly be both active and pendingFlush
         writer.submit(new WrappedRunnable()
         {
-            public void runMayThrow() throws IOException
+            public void runMayThrow() throws IOException, InterruptedException
             {
-                cfs.addSSTable(writeSortedContents());
-                cfs.getMemtablesPendingFlush().remove(Memtable.this);
-                condition.signalAll();
+                try
+                {
+                    awaitWrites();
+                    cfs.addSSTable(writeSortedContents(location));
+                    cfs.getMemtablesPendingFlush().remove(Memtable.this);
+                    release();
+                }
+                finally
+                {
+                    // failed flush must give its capacity back too, or writes get blocked for good.
+                    // memtable stays pending flush then, so it is still read and its commit log kept
+                    condition.signalAll();
+                }
             }
         });
     }
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Keeps estimated memory of active memtables of all column families within MemtableTotalSpaceInMB,
+ * switching the largest of them (the oldest of equally sized) when it is exceeded.
+ *
+ * Memtables already being flushed are not counted, because their memory is about to be released anyway;
+ * flushing more of them would not free it any sooner.
+ */
+class MeteredFlusher extends TimerTask
+{
+    private static final Logger logger = Logger.getLogger(MeteredFlusher.class);
+
+    static final long CHECK_INTERVAL_MS = 1000;
+
+    private static final Comparator<Pair<Long, Memtable>> LARGEST_OLDEST_FIRST = new Comparator<Pair<Long, Memtable>>()
+    {
+        public int compare(Pair<Long, Memtable> o1, Pair<Long, Memtable> o2)
+        {
+            int c = o2.left.compareTo(o1.left);
+            return c != 0 ? c : o1.right.compareTo(o2.right);
+        }
+    };
+
+    public void run()
+    {
+        long budget = DatabaseDescriptor.getMemtableTotalSpaceInMB() * 1024L * 1024L;
+        if (budget <= 0)
+            return;
+
+        try
+        {
+            // sizes are changing concurrently, so take a snapshot to sort on
+            List<Pair<Long, Memtable>> memtables = new ArrayList<Pair<Long, Memtable>>();
+            long liveSize = 0;
+            for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+            {
+                Memtable memtable = cfs.getMemtableThreadSafe();
+                long size = memtable.getLiveSize();
+                liveSize += size;
+                memtables.add(new Pair<Long, Memtable>(size, memtable));
+            }
+
+            if (liveSize <= budget)
+                return;
+
+            Collections.sort(memtables, LARGEST_OLDEST_FIRST);
+            for (Pair<Long, Memtable> pair : memtables)
+            {
+                if (liveSize <= budget || pair.left == 0)
+                    break;
+
+                Memtable memtable = pair.right;
+                logger.info(String.format("Estimated size of memtables %s exceeds MemtableTotalSpaceInMB; flushing %s (%s bytes live)",
+                                          liveSize, memtable, pair.left));
+                if (memtable.cfs.maybeSwitchMemtable(memtable, true) != null)
+                    memtable.cfs.memtableBudgetSwitchCount++;
+                liveSize -= pair.left;
+            }
+        }
+        catch (Throwable t)
+        {
+            // dont let it kill the timer thread, which is shared with expired memtables checks
+            logger.error("Error checking memtables size", t);
+        }
+    }
+}
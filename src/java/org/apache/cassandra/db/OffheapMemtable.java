@@ -0,0 +1,332 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.AbstractIterator;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.SlabAllocator;
+
+/**
+ * Memtable, which keeps its rows serialized in off-heap slabs. Only decorated keys and
+ * a long region reference per row stay on heap, so its heap footprint does not depend
+ * on column count nor column sizes.
+ *
+ * Row is stored as a chain of regions, each <int length><long previous region><int base length>
+ * <int delta bytes><cf serialized for sstable>. The last region of the chain is the base, every other one
+ * a delta holding just the columns of one update, so an update of a wide row does not copy the row.
+ * Reads merge the chain. Once deltas of a row outweigh its base, the row is merged into a new base,
+ * so reads do at most twice the work of reading a merged row, and updates copy every byte only a few times.
+ * Superseded regions become garbage, which is reclaimed all at once by freeing the whole arena
+ * after memtable was flushed.
+ *
+ * Activated per column family by MemtableMode="offheap" attribute.
+ */
+public class OffheapMemtable extends Memtable
+{
+    private static final ThreadLocal<DataOutputBuffer> serializeBuffer = new ThreadLocal<DataOutputBuffer>()
+    {
+        @Override
+        protected DataOutputBuffer initialValue()
+        {
+            return new DataOutputBuffer();
+        }
+    };
+
+    /** boxed Long region reference */
+    private static final int ROW_REFERENCE_SIZE = ObjectSizes.align(ObjectSizes.OBJECT_HEADER + 8);
+
+    private final ConcurrentNavigableMap<DecoratedKey, Long> rows = new ConcurrentSkipListMap<DecoratedKey, Long>();
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+    private static final long NO_REGION = -1;
+
+    // replaced only by clearUnsafe
+    private volatile SlabAllocator arena = new SlabAllocator();
+
+    /**
+     * readers hold read lock while copying row out of arena. write lock is acquired only to free it,
+     * so reader of memtable just flushed will either see a row or see memtable as empty
+     * (by then flushed sstable is already visible to it)
+     */
+    private final ReentrantReadWriteLock freeLock = new ReentrantReadWriteLock();
+
+    public OffheapMemtable(ColumnFamilyStore cfs)
+    {
+        super(cfs);
+    }
+
+    @Override
+    protected void resolve(DecoratedKey key, ColumnFamily cf)
+    {
+        while (true)
+        {
+            Long ref = rows.get(key);
+            if (ref == null)
+            {
+                if (rows.putIfAbsent(key, store(cf, NO_REGION, 0)) == null)
+                {
+                    liveSize.addAndGet(measureKey(key) + ROW_REFERENCE_SIZE);
+                    return;
+                }
+                // lost race to another writer of the same key. stored region is garbage now
+                continue;
+            }
+
+            ByteBuffer slab = arena.slab(ref);
+            int offset = SlabAllocator.offset(ref);
+            int baseLength = slab.getInt(offset + 12);
+            int deltaBytes = slab.getInt(offset + 16);
+
+            long updated;
+            if (deltaBytes + cf.size() <= baseLength)
+            {
+                updated = store(cf, ref, deltaBytes);
+            }
+            else
+            {
+                ColumnFamily merged = load(ref);
+                merged.resolve(cf);
+                updated = store(merged, NO_REGION, 0);
+            }
+            if (rows.replace(key, ref, updated))
+                return;
+        }
+    }
+
+    /**
+     * @param previous region, cf is a delta of, or NO_REGION if cf is a complete row
+     * @param deltaBytes bytes of deltas of the chain so far
+     * @return reference to region
+     */
+    private long store(ColumnFamily cf, long previous, int deltaBytes)
+    {
+        DataOutputBuffer buffer = serializeBuffer.get();
+        buffer.reset();
+        try
+        {
+            buffer.writeInt(0); // placeholder for length
+            buffer.writeLong(previous);
+            buffer.writeInt(0); // placeholder for base length
+            buffer.writeInt(0); // placeholder for delta bytes
+            ColumnFamily.serializer().serializeForSSTable(cf, buffer);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        byte[] data = buffer.getData();
+        int length = buffer.getLength() - HEADER_SIZE;
+        int baseLength;
+        if (previous == NO_REGION)
+        {
+            baseLength = length;
+        }
+        else
+        {
+            baseLength = arena.slab(previous).getInt(SlabAllocator.offset(previous) + 12);
+            deltaBytes += length;
+        }
+        putInt(data, 0, length);
+        putInt(data, 12, baseLength);
+        putInt(data, 16, deltaBytes);
+
+        return arena.allocate(data, 0, buffer.getLength());
+    }
+
+    private static void putInt(byte[] data, int offset, int value)
+    {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * must be called with freeLock held or while memtable cannot be freed concurrently
+     *
+     * @return row merged from all regions of the chain
+     */
+    private ColumnFamily load(long ref)
+    {
+        // regions are merged newest first; resolve does not depend on order
+        ColumnFamily cf = null;
+        while (ref != NO_REGION)
+        {
+            ByteBuffer slab = arena.slab(ref);
+            int offset = SlabAllocator.offset(ref);
+            int length = slab.getInt(offset);
+
+            ColumnFamily region = new ColumnFamily(cfs.metadata.cfName, cfs.metadata.columnType, cfs.metadata.comparator, cfs.metadata.subcolumnComparator);
+            try
+            {
+                ColumnFamily.serializer().deserializeFromSSTable(region, new DataInputStream(ByteBufferUtil.inputStream(arena.region(ref + HEADER_SIZE, length))));
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            if (cf == null)
+                cf = region;
+            else
+                cf.resolve(region);
+            ref = slab.getLong(offset + 4);
+        }
+        return cf;
+    }
+
+    /**
+     * @return copy of the row, which is safe to use even after memtable is freed, or null
+     */
+    private ColumnFamily loadSafe(Long ref)
+    {
+        if (ref == null)
+            return null;
+
+        freeLock.readLock().lock();
+        try
+        {
+            return arena.isFreed() ? null : load(ref);
+        }
+        finally
+        {
+            freeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ColumnFamily getColumnFamily(String key)
+    {
+        return loadSafe(rows.get(partitioner.decorateKey(key)));
+    }
+
+    @Override
+    public Iterator<DecoratedKey> getKeyIterator(DecoratedKey startWith)
+    {
+        return rows.navigableKeySet().tailSet(startWith).iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<DecoratedKey, ColumnFamily>> getEntryIterator()
+    {
+        final Iterator<Map.Entry<DecoratedKey, Long>> iter = rows.entrySet().iterator();
+        return new AbstractIterator<Map.Entry<DecoratedKey, ColumnFamily>>()
+        {
+            protected Map.Entry<DecoratedKey, ColumnFamily> computeNext()
+            {
+                while (iter.hasNext())
+                {
+                    Map.Entry<DecoratedKey, Long> entry = iter.next();
+                    ColumnFamily cf = loadSafe(entry.getValue());
+                    if (cf != null)
+                        return new AbstractMap.SimpleImmutableEntry<DecoratedKey, ColumnFamily>(entry.getKey(), cf);
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    @Override
+    public boolean isClean()
+    {
+        return rows.isEmpty();
+    }
+
+    @Override
+    protected int size()
+    {
+        return rows.size();
+    }
+
+    /**
+     * @return estimated heap bytes of keys together with direct memory held by arena
+     */
+    @Override
+    public long getLiveSize()
+    {
+        return liveSize.get() + arena.capacity();
+    }
+
+    /**
+     * @return bytes of direct memory occupied by this memtable
+     */
+    public long getOffheapSize()
+    {
+        return arena.capacity();
+    }
+
+    /**
+     * @return true if arena grew past the throughput threshold too, as it also holds superseded regions
+     */
+    @Override
+    boolean isThresholdViolated()
+    {
+        return super.isThresholdViolated() || arena.allocated() >= THRESHOLD;
+    }
+
+    @Override
+    void clearUnsafe()
+    {
+        freeLock.writeLock().lock();
+        try
+        {
+            rows.clear();
+            arena.free();
+            arena = new SlabAllocator();
+        }
+        finally
+        {
+            freeLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void release()
+    {
+        freeLock.writeLock().lock();
+        try
+        {
+            arena.free();
+            rows.clear();
+        }
+        finally
+        {
+            freeLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("OffheapMemtable-%s@%s(%s bytes, %s operations, %s bytes offheap)",
+                             cfs.getColumnFamilyName(), hashCode(), getCurrentThroughput(), getCurrentOperations(), arena.allocated());
+    }
+}
@@ -81,6 +81,17 @@ private static ICompactSerializer<ReadResponse> serializer_;
     {
     	isDigestQuery_ = isDigestQuery;
     }
+
+    /**
+     * @return number of bytes the serializer will write for this response
+     */
+    public int serializedSize()
+    {
+        int size = DBConstants.intSize_ + digest_.length + DBConstants.boolSize_;
+        if (!isDigestQuery_ && row_ != null)
+            size += Row.serializer().serializedSize(row_);
+        return size;
+    }
 }
 
 class ReadResponseSerializer implements ICompactSerializer<ReadResponse>
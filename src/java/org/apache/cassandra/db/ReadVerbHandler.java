@@ -18,42 +18,42 @@
 
 package org.apache.cassandra.db;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 
-import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.ReentrantByteArrayInputStream;
 
 public class ReadVerbHandler implements IVerbHandler
 {
     protected static class ReadContext
     {
-        protected ByteArrayInputStream bufIn_;
-        protected DataOutputBuffer bufOut_ = new DataOutputBuffer();
+        protected ReentrantByteArrayInputStream bufIn_ = new ReentrantByteArrayInputStream(ArrayUtils.EMPTY_BYTE_ARRAY);
+        protected DataInputStream dis_ = new DataInputStream(bufIn_);
     }
 
     private static Logger logger_ = Logger.getLogger( ReadVerbHandler.class );
     /* We use this so that we can reuse readcontext objects */
-    private static ThreadLocal<ReadVerbHandler.ReadContext> tls_ = new InheritableThreadLocal<ReadVerbHandler.ReadContext>();
+    private static ThreadLocal<ReadVerbHandler.ReadContext> tls_ = new ThreadLocal<ReadVerbHandler.ReadContext>()
+    {
+        @Override
+        protected ReadContext initialValue()
+        {
+            return new ReadContext();
+        }
+    };
 
     public void doVerb(Message message)
     {
-        byte[] body = message.getMessageBody();
-        /* Obtain a Read Context from TLS */
         ReadContext readCtx = tls_.get();
-        if ( readCtx == null )
-        {
-            readCtx = new ReadContext();
-            tls_.set(readCtx);
-        }
-        readCtx.bufIn_ = new ByteArrayInputStream(body);
+        readCtx.bufIn_.reset(message.getMessageBody());
 
         try
         {
@@ -62,7 +62,7 @@ public class ReadVerbHandler implements IVerbHandler
                 /* Don't service reads! */
                 throw new RuntimeException("Cannot service reads while bootstrapping!");
             }
-            ReadCommand command = ReadCommand.serializer().deserialize(new DataInputStream(readCtx.bufIn_));
+            ReadCommand command = ReadCommand.serializer().deserialize(readCtx.dis_);
             Table table = Table.open(command.table);
             Row row = command.getRow(table);
             ReadResponse readResponse;
@@ -77,15 +77,9 @@ public class ReadVerbHandler implements IVerbHandler
                 readResponse = new ReadResponse(row);
             }
             readResponse.setIsDigestQuery(command.isDigestQuery());
-            /* serialize the ReadResponseMessage. */
-            readCtx.bufOut_.reset();
-
-            ReadResponse.serializer().serialize(readResponse, readCtx.bufOut_);
-
-            byte[] bytes = new byte[readCtx.bufOut_.getLength()];
-            System.arraycopy(readCtx.bufOut_.getData(), 0, bytes, 0, bytes.length);
 
-            Message response = message.getReply(FBUtilities.getLocalAddress(), bytes);
+            /* the response is serialized once, into the outbound buffer of the connection */
+            Message response = message.getReply(FBUtilities.getLocalAddress(), readResponse, ReadResponse.serializer(), readResponse.serializedSize());
             if (logger_.isDebugEnabled())
               logger_.debug("Read key " + command.key + "; sending response to " + message.getMessageId() + "@" + message.getFrom());
             MessagingService.instance.sendOneWay(response, message.getFrom());
@@ -25,6 +25,7 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.utils.FBUtilities;
 
 public class Row
 {
@@ -69,4 +70,9 @@ class RowSerializer implements ICompactSerializer<Row>
     {
         return new Row(dis.readUTF(), ColumnFamily.serializer().deserialize(dis));
     }
+
+    public int serializedSize(Row row)
+    {
+        return IColumn.UtfPrefix_ + FBUtilities.encodedUTF8Length(row.key) + ColumnFamily.serializer().serializedSize(row.cf);
+    }
 }
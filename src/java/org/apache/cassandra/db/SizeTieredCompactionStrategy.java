@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.io.SSTableReader;
+
+/**
+ * Compacts buckets of sstables of similar size (the default). Write-cheap, but a frequently updated row
+ * ends up spread over many sstables of different sizes.
+ */
+public class SizeTieredCompactionStrategy implements ICompactionStrategy
+{
+    /** sstables smaller than this are bucketed together regardless of their sizes */
+    static final long MIN_SSTABLE_SIZE = 50L * 1024L * 1024L;
+
+    public List<SSTableReader> getNextBackgroundSSTables(Collection<SSTableReader> sstables, Set<SSTableReader> compacting, int minThreshold, int maxThreshold)
+    {
+        List<SSTableReader> available = new ArrayList<SSTableReader>();
+        for (SSTableReader sstable : sstables)
+        {
+            if (!compacting.contains(sstable))
+                available.add(sstable);
+        }
+
+        for (List<SSTableReader> bucket : CompactionManager.getBuckets(CompactionManager.convertSSTablesToPairs(available), MIN_SSTABLE_SIZE))
+        {
+            if (bucket.size() >= minThreshold)
+            {
+                // if we have too many to compact all at once, compact older ones first -- this avoids
+                // re-compacting files we just created.
+                Collections.sort(bucket);
+                return new ArrayList<SSTableReader>(bucket.subList(0, Math.min(bucket.size(), maxThreshold)));
+            }
+        }
+        return null;
+    }
+
+    public int getEstimatedRemainingTasks(Collection<SSTableReader> sstables, int minThreshold, int maxThreshold)
+    {
+        int n = 0;
+        for (List<SSTableReader> bucket : CompactionManager.getBuckets(CompactionManager.convertSSTablesToPairs(sstables), MIN_SSTABLE_SIZE))
+        {
+            if (bucket.size() >= minThreshold)
+            {
+                n += 1 + bucket.size() / Math.max(1, maxThreshold - minThreshold);
+            }
+        }
+        return n;
+    }
+
+    public long getMaxSSTableSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    public void replaced(Collection<SSTableReader> removed, Collection<SSTableReader> added)
+    {
+    }
+}
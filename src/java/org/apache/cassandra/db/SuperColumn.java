@@ -31,7 +31,6 @@ import org.apache.log4j.Logger;
 
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.ICompactSerializer2;
-import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.utils.FBUtilities;
 
 
@@ -237,16 +236,7 @@ public class SuperColumn implements IColumn, IColumnContainer
     {
         assert name_ != null;
         digest.update(name_);
-        DataOutputBuffer buffer = new DataOutputBuffer();
-        try
-        {
-            buffer.writeLong(markedForDeleteAt.get());
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
-        }
-        digest.update(buffer.getData(), 0, buffer.getLength());
+        FBUtilities.updateWithLong(digest, markedForDeleteAt.get());
         for (IColumn column : columns_.values())
         {
             column.updateDigest(digest);
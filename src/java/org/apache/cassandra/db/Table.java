@@ -20,14 +20,12 @@ package org.apache.cassandra.db;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Function;
@@ -41,7 +39,6 @@ import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.filter.IdentityQueryFilter;
 import org.apache.cassandra.db.filter.QueryFilter;
 import org.apache.cassandra.db.filter.QueryPath;
-import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.CopyOnWriteMap;
@@ -54,16 +51,12 @@ public class Table
     public static final String SYSTEM_TABLE = "system";
 
     private static final Logger logger = Logger.getLogger(Table.class);
-    private static final String SNAPSHOT_SUBDIR_NAME = "snapshots";
-    /**
-     * accesses to CFS.memtable should acquire this for thread safety.
-     * Table.maybeSwitchMemtable should aquire the writeLock; see that method for the full explanation.
-     *
-     * (Enabling fairness in the RRWL is observed to decrease throughput, so we leave it off.)
-     */
-    static final ReentrantReadWriteLock flusherLock = new ReentrantReadWriteLock();
-
+    public static final String SNAPSHOT_SUBDIR_NAME = "snapshots";
     private static Timer flushTimer = new Timer("FLUSH-TIMER");
+    static
+    {
+        flushTimer.schedule(new MeteredFlusher(), MeteredFlusher.CHECK_INTERVAL_MS, MeteredFlusher.CHECK_INTERVAL_MS);
+    }
     private final boolean waitForCommitLog;
     
     // This is a result of pushing down the point in time when storage directories get created.  It used to happen in
@@ -421,30 +414,6 @@ public class Table
         }
     }
 
-    /*
-     * This method is invoked only during a bootstrap process. We basically
-     * do a complete compaction since we can figure out based on the ranges
-     * whether the files need to be split.
-    */
-    public List<String> forceAntiCompaction(Collection<Range> ranges, InetAddress target)
-    {
-        List<String> allResults = new ArrayList<String>();
-        Set<String> columnFamilies = tableMetadata.getColumnFamilies();
-        for ( String columnFamily : columnFamilies )
-        {
-            ColumnFamilyStore cfStore = columnFamilyStores.get( columnFamily );
-            try
-            {
-                allResults.addAll(CompactionManager.instance.submitAnticompaction(cfStore, ranges, target).get());
-            }
-            catch (Exception e)
-            {
-                throw new RuntimeException(e);
-            }
-        }
-        return allResults;
-    }
-    
     /*
      * This method is an ADMIN operation to force compaction
      * of all SSTables on disk. 
@@ -604,35 +573,44 @@ public class Table
         
        
 
-        // write the mutation to the commitlog and memtables
-        flusherLock.readLock().lock();
+        // do not let memtables pile up in memory, when flushes cannot keep up with writes
+        FlushWriters.instance.awaitFlushCapacity();
+
+        // write the mutation to the commitlog and memtables.
+        // memtables are reserved before commit log write, see ColumnFamilyStore.maybeSwitchMemtable
+        Collection<ColumnFamily> columnFamilies = mutation.getColumnFamilies();
+        Memtable[] memtables = new Memtable[columnFamilies.size()];
         try
         {
+            int i = 0;
+            for (ColumnFamily columnFamily : columnFamilies)
+                memtables[i++] = columnFamilyStores.get(columnFamily.name()).startWrite();
+
             if (writeCommitLog)
             {
                 CommitLog.instance().add(mutation, serializedMutation);
             }
 
-            for (ColumnFamily columnFamily : mutation.getColumnFamilies())
+            i = 0;
+            for (ColumnFamily columnFamily : columnFamilies)
             {
-                Memtable memtableToFlush;
+                Memtable memtable = memtables[i++];
                 ColumnFamilyStore cfs = columnFamilyStores.get(columnFamily.name());
-                if ((memtableToFlush=cfs.apply(mutation.key(), columnFamily)) != null)
-                    memtablesToFlush.put(cfs, memtableToFlush);
+                if (cfs.apply(memtable, mutation.key(), columnFamily))
+                    memtablesToFlush.put(cfs, memtable);
 
-                ColumnFamily cachedRow = cfs.getRawCachedRow(mutation.key());
-                if (cachedRow != null)
-                    cachedRow.addAll(columnFamily);
+                cfs.updateRowCache(mutation.key(), columnFamily);
             }
         }
         finally
         {
-            flusherLock.readLock().unlock();
-
+            for (Memtable memtable : memtables)
+            {
+                if (memtable != null)
+                    memtable.finishWrite();
+            }
         }
 
-
-        
         // flush memtables that got filled up.  usually mTF will be empty and this will be a no-op
         for (Map.Entry<ColumnFamilyStore, Memtable> entry : memtablesToFlush.entrySet())
             entry.getKey().maybeSwitchMemtable(entry.getValue(), writeCommitLog);
@@ -23,28 +23,22 @@ import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
 
-import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.FSWriteError;
-import org.apache.cassandra.db.IColumn;
 import org.apache.cassandra.db.RowMutation;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.db.commitlog.CommitLogSegment.CommitLogContext;
 import org.apache.cassandra.io.DeletionService;
-import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileUtils;
-import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.WrappedRunnable;
 import org.apache.cassandra.utils.CLibrary;
-import org.xerial.snappy.Snappy;
 
 /*
  * Commit Log tracks every write operation into the system. The aim
@@ -76,7 +70,8 @@ import org.xerial.snappy.Snappy;
  */
 public class CommitLog
 {
-    private static final int MAX_OUTSTANDING_REPLAY_COUNT = 1024;
+    // max number of obsolete segments kept for reuse in mmap mode
+    private static final int MAX_RECYCLED_SEGMENTS = 4;
     private static volatile int SEGMENT_SIZE = 128*1024*1024; // roll after log gets this big
 
     /**
@@ -96,7 +91,11 @@ public class CommitLog
         public static final CommitLog instance = new CommitLog();
     }
 
-    private final Deque<CommitLogSegment> segments = new ArrayDeque<CommitLogSegment>();
+    // modified by executor tasks only, but iterated by syncer of mmap mode concurrently
+    private final Deque<CommitLogSegment> segments = new LinkedBlockingDeque<CommitLogSegment>();
+    // obsolete segments of mmap mode, waiting for reuse
+    private final Deque<MappedCommitLogSegment> recycledSegments = new ArrayDeque<MappedCommitLogSegment>();
+    private final boolean mmap = DatabaseDescriptor.getCommitLogMode() == DatabaseDescriptor.CommitLogMode.mmap;
 
     public static void setSegmentSize(int size)
     {
@@ -121,9 +120,13 @@ public class CommitLog
         // all old segments are recovered and deleted before CommitLog is instantiated.
         // All we need to do is create a new one.
         int cfSize = Table.TableMetadata.getColumnFamilyCount();
-        segments.add(new CommitLogSegment(cfSize));
+        segments.add(createSegment(cfSize, 0));
         
-        if (DatabaseDescriptor.getCommitLogSync() == DatabaseDescriptor.CommitLogSync.periodic)
+        if (mmap)
+        {
+            executor = new GroupCommitLogExecutorService();
+        }
+        else if (DatabaseDescriptor.getCommitLogSync() == DatabaseDescriptor.CommitLogSync.periodic)
         {
             executor = new PeriodicCommitLogExecutorService();
             final Callable syncer = new Callable()
@@ -231,208 +234,7 @@ public class CommitLog
     
     public static void recover(File[] clogs, boolean forced, long maxReplayTimestamp) throws IOException
     {
-        Set<Table> tablesRecovered = new HashSet<Table>();
-        List<Future<?>> futures = new ArrayList<Future<?>>();
-        REPLAYLOOP:
-        for (File file : clogs)
-        {
-            // empty log file - just removing it
-            if (file.length()==0)
-            {
-                continue;
-            }
-            
-            int bufferSize = (int)Math.min(file.length(), 32 * 1024 * 1024);
-            BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", bufferSize);
-
-            try
-            {
-                CommitLogHeader clHeader = null;
-                int replayPosition = 0;
-                if (!forced)
-                {
-                    String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
-                    try
-                    {
-                        clHeader = CommitLogHeader.readCommitLogHeader(headerPath);
-                        replayPosition = CommitLogHeader.getLowestPosition(clHeader);
-                    }
-                    catch (IOException ioe)
-                    {
-                        logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
-                        logger.debug("exception was", ioe);
-                    }
-                    
-                    if (replayPosition < 0 || replayPosition > reader.length())
-                    {
-                        // replayPosition > reader.length() can happen if some data gets flushed before it is written to the commitlog
-                        // (see https://issues.apache.org/jira/browse/CASSANDRA-2285)
-                        logger.debug("skipping replay of fully-flushed "+ file);
-                        continue;
-                    }
-                }
-
-                /* seek to the lowest position where any CF has non-flushed data 
-                 * if replay was forced - reading all records, regardless of commit log header 
-                 */
-                reader.seek(replayPosition);
-                if (logger.isDebugEnabled())
-                    logger.debug("Replaying " + file + " starting at " + replayPosition);
-
-                if (forced)
-                    logger.info("Replaying " + file + " starting at " + replayPosition);
-
-                // assume file is compressed, if it has the special extension
-                boolean logFileCompression = file.getName().endsWith(COMPRESSION_EXTENSION);
-                if (logFileCompression && logger.isDebugEnabled())
-                    logger.debug("Filename: " + file + " ends with \"" + COMPRESSION_EXTENSION + "\", expecting compression");
-
-                /* read the logs populate RowMutation and apply */
-                while (!reader.isEOF())
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Reading mutation at " + reader.getFilePointer());
-
-                    long claimedCRC32;
-                    byte[] bytes;
-                    try
-                    {
-                        long length = reader.readLong();
-                        // RowMutation must be at LEAST 10 bytes:
-                        // 3 each for a non-empty Table and Key (including the 2-byte length from writeUTF), 4 bytes for column count.
-                        // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
-                        if (length < 10 || length > Integer.MAX_VALUE)
-                            break;
-                        bytes = new byte[(int) length]; // readlong can throw EOFException too
-                        reader.readFully(bytes);
-                        claimedCRC32 = reader.readLong();
-                    }
-                    catch (EOFException e)
-                    {
-                        // last CL entry didn't get completely written.  that's ok.
-                        break;
-                    }
-
-                    Checksum checksum = new CRC32();
-                    checksum.update(bytes, 0, bytes.length);
-                    if (claimedCRC32 != checksum.getValue())
-                    {
-                        // this part of the log must not have been fsynced.  probably the rest is bad too,
-                        // but just in case there is no harm in trying them.
-                        continue;
-                    }
-
-                    // apply decompression
-                    if (logFileCompression) {
-                        bytes = Snappy.uncompress(bytes);
-                    }
-
-                    ByteArrayInputStream bufIn = new ByteArrayInputStream(bytes);
-                    
-                    /* deserialize the commit log entry */
-                    final RowMutation rm = RowMutation.serializer().deserialize(new DataInputStream(bufIn));
-                    
-                    if (maxReplayTimestamp<Long.MAX_VALUE)
-                    {
-                        // inspecting mutation if it has any column with timestamp value greater than max
-                        boolean timestampLimitReached=false;
-                        for (ColumnFamily cf : rm.getColumnFamilies()) 
-                        {
-                            if (cf.isMarkedForDelete() && cf.getMarkedForDeleteAt()>maxReplayTimestamp)
-                            {
-                                timestampLimitReached = true;
-                                break;
-                            }
-                            
-                            for (IColumn c : cf.getSortedColumns())
-                            {
-                                if ( (c.isMarkedForDelete() && c.getMarkedForDeleteAt()>maxReplayTimestamp) || c.timestamp()>maxReplayTimestamp)
-                                {
-                                    timestampLimitReached = true;
-                                    break;
-                                }
-                            }
-                        }
-                        
-                        if (timestampLimitReached)
-                        {
-                            logger.info("Stopped replay at "+file+", position "+reader.getFilePointer()+" - mutation "+rm+" has timestamp >"+maxReplayTimestamp);
-                            break REPLAYLOOP;
-                        }
-                        
-                    }
-                    
-                    if (logger.isDebugEnabled())
-                        logger.debug(String.format("replaying mutation for %s.%s: %s",
-                                                    rm.getTable(),
-                                                    rm.key(),
-                                                    "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
-                    final Table table = Table.open(rm.getTable());
-                    tablesRecovered.add(table);
-                    final Collection<ColumnFamily> columnFamilies = new ArrayList<ColumnFamily>(rm.getColumnFamilies());
-                    final long entryLocation = reader.getFilePointer();
-                    Runnable runnable;
-
-                    if (forced || clHeader == null)
-                    {
-                        runnable = new WrappedRunnable()
-                        {
-                            public void runMayThrow() throws IOException
-                            {
-                                if (!rm.isEmpty())
-                                {
-                                    Table.open(rm.getTable()).apply(rm, null, false);
-                                }
-                            }
-                        };
-                    } else {
-                        final CommitLogHeader finalHeader = clHeader;
-                        runnable = new WrappedRunnable()
-                        {
-                            public void runMayThrow() throws IOException
-                            {
-                                /* remove column families that have already been flushed before applying the rest */
-                                for (ColumnFamily columnFamily : columnFamilies)
-                                {
-                                    int id = table.getColumnFamilyId(columnFamily.name());
-                                    if (!finalHeader.isDirty(id) || entryLocation <= finalHeader.getPosition(id))
-                                    {
-                                        rm.removeColumnFamily(columnFamily);
-                                    }
-                                }
-                                if (!rm.isEmpty())
-                                {
-                                    Table.open(rm.getTable()).apply(rm, null, false);
-                                }
-                            }
-                        };
-                    }
-                    futures.add(StageManager.getStage(StageManager.MUTATION_STAGE).submit(runnable));
-                    if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
-                    {
-                        FBUtilities.waitOnFutures(futures);
-                        futures.clear();
-                    }
-                }
-            }
-            finally
-            {
-                reader.close();
-                logger.info("Finished reading " + file);
-            }
-        }
-
-
-        // wait for all the writes to finish on the mutation stage
-        FBUtilities.waitOnFutures(futures);
-        logger.debug("Finished waiting on mutations from recovery");
-
-        // flush replayed tables
-        futures.clear();
-        for (Table table : tablesRecovered)
-            futures.addAll(table.flush());
-        FBUtilities.waitOnFutures(futures);
-        logger.info("Recovery complete");
+        new CommitLogReplayer(forced, maxReplayTimestamp).recover(clogs);
     }
 
     private CommitLogSegment currentSegment()
@@ -471,7 +273,12 @@ public class CommitLog
     */
     public void add(RowMutation rowMutation, Object serializedRow) 
     {
-        executor.add(new LogRecordAdder(rowMutation, serializedRow));
+        add(new LogRecordAdder(rowMutation, serializedRow));
+    }
+
+    void add(LogRecordAdder adder)
+    {
+        executor.add(adder);
     }
 
     /*
@@ -542,6 +349,9 @@ public class CommitLog
             if (header.isDirty(id)) {
                 header.turnOff(id);
     
+                maybeDiscardSegment(iter, segment, header);
+            } else if (header.isSafeToDelete()) {
+                // left, because records were still written to it, when it was turned clean
                 maybeDiscardSegment(iter, segment, header);
             }
         }
@@ -604,23 +414,31 @@ public class CommitLog
     private void maybeDiscardSegment(Iterator<CommitLogSegment> iter,
             CommitLogSegment segment, CommitLogHeader header)
     {
-        if ( header.isSafeToDelete() && segment!=currentSegment() )
+        // pending writes are checked first, as they could turn dirty flags on
+        if ( segment!=currentSegment() && !segment.hasPendingWrites() && header.isSafeToDelete() )
         {
 
             if (DatabaseDescriptor.isLogArchiveActive())
             {
+                // archive is a hard link to segment file, so it cannot be reused
                 logger.info("Archiving obsolete commit log:" + segment);
                 segment.close();
 
                 archiveLogfile(segment.getPath());
+                segment.submitDelete();
+            }
+            else if (segment instanceof MappedCommitLogSegment && recycledSegments.size() < MAX_RECYCLED_SEGMENTS)
+            {
+                logger.info("Recycling obsolete commit log:" + segment);
+                ((MappedCommitLogSegment) segment).discard();
+                recycledSegments.add((MappedCommitLogSegment) segment);
             }
             else
             {
                 logger.info("Discarding obsolete commit log:" + segment);
                 segment.close();
+                segment.submitDelete();
             }
-            
-            segment.submitDelete();
          
             // usually this will be the first (remaining) segment, but not always, if segment A contains
             // writes to a CF that is unflushed but is followed by segment B whose CFs are all flushed.
@@ -688,7 +506,81 @@ public class CommitLog
 
     void sync() 
     {
-        currentSegment().sync();
+        if (mmap)
+        {
+            // records could still be completed in segments, which are not current already
+            for (CommitLogSegment segment : segments)
+                segment.sync();
+        }
+        else
+        {
+            currentSegment().sync();
+        }
+    }
+
+    /**
+     * @param minSize space required for a record, which did not fit into the current segment
+     */
+    private CommitLogSegment createSegment(int cfCount, int minSize)
+    {
+        if (!mmap)
+            return new CommitLogSegment(cfCount);
+
+        if (minSize <= SEGMENT_SIZE)
+        {
+            MappedCommitLogSegment segment;
+            while ((segment = recycledSegments.poll()) != null)
+            {
+                if (segment.capacity() == SEGMENT_SIZE)
+                    return segment.recycle(cfCount);
+
+                // segment size was changed; header of discarded segment is deleted already
+                segment.close();
+                DeletionService.submitDelete(segment.getPath());
+            }
+        }
+        return MappedCommitLogSegment.create(cfCount, Math.max(SEGMENT_SIZE, minSize));
+    }
+
+    /**
+     * Starts a new segment. Must be run by executor.
+     */
+    private void addSegment(int minSize)
+    {
+        CommitLogSegment current = currentSegment();
+        if (current instanceof MappedCommitLogSegment)
+            ((MappedCommitLogSegment) current).seal();
+        segments.add(createSegment(current.getHeader().getColumnFamilyCount(), minSize));
+    }
+
+    /**
+     * Switches to a new segment in mmap mode, if full segment is still current one.
+     *
+     * @return segment to write record to
+     */
+    private CommitLogSegment rollSegment(final CommitLogSegment full, final int minSize)
+    {
+        Callable<CommitLogSegment> task = new Callable<CommitLogSegment>()
+        {
+            public CommitLogSegment call() throws Exception
+            {
+                if (currentSegment() == full)
+                    addSegment(minSize);
+                return currentSegment();
+            }
+        };
+        try
+        {
+            return executor.submit(task).get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
     
     /**
@@ -699,9 +591,12 @@ public class CommitLog
         for (CommitLogSegment segment : segments)
             segment.close();
         segments.clear();
+        for (CommitLogSegment segment : recycledSegments)
+            segment.close();
+        recycledSegments.clear();
         int cfSize = Table.TableMetadata.getColumnFamilyCount();
 
-        segments.add(new CommitLogSegment(cfSize));
+        segments.add(createSegment(cfSize, 0));
     }
 
     // for tests mainly
@@ -710,6 +605,12 @@ public class CommitLog
         return segments.size();
     }
 
+    // for tests mainly
+    public int recycledSegmentsCount()
+    {
+        return recycledSegments.size();
+    }
+
 
     public void forceNewSegment()
     {
@@ -718,7 +619,7 @@ public class CommitLog
             public Object call() throws Exception
             {
                 sync();
-                segments.add(new CommitLogSegment(currentSegment().getHeader().getColumnFamilyCount()));
+                addSegment(0);
                 return null;
             }
         };
@@ -742,6 +643,9 @@ public class CommitLog
     {
         final RowMutation rowMutation;
         final Object serializedRow;
+        // segment and position the record was written to in mmap mode
+        private volatile MappedCommitLogSegment segment;
+        private volatile long position;
 
         LogRecordAdder(RowMutation rm, Object serializedRow)
         {
@@ -753,12 +657,23 @@ public class CommitLog
         {
             try
             {
+                if (mmap)
+                {
+                    // run by writing thread, concurrently with others
+                    CommitLogSegment segment = currentSegment();
+                    CommitLogSegment.CommitLogContext context;
+                    while ((context = segment.write(rowMutation, serializedRow)) == null)
+                        segment = rollSegment(segment, MappedCommitLogSegment.maxRecordSize(serializedRow));
+                    written((MappedCommitLogSegment) segment, context.position);
+                    return;
+                }
+
                 currentSegment().write(rowMutation, serializedRow);
                 // roll log if necessary
                 if (currentSegment().length() >= SEGMENT_SIZE)
                 {
                     sync();
-                    segments.add(new CommitLogSegment(currentSegment().getHeader().getColumnFamilyCount()));
+                    addSegment(0);
                 }
             }
             catch (IOException e)
@@ -767,6 +682,20 @@ public class CommitLog
             }
         }
 
+        void written(MappedCommitLogSegment segment, long position)
+        {
+            this.position = position;
+            this.segment = segment;
+        }
+
+        /**
+         * @return true if the record written in mmap mode is synced to disk
+         */
+        boolean isSynced()
+        {
+            return segment == null || segment.isSynced(position);
+        }
+
         public Object call() throws Exception
         {
             run();
@@ -95,26 +95,29 @@ public class CommitLogHeader
         this.cfDirtiedAt = cfDirtiedAt;
     }
         
-    boolean isDirty(int index)
+    synchronized boolean isDirty(int index)
     {
         return dirty.get(index);
     } 
     
-    int getPosition(int index)
+    synchronized int getPosition(int index)
     {
         return cfDirtiedAt[index];
     }
     
     /**
-     * Turns on dirty flag for specific CF, if neccessary or just renews last written position
+     * Turns on dirty flag for specific CF, if neccessary or just renews last written position.
+     * Positions may come out of order from concurrent writers of mmap segment, so the lowest one is kept
+     * as dirtied at and the highest one as last written.
      * 
      * @param index
      * @param position
-     * @return true - if dirty flag was really turned on (consider write of the header to disk)
+     * @return true - if dirty flag was really turned on or moved back (consider write of the header to disk)
      */
-    boolean turnOn(int index, long position)
+    synchronized boolean turnOn(int index, long position)
     {
-        cfLastWriteAt[index] = (int) position;
+        if (cfLastWriteAt[index] < position)
+            cfLastWriteAt[index] = (int) position;
 
         if (!isDirty(index))
         {
@@ -123,11 +126,18 @@ public class CommitLogHeader
             
             return true;
         }
+
+        if (position < cfDirtiedAt[index])
+        {
+            cfDirtiedAt[index] = (int) position;
+
+            return true;
+        }
         
         return false;
     }
 
-    void turnOff(int index)
+    synchronized void turnOff(int index)
     {
         dirty.set(index, false);
         cfDirtiedAt[index] = -1;
@@ -142,7 +152,7 @@ public class CommitLogHeader
      * 
      * @return true, if made changes to header
      */
-    boolean turnOffIfNotWritten(int index, long position)
+    synchronized boolean turnOffIfNotWritten(int index, long position)
     {
         if (isDirty(index) && cfLastWriteAt[index] < position) {
             turnOff(index);
@@ -153,12 +163,12 @@ public class CommitLogHeader
         return false;
     }
 
-    boolean isSafeToDelete() 
+    synchronized boolean isSafeToDelete() 
     {
         return dirty.isEmpty();
     }
 
-    public String toString()
+    public synchronized String toString()
     {
         StringBuilder sb = new StringBuilder("");
         sb.append("CLH(dirty={");
@@ -178,7 +188,7 @@ public class CommitLogHeader
         return sb.toString();
     }
 
-    public String dirtyString()
+    public synchronized String dirtyString()
     {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < dirty.length(); i++)
@@ -191,7 +201,7 @@ public class CommitLogHeader
         return sb.toString();
     }
 
-    public Map<Integer, Integer> dirtyCFs()
+    public synchronized Map<Integer, Integer> dirtyCFs()
     {
         HashMap<Integer,Integer> map = new HashMap<Integer, Integer>();
         for ( int i = 0; i < dirty.size(); ++i )
@@ -204,7 +214,7 @@ public class CommitLogHeader
         return map;
     }
     
-    public int getFirstDirtyCFId() {
+    public synchronized int getFirstDirtyCFId() {
         return dirty.nextSetBit(0);
     }
 
@@ -262,11 +272,14 @@ public class CommitLogHeader
     {
         public void serialize(CommitLogHeader clHeader, DataOutputStream dos) throws IOException
         {
-            BitSetSerializer.serialize(clHeader.dirty, dos);
-            dos.writeInt(clHeader.cfDirtiedAt.length);
-            for (int position : clHeader.cfDirtiedAt)
+            synchronized (clHeader)
             {
-                dos.writeInt(position);
+                BitSetSerializer.serialize(clHeader.dirty, dos);
+                dos.writeInt(clHeader.cfDirtiedAt.length);
+                for (int position : clHeader.cfDirtiedAt)
+                {
+                    dos.writeInt(position);
+                }
             }
         }
 
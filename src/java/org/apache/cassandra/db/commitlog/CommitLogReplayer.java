@@ -0,0 +1,586 @@
+package org.apache.cassandra.db.commitlog;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.xerial.snappy.Snappy;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.IColumn;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Replays commit log segments in a pipeline:
+ *
+ * 1. up to REPLAY_READERS segments are read concurrently, each by its own thread, into batches of raw records;
+ * 2. batches are checksummed, decompressed and deserialized by a pool of decoders, one thread per core;
+ * 3. decoded mutations are taken in log order and applied on MUTATION_STAGE. Mutations are partitioned by key
+ *    between lanes, each applying its mutations one at a time, so mutations of the same key are applied in the
+ *    order they were logged, while different keys are applied in parallel.
+ *
+ * Every reader keeps at most READ_AHEAD_BATCHES batches ahead of the apply stage, which bounds memory used by replay.
+ */
+class CommitLogReplayer
+{
+    private static final Logger logger = Logger.getLogger(CommitLogReplayer.class);
+
+    private static final int REPLAY_READERS = 4;
+    private static final int READ_BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final int READ_AHEAD_BATCHES = 4;
+    private static final int MAX_OUTSTANDING_REPLAY_COUNT = 8 * 1024;
+
+    /** marks end of segment in its batch queue */
+    private static final Future<List<Entry>> END = completed(null);
+
+    private final boolean forced;
+    private final long maxReplayTimestamp;
+
+    private final Set<Table> tablesRecovered = new HashSet<Table>();
+    private final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REPLAY_COUNT);
+    private final AtomicReference<Throwable> applyFailure = new AtomicReference<Throwable>();
+    private final AtomicLong replayedBytes = new AtomicLong();
+    private final AtomicLong corruptedRecords = new AtomicLong();
+    private long replayedMutations;
+    private volatile boolean stopped;
+
+    private ExecutorService decoders;
+
+    CommitLogReplayer(boolean forced, long maxReplayTimestamp)
+    {
+        this.forced = forced;
+        this.maxReplayTimestamp = maxReplayTimestamp;
+    }
+
+    void recover(File[] clogs) throws IOException
+    {
+        long start = System.currentTimeMillis();
+
+        ThreadPoolExecutor stage = StageManager.getStage(StageManager.MUTATION_STAGE);
+        Lane[] lanes = new Lane[stage.getMaximumPoolSize()];
+        for (int i = 0; i < lanes.length; i++)
+            lanes[i] = new Lane(stage);
+
+        List<Segment> segments = new ArrayList<Segment>(clogs.length);
+        ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, Math.min(clogs.length, REPLAY_READERS)),
+                                                               new NamedThreadFactory("COMMIT-LOG-REPLAY-READER"));
+        decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                new NamedThreadFactory("COMMIT-LOG-REPLAY-DECODER"));
+        try
+        {
+            // segments are read in submission order, so the one being applied always has its reader running
+            for (File file : clogs)
+            {
+                Segment segment = new Segment(file);
+                segments.add(segment);
+                readers.execute(segment);
+            }
+
+            REPLAYLOOP:
+            for (Segment segment : segments)
+            {
+                while (true)
+                {
+                    List<Entry> batch = take(segment);
+                    if (batch == null)
+                        break;
+
+                    for (Entry entry : batch)
+                    {
+                        if (entry.timestampLimitReached)
+                        {
+                            logger.info("Stopped replay at " + segment.file + ", position " + entry.position + " - mutation " + entry.rm + " has timestamp >" + maxReplayTimestamp);
+                            break REPLAYLOOP;
+                        }
+                        apply(segment, entry, lanes);
+                    }
+                    checkApplyFailure();
+                }
+            }
+        }
+        finally
+        {
+            stopped = true;
+            readers.shutdown();
+            decoders.shutdown();
+        }
+
+        // wait for all the writes to finish on the mutation stage
+        outstanding.acquireUninterruptibly(MAX_OUTSTANDING_REPLAY_COUNT);
+        checkApplyFailure();
+        logger.debug("Finished waiting on mutations from recovery");
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        if (clogs.length > 0)
+            logger.info(String.format("Replayed %d mutations (%.1f MB) from %d segments in %d ms: %d mutations/s, %.1f MB/s; %d records failed checksum",
+                                      replayedMutations,
+                                      replayedBytes.get() / 1048576.0,
+                                      clogs.length,
+                                      elapsed,
+                                      replayedMutations * 1000 / elapsed,
+                                      replayedBytes.get() / 1048576.0 * 1000 / elapsed,
+                                      corruptedRecords.get()));
+
+        // flush replayed tables
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (Table table : tablesRecovered)
+            futures.addAll(table.flush());
+        FBUtilities.waitOnFutures(futures);
+        logger.info("Recovery complete");
+    }
+
+    /**
+     * @return next decoded batch of segment in log order, or null, if segment is over
+     */
+    private List<Entry> take(Segment segment) throws IOException
+    {
+        try
+        {
+            return segment.batches.take().get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void apply(Segment segment, Entry entry, Lane[] lanes) throws IOException
+    {
+        final RowMutation rm = entry.rm;
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("replaying mutation for %s.%s: %s",
+                                        rm.getTable(),
+                                        rm.key(),
+                                        "{" + StringUtils.join(rm.getColumnFamilies(), ", ") + "}"));
+        final Table table = Table.open(rm.getTable());
+        tablesRecovered.add(table);
+        replayedMutations++;
+
+        final CommitLogHeader header = forced ? null : segment.header;
+        final long entryLocation = entry.position;
+        Runnable runnable = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if (header != null)
+                    {
+                        /* remove column families that have already been flushed before applying the rest */
+                        for (ColumnFamily columnFamily : new ArrayList<ColumnFamily>(rm.getColumnFamilies()))
+                        {
+                            int id = table.getColumnFamilyId(columnFamily.name());
+                            if (!header.isDirty(id) || entryLocation <= header.getPosition(id))
+                            {
+                                rm.removeColumnFamily(columnFamily);
+                            }
+                        }
+                    }
+                    if (!rm.isEmpty())
+                    {
+                        table.apply(rm, null, false);
+                    }
+                }
+                catch (Throwable e)
+                {
+                    if (applyFailure.compareAndSet(null, e))
+                        logger.error("Failed to replay mutation " + rm, e);
+                }
+                finally
+                {
+                    outstanding.release();
+                }
+            }
+        };
+
+        outstanding.acquireUninterruptibly();
+        lanes[(rm.key().hashCode() & Integer.MAX_VALUE) % lanes.length].execute(runnable);
+    }
+
+    private void checkApplyFailure()
+    {
+        Throwable failure = applyFailure.get();
+        if (failure != null)
+            throw new RuntimeException(failure);
+    }
+
+    private static <T> Future<T> completed(final T value)
+    {
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>()
+        {
+            public T call()
+            {
+                return value;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private static <T> Future<T> failed(final Throwable e)
+    {
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>()
+        {
+            public T call() throws Exception
+            {
+                if (e instanceof Exception)
+                    throw (Exception) e;
+                throw (Error) e;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Reads single commit log segment into batches of raw records, and submits them for decoding.
+     */
+    private final class Segment implements Runnable
+    {
+        final File file;
+        final BlockingQueue<Future<List<Entry>>> batches = new ArrayBlockingQueue<Future<List<Entry>>>(READ_AHEAD_BATCHES);
+
+        // set by reader before the first batch is queued
+        CommitLogHeader header;
+        boolean mapped;
+        long segmentId;
+        boolean compressed;
+
+        Segment(File file)
+        {
+            this.file = file;
+        }
+
+        public void run()
+        {
+            try
+            {
+                read();
+                enqueue(END);
+            }
+            catch (Throwable e)
+            {
+                enqueue(CommitLogReplayer.<List<Entry>>failed(e));
+            }
+        }
+
+        private void read() throws IOException
+        {
+            // empty log file - just removing it
+            if (file.length() == 0 || stopped)
+                return;
+
+            long start = System.currentTimeMillis();
+            long records = 0;
+            BufferedRandomAccessFile reader = new BufferedRandomAccessFile(file.getAbsolutePath(), "r", (int) Math.min(file.length(), READ_BUFFER_SIZE));
+            try
+            {
+                int replayPosition = 0;
+                if (!forced)
+                {
+                    String headerPath = CommitLogHeader.getHeaderPathFromSegmentPath(file.getAbsolutePath());
+                    try
+                    {
+                        header = CommitLogHeader.readCommitLogHeader(headerPath);
+                        replayPosition = CommitLogHeader.getLowestPosition(header);
+                    }
+                    catch (IOException ioe)
+                    {
+                        logger.info(headerPath + " incomplete, missing or corrupt.  Everything is ok, don't panic.  CommitLog will be replayed from the beginning");
+                        logger.debug("exception was", ioe);
+                    }
+
+                    if (replayPosition < 0 || replayPosition > reader.length())
+                    {
+                        // replayPosition > reader.length() can happen if some data gets flushed before it is written to the commitlog
+                        // (see https://issues.apache.org/jira/browse/CASSANDRA-2285)
+                        logger.debug("skipping replay of fully-flushed "+ file);
+                        return;
+                    }
+                }
+
+                // segments written in mmap mode start with segment id, which is a part of record checksums
+                if (reader.length() >= MappedCommitLogSegment.PREFIX_SIZE && reader.readLong() == MappedCommitLogSegment.MAGIC)
+                {
+                    mapped = true;
+                    segmentId = reader.readLong();
+                    replayPosition = Math.max(replayPosition, MappedCommitLogSegment.PREFIX_SIZE);
+                }
+
+                /* seek to the lowest position where any CF has non-flushed data
+                 * if replay was forced - reading all records, regardless of commit log header
+                 */
+                reader.seek(replayPosition);
+                if (logger.isDebugEnabled())
+                    logger.debug("Replaying " + file + " starting at " + replayPosition);
+
+                if (forced)
+                    logger.info("Replaying " + file + " starting at " + replayPosition);
+
+                // assume file is compressed, if it has the special extension
+                compressed = file.getName().endsWith(CommitLog.COMPRESSION_EXTENSION);
+                if (compressed && logger.isDebugEnabled())
+                    logger.debug("Filename: " + file + " ends with \"" + CommitLog.COMPRESSION_EXTENSION + "\", expecting compression");
+
+                List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+                while (!reader.isEOF() && !stopped)
+                {
+                    long length;
+                    byte[] bytes;
+                    long claimedCRC32;
+                    try
+                    {
+                        length = reader.readLong();
+                        // RowMutation must be at LEAST 10 bytes:
+                        // 3 each for a non-empty Table and Key (including the 2-byte length from writeUTF), 4 bytes for column count.
+                        // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
+                        if (length < 10 || length > Integer.MAX_VALUE || length > reader.length() - reader.getFilePointer())
+                            break;
+                        bytes = new byte[(int) length]; // readlong can throw EOFException too
+                        reader.readFully(bytes);
+                        claimedCRC32 = reader.readLong();
+                    }
+                    catch (EOFException e)
+                    {
+                        // last CL entry didn't get completely written.  that's ok.
+                        break;
+                    }
+
+                    batch.add(new Record(bytes, claimedCRC32, reader.getFilePointer()));
+                    records++;
+                    if (batch.size() == BATCH_SIZE)
+                    {
+                        decode(batch);
+                        batch = new ArrayList<Record>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty())
+                    decode(batch);
+
+                replayedBytes.addAndGet(reader.getFilePointer() - replayPosition);
+            }
+            finally
+            {
+                reader.close();
+                logger.info(String.format("Finished reading %s: %d records in %d ms", file, records, System.currentTimeMillis() - start));
+            }
+        }
+
+        private void decode(final List<Record> batch)
+        {
+            enqueue(decoders.submit(new Callable<List<Entry>>()
+            {
+                public List<Entry> call() throws IOException
+                {
+                    List<Entry> entries = new ArrayList<Entry>(batch.size());
+                    for (Record record : batch)
+                    {
+                        Entry entry = decode(record);
+                        if (entry != null)
+                            entries.add(entry);
+                    }
+                    return entries;
+                }
+            }));
+        }
+
+        /**
+         * @return decoded mutation or null, if record is corrupted
+         */
+        private Entry decode(Record record) throws IOException
+        {
+            Checksum checksum = new CRC32();
+            if (mapped)
+                MappedCommitLogSegment.updateChecksum(checksum, segmentId);
+            checksum.update(record.bytes, 0, record.bytes.length);
+            if (record.claimedCRC32 != checksum.getValue())
+            {
+                // this part of the log must not have been fsynced.  probably the rest is bad too,
+                // but just in case there is no harm in trying them.
+                corruptedRecords.incrementAndGet();
+                return null;
+            }
+
+            // apply decompression
+            byte[] bytes = compressed ? Snappy.uncompress(record.bytes) : record.bytes;
+
+            /* deserialize the commit log entry */
+            RowMutation rm = RowMutation.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+            return new Entry(rm, record.position, isTimestampLimitReached(rm));
+        }
+
+        /**
+         * Queues batch for the apply stage, waiting for it to catch up, unless replay is stopped.
+         */
+        private void enqueue(Future<List<Entry>> batch)
+        {
+            try
+            {
+                while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS))
+                {
+                    if (stopped)
+                        return;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * @return true, if mutation has any column with timestamp value greater than max
+     */
+    private boolean isTimestampLimitReached(RowMutation rm)
+    {
+        if (maxReplayTimestamp == Long.MAX_VALUE)
+            return false;
+
+        for (ColumnFamily cf : rm.getColumnFamilies())
+        {
+            if (cf.isMarkedForDelete() && cf.getMarkedForDeleteAt() > maxReplayTimestamp)
+                return true;
+
+            for (IColumn c : cf.getSortedColumns())
+            {
+                if ((c.isMarkedForDelete() && c.getMarkedForDeleteAt() > maxReplayTimestamp) || c.timestamp() > maxReplayTimestamp)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Record
+    {
+        final byte[] bytes;
+        final long claimedCRC32;
+        final long position;
+
+        Record(byte[] bytes, long claimedCRC32, long position)
+        {
+            this.bytes = bytes;
+            this.claimedCRC32 = claimedCRC32;
+            this.position = position;
+        }
+    }
+
+    private static final class Entry
+    {
+        final RowMutation rm;
+        /** file position right after the record */
+        final long position;
+        final boolean timestampLimitReached;
+
+        Entry(RowMutation rm, long position, boolean timestampLimitReached)
+        {
+            this.rm = rm;
+            this.position = position;
+            this.timestampLimitReached = timestampLimitReached;
+        }
+    }
+
+    /**
+     * Runs its tasks on the stage one at a time, in submission order.
+     */
+    private static final class Lane implements Runnable
+    {
+        private final ThreadPoolExecutor stage;
+        // guarded by this
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        private boolean scheduled;
+
+        Lane(ThreadPoolExecutor stage)
+        {
+            this.stage = stage;
+        }
+
+        void execute(Runnable task)
+        {
+            synchronized (this)
+            {
+                tasks.add(task);
+                if (scheduled)
+                    return;
+                scheduled = true;
+            }
+            stage.execute(this);
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                Runnable task;
+                synchronized (this)
+                {
+                    task = tasks.poll();
+                    if (task == null)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+    }
+}
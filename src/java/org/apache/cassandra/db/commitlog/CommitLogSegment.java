@@ -47,6 +47,10 @@ public class CommitLogSegment
     private final BufferedRandomAccessFile logWriter;
     private final CommitLogHeader header;
 
+    // segment is written by single COMMIT-LOG-WRITER thread, so these are reused for all records
+    private final Checksum checksum = new CRC32();
+    private byte[] compressed = new byte[0];
+
     // right after creation of a new commit log segment there is a flood of
     // column families with requests to turn on dirty flag in it.
     // this leads to many write header requests issued in first couple of seconds;
@@ -61,12 +65,7 @@ public class CommitLogSegment
     {
         this.header = new CommitLogHeader(cfCount);
         long now = System.currentTimeMillis();
-        String logFile = DatabaseDescriptor.getLogFileLocation() + File.separator + "CommitLog-" + now + ".log";
-        
-        // add special file extension, if compression is enabled
-        if (DatabaseDescriptor.isLogFileCompression()) {
-            logFile += CommitLog.COMPRESSION_EXTENSION;
-        }
+        String logFile = getLogFileName(now);
 
         logger.info("Creating new commitlog segment " + logFile);
 
@@ -74,20 +73,45 @@ public class CommitLogSegment
         {
             logWriter = createWriter(logFile);
             logWriter.setSkipCache(true);
-
-            if (DatabaseDescriptor.getCommitLogSync() == CommitLogSync.periodic) {
-                delayWriteUntil = now + DatabaseDescriptor.getCommitLogSyncPeriod();
-            } else {
-                delayWriteUntil = 0;
-            }
         }
         catch (IOException e)
         {
             throw new FSWriteError(e);
         }
+        delayHeaderWrite(now);
+    }
+
+    /**
+     * for segments, which do not write through BufferedRandomAccessFile
+     */
+    protected CommitLogSegment(int cfCount, long now)
+    {
+        this.header = new CommitLogHeader(cfCount);
+        this.logWriter = null;
+        delayHeaderWrite(now);
     }
 
-    public void writeHeader() throws IOException
+    private void delayHeaderWrite(long now)
+    {
+        if (DatabaseDescriptor.getCommitLogSync() == CommitLogSync.periodic) {
+            delayWriteUntil = now + DatabaseDescriptor.getCommitLogSyncPeriod();
+        } else {
+            delayWriteUntil = 0;
+        }
+    }
+
+    static String getLogFileName(long id)
+    {
+        String logFile = DatabaseDescriptor.getLogFileLocation() + File.separator + "CommitLog-" + id + ".log";
+
+        // add special file extension, if compression is enabled
+        if (DatabaseDescriptor.isLogFileCompression()) {
+            logFile += CommitLog.COMPRESSION_EXTENSION;
+        }
+        return logFile;
+    }
+
+    public synchronized void writeHeader() throws IOException
     {
         if (delayWriteUntil==0 || delayWriteUntil<System.currentTimeMillis()) {
             String headerFile = getHeaderPath();
@@ -100,7 +124,7 @@ public class CommitLogSegment
         }
     }
     
-    private boolean isDelayedHeaderWritePending() {
+    protected boolean isDelayedHeaderWritePending() {
         return delayWriteUntil!=0;
     }
 
@@ -130,14 +154,15 @@ public class CommitLogSegment
                 writeHeader();
 
             // write mutation, w/ checksum
-            Checksum checkum = new CRC32();
+            Checksum checkum = checksum;
+            checkum.reset();
             if (serializedRow instanceof DataOutputBuffer)
             {
                 DataOutputBuffer buffer = (DataOutputBuffer) serializedRow;
 
                 if (DatabaseDescriptor.isLogFileCompression()) {
                     // apply compression
-                    byte[] compressed = new byte[Snappy.maxCompressedLength(buffer.getLength())];
+                    byte[] compressed = compressBuffer(buffer.getLength());
                     int compressedSize = Snappy.compress(buffer.getData(), 0, buffer.getLength(), compressed, 0);
                     
                     logWriter.writeLong(compressedSize);
@@ -156,7 +181,7 @@ public class CommitLogSegment
 
                 if (DatabaseDescriptor.isLogFileCompression()) {
                     // apply compression
-                    byte[] compressed = new byte[Snappy.maxCompressedLength(bytes.length)];
+                    byte[] compressed = compressBuffer(bytes.length);
                     int compressedSize = Snappy.compress(bytes, 0, bytes.length, compressed, 0);
     
                     logWriter.writeLong(compressedSize);
@@ -180,6 +205,14 @@ public class CommitLogSegment
         }
     }
 
+    private byte[] compressBuffer(int length)
+    {
+        int maxLength = Snappy.maxCompressedLength(length);
+        if (compressed.length < maxLength)
+            compressed = new byte[maxLength];
+        return compressed;
+    }
+
     public void sync() 
     {
         
@@ -194,6 +227,14 @@ public class CommitLogSegment
         }
     }
 
+    /**
+     * @return true, if some records may still be written to this segment
+     */
+    boolean hasPendingWrites()
+    {
+        return false;
+    }
+
     public CommitLogContext getContext()
     {
         return new CommitLogContext(logWriter.getFilePointer());
@@ -249,7 +290,7 @@ public class CommitLogSegment
     @Override
     public String toString()
     {
-        return "CommitLogSegment(" + logWriter.getPath() + ')';
+        return "CommitLogSegment(" + getPath() + ')';
     }
 
     public class CommitLogContext
@@ -271,7 +312,7 @@ public class CommitLogSegment
         public String toString()
         {
             return "CommitLogContext(" +
-                   "file='" + logWriter.getPath() + '\'' +
+                   "file='" + getPath() + '\'' +
                    ", position=" + position +
                    ')';
         }
@@ -0,0 +1,205 @@
+package org.apache.cassandra.db.commitlog;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * Executor of CommitLogMode mmap. Log records are written by calling threads into MappedCommitLogSegment
+ * concurrently; other commit log tasks (segment rolls, discards) are run by calling threads one at a time.
+ *
+ * Single COMMIT-LOG-SYNCER thread syncs all records written so far at once. In batch mode it starts next
+ * sync as soon as some writer waits for it, so records written while previous sync was in progress are
+ * synced together (group commit); in periodic mode it syncs every CommitLogSyncPeriodInMS and writers do not wait.
+ */
+class GroupCommitLogExecutorService implements ICommitLogExecutorService, GroupCommitLogExecutorServiceMBean
+{
+    private final boolean waitForSync = DatabaseDescriptor.getCommitLogSync() == DatabaseDescriptor.CommitLogSync.batch;
+
+    private final Object taskLock = new Object();
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncRequested = syncLock.newCondition();
+    private final Condition syncCompleted = syncLock.newCondition();
+    // guarded by syncLock
+    private boolean isSyncRequested;
+    private long syncsStarted;
+    private long syncsCompleted;
+    private int waitingWriters;
+
+    private final AtomicLong completedTaskCount = new AtomicLong();
+    private volatile long syncCount;
+    private volatile long syncNanos;
+
+    public GroupCommitLogExecutorService()
+    {
+        Runnable runnable = new WrappedRunnable()
+        {
+            public void runMayThrow() throws Exception
+            {
+                while (true)
+                {
+                    if (!waitForSync)
+                        Thread.sleep(DatabaseDescriptor.getCommitLogSyncPeriod());
+
+                    syncGroup();
+
+                    if (!waitForSync)
+                        CommitLog.instance().watchMaxCommitLogs();
+                }
+            }
+        };
+        new Thread(runnable, "COMMIT-LOG-SYNCER").start();
+
+        AbstractCommitLogExecutorService.registerMBean(this);
+    }
+
+    private void syncGroup() throws InterruptedException
+    {
+        long sync;
+        syncLock.lock();
+        try
+        {
+            while (waitForSync && !isSyncRequested)
+                syncRequested.await();
+            isSyncRequested = false;
+            // records completed before this point will be synced by this sync
+            sync = ++syncsStarted;
+        }
+        finally
+        {
+            syncLock.unlock();
+        }
+
+        long start = System.nanoTime();
+        CommitLog.instance().sync();
+        syncNanos += System.nanoTime() - start;
+        syncCount++;
+
+        syncLock.lock();
+        try
+        {
+            syncsCompleted = sync;
+            syncCompleted.signalAll();
+        }
+        finally
+        {
+            syncLock.unlock();
+        }
+    }
+
+    public void add(CommitLog.LogRecordAdder adder)
+    {
+        adder.run();
+        completedTaskCount.incrementAndGet();
+
+        if (!waitForSync)
+            return;
+
+        syncLock.lock();
+        try
+        {
+            waitingWriters++;
+            try
+            {
+                // a sync covers the record only if the record and all preceding ones in its segment were
+                // completed when the sync started. Sync in progress could have started before that,
+                // and a preceding record may still be in flight, so wait for further syncs till it is covered
+                while (!adder.isSynced())
+                {
+                    long sync = syncsStarted + 1;
+                    if (!isSyncRequested)
+                    {
+                        isSyncRequested = true;
+                        syncRequested.signal();
+                    }
+                    while (syncsCompleted < sync)
+                        syncCompleted.await();
+                }
+            }
+            finally
+            {
+                waitingWriters--;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            syncLock.unlock();
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> task)
+    {
+        FutureTask<T> ft = new FutureTask<T>(task);
+        synchronized (taskLock)
+        {
+            ft.run();
+        }
+        return ft;
+    }
+
+    public long getPendingTasks()
+    {
+        syncLock.lock();
+        try
+        {
+            return waitingWriters;
+        }
+        finally
+        {
+            syncLock.unlock();
+        }
+    }
+
+    public int getActiveCount()
+    {
+        return 1;
+    }
+
+    public long getCompletedTasks()
+    {
+        return completedTaskCount.get();
+    }
+
+    public long getSyncCount()
+    {
+        return syncCount;
+    }
+
+    public double getAverageSyncTime()
+    {
+        long count = syncCount;
+        return count == 0 ? 0 : syncNanos / 1000000.0 / count;
+    }
+}
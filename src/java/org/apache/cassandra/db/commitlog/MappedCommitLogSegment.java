@@ -0,0 +1,411 @@
+package org.apache.cassandra.db.commitlog;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.log4j.Logger;
+import org.xerial.snappy.Snappy;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.FSWriteError;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.io.DeletionService;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * Pre-allocated, memory mapped commit log segment, written by many threads at once (CommitLogMode mmap).
+ *
+ * A writer reserves space for its record by CAS on the allocation position, then copies the record into mapped
+ * buffer concurrently with other writers. Completed position covers only fully written records: a record
+ * completed ahead of preceding ones is covered, when the last of them completes. Sync forces everything below it,
+ * so a record is durable only once a sync started after all preceding records completed; see {@link #isSynced(long)}.
+ *
+ * Segment starts with MAGIC and segment id, which is mixed into record checksums: this way replay skips records
+ * left in the file from its previous use, when obsolete segment is reused for a new one instead of deleting it.
+ */
+public class MappedCommitLogSegment extends CommitLogSegment
+{
+    private static final Logger logger = Logger.getLogger(MappedCommitLogSegment.class);
+
+    /**
+     * First long of mapped segment. Negative, so it is never taken as a record length.
+     */
+    static final long MAGIC = 0xCA55A0DAC0117106L;
+    /** magic, segment id */
+    static final int PREFIX_SIZE = 16;
+    /** record length, checksum */
+    static final int RECORD_OVERHEAD = 16;
+
+    private static final AtomicLong lastId = new AtomicLong();
+
+    private static final ThreadLocal<Checksum> checksums = new ThreadLocal<Checksum>()
+    {
+        @Override
+        protected Checksum initialValue()
+        {
+            return new CRC32();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> compressBuffers = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[0];
+        }
+    };
+
+    private final long id;
+    private final String path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    // next position to allocate; greater than capacity, when segment is sealed
+    private final AtomicLong allocated = new AtomicLong(PREFIX_SIZE);
+    // all records below are completely written
+    private final AtomicLong completed = new AtomicLong(PREFIX_SIZE);
+    // start -> end of records completed before some of preceding ones
+    private final ConcurrentSkipListMap<Long, Long> completedAhead = new ConcurrentSkipListMap<Long, Long>();
+    private volatile long sealedAt = -1;
+
+    private final Object syncLock = new Object();
+    // guarded by syncLock
+    private long synced = PREFIX_SIZE;
+    private boolean released;
+
+    private MappedCommitLogSegment(int cfCount, long id, String path, MappedByteBuffer buffer)
+    {
+        super(cfCount, id);
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+
+        buffer.putLong(0, MAGIC);
+        buffer.putLong(8, id);
+        buffer.force();
+    }
+
+    /**
+     * Creates and maps new segment file.
+     */
+    static MappedCommitLogSegment create(int cfCount, int capacity)
+    {
+        long id = nextId();
+        String path = getLogFileName(id);
+        logger.info("Creating new commitlog segment " + path);
+
+        try
+        {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try
+            {
+                file.setLength(capacity);
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                return new MappedCommitLogSegment(cfCount, id, path, buffer);
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e);
+        }
+    }
+
+    /**
+     * segment ids are file names as well, so they must be unique even for segments created in the same millisecond
+     */
+    private static long nextId()
+    {
+        while (true)
+        {
+            long last = lastId.get();
+            long id = Math.max(System.currentTimeMillis(), last + 1);
+            if (lastId.compareAndSet(last, id))
+                return id;
+        }
+    }
+
+    /**
+     * @return max size of file space taken by record, for segment size estimations
+     */
+    static int maxRecordSize(Object serializedRow)
+    {
+        int length = serializedRow instanceof DataOutputBuffer
+                     ? ((DataOutputBuffer) serializedRow).getLength()
+                     : ((byte[]) serializedRow).length;
+        if (DatabaseDescriptor.isLogFileCompression())
+            length = Snappy.maxCompressedLength(length);
+        return PREFIX_SIZE + RECORD_OVERHEAD + length;
+    }
+
+    static void updateChecksum(Checksum checksum, long segmentId)
+    {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            checksum.update((int) (segmentId >>> shift));
+    }
+
+    /**
+     * @return context of written record or null, if it does not fit into segment
+     */
+    @Override
+    public CommitLogContext write(RowMutation rowMutation, Object serializedRow) throws IOException
+    {
+        byte[] bytes;
+        int length;
+        if (serializedRow instanceof DataOutputBuffer)
+        {
+            bytes = ((DataOutputBuffer) serializedRow).getData();
+            length = ((DataOutputBuffer) serializedRow).getLength();
+        }
+        else
+        {
+            assert serializedRow instanceof byte[];
+            bytes = (byte[]) serializedRow;
+            length = bytes.length;
+        }
+
+        if (DatabaseDescriptor.isLogFileCompression())
+        {
+            byte[] compressed = compressBuffers.get();
+            if (compressed.length < Snappy.maxCompressedLength(length))
+            {
+                compressed = new byte[Snappy.maxCompressedLength(length)];
+                compressBuffers.set(compressed);
+            }
+            length = Snappy.compress(bytes, 0, length, compressed, 0);
+            bytes = compressed;
+        }
+
+        long position = allocate(RECORD_OVERHEAD + length);
+        if (position < 0)
+            return null;
+
+        boolean writeHeader = false;
+        try
+        {
+            // length goes first, so replay can step over this record, even if the rest of it fails
+            buffer.putLong((int) position, length);
+
+            Table table = Table.open(rowMutation.getTable());
+            for (ColumnFamily columnFamily : rowMutation.getColumnFamilies())
+                writeHeader |= getHeader().turnOn(table.getColumnFamilyId(columnFamily.name()), position);
+
+            Checksum checksum = checksums.get();
+            checksum.reset();
+            updateChecksum(checksum, id);
+            checksum.update(bytes, 0, length);
+
+            ByteBuffer out = buffer.duplicate();
+            out.position((int) position + 8);
+            out.put(bytes, 0, length);
+            out.putLong(checksum.getValue());
+        }
+        finally
+        {
+            complete(position, position + RECORD_OVERHEAD + length);
+        }
+
+        if (writeHeader)
+            writeHeader();
+
+        return new CommitLogContext(position);
+    }
+
+    /**
+     * @return position of reserved space, or -1 if it does not fit
+     */
+    long allocate(int size)
+    {
+        while (true)
+        {
+            long position = allocated.get();
+            if (position + size > capacity)
+                return -1;
+            if (allocated.compareAndSet(position, position + size))
+                return position;
+        }
+    }
+
+    /**
+     * Moves completed position past the record, if all preceding ones are complete. Otherwise leaves
+     * the record to the writer of the last preceding one.
+     */
+    void complete(long position, long end)
+    {
+        if (!completed.compareAndSet(position, end))
+            completedAhead.put(position, end);
+        else if (completedAhead.isEmpty())
+            return;
+
+        while (true)
+        {
+            long current = completed.get();
+            Long next = completedAhead.get(current);
+            if (next == null)
+                return;
+            if (completed.compareAndSet(current, next))
+                completedAhead.remove(current);
+        }
+    }
+
+    /**
+     * Stops allocation of new records in this segment. Called on roll to a new segment.
+     */
+    void seal()
+    {
+        if (sealedAt < 0)
+            sealedAt = allocated.getAndSet(capacity + 1L);
+    }
+
+    @Override
+    boolean hasPendingWrites()
+    {
+        return sealedAt < 0 || completed.get() < sealedAt;
+    }
+
+    int capacity()
+    {
+        return capacity;
+    }
+
+    @Override
+    public void sync()
+    {
+        synchronized (syncLock)
+        {
+            if (released)
+                return;
+
+            long position = completed.get();
+            if (position > synced)
+            {
+                buffer.force();
+                synced = position;
+            }
+        }
+
+        try
+        {
+            if (isDelayedHeaderWritePending())
+                writeHeader();
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e);
+        }
+    }
+
+    /**
+     * @return true if record written at the position is synced to disk, or segment was released,
+     * which happens only after all its records were flushed
+     */
+    boolean isSynced(long position)
+    {
+        synchronized (syncLock)
+        {
+            // synced is always at a record boundary
+            return released || synced > position;
+        }
+    }
+
+    @Override
+    public CommitLogContext getContext()
+    {
+        return new CommitLogContext(Math.min(allocated.get(), capacity));
+    }
+
+    @Override
+    public String getPath()
+    {
+        return path;
+    }
+
+    @Override
+    public long length()
+    {
+        return Math.min(allocated.get(), capacity);
+    }
+
+    /**
+     * Makes obsolete segment look empty for replay, until it is reused.
+     */
+    void discard()
+    {
+        synchronized (syncLock)
+        {
+            buffer.putLong(0, 0L);
+            buffer.force();
+        }
+        if (!isDelayedHeaderWritePending())
+            DeletionService.submitDelete(getHeaderPath());
+    }
+
+    /**
+     * Reuses file and mapping of discarded segment for a new one.
+     */
+    MappedCommitLogSegment recycle(int cfCount)
+    {
+        synchronized (syncLock)
+        {
+            released = true;
+        }
+
+        long newId = nextId();
+        String newPath = getLogFileName(newId);
+        if (!new File(path).renameTo(new File(newPath)))
+            throw new FSWriteError(new IOException("Unable to rename " + path + " to " + newPath));
+        logger.info("Reusing commitlog segment " + path + " as " + newPath);
+
+        return new MappedCommitLogSegment(cfCount, newId, newPath, buffer);
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (syncLock)
+        {
+            if (!released)
+            {
+                released = true;
+                FileUtils.clean(buffer);
+            }
+        }
+    }
+}
@@ -69,7 +69,7 @@ public class FastRowMayExistQueryFilter extends QueryFilter
         if (!mayExist)
         {
             // did not found it in memtable. inspecting sstable bloom filters
-            mayExist=sstable.getBloomFilter().isPresent(key);
+            mayExist=sstable.getBloomFilter().isPresent(getKeyHash());
         }
         
         return this.emptyColumnIterator;
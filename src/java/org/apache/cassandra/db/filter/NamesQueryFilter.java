@@ -27,10 +27,12 @@ import java.util.*;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.utils.BloomFilter;
 
 public class NamesQueryFilter extends QueryFilter
 {
     public final SortedSet<byte[]> columns;
+    private BloomFilter.Hash[] columnHashes;
 
     public NamesQueryFilter(String key, QueryPath columnParent, SortedSet<byte[]> columns)
     {
@@ -64,7 +66,23 @@ public class NamesQueryFilter extends QueryFilter
 
     public ColumnIterator getSSTableColumnIterator(SSTableReader sstable) throws IOException
     {
-        return new SSTableNamesIterator(sstable, key, columns);
+        return new SSTableNamesIterator(sstable, key, getKeyHash(), columns, sstable.isColumnBloom() ? getColumnHashes() : null);
+    }
+
+    /**
+     * @return bloom filter hashes of key+column for every column, in order of columns
+     */
+    private BloomFilter.Hash[] getColumnHashes()
+    {
+        if (columnHashes == null)
+        {
+            BloomFilter.Hash[] hashes = new BloomFilter.Hash[columns.size()];
+            int i = 0;
+            for (byte[] name : columns)
+                hashes[i++] = BloomFilter.hash(key, name);
+            columnHashes = hashes;
+        }
+        return columnHashes;
     }
 
     public SuperColumn filterSuperColumn(SuperColumn superColumn, int gcBefore)
@@ -29,12 +29,16 @@ import java.util.Iterator;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.BloomFilter;
 import org.apache.cassandra.utils.ReducingIterator;
 
 public abstract class QueryFilter
 {
     public final String key;
     public final QueryPath path;
+    private BloomFilter.Hash keyHash;
+    private DecoratedKey decoratedKey;
 
     protected QueryFilter(String key, QueryPath path)
     {
@@ -53,6 +57,26 @@ public abstract class QueryFilter
         return getMemColumnIterator(memtable, memtable.getColumnFamily(key), comparator);
     }
 
+    /**
+     * @return bloom filter hash of the key, computed once for all sstables probed by this query
+     */
+    public BloomFilter.Hash getKeyHash()
+    {
+        if (keyHash == null)
+            keyHash = BloomFilter.hash(key);
+        return keyHash;
+    }
+
+    /**
+     * @return the key decorated by partitioner, computed once for all sstables probed by this query
+     */
+    public DecoratedKey getDecoratedKey()
+    {
+        if (decoratedKey == null)
+            decoratedKey = StorageService.getPartitioner().decorateKey(key);
+        return decoratedKey;
+    }
+
     /**
      * returns an iterator that returns columns from the given SSTable
      * matching the Filter criteria in sorted order.
@@ -46,8 +46,18 @@ public class SSTableNamesIterator extends SimpleAbstractColumnIterator
     public final SortedSet<byte[]> columns;
 
     public SSTableNamesIterator(SSTableReader ssTable, String key, SortedSet<byte[]> columnNames) throws IOException
+    {
+        this(ssTable, key, BloomFilter.hash(key), columnNames, null);
+    }
+
+    /**
+     * @param keyHash bloom filter hash of key
+     * @param columnHashes bloom filter hashes of key+column in order of columnNames, or null to compute them here
+     */
+    public SSTableNamesIterator(SSTableReader ssTable, String key, BloomFilter.Hash keyHash, SortedSet<byte[]> columnNames, BloomFilter.Hash[] columnHashes) throws IOException
     {
         assert columnNames != null;
+        assert columnHashes == null || columnHashes.length == columnNames.size();
         this.columns = columnNames;
 
         List<byte[]> filteredColumnNames = new ArrayList<byte[]>(columnNames.size());
@@ -55,12 +65,14 @@ public class SSTableNamesIterator extends SimpleAbstractColumnIterator
         if (ssTable.isColumnBloom())
         {
             // filtering early by key + column bloom filter
+            int i = 0;
             for (byte[] name : columnNames)
             {
-                if (ssTable.mayPresent(key, name))
+                if (columnHashes == null ? ssTable.mayPresent(key, name) : ssTable.mayPresent(columnHashes[i]))
                 {
                     filteredColumnNames.add(name);
                 }
+                i++;
             }
             if (filteredColumnNames.isEmpty())
             {
@@ -74,7 +86,7 @@ public class SSTableNamesIterator extends SimpleAbstractColumnIterator
         }
 
         DecoratedKey decoratedKey = ssTable.getPartitioner().decorateKey(key);
-        FileDataInput file = ssTable.getFileDataInput(decoratedKey, DatabaseDescriptor.getIndexedReadBufferSizeInKB() * 1024);
+        FileDataInput file = ssTable.getFileDataInput(decoratedKey, keyHash, DatabaseDescriptor.getIndexedReadBufferSizeInKB() * 1024);
         if (file == null)
             return;
         try
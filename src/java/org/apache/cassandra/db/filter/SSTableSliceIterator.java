@@ -36,6 +36,7 @@ import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.IndexHelper;
 import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.utils.BloomFilter;
 
 /**
  *  A Column Iterator over SSTable
@@ -50,12 +51,18 @@ class SSTableSliceIterator extends AbstractIterator<IColumn> implements ColumnIt
 
     public SSTableSliceIterator(SSTableReader ssTable, String key, byte[] startColumn, byte[] finishColumn, boolean reversed)
     throws IOException
+    {
+        this(ssTable, key, BloomFilter.hash(key), startColumn, finishColumn, reversed);
+    }
+
+    public SSTableSliceIterator(SSTableReader ssTable, String key, BloomFilter.Hash keyHash, byte[] startColumn, byte[] finishColumn, boolean reversed)
+    throws IOException
     {
         this.reversed = reversed;
 
         /* Morph key into actual key based on the partition type. */
         DecoratedKey decoratedKey = ssTable.getPartitioner().decorateKey(key);
-        FileDataInput fdi = ssTable.getFileDataInput(decoratedKey, DatabaseDescriptor.getSlicedReadBufferSizeInKB() * 1024);
+        FileDataInput fdi = ssTable.getFileDataInput(decoratedKey, keyHash, DatabaseDescriptor.getSlicedReadBufferSizeInKB() * 1024);
         this.comparator = ssTable.getColumnComparator();
         this.startColumn = startColumn;
         this.finishColumn = finishColumn;
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.GuidGenerator;
+
+/**
+ * RandomPartitioner variant with the same MD5 tokens, kept in two longs (LongPairToken) instead of BigInteger,
+ * so keys are placed on the ring exactly as by RandomPartitioner, but sstables are not compatible.
+ *
+ * On disk key is the token in 22 chars of 6 bits each ('0'..'o', so one byte each in UTF), followed by the key
+ * with no delimiter. The token is written with its sign bit flipped, so disk keys sort by token as strings too.
+ */
+public class BinaryRandomPartitioner implements IPartitioner<LongPairToken>
+{
+    public static final LongPairToken MINIMUM = new LongPairToken(-1, -1);
+
+    static final int TOKEN_CHARS = 22;
+
+    private static final double TWO_64 = Math.pow(2, 64);
+    private static final double TWO_127 = Math.pow(2, 127);
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>()
+    {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            return FBUtilities.createDigest("MD5");
+        }
+    };
+
+    public DecoratedKey<LongPairToken> decorateKey(String key)
+    {
+        return new DecoratedKey<LongPairToken>(getToken(key), key);
+    }
+
+    public DecoratedKey<LongPairToken> convertFromDiskFormat(String key)
+    {
+        assert key.length() >= TOKEN_CHARS : key;
+        long hi = 0, lo = 0;
+        for (int i = 0; i < TOKEN_CHARS - 1; i++)
+        {
+            hi = (hi << 6) | (lo >>> 58);
+            lo = (lo << 6) | (key.charAt(i) - '0');
+        }
+        // 126 bits so far; the last char holds remaining two in its high bits
+        hi = (hi << 2) | (lo >>> 62);
+        lo = (lo << 2) | ((key.charAt(TOKEN_CHARS - 1) - '0') >>> 4);
+
+        return new DecoratedKey<LongPairToken>(new LongPairToken(hi ^ Long.MIN_VALUE, lo), key.substring(TOKEN_CHARS));
+    }
+
+    public String convertToDiskFormat(DecoratedKey<LongPairToken> key)
+    {
+        char[] chars = new char[TOKEN_CHARS + key.key.length()];
+        long hi = key.token.hi ^ Long.MIN_VALUE, lo = key.token.lo;
+        chars[TOKEN_CHARS - 1] = (char) ('0' + (((int) lo & 3) << 4));
+        lo = (lo >>> 2) | (hi << 62);
+        hi >>>= 2;
+        for (int i = TOKEN_CHARS - 2; i >= 0; i--)
+        {
+            chars[i] = (char) ('0' + ((int) lo & 63));
+            lo = (lo >>> 6) | (hi << 58);
+            hi >>>= 6;
+        }
+        key.key.getChars(0, key.key.length(), chars, TOKEN_CHARS);
+        return new String(chars);
+    }
+
+    /**
+     * Same as RandomPartitioner's: ring is [0, 2**127) and MINIMUM acts as zero.
+     */
+    public LongPairToken midpoint(LongPairToken ltoken, LongPairToken rtoken)
+    {
+        long lhi = ltoken.equals(MINIMUM) ? 0 : ltoken.hi;
+        long llo = ltoken.equals(MINIMUM) ? 0 : ltoken.lo;
+        long rhi = rtoken.equals(MINIMUM) ? 0 : rtoken.hi;
+        long rlo = rtoken.equals(MINIMUM) ? 0 : rtoken.lo;
+
+        // distance from left to right, adding the ring size when wrapping
+        long dlo = rlo - llo;
+        long dhi = rhi - lhi - (unsignedLess(rlo, llo) ? 1 : 0);
+        if (lhi > rhi || (lhi == rhi && !unsignedLess(llo, rlo)))
+            dhi += Long.MIN_VALUE;
+
+        // left + distance / 2, modulo ring size
+        long mlo = llo + ((dlo >>> 1) | (dhi << 63));
+        long mhi = lhi + (dhi >>> 1) + (unsignedLess(mlo, llo) ? 1 : 0);
+        return new LongPairToken(mhi & Long.MAX_VALUE, mlo);
+    }
+
+    private static boolean unsignedLess(long a, long b)
+    {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    public LongPairToken getMinimumToken()
+    {
+        return MINIMUM;
+    }
+
+    public LongPairToken getRandomToken()
+    {
+        return getToken(GuidGenerator.guid());
+    }
+
+    private final Token.TokenFactory<LongPairToken> tokenFactory = new Token.TokenFactory<LongPairToken>() {
+        public byte[] toByteArray(Token<LongPairToken> token)
+        {
+            return ((LongPairToken) token).toByteArray();
+        }
+
+        public Token<LongPairToken> fromByteArray(byte[] bytes)
+        {
+            return LongPairToken.fromByteArray(bytes);
+        }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            if (length != 16 || bytes.length != 16)
+                return super.compare(buffer, offset, length, bytes);
+            // big endian two's complement of the same length: only the first byte is signed
+            byte first = buffer.get(offset);
+            if (first != bytes[0])
+                return first < bytes[0] ? -1 : 1;
+            return FBUtilities.compareByteArrays(buffer, offset, length, bytes);
+        }
+
+        public String toString(Token<LongPairToken> token)
+        {
+            return token.toString();
+        }
+
+        public Token<LongPairToken> fromString(String string)
+        {
+            return LongPairToken.valueOf(new BigInteger(string));
+        }
+    };
+
+    public Token.TokenFactory<LongPairToken> getTokenFactory()
+    {
+        return tokenFactory;
+    }
+
+    public boolean preservesOrder()
+    {
+        return false;
+    }
+
+    /**
+     * Absolute value of MD5 of the key, as in RandomPartitioner. The only exception is -2**127,
+     * which does not fit 128 bits when negated, so it becomes 2**127-1 rather than 2**127.
+     */
+    public LongPairToken getToken(String key)
+    {
+        if (key.isEmpty())
+            return MINIMUM;
+
+        byte[] digest = digests.get().digest(key.getBytes());
+        long hi = 0, lo = 0;
+        for (int i = 0; i < 8; i++)
+        {
+            hi = (hi << 8) | (digest[i] & 0xFF);
+            lo = (lo << 8) | (digest[i + 8] & 0xFF);
+        }
+        if (hi < 0)
+        {
+            lo = -lo;
+            hi = ~hi + (lo == 0 ? 1 : 0);
+            if (hi < 0)
+                return new LongPairToken(Long.MAX_VALUE, -1);
+        }
+        return new LongPairToken(hi, lo);
+    }
+
+    public Map<Token, Float> describeOwnership(List<Token> sortedTokens)
+    {
+        if (sortedTokens.isEmpty())
+            throw new RuntimeException("No nodes present in the cluster. How did you call this?");
+
+        Map<Token, Float> ownerships = new HashMap<Token, Float>();
+        if (sortedTokens.size() == 1)
+        {
+            ownerships.put(sortedTokens.get(0), 1.0f);
+            return ownerships;
+        }
+
+        // each token owns the range from the previous one, the first one wraps around to the last
+        LongPairToken previous = (LongPairToken) sortedTokens.get(sortedTokens.size() - 1);
+        for (Token t : sortedTokens)
+        {
+            LongPairToken token = (LongPairToken) t;
+            long lo = token.lo - previous.lo;
+            long hi = (token.hi - previous.hi - (unsignedLess(token.lo, previous.lo) ? 1 : 0)) & Long.MAX_VALUE;
+            double distance = hi * TWO_64 + (lo >>> 1) * 2.0 + (lo & 1);
+            ownerships.put(token, (float) (distance / TWO_127));
+            previous = token;
+        }
+        return ownerships;
+    }
+
+    public void validateToken(Token token) throws ConfigurationException
+    {
+        if (!(token instanceof LongPairToken) || ((LongPairToken) token).hi < 0)
+            throw new ConfigurationException("Token must be an integer in [0, 2**127): " + token);
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.cassandra.dht;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.Collator;
 import java.util.*;
 
@@ -123,6 +124,12 @@ public class CollatingOrderPreservingPartitioner implements IPartitioner<BytesTo
             return new BytesToken(bytes);
         }
 
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            return FBUtilities.compareByteArrays(buffer, offset, length, bytes);
+        }
+
         public String toString(Token<byte[]> bytesToken)
         {
             return FBUtilities.bytesToHex(bytesToken.token);
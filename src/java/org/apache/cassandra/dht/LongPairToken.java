@@ -0,0 +1,115 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.dht;
+
+import java.math.BigInteger;
+
+/**
+ * 128 bit signed token kept in two longs: hi is signed, lo holds the low bits unsigned.
+ * Compares without allocation, unlike BigIntegerToken.
+ */
+public class LongPairToken extends Token<LongPairToken>
+{
+    private static final long serialVersionUID = 1L;
+
+    public final long hi;
+    public final long lo;
+
+    public LongPairToken(long hi, long lo)
+    {
+        super(null);
+        this.token = this;
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    public static LongPairToken valueOf(BigInteger value)
+    {
+        return new LongPairToken(value.shiftRight(64).longValue(), value.longValue());
+    }
+
+    public BigInteger toBigInteger()
+    {
+        return new BigInteger(toByteArray());
+    }
+
+    /**
+     * @return 16 bytes, big endian two's complement
+     */
+    public byte[] toByteArray()
+    {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++)
+        {
+            bytes[i] = (byte) (hi >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (lo >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    public static LongPairToken fromByteArray(byte[] bytes)
+    {
+        if (bytes.length != 16)
+            return valueOf(new BigInteger(bytes));
+        long hi = 0, lo = 0;
+        for (int i = 0; i < 8; i++)
+        {
+            hi = (hi << 8) | (bytes[i] & 0xFF);
+            lo = (lo << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new LongPairToken(hi, lo);
+    }
+
+    @Override
+    public int compareTo(Token<LongPairToken> o)
+    {
+        LongPairToken other = o.token;
+        if (hi != other.hi)
+            return hi < other.hi ? -1 : 1;
+        if (lo != other.lo)
+            return (lo ^ Long.MIN_VALUE) < (other.lo ^ Long.MIN_VALUE) ? -1 : 1;
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof LongPairToken))
+            return false;
+        LongPairToken other = (LongPairToken) obj;
+        return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (hi ^ (hi >>> 32) ^ lo ^ (lo >>> 32));
+    }
+
+    /**
+     * same decimal form as BigIntegerToken, so tokens are interchangeable with RandomPartitioner ones
+     */
+    @Override
+    public String toString()
+    {
+        return toBigInteger().toString();
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.dht;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.cassandra.config.ConfigurationException;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.MurmurHash;
+
+/**
+ * Generates a LongToken using 64 bit MurmurHash of UTF-8 bytes of the key, much cheaper than MD5 of
+ * RandomPartitioner. The ring is the whole long range, Long.MIN_VALUE is the minimum token and is never
+ * generated for a key.
+ *
+ * On disk key is the token in 11 chars of 6 bits each ('0'..'o', so one byte each in UTF), followed by the key
+ * with no delimiter. The token is written with its sign bit flipped, so disk keys sort by token as strings too.
+ */
+public class Murmur3Partitioner implements IPartitioner<LongToken>
+{
+    public static final LongToken MINIMUM = new LongToken(Long.MIN_VALUE);
+
+    static final int TOKEN_CHARS = 11;
+
+    private static final double TWO_64 = Math.pow(2, 64);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public DecoratedKey<LongToken> decorateKey(String key)
+    {
+        return new DecoratedKey<LongToken>(getToken(key), key);
+    }
+
+    public DecoratedKey<LongToken> convertFromDiskFormat(String key)
+    {
+        assert key.length() >= TOKEN_CHARS : key;
+        long token = 0;
+        for (int i = 0; i < TOKEN_CHARS - 1; i++)
+            token = (token << 6) | (key.charAt(i) - '0');
+        // 60 bits so far; the last char holds remaining four in its high bits
+        token = (token << 4) | ((key.charAt(TOKEN_CHARS - 1) - '0') >>> 2);
+
+        return new DecoratedKey<LongToken>(new LongToken(token ^ Long.MIN_VALUE), key.substring(TOKEN_CHARS));
+    }
+
+    public String convertToDiskFormat(DecoratedKey<LongToken> key)
+    {
+        char[] chars = new char[TOKEN_CHARS + key.key.length()];
+        long token = key.token.token ^ Long.MIN_VALUE;
+        chars[TOKEN_CHARS - 1] = (char) ('0' + (((int) token & 15) << 2));
+        token >>>= 4;
+        for (int i = TOKEN_CHARS - 2; i >= 0; i--)
+        {
+            chars[i] = (char) ('0' + ((int) token & 63));
+            token >>>= 6;
+        }
+        key.key.getChars(0, key.key.length(), chars, TOKEN_CHARS);
+        return new String(chars);
+    }
+
+    /**
+     * Ring is 2**64 tokens, so plain long arithmetic wraps around it. Equal tokens mean the whole ring.
+     */
+    public LongToken midpoint(LongToken ltoken, LongToken rtoken)
+    {
+        long left = ltoken.token, right = rtoken.token;
+        long mid = left + ((right - left) >>> 1);
+        if (left == right)
+            mid += Long.MIN_VALUE;
+        return new LongToken(mid);
+    }
+
+    public LongToken getMinimumToken()
+    {
+        return MINIMUM;
+    }
+
+    public LongToken getRandomToken()
+    {
+        long token = new Random().nextLong();
+        return new LongToken(token == Long.MIN_VALUE ? Long.MAX_VALUE : token);
+    }
+
+    private final Token.TokenFactory<Long> tokenFactory = new Token.TokenFactory<Long>() {
+        public byte[] toByteArray(Token<Long> longToken)
+        {
+            long token = longToken.token;
+            byte[] bytes = new byte[8];
+            for (int i = 0; i < 8; i++)
+                bytes[i] = (byte) (token >>> (56 - 8 * i));
+            return bytes;
+        }
+
+        public Token<Long> fromByteArray(byte[] bytes)
+        {
+            long token = 0;
+            for (int i = 0; i < 8; i++)
+                token = (token << 8) | (bytes[i] & 0xFF);
+            return new LongToken(token);
+        }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            // big endian two's complement of the same length: only the first byte is signed
+            byte first = buffer.get(offset);
+            if (first != bytes[0])
+                return first < bytes[0] ? -1 : 1;
+            return FBUtilities.compareByteArrays(buffer, offset, length, bytes);
+        }
+
+        public String toString(Token<Long> longToken)
+        {
+            return longToken.token.toString();
+        }
+
+        public Token<Long> fromString(String string)
+        {
+            return new LongToken(Long.parseLong(string));
+        }
+    };
+
+    public Token.TokenFactory<Long> getTokenFactory()
+    {
+        return tokenFactory;
+    }
+
+    public boolean preservesOrder()
+    {
+        return false;
+    }
+
+    public LongToken getToken(String key)
+    {
+        if (key.isEmpty())
+            return MINIMUM;
+
+        byte[] bytes = key.getBytes(UTF8);
+        long hash = MurmurHash.hash64(ByteBuffer.wrap(bytes), 0, bytes.length, 0);
+        return new LongToken(hash == Long.MIN_VALUE ? Long.MAX_VALUE : hash);
+    }
+
+    public Map<Token, Float> describeOwnership(List<Token> sortedTokens)
+    {
+        if (sortedTokens.isEmpty())
+            throw new RuntimeException("No nodes present in the cluster. How did you call this?");
+
+        Map<Token, Float> ownerships = new HashMap<Token, Float>();
+        if (sortedTokens.size() == 1)
+        {
+            ownerships.put(sortedTokens.get(0), 1.0f);
+            return ownerships;
+        }
+
+        // each token owns the range from the previous one, the first one wraps around to the last
+        long previous = ((LongToken) sortedTokens.get(sortedTokens.size() - 1)).token;
+        for (Token t : sortedTokens)
+        {
+            long token = ((LongToken) t).token;
+            long distance = token - previous;
+            ownerships.put(t, (float) (((distance >>> 1) * 2.0 + (distance & 1)) / TWO_64));
+            previous = token;
+        }
+        return ownerships;
+    }
+
+    public void validateToken(Token token) throws ConfigurationException
+    {
+        if (!(token instanceof LongToken))
+            throw new ConfigurationException("Token must be a long integer: " + token);
+    }
+}
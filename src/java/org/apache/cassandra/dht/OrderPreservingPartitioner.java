@@ -20,6 +20,7 @@ package org.apache.cassandra.dht;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.apache.cassandra.config.ConfigurationException;
@@ -139,6 +140,32 @@ public class OrderPreservingPartitioner implements IPartitioner<StringToken>
             }
         }
 
+        /**
+         * UTF-8 bytes sort as code points, while strings compare by UTF-16 chars. These differ only for
+         * a supplementary code point against a char of U+E000..U+FFFF, where the surrogate pair sorts first.
+         */
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            int minLength = Math.min(length, bytes.length);
+            int i = 0;
+            while (i < minLength && buffer.get(offset + i) == bytes[i])
+                i++;
+            if (i == minLength)
+                return length == bytes.length ? 0 : (length < bytes.length ? -1 : 1);
+
+            // leading bytes of the differing characters
+            int lead = i;
+            while (lead > 0 && (bytes[lead] & 0xC0) == 0x80)
+                lead--;
+            int lead1 = buffer.get(offset + lead) & 0xFF, lead2 = bytes[lead] & 0xFF;
+            if (lead1 >= 0xF0 && lead2 >= 0xEE && lead2 < 0xF0)
+                return -1;
+            if (lead2 >= 0xF0 && lead1 >= 0xEE && lead1 < 0xF0)
+                return 1;
+            return (buffer.get(offset + i) & 0xFF) < (bytes[i] & 0xFF) ? -1 : 1;
+        }
+
         public String toString(Token<String> stringToken)
         {
             return stringToken.token;
@@ -20,6 +20,7 @@ package org.apache.cassandra.dht;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -95,6 +96,18 @@ public class RandomPartitioner implements IPartitioner<BigIntegerToken>
             return new BigIntegerToken(new BigInteger(bytes));
         }
 
+        @Override
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            // minimal two's complement: negative values sort first, longer ones are farther from zero
+            boolean negative = buffer.get(offset) < 0;
+            if (negative != bytes[0] < 0)
+                return negative ? -1 : 1;
+            if (length != bytes.length)
+                return (length < bytes.length) != negative ? -1 : 1;
+            return FBUtilities.compareByteArrays(buffer, offset, length, bytes);
+        }
+
         public String toString(Token<BigInteger> bigIntegerToken)
         {
             return bigIntegerToken.token.toString();
@@ -22,6 +22,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 import org.apache.cassandra.io.ICompactSerializer2;
 import org.apache.cassandra.service.StorageService;
@@ -72,6 +73,19 @@ public abstract class Token<T> implements Comparable<Token<T>>, Serializable
         public abstract Token<T> fromByteArray(byte[] bytes);
         public abstract String toString(Token<T> token); // serialize as string, not necessarily human-readable
         public abstract Token<T> fromString(String string); // deserialize
+
+        /**
+         * Compares tokens in their toByteArray form, the first one read in place from buffer.
+         * Decodes both by default; factories override it where the bytes compare without allocation.
+         */
+        public int compare(ByteBuffer buffer, int offset, int length, byte[] bytes)
+        {
+            byte[] other = new byte[length];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(offset);
+            dup.get(other);
+            return fromByteArray(other).compareTo(fromByteArray(bytes));
+        }
     }
 
     public static class TokenSerializer implements ICompactSerializer2<Token>
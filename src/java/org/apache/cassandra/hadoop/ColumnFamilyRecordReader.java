@@ -28,9 +28,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.AbstractIterator;
 
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.db.IColumn;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.Types;
@@ -100,10 +106,50 @@ public class ColumnFamilyRecordReader extends RecordReader<String, SortedMap<byt
         return true;
     }
 
+    // we don't use endpointsnitch since we are trying to support hadoop nodes that are
+    // not necessarily on Cassandra machines, too.  This should be adequate for single-DC clusters, at least.
+    /**
+     * @return location of the split that is this host, or null if the split is not local
+     */
+    static String getLocalLocation(ColumnFamilySplit split)
+    {
+        InetAddress[] localAddresses = new InetAddress[0];
+        try
+        {
+            localAddresses = InetAddress.getAllByName(InetAddress.getLocalHost().getHostAddress());
+        }
+        catch (UnknownHostException e)
+        {
+            throw new AssertionError(e);
+        }
+        for (InetAddress address : localAddresses)
+        {
+            for (String location : split.getLocations())
+            {
+                InetAddress locationAddress = null;
+                try
+                {
+                    locationAddress = InetAddress.getByName(location);
+                }
+                catch (UnknownHostException e)
+                {
+                    throw new AssertionError(e);
+                }
+                if (address.equals(locationAddress))
+                {
+                    return location;
+                }
+            }
+        }
+        return null;
+    }
+
     private class RowIterator extends AbstractIterator<Pair<String, SortedMap<byte[], IColumn>>>
     {
         private List<KeySlice> rows;
-        private String startToken;
+        private Future<List<KeySlice>> nextRows;
+        private boolean started;
+        private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("RANGE-PREFETCH"));
         private int totalRead = 0;
         private int i = 0;
         private final AbstractType comparator;
@@ -145,80 +191,72 @@ public class ColumnFamilyRecordReader extends RecordReader<String, SortedMap<byt
             if (rows != null)
                 return;
             
-            if (startToken == null)
-            {
-                startToken = split.getStartToken();
-            } 
-            else if (startToken.equals(split.getEndToken()))
+            if (!started)
             {
-                rows = null;
-                return;
+                nextRows = fetch(split.getStartToken());
+                started = true;
             }
-            
-            KeyRange keyRange = new KeyRange(batchRowCount)
-                                .setStart_token(startToken)
-                                .setEnd_token(split.getEndToken());
+            // the previous batch was the last one
+            if (nextRows == null)
+                return;
+
             try
             {
-                rows = client.get_range_slices(keyspace,
-                                               new ColumnParent(cfName),
-                                               predicate,
-                                               keyRange,
-                                               ConsistencyLevel.ONE);
-                    
-                // nothing new? reached the end
-                if (rows.isEmpty())
-                {
-                    rows = null;
-                    return;
-                }
-                               
-                // reset to iterate through this new batch
-                i = 0;
-                
-                // prepare for the next slice to be read
-                KeySlice lastRow = rows.get(rows.size() - 1);
-                startToken = partitioner.getTokenFactory().toString(partitioner.getToken(lastRow.getKey()));
+                rows = nextRows.get();
             }
-            catch (Exception e)
+            catch (ExecutionException e)
             {
-                throw new RuntimeException(e);
+                throw new RuntimeException(e.getCause());
             }
-        }
-
-        // we don't use endpointsnitch since we are trying to support hadoop nodes that are
-        // not necessarily on Cassandra machines, too.  This should be adequate for single-DC clusters, at least.
-        private String getLocation()
-        {
-            InetAddress[] localAddresses = new InetAddress[0];
-            try
+            catch (InterruptedException e)
             {
-                localAddresses = InetAddress.getAllByName(InetAddress.getLocalHost().getHostAddress());
+                throw new AssertionError(e);
             }
-            catch (UnknownHostException e)
+            nextRows = null;
+
+            // nothing new? reached the end
+            if (rows.isEmpty())
             {
-                throw new AssertionError(e);
+                rows = null;
+                return;
             }
-            for (InetAddress address : localAddresses)
+
+            // reset to iterate through this new batch
+            i = 0;
+
+            // fetch the next slice while this one is read
+            KeySlice lastRow = rows.get(rows.size() - 1);
+            String startToken = partitioner.getTokenFactory().toString(partitioner.getToken(lastRow.getKey()));
+            if (!startToken.equals(split.getEndToken()))
+                nextRows = fetch(startToken);
+        }
+
+        /**
+         * Requests the batch of rows after startToken in background; the client is used by one thread at a time,
+         * as the next batch is requested only when the previous one is received.
+         */
+        private Future<List<KeySlice>> fetch(String startToken)
+        {
+            final KeyRange keyRange = new KeyRange(batchRowCount)
+                                      .setStart_token(startToken)
+                                      .setEnd_token(split.getEndToken());
+            return prefetcher.submit(new Callable<List<KeySlice>>()
             {
-                for (String location : split.getLocations())
+                public List<KeySlice> call() throws Exception
                 {
-                    InetAddress locationAddress = null;
-                    try
-                    {
-                        locationAddress = InetAddress.getByName(location);
-                    }
-                    catch (UnknownHostException e)
-                    {
-                        throw new AssertionError(e);
-                    }
-                    if (address.equals(locationAddress))
-                    {
-                        return location;
-                    }
+                    return client.get_range_slices(keyspace,
+                                                   new ColumnParent(cfName),
+                                                   predicate,
+                                                   keyRange,
+                                                   ConsistencyLevel.ONE);
                 }
-            }
-            return split.getLocations()[0];
+            });
+        }
+
+        private String getLocation()
+        {
+            String location = getLocalLocation(split);
+            return location == null ? split.getLocations()[0] : location;
         }
 
         /**
@@ -249,6 +287,7 @@ public class ColumnFamilyRecordReader extends RecordReader<String, SortedMap<byt
         
         public void close() 
         {
+            prefetcher.shutdownNow();
             if (socket != null && socket.isOpen())
             {
                 socket.close();
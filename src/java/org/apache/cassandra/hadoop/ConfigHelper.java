@@ -41,6 +41,7 @@ public class ConfigHelper
     private static final int DEFAULT_RANGE_BATCH_SIZE = 4096;
     private static final String THRIFT_PORT = "cassandra.thrift.port";
     private static final String INITIAL_THRIFT_ADDRESS = "cassandra.thrift.address";
+    private static final String INPUT_SNAPSHOT_CONFIG = "cassandra.input.snapshot";
 
     /**
      * Set the keyspace and column family for this job.
@@ -141,6 +142,23 @@ public class ConfigHelper
         return predicateFromString(conf.get(PREDICATE_CONFIG));
     }
 
+    /**
+     * Set the name of the snapshot for {@link LocalColumnFamilyInputFormat} to read local splits from,
+     * instead of requesting them through Thrift. The snapshot must be taken on all nodes beforehand.
+     *
+     * @param conf         Job configuration you are about to run
+     * @param snapshotName
+     */
+    public static void setInputSnapshot(Configuration conf, String snapshotName)
+    {
+        conf.set(INPUT_SNAPSHOT_CONFIG, snapshotName);
+    }
+
+    public static String getInputSnapshot(Configuration conf)
+    {
+        return conf.get(INPUT_SNAPSHOT_CONFIG);
+    }
+
     private static String predicateToString(SlicePredicate predicate)
     {
         assert predicate != null;
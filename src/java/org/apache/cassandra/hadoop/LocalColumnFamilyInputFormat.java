@@ -0,0 +1,57 @@
+package org.apache.cassandra.hadoop;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.IOException;
+import java.util.SortedMap;
+
+import org.apache.cassandra.db.IColumn;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * ColumnFamilyInputFormat reading the splits held by the host of the task directly from sstables
+ * of a snapshot, bypassing Thrift and the coordinator. Splits of other hosts are read through Thrift.
+ *
+ * In addition to ColumnFamilyInputFormat configuration, set the snapshot with
+ *   ConfigHelper.setInputSnapshot
+ * The snapshot must be taken on all nodes before the job starts (nodetool snapshot &lt;name&gt;), and
+ * tasks must run with the configuration of the Cassandra node (storage-config system property),
+ * to find its data directories.
+ *
+ * Splits are computed by describe_splits from the index summary samples of the nodes, as usual, so every
+ * split maps to a few index intervals of each sstable. The rows of the split are merged across the local
+ * sstables only, so the result is what the local replica holds: use it with replicas kept consistent by
+ * repair, or when consistency ONE reads are acceptable.
+ */
+public class LocalColumnFamilyInputFormat extends ColumnFamilyInputFormat
+{
+    @Override
+    public RecordReader<String, SortedMap<byte[], IColumn>> createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException
+    {
+        if (ConfigHelper.getInputSnapshot(taskAttemptContext.getConfiguration()) != null
+            && ColumnFamilyRecordReader.getLocalLocation((ColumnFamilySplit) inputSplit) != null)
+            return new SSTableRecordReader();
+        return super.createRecordReader(inputSplit, taskAttemptContext);
+    }
+}
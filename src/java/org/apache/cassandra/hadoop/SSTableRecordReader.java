@@ -0,0 +1,359 @@
+package org.apache.cassandra.hadoop;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.*;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.commons.collections.iterators.CollatingIterator;
+import org.apache.log4j.Logger;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.IColumn;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.db.filter.NamesQueryFilter;
+import org.apache.cassandra.db.filter.QueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.db.filter.SliceQueryFilter;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.IteratingRow;
+import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.io.SSTableScanner;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.ThriftGlue;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.ReducingIterator;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Reads rows of a split from the local sstables of a snapshot, merging the versions of rows found in several
+ * sstables like compaction does, and filtering the columns by the predicate like a read does.
+ */
+public class SSTableRecordReader extends RecordReader<String, SortedMap<byte[], IColumn>>
+{
+    private static final Logger logger = Logger.getLogger(SSTableRecordReader.class);
+
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    // nothing is repaired from the result, so tombstones are dropped regardless of their age
+    private static final int GC_BEFORE = Integer.MAX_VALUE;
+
+    private final List<SSTableReader> sstables = new ArrayList<SSTableReader>();
+    private final List<SSTableScanner> scanners = new ArrayList<SSTableScanner>();
+    private final List<SectionIterator> sections = new ArrayList<SectionIterator>();
+    private Iterator<Pair<String, ColumnFamily>> rows;
+    private Pair<String, SortedMap<byte[], IColumn>> currentRow;
+    private SlicePredicate predicate;
+    private String cfName;
+    private long totalBytes;
+
+    public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException
+    {
+        ColumnFamilySplit split = (ColumnFamilySplit) inputSplit;
+        Configuration conf = context.getConfiguration();
+        predicate = ConfigHelper.getSlicePredicate(conf);
+        cfName = ConfigHelper.getColumnFamily(conf);
+        String keyspace = ConfigHelper.getKeyspace(conf);
+
+        IPartitioner partitioner = StorageService.getPartitioner();
+        Token.TokenFactory tf = partitioner.getTokenFactory();
+        Range range = new Range(tf.fromString(split.getStartToken()), tf.fromString(split.getEndToken()));
+
+        CollatingIterator collated = FBUtilities.<IteratingRow>getCollatingIterator();
+        for (String filename : getSnapshotDataFiles(keyspace, cfName, ConfigHelper.getInputSnapshot(conf)))
+        {
+            SSTableReader sstable = SSTableReader.openForScan(filename, partitioner);
+            List<Pair<Long, Long>> positions = sstable.getPositionsForRanges(Arrays.asList(range));
+            if (positions.isEmpty())
+            {
+                sstable.close();
+                continue;
+            }
+            sstables.add(sstable);
+
+            SSTableScanner scanner = sstable.getScanner(FILE_BUFFER_SIZE);
+            scanners.add(scanner);
+            SectionIterator iter = new SectionIterator(scanner, positions);
+            sections.add(iter);
+            collated.addIterator(iter);
+            for (Pair<Long, Long> section : positions)
+                totalBytes += section.right - section.left;
+        }
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("reading %d bytes of %s in %d sstables", totalBytes, split, scanners.size()));
+
+        rows = new ReducingIterator<IteratingRow, Pair<String, ColumnFamily>>(collated)
+        {
+            private String key;
+            private ColumnFamily merged;
+
+            @Override
+            protected boolean isEqual(IteratingRow o1, IteratingRow o2)
+            {
+                return o1.getKey().equals(o2.getKey());
+            }
+
+            public void reduce(IteratingRow current)
+            {
+                // deserialize now, as the scanner moves on to the next row
+                ColumnFamily cf;
+                try
+                {
+                    cf = current.getColumnFamily();
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException("Error in file " + current.getPath(), e);
+                }
+                if (merged == null)
+                {
+                    key = current.getKey().key;
+                    merged = cf;
+                }
+                else
+                    merged.addAll(cf);
+            }
+
+            protected Pair<String, ColumnFamily> getReduced()
+            {
+                Pair<String, ColumnFamily> row = new Pair<String, ColumnFamily>(key, merged);
+                merged = null;
+                return row;
+            }
+        };
+    }
+
+    /**
+     * @return data files of the column family in the latest snapshot of the name, in all data directories
+     */
+    private static List<String> getSnapshotDataFiles(String keyspace, final String cfName, final String snapshotName) throws IOException
+    {
+        // snapshot directories are prefixed with the time they were taken at
+        String latest = null;
+        for (String dataDir : DatabaseDescriptor.getAllDataFileLocations())
+        {
+            String[] snapshots = new File(dataDir + File.separator + keyspace + File.separator + Table.SNAPSHOT_SUBDIR_NAME).list();
+            if (snapshots == null)
+                continue;
+            for (String snapshot : snapshots)
+            {
+                if ((snapshot.equals(snapshotName) || snapshot.endsWith("-" + snapshotName))
+                    && (latest == null || snapshotTime(snapshot) > snapshotTime(latest)))
+                    latest = snapshot;
+            }
+        }
+        if (latest == null)
+            throw new IOException("No snapshot " + snapshotName + " of " + keyspace + " found");
+
+        List<String> filenames = new ArrayList<String>();
+        for (String dataDir : DatabaseDescriptor.getAllDataFileLocations())
+        {
+            File snapshotDir = new File(Table.getSnapshotPath(dataDir, keyspace, latest));
+            File[] files = snapshotDir.listFiles(new FilenameFilter()
+            {
+                public boolean accept(File dir, String name)
+                {
+                    return name.startsWith(cfName + "-") && name.endsWith("-Data.db");
+                }
+            });
+            if (files == null)
+                continue;
+            for (File file : files)
+                filenames.add(file.getAbsolutePath());
+        }
+        return filenames;
+    }
+
+    private static long snapshotTime(String snapshot)
+    {
+        int i = snapshot.indexOf('-');
+        try
+        {
+            return Long.parseLong(i < 0 ? snapshot : snapshot.substring(0, i));
+        }
+        catch (NumberFormatException e)
+        {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    public boolean nextKeyValue() throws IOException
+    {
+        while (rows.hasNext())
+        {
+            Pair<String, ColumnFamily> row = rows.next();
+            String key = row.left;
+            ColumnFamily filtered = filter(key, row.right);
+            if (filtered == null)
+                continue;
+
+            SortedMap<byte[], IColumn> map = new TreeMap<byte[], IColumn>(filtered.getComparator());
+            for (IColumn column : filtered.getSortedColumns())
+                map.put(column.name(), column);
+            currentRow = new Pair<String, SortedMap<byte[], IColumn>>(key, map);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Picks the columns of the predicate, like ColumnFamilyStore.getColumnFamily does for a read.
+     *
+     * @return null if the row has no live data
+     */
+    private ColumnFamily filter(String key, ColumnFamily cf)
+    {
+        QueryPath path = new QueryPath(cfName);
+        QueryFilter filter;
+        Iterator<IColumn> columns;
+        if (predicate.slice_range == null)
+        {
+            SortedSet<byte[]> names = new TreeSet<byte[]>(cf.getComparator());
+            names.addAll(ThriftGlue.toBytes(predicate.getColumn_names()));
+            filter = new NamesQueryFilter(key, path, names);
+            List<IColumn> found = new ArrayList<IColumn>();
+            for (byte[] name : names)
+            {
+                IColumn column = cf.getColumn(name);
+                if (column != null)
+                    found.add(column);
+            }
+            columns = found.iterator();
+        }
+        else
+        {
+            SliceRange sliceRange = predicate.slice_range;
+            SliceQueryFilter sliceFilter = new SliceQueryFilter(key, path, sliceRange.getStart(), sliceRange.getFinish(), sliceRange.reversed, sliceRange.count);
+            filter = sliceFilter;
+            List<IColumn> sorted = new ArrayList<IColumn>(cf.getSortedColumns());
+            if (sliceFilter.reversed)
+                Collections.reverse(sorted);
+            // skip to the start, the finish and the count are checked by the filter
+            AbstractType comparator = cf.getComparator();
+            int i = 0;
+            if (sliceFilter.start.length > 0)
+            {
+                while (i < sorted.size()
+                       && (sliceFilter.reversed ? comparator.compare(sorted.get(i).name(), sliceFilter.start) > 0
+                                                : comparator.compare(sorted.get(i).name(), sliceFilter.start) < 0))
+                    i++;
+            }
+            columns = sorted.subList(i, sorted.size()).iterator();
+        }
+
+        ColumnFamily returnCF = cf.cloneMeShallow();
+        filter.collectReducedColumns(returnCF, columns, GC_BEFORE);
+        return ColumnFamilyStore.removeDeleted(returnCF, GC_BEFORE);
+    }
+
+    public String getCurrentKey()
+    {
+        return currentRow.left;
+    }
+
+    public SortedMap<byte[], IColumn> getCurrentValue()
+    {
+        return currentRow.right;
+    }
+
+    public float getProgress()
+    {
+        if (totalBytes == 0)
+            return 1;
+        long bytesRead = 0;
+        for (SectionIterator iter : sections)
+            bytesRead += iter.bytesRead;
+        return (float) bytesRead / totalBytes;
+    }
+
+    public void close()
+    {
+        for (SSTableScanner scanner : scanners)
+        {
+            try
+            {
+                scanner.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Error closing " + scanner, e);
+            }
+        }
+        scanners.clear();
+        for (SSTableReader sstable : sstables)
+            sstable.close();
+        sstables.clear();
+    }
+
+    /**
+     * Rows of the sections of an sstable, in order.
+     */
+    private static class SectionIterator extends AbstractIterator<IteratingRow>
+    {
+        private final SSTableScanner scanner;
+        private final Iterator<Pair<Long, Long>> positions;
+        private Pair<Long, Long> section;
+        private long position;
+        private long bytesRead;
+        private IteratingRow last;
+
+        SectionIterator(SSTableScanner scanner, List<Pair<Long, Long>> positions)
+        {
+            this.scanner = scanner;
+            this.positions = positions.iterator();
+        }
+
+        protected IteratingRow computeNext()
+        {
+            if (last != null)
+            {
+                bytesRead += last.getEndPosition() - position;
+                position = last.getEndPosition();
+            }
+            while (section == null || position >= section.right)
+            {
+                if (!positions.hasNext())
+                    return endOfData();
+                section = positions.next();
+                position = section.left;
+                scanner.seek(position);
+            }
+            if (!scanner.hasNext())
+                return endOfData();
+            last = scanner.next();
+            return last;
+        }
+    }
+}
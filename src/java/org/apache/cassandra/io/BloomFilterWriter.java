@@ -9,10 +9,12 @@ import java.io.IOException;
 import java.util.SortedSet;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.DatabaseDescriptor.BloomFilterMode;
 import org.apache.cassandra.config.DatabaseDescriptor.DiskAccessMode;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.utils.BlockedBloomFilter;
 import org.apache.cassandra.utils.BloomFilter;
 import org.apache.log4j.Logger;
 
@@ -40,13 +42,18 @@ public class BloomFilterWriter implements IColumnNameObserver
      * 
      */
     public BloomFilterWriter(String filterFilename,long keyCount, long columnCount, boolean bloomColumns) throws IOException
+    {
+        this(filterFilename, keyCount, columnCount, bloomColumns, BloomFilterMode.standard);
+    }
+
+    public BloomFilterWriter(String filterFilename,long keyCount, long columnCount, boolean bloomColumns, BloomFilterMode mode) throws IOException
     {
         this.filterFilename = filterFilename;
         this.bloomColumns = bloomColumns;
         
         this.estimatedElementCount = bloomColumns ? keyCount + columnCount : keyCount;
         
-        this.bf = BloomFilter.create(estimatedElementCount, 15);
+        this.bf = mode == BloomFilterMode.blocked ? BlockedBloomFilter.create(estimatedElementCount, 15) : BloomFilter.create(estimatedElementCount, 15);
     }
     
     /* (non-Javadoc)
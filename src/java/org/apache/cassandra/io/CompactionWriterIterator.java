@@ -5,8 +5,11 @@
  */
 package org.apache.cassandra.io;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
@@ -29,6 +32,11 @@ public class CompactionWriterIterator extends CompactionIterator
 
     protected SSTableWriter writer;
 
+    // sstables are switched, when writer grows above this size
+    private long maxSSTableSize = Long.MAX_VALUE;
+    private final List<SSTableReader> completed = new ArrayList<SSTableReader>();
+    private int lastRowOutput;
+
     /**
      * @param cfs
      * @param sstables
@@ -60,13 +68,25 @@ public class CompactionWriterIterator extends CompactionIterator
     }
 
     
+    /**
+     * Splits output into sstables of about maxSSTableSize bytes; rows are never split.
+     * Bloom filter of every sstable is sized for expectedBloomFilterSize keys, so it should be the estimate per sstable.
+     */
+    public void setMaxSSTableSize(long maxSSTableSize)
+    {
+        this.maxSSTableSize = maxSSTableSize;
+    }
+
     private SSTableWriter getWriter() 
     {
         if (writer!=null)
             return writer;
         
         try {
-            writer = new SSTableWriter(newFilename, expectedBloomFilterSize, 0, StorageService.getPartitioner(),cfs.metadata.bloomColumns);
+            String filename = completed.isEmpty()
+                              ? newFilename
+                              : new File(new File(newFilename).getParentFile(), cfs.getTempSSTableFileName()).getAbsolutePath();
+            writer = new SSTableWriter(filename, expectedBloomFilterSize, 0, StorageService.getPartitioner(),cfs.metadata.bloomColumns);
             if (cfs.metadata.bloomColumns)
                 setColumnNameObserver(writer.getBloomFilterWriter());
             
@@ -102,6 +122,13 @@ public class CompactionWriterIterator extends CompactionIterator
         try {
             long rowSize = getWriter().afterAppend(compactedRow.key, compactedRow.rowPosition);
             compactedRow.setRowSize(rowSize);
+
+            lastRowOutput = completed.size();
+            if (writer.getFilePointer() >= maxSSTableSize)
+            {
+                completed.add(writer.closeAndOpenReader());
+                writer = null;
+            }
         } catch (IOException e) {
             throw new FSWriteError(e);
         }
@@ -110,8 +137,29 @@ public class CompactionWriterIterator extends CompactionIterator
 
     public SSTableReader closeAndOpenReader() throws IOException
     {
-        assert writer != null;
+        assert writer != null && completed.isEmpty();
         
         return writer.closeAndOpenReader();
     }
+
+    /**
+     * @return all sstables written, in key order
+     */
+    public List<SSTableReader> closeAndOpenReaders() throws IOException
+    {
+        if (writer != null)
+        {
+            completed.add(writer.closeAndOpenReader());
+            writer = null;
+        }
+        return completed;
+    }
+
+    /**
+     * @return number of sstable in closeAndOpenReaders() list, the last row returned was written to
+     */
+    public int getLastRowOutput()
+    {
+        return lastRowOutput;
+    }
 }
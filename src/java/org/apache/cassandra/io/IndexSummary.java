@@ -21,21 +21,74 @@ package org.apache.cassandra.io;
  */
 
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.log4j.Logger;
 
+/**
+ * Sampled keys of sstable index. Entries are packed one after another into a single direct buffer, so they do not
+ * take heap space, and located by an offset array:
+ * <pre>
+ * long index position, int token length, token bytes (of partitioner's TokenFactory), int key length, UTF-8 key bytes
+ * </pre>
+ * Binary search compares tokens of probed entries in place by TokenFactory.compare; KeyPosition objects are created
+ * only for callers, which walk all positions.
+ *
+ * The packed entries are saved as is to the -Summary.db component, so sstables open without scanning their index.
+ * The component ends with CRC32 of its content, so a torn or zero-filled one is rebuilt from the index.
+ */
 public class IndexSummary
 {
-    private ArrayList<KeyPosition> indexPositions = new ArrayList<KeyPosition>();
+    private static final Logger logger = Logger.getLogger(IndexSummary.class);
+
+    private static final int FORMAT_VERSION = 3;
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final IPartitioner partitioner;
+
+    // while building
+    private DataOutputBuffer buffer = new DataOutputBuffer();
+    private int[] offsets = new int[16];
+    private int size;
+
+    // completed
+    private ByteBuffer entries;
+
     private Map<KeyPosition, SSTable.PositionSize> spannedIndexDataPositions;
     private Map<Long, KeyPosition> spannedIndexPositions;
     private int keysWritten = 0;
     private long lastIndexPosition;
+    private DecoratedKey firstKey, lastKey;
+
+    public IndexSummary(IPartitioner partitioner)
+    {
+        this.partitioner = partitioner;
+    }
 
     public void maybeAddEntry(DecoratedKey decoratedKey, long dataPosition, long rowSize, long indexPosition, long nextIndexPosition)
     {
@@ -43,8 +96,7 @@ public class IndexSummary
                                     && SSTableReader.bufferIndex(indexPosition) != SSTableReader.bufferIndex(nextIndexPosition);
         if ((keysWritten++ % DatabaseDescriptor.getIndexInterval() == 0) || spannedIndexEntry)
         {
-            KeyPosition info = new KeyPosition(decoratedKey, indexPosition);
-            indexPositions.add(info);
+            addEntry(decoratedKey, indexPosition);
 
             if (spannedIndexEntry)
             {
@@ -53,11 +105,36 @@ public class IndexSummary
                     spannedIndexDataPositions = new HashMap<KeyPosition, SSTable.PositionSize>();
                     spannedIndexPositions = new HashMap<Long, KeyPosition>();
                 }
+                KeyPosition info = new KeyPosition(decoratedKey, indexPosition);
                 spannedIndexDataPositions.put(info, new SSTable.PositionSize(dataPosition, rowSize));
                 spannedIndexPositions.put(info.indexPosition, info);
             }
         }
         lastIndexPosition = indexPosition;
+        lastKey = decoratedKey;
+    }
+
+    private void addEntry(DecoratedKey decoratedKey, long indexPosition)
+    {
+        assert entries == null : "summary is complete";
+        if (size == offsets.length)
+            offsets = Arrays.copyOf(offsets, size * 2);
+        offsets[size++] = buffer.getLength();
+
+        try
+        {
+            byte[] token = partitioner.getTokenFactory().toByteArray(decoratedKey.token);
+            byte[] key = decoratedKey.key.getBytes("UTF-8");
+            buffer.writeLong(indexPosition);
+            buffer.writeInt(token.length);
+            buffer.write(token);
+            buffer.writeInt(key.length);
+            buffer.write(key);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
     }
 
     public Map<KeyPosition, SSTable.PositionSize> getSpannedIndexDataPositions()
@@ -65,14 +142,330 @@ public class IndexSummary
         return spannedIndexDataPositions;
     }
 
+    /**
+     * @return sampled positions, decoded on access
+     */
     public List<KeyPosition> getIndexPositions()
     {
-        return indexPositions;
+        return new PositionList();
+    }
+
+    public int size()
+    {
+        return size;
     }
 
     public void complete()
     {
-        indexPositions.trimToSize();
+        entries = ByteBuffer.allocateDirect(buffer.getLength());
+        entries.put(buffer.getData(), 0, buffer.getLength()).flip();
+        offsets = Arrays.copyOf(offsets, size);
+        buffer = null;
+        if (size > 0)
+            firstKey = keyPositionAt(0).key;
+    }
+
+    /**
+     * Frees the packed entries right away instead of waiting for GC to collect their direct buffer.
+     * The summary must not be used after this, so it is called only once its sstable reader is unreachable.
+     */
+    public synchronized void release()
+    {
+        if (entries != null)
+        {
+            FileUtils.clean(entries);
+            entries = null;
+        }
+    }
+
+    /**
+     * @return the smallest key of sstable; null if it is empty
+     */
+    public DecoratedKey getFirstKey()
+    {
+        return firstKey;
+    }
+
+    /**
+     * @return the largest key of sstable; null if it is empty
+     */
+    public DecoratedKey getLastKey()
+    {
+        return lastKey;
+    }
+
+    /**
+     * @return index position of the last sampled key, which is less or equal to decoratedKey, or -1, if all are greater
+     */
+    public long getIndexScanPosition(DecoratedKey decoratedKey)
+    {
+        assert entries != null && size > 0;
+        Token.TokenFactory factory = partitioner.getTokenFactory();
+        byte[] token = factory.toByteArray(decoratedKey.token);
+        int low = 0, high = size - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int offset = offsets[mid] + 8;
+            int cmp = factory.compare(entries, offset + 4, entries.getInt(offset), token);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return indexPositionAt(mid);
+        }
+        // low is the insertion position: the first entry _greater_ than the key searched for
+        return low == 0 ? -1 : indexPositionAt(low - 1);
+    }
+
+    private long indexPositionAt(int i)
+    {
+        return entries.getLong(offsets[i]);
+    }
+
+    private KeyPosition keyPositionAt(int i)
+    {
+        int offset = offsets[i] + 8;
+        int tokenLength = entries.getInt(offset);
+        Token token = partitioner.getTokenFactory().fromByteArray(bytesAt(offset + 4, tokenLength));
+        offset += 4 + tokenLength;
+        try
+        {
+            String key = new String(bytesAt(offset + 4, entries.getInt(offset)), "UTF-8");
+            return new KeyPosition(new DecoratedKey(token, key), indexPositionAt(i));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private byte[] bytesAt(int offset, int length)
+    {
+        byte[] bytes = new byte[length];
+        ByteBuffer dup = entries.duplicate();
+        dup.position(offset);
+        dup.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes complete summary to filename. Summary is valid only for the index file of indexLength bytes
+     * and the current index interval and mmap segment size, so these are written to be checked on load.
+     * The file is synced before return, so it can be renamed into place safely.
+     */
+    public void save(String filename, long indexLength) throws IOException
+    {
+        assert entries != null : "summary is not complete";
+        FileOutputStream file = new FileOutputStream(filename);
+        BufferedOutputStream buffered = new BufferedOutputStream(file, COPY_CHUNK);
+        CRC32 checksum = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, checksum));
+        try
+        {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(DatabaseDescriptor.getIndexInterval());
+            out.writeLong(spanSize());
+            out.writeLong(indexLength);
+            out.writeLong(lastIndexPosition);
+            out.writeBoolean(lastKey != null);
+            if (lastKey != null)
+            {
+                byte[] token = partitioner.getTokenFactory().toByteArray(lastKey.token);
+                byte[] key = lastKey.key.getBytes("UTF-8");
+                out.writeInt(token.length);
+                out.write(token);
+                out.writeInt(key.length);
+                out.write(key);
+            }
+
+            out.writeInt(size);
+            for (int i = 0; i < size; i++)
+                out.writeInt(offsets[i]);
+
+            out.writeInt(entries.limit());
+            byte[] chunk = new byte[Math.min(COPY_CHUNK, entries.limit())];
+            ByteBuffer dup = entries.duplicate();
+            while (dup.hasRemaining())
+            {
+                int length = Math.min(chunk.length, dup.remaining());
+                dup.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+
+            if (spannedIndexDataPositions == null)
+            {
+                out.writeInt(0);
+            }
+            else
+            {
+                out.writeInt(spannedIndexDataPositions.size());
+                for (Map.Entry<KeyPosition, SSTable.PositionSize> entry : spannedIndexDataPositions.entrySet())
+                {
+                    out.writeLong(entry.getKey().indexPosition);
+                    out.writeLong(entry.getValue().position);
+                    out.writeLong(entry.getValue().size);
+                }
+            }
+
+            out.flush();
+            new DataOutputStream(buffered).writeLong(checksum.getValue());
+            buffered.flush();
+            file.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @return summary saved to filename, or null if there is no such file or it does not match the index
+     * file of indexLength bytes or current configuration, or is corrupted; the summary must be rebuilt from the index then
+     */
+    public static IndexSummary load(String filename, IPartitioner partitioner, long indexLength) throws IOException
+    {
+        File file = new File(filename);
+        if (!file.exists())
+            return null;
+
+        BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file), COPY_CHUNK);
+        CRC32 checksum = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, checksum));
+        IndexSummary summary = null;
+        try
+        {
+            if (in.readInt() != FORMAT_VERSION
+                || in.readInt() != DatabaseDescriptor.getIndexInterval()
+                || in.readLong() != spanSize()
+                || in.readLong() != indexLength)
+            {
+                logger.info(filename + " does not match its index, ignoring it");
+                return null;
+            }
+
+            summary = new IndexSummary(partitioner);
+            summary.buffer = null;
+            summary.lastIndexPosition = in.readLong();
+            // sizes are checked before allocation and content is decoded after the checksum, which is known only at the end
+            byte[] lastToken = null, lastKey = null;
+            if (in.readBoolean())
+            {
+                lastToken = readBytes(in, file.length());
+                lastKey = readBytes(in, file.length());
+                if (lastToken == null || lastKey == null)
+                    return corrupted(filename, summary);
+            }
+            summary.size = in.readInt();
+            if (summary.size < 0 || summary.size > file.length() / 4)
+                return corrupted(filename, summary);
+            summary.offsets = new int[summary.size];
+            for (int i = 0; i < summary.size; i++)
+                summary.offsets[i] = in.readInt();
+
+            int entriesLength = in.readInt();
+            if (entriesLength < 0 || entriesLength > file.length())
+                return corrupted(filename, summary);
+            summary.entries = ByteBuffer.allocateDirect(entriesLength);
+            byte[] chunk = new byte[Math.min(COPY_CHUNK, summary.entries.capacity())];
+            while (summary.entries.hasRemaining())
+            {
+                int length = Math.min(chunk.length, summary.entries.remaining());
+                in.readFully(chunk, 0, length);
+                summary.entries.put(chunk, 0, length);
+            }
+            summary.entries.flip();
+
+            int spanned = in.readInt();
+            if (spanned < 0 || spanned > file.length() / 24)
+                return corrupted(filename, summary);
+            long[] spannedPositions = new long[spanned * 3];
+            for (int i = 0; i < spannedPositions.length; i++)
+                spannedPositions[i] = in.readLong();
+
+            if (new DataInputStream(buffered).readLong() != checksum.getValue())
+                return corrupted(filename, summary);
+
+            if (lastToken != null)
+                summary.lastKey = new DecoratedKey(partitioner.getTokenFactory().fromByteArray(lastToken), new String(lastKey, "UTF-8"));
+            if (summary.size > 0)
+                summary.firstKey = summary.keyPositionAt(0).key;
+            if (spanned > 0)
+            {
+                summary.spannedIndexDataPositions = new HashMap<KeyPosition, SSTable.PositionSize>();
+                summary.spannedIndexPositions = new HashMap<Long, KeyPosition>();
+                for (int i = 0; i < spanned; i++)
+                {
+                    int entry = summary.entryOf(spannedPositions[i * 3]);
+                    if (entry < 0)
+                        return corrupted(filename, summary);
+                    KeyPosition info = summary.keyPositionAt(entry);
+                    summary.spannedIndexDataPositions.put(info, new SSTable.PositionSize(spannedPositions[i * 3 + 1], spannedPositions[i * 3 + 2]));
+                    summary.spannedIndexPositions.put(info.indexPosition, info);
+                }
+            }
+            return summary;
+        }
+        catch (EOFException e)
+        {
+            logger.warn(filename + " is truncated, ignoring it");
+            if (summary != null)
+                summary.release();
+            return null;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * @return bytes written as int length and bytes, or null if the length is out of file
+     */
+    private static byte[] readBytes(DataInputStream in, long fileLength) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > fileLength)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static IndexSummary corrupted(String filename, IndexSummary summary)
+    {
+        logger.warn(filename + " is corrupted, ignoring it");
+        summary.release();
+        return null;
+    }
+
+    /**
+     * @return size of mmap segments, which spanned entries are computed for; 0 if index is not mmapped
+     */
+    private static long spanSize()
+    {
+        return DatabaseDescriptor.getIndexAccessMode() == DatabaseDescriptor.DiskAccessMode.mmap ? SSTableReader.BUFFER_SIZE : 0;
+    }
+
+    /**
+     * @return number of the entry at indexPosition, or -1; entries are sorted by index position as well
+     */
+    private int entryOf(long indexPosition)
+    {
+        int low = 0, high = size - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midPosition = indexPositionAt(mid);
+            if (midPosition < indexPosition)
+                low = mid + 1;
+            else if (midPosition > indexPosition)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
     }
 
     public SSTable.PositionSize getSpannedDataPosition(KeyPosition sampledPosition)
@@ -104,6 +497,20 @@ public class IndexSummary
         return lastIndexPosition;
     }
 
+    private class PositionList extends AbstractList<KeyPosition> implements RandomAccess
+    {
+        public KeyPosition get(int index)
+        {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            return keyPositionAt(index);
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
 
     /**
      * This is a simple container for the index Key and its corresponding position
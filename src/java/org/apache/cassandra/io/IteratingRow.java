@@ -29,7 +29,6 @@ import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileRangeDataInput;
-import org.apache.cassandra.service.StorageService;
 
 public class IteratingRow implements Comparable<IteratingRow>
 {
@@ -45,7 +44,7 @@ public class IteratingRow implements Comparable<IteratingRow>
         this.file = file;
         this.sstable = sstable;
 
-        key = StorageService.getPartitioner().convertFromDiskFormat(file.readUTF());
+        key = sstable.getPartitioner().convertFromDiskFormat(file.readUTF());
         dataSize = file.readInt();
         dataStart = file.getFilePointer();
         finishedAt = dataStart + dataSize;
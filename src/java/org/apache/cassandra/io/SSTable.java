@@ -29,6 +29,7 @@ import java.util.List;
 import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
 
+import org.apache.cassandra.db.Table;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.BloomFilter;
@@ -44,6 +45,9 @@ import org.apache.cassandra.utils.BloomFilter;
  * Every 1/indexInterval key is read into memory when the SSTable is opened.
  *
  * Finally, a bloom filter file is also kept for the keys in each SSTable.
+ * Optional summary file keeps the in-memory sample of index to load it without reading the whole index.
+ * Data file may be compressed by chunks; then compression info file keeps offsets of the chunks
+ * and all positions in data file (index, summary, key cache) are positions of uncompressed data.
  */
 public abstract class SSTable
 {
@@ -109,6 +113,8 @@ public abstract class SSTable
             FileUtils.deleteWithConfirm(new File(dataFilename));
             FileUtils.deleteWithConfirm(new File(SSTable.indexFilename(dataFilename)));
             FileUtils.deleteWithConfirm(new File(SSTable.filterFilename(dataFilename)));
+            deleteSummary(dataFilename);
+            deleteCompressionInfo(dataFilename);
             FileUtils.deleteWithConfirm(new File(SSTable.compactedFilename(dataFilename)));
             logger.info("Deleted " + dataFilename);
             return true;
@@ -133,6 +139,48 @@ public abstract class SSTable
         return filterFilename(path);
     }
 
+    public static String summaryFilename(String dataFile)
+    {
+        String[] parts = dataFile.split("-");
+        parts[parts.length - 1] = "Summary.db";
+        return StringUtils.join(parts, "-");
+    }
+
+    /** @return index summary component; it is optional and is rebuilt from the index, when missing */
+    public String summaryFilename()
+    {
+        return summaryFilename(path);
+    }
+
+    /** deletes the optional index summary component, if any */
+    static void deleteSummary(String dataFile) throws IOException
+    {
+        File summary = new File(summaryFilename(dataFile));
+        if (summary.exists())
+            FileUtils.deleteWithConfirm(summary);
+    }
+
+    public static String compressionInfoFilename(String dataFile)
+    {
+        String[] parts = dataFile.split("-");
+        parts[parts.length - 1] = "CompressionInfo.db";
+        return StringUtils.join(parts, "-");
+    }
+
+    /** @return chunk offsets of compressed data file; exists only if data file is compressed */
+    public String compressionInfoFilename()
+    {
+        return compressionInfoFilename(path);
+    }
+
+    /** deletes the compression info component, if any */
+    static void deleteCompressionInfo(String dataFile) throws IOException
+    {
+        File info = new File(compressionInfoFilename(dataFile));
+        if (info.exists())
+            FileUtils.deleteWithConfirm(info);
+    }
+
     public String getFilename()
     {
         return path;
@@ -142,6 +190,8 @@ public abstract class SSTable
     public List<String> getAllFilenames()
     {
         // TODO streaming relies on the -Data (getFilename) file to be last, this is clunky
+        if (new File(compressionInfoFilename()).exists())
+            return Arrays.asList(indexFilename(), filterFilename(), compressionInfoFilename(), getFilename());
         return Arrays.asList(indexFilename(), filterFilename(), getFilename());
     }
 
@@ -157,7 +207,11 @@ public abstract class SSTable
 
     public static String parseTableName(String filename)
     {
-        return new File(filename).getParentFile().getName();        
+        File directory = new File(filename).getParentFile();
+        // snapshots are kept in <table>/snapshots/<snapshot name>/
+        if (directory.getParentFile() != null && directory.getParentFile().getName().equals(Table.SNAPSHOT_SUBDIR_NAME))
+            return directory.getParentFile().getParentFile().getName();
+        return directory.getName();
     }
 
     public static long getTotalBytes(Iterable<SSTableReader> sstables)
@@ -52,6 +52,7 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
     public final String path;
     private final long size;
     private volatile BloomFilter bf;
+    private final IndexSummary indexSummary;
     private boolean deleteOnCleanup;
 
     SSTableDeletingReference(SSTableTracker tracker, SSTableReader referent, ReferenceQueue<? super SSTableReader> q)
@@ -62,6 +63,7 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
         this.size = referent.bytesOnDisk();
         
         this.bf = DatabaseDescriptor.getFilterAccessMode() == FilterAccessMode.standard ? null : referent.bf;
+        this.indexSummary = referent.indexSummary;
     }
 
     public void deleteOnCleanup()
@@ -78,6 +80,9 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
     public void cleanup() throws IOException
     {
         new CloseBFTask().run();
+        // the reader is unreachable, so no lookup can touch the summary anymore
+        if (indexSummary != null)
+            indexSummary.release();
 
         if (deleteOnCleanup)
         {
@@ -116,6 +121,8 @@ public class SSTableDeletingReference extends PhantomReference<SSTableReader>
             {
                 FileUtils.deleteWithConfirm(new File(SSTable.indexFilename(path)));
                 FileUtils.deleteWithConfirm(new File(SSTable.filterFilename(path)));
+                SSTable.deleteSummary(path);
+                SSTable.deleteCompressionInfo(path);
                 FileUtils.deleteWithConfirm(new File(SSTable.compactedFilename(path)));
             }
             catch (IOException e)
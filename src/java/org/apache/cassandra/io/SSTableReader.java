@@ -31,13 +31,18 @@ import org.apache.log4j.Logger;
 
 import sun.nio.ch.DirectBuffer;
 
-import org.apache.cassandra.cache.InstrumentedCache;
+import org.apache.cassandra.cache.PackedKeyCache;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.io.util.CompressedRandomAccessFile;
+import org.apache.cassandra.io.util.CompressionMetadata;
 import org.apache.cassandra.io.util.FileDataInput;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.MappedFileDataInput;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.BloomFilter;
@@ -101,7 +106,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
 
         for (SSTableReader sstable : sstables)
         {
-            long indexKeyCount = sstable.getIndexPositions().size();
+            long indexKeyCount = sstable.indexSummary.size();
             count = count + (indexKeyCount + 1) * DatabaseDescriptor.getIndexInterval();
             countBF += sstable.getBloomFilter().getElementCount();
             if (logger.isDebugEnabled())
@@ -119,41 +124,69 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     /** public, but only for tests */
     public static SSTableReader open(String dataFileName, IPartitioner partitioner) throws IOException
     {
-        return open(dataFileName, partitioner, Collections.<String>emptySet(), null);
+        return open(dataFileName, partitioner, null);
     }
 
-    public static SSTableReader open(String dataFileName, Collection<String> savedKeyCacheKeys, SSTableTracker tracker) throws IOException
+    public static SSTableReader open(String dataFileName, SSTableTracker tracker) throws IOException
     {
-        return open(dataFileName, StorageService.getPartitioner(), savedKeyCacheKeys, tracker);
+        return open(dataFileName, StorageService.getPartitioner(), tracker);
     }
 
-    public static SSTableReader open(String dataFileName, IPartitioner partitioner, Collection<String> savedKeyCacheKeys, SSTableTracker tracker) throws IOException
+    public static SSTableReader open(String dataFileName, IPartitioner partitioner, SSTableTracker tracker) throws IOException
     {
         assert partitioner != null;
 
         long start = System.currentTimeMillis();
         SSTableReader sstable = new SSTableReader(dataFileName, partitioner);
-        sstable.setTrackedBy(tracker);
         logger.info("Opening " + dataFileName);
-        sstable.loadIndexAndCache(savedKeyCacheKeys);
+        if (!sstable.loadSummary())
+        {
+            sstable.loadIndex();
+            sstable.summaryRebuilt = true;
+            sstable.saveSummary();
+        }
         sstable.loadBloomFilter( );
+        // the deleting reference releases summary and bloom filter, so they must be loaded by now
+        sstable.setTrackedBy(tracker);
+        sstable.openTime = System.currentTimeMillis() - start;
 
         if (logger.isDebugEnabled())
-            logger.debug("INDEX LOAD TIME for "  + dataFileName + ": " + (System.currentTimeMillis() - start) + " ms.");
+            logger.debug("INDEX LOAD TIME for "  + dataFileName + ": " + sstable.openTime + " ms" + (sstable.summaryRebuilt ? ", summary rebuilt." : "."));
 
         return sstable;
     }
 
+    /**
+     * Opens sstable only to scan sections of its data: bloom filter is not loaded, nothing is cached or saved,
+     * and memory is freed by {@link #close()} instead of GC.
+     */
+    public static SSTableReader openForScan(String dataFileName, IPartitioner partitioner) throws IOException
+    {
+        SSTableReader sstable = new SSTableReader(dataFileName, partitioner);
+        if (!sstable.loadSummary())
+            sstable.loadIndex();
+        sstable.bf = BloomFilter.alwaysMatchingBloomFilter();
+        return sstable;
+    }
+
     private volatile SSTableDeletingReference phantomReference;
     // jvm can only map up to 2GB at a time, so we split index/data into segments of that size when using mmap i/o
     private final MappedByteBuffer[] indexBuffers;
     private final MappedByteBuffer[] buffers;
+    // chunk offsets of compressed data file; null if it is not compressed
+    private final CompressionMetadata compression;
 
-    private InstrumentedCache<Pair<String, DecoratedKey>, PositionSize> keyCache;
+    private PackedKeyCache keyCache;
+    // identifies the sstable in key cache
+    private int generation = -1;
 
     private BloomFilterTracker bloomFilterTracker = new BloomFilterTracker();
     private final boolean columnBloom;
 
+    // ms spent to load index summary and bloom filter, when opened from disk; -1 for just written sstables
+    private long openTime = -1;
+    private boolean summaryRebuilt;
+
     SSTableReader(String filename, IPartitioner partitioner, IndexSummary indexSummary, BloomFilter bloomFilter)
     throws IOException
     {
@@ -181,11 +214,15 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             indexBuffers = null;
         }
 
-        if (DatabaseDescriptor.getDiskAccessMode() == DatabaseDescriptor.DiskAccessMode.mmap)
+        File compressionInfo = new File(compressionInfoFilename());
+        compression = compressionInfo.exists() ? CompressionMetadata.read(compressionInfo.getPath()) : null;
+
+        // compressed data is read by chunks, so there is nothing to map
+        if (DatabaseDescriptor.getDiskAccessMode() == DatabaseDescriptor.DiskAccessMode.mmap && compression == null)
         {
             int bufferCount = 1 + (int) (new File(path).length() / BUFFER_SIZE);
             buffers = new MappedByteBuffer[bufferCount];
-            long remaining = length();
+            long remaining = onDiskLength();
             for (int i = 0; i < bufferCount; i++)
             {
                 MappedByteBuffer buffer = mmap(path, i * BUFFER_SIZE, (int) Math.min(remaining, BUFFER_SIZE));
@@ -198,7 +235,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         }
         else
         {
-            assert DatabaseDescriptor.getDiskAccessMode() == DatabaseDescriptor.DiskAccessMode.standard;
+            assert DatabaseDescriptor.getDiskAccessMode() == DatabaseDescriptor.DiskAccessMode.standard || compression != null;
             buffers = null;
         }
 
@@ -216,6 +253,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
             // TODO keyCache should never be null in live Cassandra, but only setting it here
             // means it can be during tests, so we have to do otherwise-unnecessary != null checks
             keyCache = tracker.getKeyCache();
+            generation = ColumnFamilyStore.getGenerationFromFileName(new File(path).getName());
         }
     }
     
@@ -260,14 +298,95 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         this(filename, partitioner, null, null);
     }
 
+    /**
+     * @return sampled positions; the list keeps this reader reachable, so the summary is not released while it is walked
+     */
     public List<IndexSummary.KeyPosition> getIndexPositions()
     {
-        return indexSummary.getIndexPositions();
+        final List<IndexSummary.KeyPosition> positions = indexSummary.getIndexPositions();
+        return new AbstractList<IndexSummary.KeyPosition>()
+        {
+            private final SSTableReader reader = SSTableReader.this;
+
+            public IndexSummary.KeyPosition get(int index)
+            {
+                return positions.get(index);
+            }
+
+            public int size()
+            {
+                return positions.size();
+            }
+        };
     }
 
     public long estimatedKeys()
     {
-        return indexSummary.getIndexPositions().size() * DatabaseDescriptor.getIndexInterval();
+        return indexSummary.size() * DatabaseDescriptor.getIndexInterval();
+    }
+
+    /**
+     * @return the smallest key of this sstable; null if it is empty
+     */
+    public DecoratedKey getFirstKey()
+    {
+        return indexSummary.getFirstKey();
+    }
+
+    /**
+     * @return the largest key of this sstable; null if it is empty
+     */
+    public DecoratedKey getLastKey()
+    {
+        return indexSummary.getLastKey();
+    }
+
+    /**
+     * @return false, if decoratedKey is out of key range of this sstable, so it cannot be there
+     */
+    public boolean mayContainKey(DecoratedKey decoratedKey)
+    {
+        DecoratedKey first = indexSummary.getFirstKey();
+        return first != null && first.compareTo(decoratedKey) <= 0 && indexSummary.getLastKey().compareTo(decoratedKey) >= 0;
+    }
+
+    /**
+     * @return true, if index summary was loaded from the summary component
+     */
+    boolean loadSummary() throws IOException
+    {
+        indexSummary = IndexSummary.load(summaryFilename(), partitioner, new File(indexFilename()).length());
+        return indexSummary != null;
+    }
+
+    void saveSummary()
+    {
+        try
+        {
+            indexSummary.save(summaryFilename(), new File(indexFilename()).length());
+        }
+        catch (IOException e)
+        {
+            // it is only an optimization of the next startup
+            logger.warn("Cannot save index summary of " + path, e);
+            new File(summaryFilename()).delete();
+        }
+    }
+
+    /**
+     * @return ms spent to open this sstable from disk, or -1 if it was not opened from disk
+     */
+    public long getOpenTime()
+    {
+        return openTime;
+    }
+
+    /**
+     * @return true, if index summary was rebuilt by the index scan on open
+     */
+    public boolean isSummaryRebuilt()
+    {
+        return summaryRebuilt;
     }
 
     void loadBloomFilter(  ) throws IOException
@@ -275,19 +394,16 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         bf = BloomFilter.open(filterFilename( ));
     }
 
-    void loadIndexAndCache(Collection<String> keysToLoadInCache) throws IOException
+    void loadIndex() throws IOException
     {
         // we read the positions in a BRAF so we don't have to worry about an entry spanning a mmap boundary.
         // any entries that do, we force into the in-memory sample so key lookup can always bsearch within
         // a single mmapped segment.
-        indexSummary = new IndexSummary();
+        indexSummary = new IndexSummary(partitioner);
         BufferedRandomAccessFile input = new BufferedRandomAccessFile(indexFilename(), "r");
         input.setSkipCache( true );
         try
         {
-            if (keyCache != null && keyCache.getCapacity() - keyCache.getSize() < keysToLoadInCache.size())
-                keyCache.updateCapacity(keyCache.getSize() + keysToLoadInCache.size());
-
             long indexSize = input.length();
             // we need to know both the current index entry and its data position, as well as the
             // next such pair, in order to compute tne mmap-spanning entries.  since seeking
@@ -313,9 +429,6 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                 nextEntry = new IndexSummary.KeyPosition(key, indexPosition);
                 nextDataPos = dataPosition;
                 SSTable.PositionSize posSize = new PositionSize(thisDataPos, nextDataPos - thisDataPos);
-                if (keyCache != null && keysToLoadInCache.contains(thisEntry.key.key))
-                    keyCache.put(new Pair<String, DecoratedKey>(path, thisEntry.key), posSize);
-
                 indexSummary.maybeAddEntry(thisEntry.key, posSize.position, posSize.size, thisEntry.indexPosition, nextEntry.indexPosition);
                 //indexSummary.maybeAddEntry(thisEntry.key, thisDataPos, nextDataPos - thisDataPos, thisEntry.indexPosition, nextEntry.indexPosition);
                
@@ -332,40 +445,35 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         }
     }
 
-    /** get the position in the index file to start scanning to find the given key (at most indexInterval keys away) */
-    private IndexSummary.KeyPosition getIndexScanPosition(DecoratedKey decoratedKey)
+    /** get the position in the index file to start scanning to find the given key (at most indexInterval keys away), or -1 */
+    private long getIndexScanPosition(DecoratedKey decoratedKey)
     {
-        assert indexSummary.getIndexPositions() != null && indexSummary.getIndexPositions().size() > 0;
-        int index = Collections.binarySearch(indexSummary.getIndexPositions(), new IndexSummary.KeyPosition(decoratedKey, -1));
-        if (index < 0)
-        {
-            // binary search gives us the first index _greater_ than the key searched for,
-            // i.e., its insertion position
-            int greaterThan = (index + 1) * -1;
-            if (greaterThan == 0)
-                return null;
-            return indexSummary.getIndexPositions().get(greaterThan - 1);
-        }
-        else
-        {
-            return indexSummary.getIndexPositions().get(index);
-        }
+        return indexSummary.getIndexScanPosition(decoratedKey);
+    }
+
+    /**
+     * @return sstable generation, which identifies it in key cache; -1 until sstable is tracked by column family
+     */
+    public int getGeneration()
+    {
+        return generation;
     }
 
     public void cacheKey(DecoratedKey key, PositionSize info)
     {
-        keyCache.put(new Pair<String, DecoratedKey>(path, key), info);
+        BloomFilter.Hash hash = BloomFilter.hash(key.key);
+        keyCache.put(generation, hash.hash1, hash.hash2, info.position, info.size);
     }
 
     public PositionSize getCachedPosition(DecoratedKey key)
     {
-        return getCachedPosition(new Pair<String, DecoratedKey>(path, key));
+        return getCachedPosition(BloomFilter.hash(key.key));
     }
 
-    private PositionSize getCachedPosition(Pair<String, DecoratedKey> unifiedKey)
+    private PositionSize getCachedPosition(BloomFilter.Hash keyHash)
     {
-        if (keyCache != null && keyCache.getCapacity() > 0)
-            return keyCache.get(unifiedKey);
+        if (keyCache != null)
+            return keyCache.get(generation, keyHash.hash1, keyHash.hash2);
         return null;
     }
     
@@ -384,6 +492,17 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         
         return bf.isPresent(key, name);
     }
+
+    /**
+     * same as {@link #mayPresent(String, byte[])} with key+column hash precomputed by {@link BloomFilter#hash(String, byte[])}
+     */
+    public boolean mayPresent(BloomFilter.Hash keyColumnHash)
+    {
+        if (!columnBloom)
+            return true;
+
+        return bf.isPresent(keyColumnHash);
+    }
     
     /**
      * @return the columnBloom
@@ -397,30 +516,37 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
      * returns the position in the data file to find the given key, or -1 if the key is not present
      */
     public PositionSize getPosition(DecoratedKey decoratedKey) throws IOException
+    {
+        return getPosition(decoratedKey, BloomFilter.hash(decoratedKey.key));
+    }
+
+    /**
+     * same as {@link #getPosition(DecoratedKey)} with key hash precomputed by {@link BloomFilter#hash(String)},
+     * so reads probing many sstables hash the key once
+     */
+    public PositionSize getPosition(DecoratedKey decoratedKey, BloomFilter.Hash keyHash) throws IOException
     {
         // first, check bloom filter
-        if (!bf.isPresent(decoratedKey.key))
+        if (!bf.isPresent(keyHash))
         {
             bloomFilterTracker.addNegativeCount();
             return null;
         }
 
         // next, the key cache
-        Pair<String, DecoratedKey> unifiedKey = new Pair<String, DecoratedKey>(path, decoratedKey);
-        PositionSize cachedPosition = getCachedPosition(unifiedKey);
+        PositionSize cachedPosition = getCachedPosition(keyHash);
         if (cachedPosition != null)
             return cachedPosition;
 
         // next, see if the sampled index says it's impossible for the key to be present
-        IndexSummary.KeyPosition sampledPosition = getIndexScanPosition(decoratedKey);
-        if (sampledPosition == null)
+        long p = getIndexScanPosition(decoratedKey);
+        if (p < 0)
         {
             bloomFilterTracker.addFalsePositive();
             return null;
         }
 
         // get either a buffered or a mmap'd input for the on-disk index
-        long p = sampledPosition.indexPosition;
         FileDataInput input;
         if (indexBuffers == null)
         {
@@ -460,7 +586,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                     else
                     {
                         long nextUnspannedPostion = input.getAbsolutePosition()
-                                                    + 2 + FBUtilities.encodedUTF8Length(StorageService.getPartitioner().convertToDiskFormat(kp.key))
+                                                    + 2 + FBUtilities.encodedUTF8Length(partitioner.convertToDiskFormat(kp.key))
                                                     + 8;
                         input = indexInputAt(nextUnspannedPostion);
                     }
@@ -479,8 +605,8 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                 {
                     long dataPosition = input.readLong();
                     PositionSize info = getDataPositionSize(input, dataPosition);
-                    if (keyCache != null && keyCache.getCapacity() > 0)
-                        keyCache.put(unifiedKey, info);
+                    if (keyCache != null)
+                        keyCache.put(generation, keyHash.hash1, keyHash.hash2, info.position, info.size);
                     bloomFilterTracker.addTruePositive();
                     return info;
                 }
@@ -532,15 +658,23 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
     /** like getPosition, but if key is not found will return the location of the first key _greater_ than the desired one, or -1 if no such key exists. */
     public long getNearestPosition(DecoratedKey decoratedKey) throws IOException
     {
-        IndexSummary.KeyPosition sampledPosition = getIndexScanPosition(decoratedKey);
-        if (sampledPosition == null)
+        return getNearestPosition(decoratedKey, true);
+    }
+
+    /**
+     * @param inclusive if false, rows of the key itself are skipped
+     */
+    private long getNearestPosition(DecoratedKey decoratedKey, boolean inclusive) throws IOException
+    {
+        long sampledPosition = getIndexScanPosition(decoratedKey);
+        if (sampledPosition < 0)
         {
             return 0;
         }
 
         // can't use a MappedFileDataInput here, since we might cross a segment boundary while scanning
         BufferedRandomAccessFile input = new BufferedRandomAccessFile(indexFilename(path), "r");
-        input.seek(sampledPosition.indexPosition);
+        input.seek(sampledPosition);
         try
         {
             while (true)
@@ -556,7 +690,7 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
                 }
                 long position = input.readLong();
                 int v = indexDecoratedKey.compareTo(decoratedKey);
-                if (v >= 0)
+                if (v > 0 || (v == 0 && inclusive))
                     return position;
             }
         }
@@ -566,11 +700,114 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
         }
     }
 
+    /**
+     * Finds sections of data file holding the rows of the ranges, so they can be streamed without rewriting.
+     *
+     * @return sorted and not overlapping sections, as (start, end) positions of data; uncompressed ones
+     * if data file is compressed
+     */
+    public List<Pair<Long, Long>> getPositionsForRanges(Collection<Range> ranges) throws IOException
+    {
+        List<Pair<Long, Long>> sections = new ArrayList<Pair<Long, Long>>();
+        for (Range range : ranges)
+        {
+            long left = getPositionAfter(range.left);
+            long right = getPositionAfter(range.right);
+            if (range.isWrapAround())
+            {
+                sections.add(new Pair<Long, Long>(left, length()));
+                sections.add(new Pair<Long, Long>(0L, right));
+            }
+            else
+            {
+                sections.add(new Pair<Long, Long>(left, right));
+            }
+        }
+
+        Collections.sort(sections, new Comparator<Pair<Long, Long>>()
+        {
+            public int compare(Pair<Long, Long> o1, Pair<Long, Long> o2)
+            {
+                return o1.left.compareTo(o2.left);
+            }
+        });
+        List<Pair<Long, Long>> merged = new ArrayList<Pair<Long, Long>>();
+        Pair<Long, Long> last = null;
+        for (Pair<Long, Long> section : sections)
+        {
+            if (section.left >= section.right)
+                continue;
+            if (last != null && section.left <= last.right)
+            {
+                last = new Pair<Long, Long>(last.left, Math.max(last.right, section.right));
+                merged.set(merged.size() - 1, last);
+            }
+            else
+            {
+                last = section;
+                merged.add(last);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return position of the first row of token greater than the given one, or length of data if there is none
+     */
+    private long getPositionAfter(Token token) throws IOException
+    {
+        long position = getNearestPosition(new DecoratedKey(token, null), false);
+        return position < 0 ? length() : position;
+    }
+
+    /**
+     * @return length of data; uncompressed one if data file is compressed
+     */
     public long length()
+    {
+        return compression == null ? new File(path).length() : compression.dataLength;
+    }
+
+    /**
+     * @return length of data file on disk
+     */
+    public long onDiskLength()
     {
         return new File(path).length();
     }
 
+    public boolean isCompressed()
+    {
+        return compression != null;
+    }
+
+    /**
+     * @return reader of data file, which decompresses it if needed
+     */
+    public BufferedRandomAccessFile openDataReader(int bufferSize) throws IOException
+    {
+        return compression == null
+               ? new BufferedRandomAccessFile(path, "r", bufferSize)
+               : new CompressedRandomAccessFile(path, compression);
+    }
+
+    /**
+     * Frees the index summary and unmaps the files of a reader opened by {@link #openForScan}, which must not be
+     * used afterwards. Readers tracked by a column family are released once they are unreachable instead.
+     */
+    public void close()
+    {
+        assert phantomReference == null : path + " is tracked";
+        indexSummary.release();
+        for (MappedByteBuffer[] mapped : new MappedByteBuffer[][] { indexBuffers, buffers })
+        {
+            if (mapped == null)
+                continue;
+            for (MappedByteBuffer buffer : mapped)
+                FileUtils.clean(buffer);
+        }
+    }
+
     public int compareTo(SSTableReader o)
     {
         return ColumnFamilyStore.getGenerationFromFileName(path) - ColumnFamilyStore.getGenerationFromFileName(o.path);
@@ -629,13 +866,18 @@ public class SSTableReader extends SSTable implements Comparable<SSTableReader>
 
     public FileDataInput getFileDataInput(DecoratedKey decoratedKey, int bufferSize) throws IOException
     {
-        PositionSize info = getPosition(decoratedKey);
+        return getFileDataInput(decoratedKey, BloomFilter.hash(decoratedKey.key), bufferSize);
+    }
+
+    public FileDataInput getFileDataInput(DecoratedKey decoratedKey, BloomFilter.Hash keyHash, int bufferSize) throws IOException
+    {
+        PositionSize info = getPosition(decoratedKey, keyHash);
         if (info == null)
             return null;
 
         if (buffers == null || (bufferIndex(info.position) != bufferIndex(info.position + info.size)))
         {
-            BufferedRandomAccessFile file = new BufferedRandomAccessFile(path, "r", bufferSize);
+            BufferedRandomAccessFile file = openDataReader(bufferSize);
             file.seek(info.position);
             return file;
         }
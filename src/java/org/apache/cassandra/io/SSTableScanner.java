@@ -45,7 +45,7 @@ public class SSTableScanner implements Iterator<IteratingRow>, Closeable
      */
     SSTableScanner(SSTableReader sstable, int bufferSize) throws IOException
     {
-        this.file = new BufferedRandomAccessFile(sstable.getFilename(), "r", bufferSize);
+        this.file = sstable.openDataReader(bufferSize);
         this.sstable = sstable;
     }
 
@@ -79,6 +79,23 @@ public class SSTableScanner implements Iterator<IteratingRow>, Closeable
         }
     }
 
+    /**
+     * Positions the scanner at the row starting at the given data file position,
+     * as returned by {@link SSTableReader#getPositionsForRanges}.
+     */
+    public void seek(long position)
+    {
+        try
+        {
+            file.seek(position);
+            row = null;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("corrupt sstable", e);
+        }
+    }
+
     public long getFileLength()
     {
         try
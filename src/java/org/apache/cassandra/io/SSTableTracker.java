@@ -30,10 +30,10 @@ import com.google.common.base.Function;
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.cache.JMXInstrumentedCache;
+import org.apache.cassandra.cache.PackedKeyCache;
+import org.apache.cassandra.cache.SerializingCache;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamily;
-import org.apache.cassandra.db.DecoratedKey;
-import org.apache.cassandra.utils.Pair;
 
 public class SSTableTracker implements Iterable<SSTableReader>
 {
@@ -46,16 +46,56 @@ public class SSTableTracker implements Iterable<SSTableReader>
     private final String ksname;
     private final String cfname;
 
-    private final JMXInstrumentedCache<Pair<String, DecoratedKey>, SSTable.PositionSize> keyCache;
+    /** saved key cache starts with this, so files of older format are ignored */
+    private static final int KEY_CACHE_FORMAT = 0x4B435031;
+
+    private final PackedKeyCache keyCache;
     private final JMXInstrumentedCache<String, ColumnFamily> rowCache;
+    private final boolean rowCacheSerialized;
 
     public SSTableTracker(String ksname, String cfname)
     {
         this.ksname = ksname;
         this.cfname = cfname;
         sstables = Collections.emptySet();
-        keyCache = new JMXInstrumentedCache<Pair<String, DecoratedKey>, SSTable.PositionSize>(ksname, cfname + "KeyCache", 0);
-        rowCache = new JMXInstrumentedCache<String, ColumnFamily>(ksname, cfname + "RowCache", 0);
+        keyCache = new PackedKeyCache(ksname, cfname + "KeyCache", 0);
+        rowCacheSerialized = DatabaseDescriptor.getRowCacheMode(ksname, cfname) == DatabaseDescriptor.RowCacheMode.offheap;
+        if (rowCacheSerialized)
+        {
+            SerializingCache<String, ColumnFamily> rows = new SerializingCache<String, ColumnFamily>(DatabaseDescriptor.getRowCacheSizeInMB(ksname, cfname), rowSerializer());
+            rowCache = new JMXInstrumentedCache<String, ColumnFamily>(ksname, cfname + "RowCache", rows);
+        }
+        else
+        {
+            rowCache = new JMXInstrumentedCache<String, ColumnFamily>(ksname, cfname + "RowCache", 0);
+        }
+    }
+
+    /**
+     * rows are serialized in sstable format, without column family name and comparators
+     */
+    private ICompactSerializer2<ColumnFamily> rowSerializer()
+    {
+        return new ICompactSerializer2<ColumnFamily>()
+        {
+            public void serialize(ColumnFamily cf, DataOutput dos) throws IOException
+            {
+                ColumnFamily.serializer().serializeForSSTable(cf, dos);
+            }
+
+            public ColumnFamily deserialize(DataInput dis) throws IOException
+            {
+                return ColumnFamily.serializer().deserializeFromSSTable(ColumnFamily.create(ksname, cfname), dis);
+            }
+        };
+    }
+
+    /**
+     * @return true, if row cache keeps rows serialized, so they cannot be updated in place
+     */
+    public boolean isRowCacheSerialized()
+    {
+        return rowCacheSerialized;
     }
 
     protected class CacheWriter<K, V>
@@ -87,17 +127,85 @@ public class SSTableTracker implements Iterable<SSTableReader>
         }
     }
 
+    /**
+     * Saves positions of cached keys with generation of their sstables, so they are cached again on start
+     * without reading sstable indexes.
+     */
     public void saveKeyCache() throws IOException
     {
-        Function<Pair<String, DecoratedKey>, byte[]> function = new Function<Pair<String, DecoratedKey>, byte[]>()
+        long start = System.currentTimeMillis();
+        File savedCachePath = DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname);
+        String msgSuffix = savedCachePath.getName() + " for " + cfname + " of " + ksname;
+        logger.info("saving " + msgSuffix);
+        File tmpFile = File.createTempFile(savedCachePath.getName(), null, savedCachePath.getParentFile());
+        FileOutputStream fout = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+        out.writeInt(KEY_CACHE_FORMAT);
+        int count = keyCache.write(out);
+        out.flush();
+        fout.getFD().sync();
+        out.close();
+        if (!tmpFile.renameTo(savedCachePath))
+            throw new IOException("Unable to rename cache to " + savedCachePath);
+        if (logger.isDebugEnabled())
+            logger.debug("saved " + count + " keys in " + (System.currentTimeMillis() - start) + " ms from " + msgSuffix);
+    }
+
+    /**
+     * Caches saved key positions of tracked sstables. Positions of sstables, which are gone or
+     * do not fit the data file, are skipped.
+     */
+    public void loadSavedKeyCache()
+    {
+        File path = DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname);
+        if (!path.exists())
+            return;
+
+        Map<Integer, SSTableReader> generations = new HashMap<Integer, SSTableReader>();
+        for (SSTableReader sstable : sstables)
+            generations.put(sstable.getGeneration(), sstable);
+
+        long start = System.currentTimeMillis();
+        logger.info("reading saved cache " + path);
+        int count = 0;
+        try
         {
-            public byte[] apply(Pair<String, DecoratedKey> key)
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+            try
             {
-                return key.right.key.getBytes(Charset.forName("UTF-8"));
+                if (in.readInt() != KEY_CACHE_FORMAT)
+                {
+                    logger.info("ignoring saved cache " + path + " of older format");
+                    return;
+                }
+                while (in.available() > 0)
+                {
+                    int generation = in.readInt();
+                    long hash1 = in.readLong();
+                    long hash2 = in.readLong();
+                    long position = in.readLong();
+                    long size = in.readLong();
+                    SSTableReader sstable = generations.get(generation);
+                    if (sstable == null || position + size > sstable.length())
+                        continue;
+                    if (keyCache.getCapacity() == count)
+                        keyCache.updateCapacity(count + 1024);
+                    keyCache.put(generation, hash1, hash2, position, size);
+                    count++;
+                }
             }
-        };
-        CacheWriter<Pair<String, DecoratedKey>, SSTable.PositionSize> writer = new CacheWriter<Pair<String, DecoratedKey>, SSTable.PositionSize>();
-        writer.saveCache(keyCache, DatabaseDescriptor.getSerializedKeyCachePath(ksname, cfname), function);
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("error reading saved cache " + path, e);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug(String.format("completed reading (%d ms; %d keys) saved cache %s",
+                                       (System.currentTimeMillis() - start), count, path));
     }
 
     public void saveRowCache() throws IOException
@@ -169,7 +277,8 @@ public class SSTableTracker implements Iterable<SSTableReader>
             }
         }
 
-        if (!rowCache.isCapacitySetManually())
+        // capacity of serialized row cache is in megabytes and does not depend on key count
+        if (!rowCache.isCapacitySetManually() && !isRowCacheSerialized())
         {
             int rowCacheSize = DatabaseDescriptor.getRowsCachedFor(ksname, cfname, keys);
             if (rowCacheSize != rowCache.getCapacity())
@@ -233,7 +342,7 @@ public class SSTableTracker implements Iterable<SSTableReader>
         totalSize.addAndGet(-size);
     }
 
-    public JMXInstrumentedCache<Pair<String, DecoratedKey>, SSTable.PositionSize> getKeyCache()
+    public PackedKeyCache getKeyCache()
     {
         return keyCache;
     }
@@ -21,6 +21,7 @@ package org.apache.cassandra.io;
  */
 
 
+import java.io.File;
 import java.io.DataOutput;
 import java.io.IOError;
 import java.io.IOException;
@@ -29,9 +30,12 @@ import org.apache.log4j.Logger;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.ObservingColumnFamilyDeserializer;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
+import org.apache.cassandra.io.util.CompressedSequentialWriter;
 import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 
 public class SSTableWriter extends SSTable
@@ -48,25 +52,34 @@ public class SSTableWriter extends SSTable
     public SSTableWriter(String filename, long keyCount, long columnCount, IPartitioner partitioner) throws IOException
     {
         super(filename, partitioner);
-        indexSummary = new IndexSummary();
-        dataFile = new BufferedRandomAccessFile(path, "rw", (int)(DatabaseDescriptor.getFlushDataBufferSizeInMB() * 1024 * 1024));
-        dataFile.setSkipCache(true);
+        indexSummary = new IndexSummary(partitioner);
+        dataFile = openDataFile();
         indexFile = new BufferedRandomAccessFile(indexFilename(), "rw", (int)(DatabaseDescriptor.getFlushIndexBufferSizeInMB() * 1024 * 1024));
         
         boolean bloomColumns = DatabaseDescriptor.getBloomColumns(getTableName(), getColumnFamilyName());
         
-        bfw = new BloomFilterWriter(filterFilename(),  keyCount, columnCount, bloomColumns);
+        bfw = new BloomFilterWriter(filterFilename(),  keyCount, columnCount, bloomColumns, DatabaseDescriptor.getBloomFilterMode(getTableName(), getColumnFamilyName()));
     }
 
     public SSTableWriter(String filename, long keyCount, long columnCount, IPartitioner partitioner, boolean columnBloom) throws IOException
     {
         super(filename, partitioner);
-        indexSummary = new IndexSummary();
-        dataFile = new BufferedRandomAccessFile(path, "rw", (int)(DatabaseDescriptor.getFlushDataBufferSizeInMB() * 1024 * 1024));
-        dataFile.setSkipCache(true);
+        indexSummary = new IndexSummary(partitioner);
+        dataFile = openDataFile();
         indexFile = new BufferedRandomAccessFile(indexFilename(), "rw", (int)(DatabaseDescriptor.getFlushIndexBufferSizeInMB() * 1024 * 1024));
         
-        bfw = new BloomFilterWriter(filterFilename(), keyCount, columnCount, columnBloom );
+        bfw = new BloomFilterWriter(filterFilename(), keyCount, columnCount, columnBloom, DatabaseDescriptor.getBloomFilterMode(getTableName(), getColumnFamilyName()) );
+    }
+
+    private BufferedRandomAccessFile openDataFile() throws IOException
+    {
+        BufferedRandomAccessFile file;
+        if (DatabaseDescriptor.getCompression(getTableName(), getColumnFamilyName()) == DatabaseDescriptor.Compression.none)
+            file = new BufferedRandomAccessFile(path, "rw", (int)(DatabaseDescriptor.getFlushDataBufferSizeInMB() * 1024 * 1024));
+        else
+            file = new CompressedSequentialWriter(path, compressionInfoFilename(), DatabaseDescriptor.getCompressionChunkSize(getTableName(), getColumnFamilyName()));
+        file.setSkipCache(true);
+        return file;
     }
 
     private long beforeAppend(DecoratedKey decoratedKey) throws IOException
@@ -143,7 +156,7 @@ public class SSTableWriter extends SSTable
     }
 
     /**
-     * Renames temporary SSTable files to valid data, index, and bloom filter files
+     * Renames temporary SSTable files to valid data, index, bloom filter, index summary and compression info files
      */
     public void close() throws IOException
     {
@@ -157,11 +170,16 @@ public class SSTableWriter extends SSTable
         // main data
         dataFile.close(); // calls force
 
+        // index summary
+        indexSummary.complete();
+        indexSummary.save(summaryFilename(), new File(indexFilename()).length());
+
         indexPath = rename(indexFilename());
         rename(filterFilename());
+        rename(summaryFilename());
+        if (dataFile instanceof CompressedSequentialWriter)
+            rename(compressionInfoFilename());
         path = rename(path); // important to do this last since index & filter file names are derived from it
-
-        indexSummary.complete();
     }
     
     /**
@@ -196,8 +214,80 @@ public class SSTableWriter extends SSTable
     {
         SSTableWriter.rename(indexFilename(dataFileName));
         SSTableWriter.rename(filterFilename(dataFileName));
+        if (new File(summaryFilename(dataFileName)).exists())
+            SSTableWriter.rename(summaryFilename(dataFileName));
+        if (new File(compressionInfoFilename(dataFileName)).exists())
+            SSTableWriter.rename(compressionInfoFilename(dataFileName));
         dataFileName = SSTableWriter.rename(dataFileName);
         return SSTableReader.open(dataFileName);
     }
 
+    /**
+     * Builds index, bloom filter and index summary of a data file received without them,
+     * because only sections of a sstable were streamed; then renames and opens it like renameAndOpen.
+     */
+    public static SSTableReader recoverAndOpen(String dataFileName) throws IOException
+    {
+        IPartitioner partitioner = StorageService.getPartitioner();
+        String tableName = parseTableName(dataFileName);
+        String columnFamilyName = parseColumnFamilyName(dataFileName);
+        boolean bloomColumns = DatabaseDescriptor.getBloomColumns(tableName, columnFamilyName);
+        int bufferSize = (int) (DatabaseDescriptor.getFlushDataBufferSizeInMB() * 1024 * 1024);
+
+        BufferedRandomAccessFile dataFile = new BufferedRandomAccessFile(dataFileName, "r", bufferSize);
+        try
+        {
+            // bloom filter is sized by the number of keys (and columns), so count them first
+            long keyCount = 0;
+            long columnCount = 0;
+            while (!dataFile.isEOF())
+            {
+                dataFile.readUTF();
+                long nextRowPosition = dataFile.readInt() + dataFile.getFilePointer();
+                if (bloomColumns)
+                {
+                    IndexHelper.skipBloomFilter(dataFile);
+                    IndexHelper.skipIndex(dataFile);
+                    dataFile.readInt(); dataFile.readLong(); // skip over CF delete timestamps
+                    columnCount += dataFile.readInt();
+                }
+                dataFile.seek(nextRowPosition);
+                keyCount++;
+            }
+
+            BloomFilterWriter bfw = new BloomFilterWriter(filterFilename(dataFileName), keyCount, columnCount, bloomColumns, DatabaseDescriptor.getBloomFilterMode(tableName, columnFamilyName));
+            ObservingColumnFamilyDeserializer observer = bloomColumns ? new ObservingColumnFamilyDeserializer(bfw) : null;
+            IndexSummary indexSummary = new IndexSummary(partitioner);
+            BufferedRandomAccessFile indexFile = new BufferedRandomAccessFile(indexFilename(dataFileName), "rw", (int) (DatabaseDescriptor.getFlushIndexBufferSizeInMB() * 1024 * 1024));
+            dataFile.seek(0);
+            while (!dataFile.isEOF())
+            {
+                long dataPosition = dataFile.getFilePointer();
+                String diskKey = dataFile.readUTF();
+                DecoratedKey decoratedKey = partitioner.convertFromDiskFormat(diskKey);
+                long nextRowPosition = dataFile.readInt() + dataFile.getFilePointer();
+                bfw.add(decoratedKey);
+                if (observer != null)
+                    observer.deserialize(decoratedKey, dataFile);
+
+                long indexPosition = indexFile.getFilePointer();
+                indexFile.writeUTF(diskKey);
+                indexFile.writeLong(dataPosition);
+                indexSummary.maybeAddEntry(decoratedKey, dataPosition, nextRowPosition - dataPosition, indexPosition, indexFile.getFilePointer());
+                dataFile.seek(nextRowPosition);
+            }
+
+            bfw.build();
+            indexFile.getChannel().force(true);
+            indexFile.close();
+            indexSummary.complete();
+            indexSummary.save(summaryFilename(dataFileName), new File(indexFilename(dataFileName)).length());
+            logger.info("Built index and filter of " + keyCount + " keys for " + dataFileName);
+        }
+        finally
+        {
+            dataFile.close();
+        }
+        return renameAndOpen(dataFileName);
+    }
 }
@@ -49,16 +49,18 @@ public class BufferedRandomAccessFile extends RandomAccessFile implements FileDa
     public static final int DEFAULT_BUFFER_SIZE = 65535;
 
     // isDirty - true if this.buffer contains any un-synced bytes
-    private boolean isDirty, syncNeeded;
+    protected boolean isDirty;
+    private boolean syncNeeded;
 
     // buffer which will cache file blocks
-    private byte[] buffer;
+    protected byte[] buffer;
 
     // `current` as current position in file
     // `bufferOffset` is the offset of the beginning of the buffer
     // `validBufferBytes` is the number of bytes in the buffer that are actually valid; this will be LESS than buffer capacity if buffer is not full!
-    private long bufferOffset, current = 0;
-    private int validBufferBytes = 0;
+    // subclasses transforming file contents (see CompressedRandomAccessFile) keep them in positions of the transformed data
+    protected long bufferOffset, current = 0;
+    protected int validBufferBytes = 0;
 
     // constant, used for caching purpose, -1 if file is open in "rw" mode
     // otherwise this will hold cached file length
@@ -203,13 +205,16 @@ public class BufferedRandomAccessFile extends RandomAccessFile implements FileDa
         }
     }
 
-    private void resetBuffer()
+    protected void resetBuffer()
     {
         bufferOffset = current;
         validBufferBytes = 0;
     }
 
-    private void reBuffer() throws IOException
+    /**
+     * Fills the buffer with file contents starting at current position. Called from the constructor too.
+     */
+    protected void reBuffer() throws IOException
     {
         flush(); // synchronizing buffer and file on disk
         resetBuffer();
@@ -366,9 +371,9 @@ public class BufferedRandomAccessFile extends RandomAccessFile implements FileDa
         if (newPosition < 0)
             throw new IllegalArgumentException("new position should not be negative");
 
-        if (isReadOnly() && newPosition > fileLength)
+        if (isReadOnly() && newPosition > length())
             throw new EOFException(String.format("unable to seek to position %d in %s (%d bytes) in read-only mode",
-                                                 newPosition, filePath, fileLength));
+                                                 newPosition, filePath, length()));
 
         current = newPosition;
 
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads file written by CompressedSequentialWriter, a chunk at a time, verifying its checksum.
+ * Positions and length are of uncompressed data.
+ */
+public class CompressedRandomAccessFile extends BufferedRandomAccessFile
+{
+    private final CompressionMetadata metadata;
+    private final long compressedLength;
+    private final CRC32 checksum = new CRC32();
+    private final byte[] compressed;
+
+    public CompressedRandomAccessFile(String path, CompressionMetadata metadata) throws IOException
+    {
+        super(new File(path), "r", metadata.chunkLength);
+        this.metadata = metadata;
+        this.compressedLength = getChannel().size();
+        this.compressed = new byte[Snappy.maxCompressedLength(metadata.chunkLength) + 4];
+        reBuffer();
+    }
+
+    /**
+     * Decompresses the chunk holding current position into the buffer.
+     */
+    @Override
+    protected void reBuffer() throws IOException
+    {
+        if (metadata == null)
+            return; // called by super constructor; done once fields are set
+
+        int chunk = (int) (current / metadata.chunkLength);
+        bufferOffset = (long) chunk * metadata.chunkLength;
+        validBufferBytes = 0;
+        if (bufferOffset >= metadata.dataLength)
+            return;
+
+        long start = metadata.chunkOffset(chunk);
+        long end = chunk + 1 < metadata.chunkCount() ? metadata.chunkOffset(chunk + 1) : compressedLength;
+        int length = (int) (end - start);
+        if (length <= 4 || length > compressed.length)
+            throw new IOException("Corrupted chunk " + chunk + " of " + getPath() + ": " + length + " bytes");
+
+        ByteBuffer bytes = ByteBuffer.wrap(compressed, 0, length);
+        while (bytes.hasRemaining())
+        {
+            if (getChannel().read(bytes, start + bytes.position()) < 0)
+                throw new EOFException("Chunk " + chunk + " of " + getPath() + " is truncated");
+        }
+
+        length -= 4;
+        checksum.reset();
+        checksum.update(compressed, 0, length);
+        int crc = ((compressed[length] & 0xFF) << 24) | ((compressed[length + 1] & 0xFF) << 16)
+                  | ((compressed[length + 2] & 0xFF) << 8) | (compressed[length + 3] & 0xFF);
+        if (crc != (int) checksum.getValue())
+            throw new IOException("Checksum mismatch of chunk " + chunk + " of " + getPath());
+
+        validBufferBytes = Snappy.uncompress(compressed, 0, length, buffer, 0);
+    }
+
+    @Override
+    public long length()
+    {
+        return metadata.dataLength;
+    }
+}
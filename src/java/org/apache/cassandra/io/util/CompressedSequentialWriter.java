@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Writes data sequentially, compressing it by chunks of the buffer size (see CompressionMetadata).
+ * File pointer and length are positions of uncompressed data, so callers see the same positions
+ * as with uncompressed file. Seeking is not supported.
+ */
+public class CompressedSequentialWriter extends BufferedRandomAccessFile
+{
+    private final String metadataPath;
+    private final CRC32 checksum = new CRC32();
+    private byte[] compressed;
+
+    private long[] chunkOffsets = new long[16];
+    private int chunkCount;
+    // length of compressed file written so far
+    private long compressedLength;
+    private boolean closing;
+
+    /**
+     * @param metadataPath file to write chunk offsets to on close
+     */
+    public CompressedSequentialWriter(String path, String metadataPath, int chunkLength) throws IOException
+    {
+        super(new File(path), "rw", chunkLength);
+        this.metadataPath = metadataPath;
+        this.compressed = new byte[Snappy.maxCompressedLength(chunkLength) + 4];
+    }
+
+    /**
+     * Compresses the buffer, when it holds the whole chunk (or the last one on close).
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (!isDirty || (validBufferBytes < buffer.length && !closing))
+            return;
+
+        int length = Snappy.compress(buffer, 0, validBufferBytes, compressed, 0);
+        checksum.reset();
+        checksum.update(compressed, 0, length);
+        int crc = (int) checksum.getValue();
+        compressed[length] = (byte) (crc >>> 24);
+        compressed[length + 1] = (byte) (crc >>> 16);
+        compressed[length + 2] = (byte) (crc >>> 8);
+        compressed[length + 3] = (byte) crc;
+
+        if (chunkCount == chunkOffsets.length)
+        {
+            long[] offsets = new long[chunkCount * 2];
+            System.arraycopy(chunkOffsets, 0, offsets, 0, chunkCount);
+            chunkOffsets = offsets;
+        }
+        chunkOffsets[chunkCount++] = compressedLength;
+
+        ByteBuffer bytes = ByteBuffer.wrap(compressed, 0, length + 4);
+        while (bytes.hasRemaining())
+            compressedLength += getChannel().write(bytes, compressedLength);
+
+        isDirty = false;
+        resetBuffer();
+    }
+
+    @Override
+    protected void reBuffer() throws IOException
+    {
+        // only called when the buffer is full, nothing to read back
+        flush();
+        resetBuffer();
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException
+    {
+        if (newPosition != current)
+            throw new UnsupportedOperationException("Cannot seek in compressed file " + getPath());
+    }
+
+    @Override
+    public long length()
+    {
+        return current;
+    }
+
+    /**
+     * @return bytes written to disk so far
+     */
+    public long getCompressedLength()
+    {
+        return compressedLength;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closing)
+            return;
+
+        closing = true;
+        flush();
+        long[] offsets = new long[chunkCount];
+        System.arraycopy(chunkOffsets, 0, offsets, 0, chunkCount);
+        new CompressionMetadata(buffer.length, current, offsets).write(metadataPath);
+        super.close();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Chunk offset table of a compressed file (see CompressedSequentialWriter). The file is a sequence of chunks,
+ * each is chunkLength bytes of data (the last one may be shorter) compressed, followed by int CRC32
+ * of the compressed bytes. So position P of data is in chunk P / chunkLength.
+ *
+ * Kept in a separate file: UTF compressor name, int chunk length, long data length, int chunk count
+ * and long offset of every chunk.
+ */
+public class CompressionMetadata
+{
+    public static final String SNAPPY = "snappy";
+
+    public final int chunkLength;
+    /** length of uncompressed data */
+    public final long dataLength;
+    private final long[] chunkOffsets;
+
+    public CompressionMetadata(int chunkLength, long dataLength, long[] chunkOffsets)
+    {
+        this.chunkLength = chunkLength;
+        this.dataLength = dataLength;
+        this.chunkOffsets = chunkOffsets;
+    }
+
+    public int chunkCount()
+    {
+        return chunkOffsets.length;
+    }
+
+    /**
+     * @return position of chunk in the compressed file
+     */
+    public long chunkOffset(int chunk)
+    {
+        return chunkOffsets[chunk];
+    }
+
+    public static CompressionMetadata read(String path) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try
+        {
+            String compressor = in.readUTF();
+            if (!SNAPPY.equals(compressor))
+                throw new IOException("Unknown compressor " + compressor + " of " + path);
+            int chunkLength = in.readInt();
+            long dataLength = in.readLong();
+            long[] offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = in.readLong();
+            return new CompressionMetadata(chunkLength, dataLength, offsets);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public void write(String path) throws IOException
+    {
+        FileOutputStream stream = new FileOutputStream(path);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try
+        {
+            out.writeUTF(SNAPPY);
+            out.writeInt(chunkLength);
+            out.writeLong(dataLength);
+            out.writeInt(chunkOffsets.length);
+            for (long offset : chunkOffsets)
+                out.writeLong(offset);
+            out.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
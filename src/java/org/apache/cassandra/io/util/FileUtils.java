@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.util.Comparator;
@@ -43,6 +45,31 @@ public class FileUtils
     private static final double gb_ = 1024*1024*1024d;
     private static final double tb_ = 1024*1024*1024*1024d;
 
+    /* DirectByteBuffer.cleaner() and its clean(), looked up reflectively so no JDK internal class is linked against */
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+
+    static
+    {
+        Method cleaner = null, clean = null;
+        try
+        {
+            cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            clean = cleaner.getReturnType().getMethod("clean");
+            clean.setAccessible(true);
+        }
+        catch (Exception e)
+        {
+            // direct memory will be released by GC then
+            logger_.info("Cannot free direct buffers explicitly on this JVM: " + e);
+            cleaner = null;
+            clean = null;
+        }
+        cleanerMethod = cleaner;
+        cleanMethod = clean;
+    }
+
     public static void deleteWithConfirm(File file) throws IOException
     {
         assert file.exists() : "attempted to delete non-existing file " + file.getName();
@@ -318,6 +345,27 @@ public class FileUtils
         }
     }
 
+    /**
+     * Releases memory of a direct buffer now, rather than when it is garbage collected. The buffer
+     * (and every view of it) must not be accessed after this call. Does nothing for heap buffers,
+     * or if the JVM does not allow it.
+     */
+    public static void clean(ByteBuffer buffer)
+    {
+        if (cleanMethod == null || !buffer.isDirect())
+            return;
+        try
+        {
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+                cleanMethod.invoke(cleaner);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static void createHardLink(File from, File to) throws IOException
     {
         if (to.exists())
@@ -22,6 +22,7 @@ import java.net.InetAddress;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.service.StorageProxy;
+import org.apache.cassandra.service.StorageService;
 
 /**
  * Encapsulates the callback information.
@@ -33,12 +34,14 @@ class CallbackInfo
     protected final InetAddress target;
     protected final IMessageCallback callback;
     protected final Message message;
+    protected final StorageService.Verb verb;
 
-    public CallbackInfo(InetAddress target, IMessageCallback callback)
+    public CallbackInfo(InetAddress target, IMessageCallback callback, StorageService.Verb verb)
     {
         this.target = target;
         this.callback = callback;
         this.message = null;
+        this.verb = verb;
     }
 
     public CallbackInfo(InetAddress target, IMessageCallback callback, Message message)
@@ -46,6 +49,7 @@ class CallbackInfo
         this.target = target;
         this.callback = callback;
         this.message = message;
+        this.verb = message.getVerb();
     }
 
     /**
@@ -26,12 +26,15 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.streaming.StreamOutManager;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.WrappedRunnable;
 
 public class FileStreamTask extends WrappedRunnable
@@ -43,15 +46,13 @@ public class FileStreamTask extends WrappedRunnable
     public static final int MAX_CONNECT_ATTEMPTS = 8;
 
     private final String file;
-    private final long startPosition;
-    private final long endPosition;
+    private final List<Pair<Long, Long>> sections;
     private final InetAddress to;
 
-    FileStreamTask(String file, long startPosition, long endPosition, InetAddress from, InetAddress to)
+    FileStreamTask(String file, List<Pair<Long, Long>> sections, InetAddress from, InetAddress to)
     {
         this.file = file;
-        this.startPosition = startPosition;
-        this.endPosition = endPosition;
+        this.sections = sections;
         this.to = to;
     }
     
@@ -83,23 +84,40 @@ public class FileStreamTask extends WrappedRunnable
 
     private void stream(SocketChannel channel) throws IOException
     {
-        long start = startPosition;
+        long bytesSent = 0;
         RandomAccessFile raf = new RandomAccessFile(new File(file), "r");
         try
         {
+            // compressed data files are sent as they are on disk along with their -CompressionInfo.db,
+            // so neither side decompresses them
             FileChannel fc = raf.getChannel();
 
-            ByteBuffer buffer = MessagingService.constructStreamHeader(false);
+            int version = MessagingService.getVersion(to);
+            ByteBuffer buffer = MessagingService.constructStreamHeader(false, version);
             channel.write(buffer);
             assert buffer.remaining() == 0;
+            if (version >= MessagingService.VERSION_2)
+            {
+                // several files may be streamed to the host at once, so tell it which one this is
+                DataOutputBuffer name = new DataOutputBuffer();
+                name.writeUTF(file);
+                buffer = ByteBuffer.wrap(name.getData(), 0, name.getLength());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
 
-            while (start < endPosition)
+            for (Pair<Long, Long> section : sections)
             {
-                long bytesTransferred = fc.transferTo(start, CHUNK_SIZE, channel);
-                if (logger.isDebugEnabled())
-                    logger.debug("Bytes transferred " + bytesTransferred);
-                start += bytesTransferred;
-                StreamOutManager.get(to).update(file, start);
+                long start = section.left;
+                while (start < section.right)
+                {
+                    long bytesTransferred = fc.transferTo(start, Math.min(CHUNK_SIZE, section.right - start), channel);
+                    if (logger.isDebugEnabled())
+                        logger.debug("Bytes transferred " + bytesTransferred);
+                    start += bytesTransferred;
+                    bytesSent += bytesTransferred;
+                    StreamOutManager.get(to).update(file, bytesSent);
+                }
             }
         }
         finally
@@ -27,33 +27,53 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.io.ICompactSerializer;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
 
 public class Header
 {
-    private static ICompactSerializer<Header> serializer_;
+    private static HeaderSerializer serializer_;
     private static AtomicInteger idGen_ = new AtomicInteger(0);
-    
+
+    /**
+     * Stages sent as a single byte (index in this array) since version 2 of the protocol.
+     * Append only: codes are part of the wire format.
+     */
+    private static final String[] STAGES = { "",
+                                             StageManager.READ_STAGE,
+                                             StageManager.MUTATION_STAGE,
+                                             StageManager.STREAM_STAGE,
+                                             StageManager.GOSSIP_STAGE,
+                                             StageManager.RESPONSE_STAGE,
+                                             StageManager.AE_SERVICE_STAGE,
+                                             StageManager.SNAPSHOT_ARCHIVE_STAGE };
+    static final byte GOSSIP_STAGE = 4;
+    static final byte RESPONSE_STAGE = 5;
+    /** code of a stage not in STAGES, whose name follows the code */
+    static final byte UNKNOWN_STAGE = -1;
+
     static
     {
         serializer_ = new HeaderSerializer();        
+        assert STAGES[GOSSIP_STAGE] == StageManager.GOSSIP_STAGE && STAGES[RESPONSE_STAGE] == StageManager.RESPONSE_STAGE;
     }
     
-    static ICompactSerializer<Header> serializer()
+    static HeaderSerializer serializer()
     {
         return serializer_;
     }
 
     private InetAddress from_;
     private String type_;
+    private byte stage_;
     private StorageService.Verb verb_;
-    private String messageId_;
+    private int messageId_;
     protected Map<String, byte[]> details_;
     
-    Header(String id, InetAddress from, String messageType, StorageService.Verb verb)
+    Header(int id, InetAddress from, String messageType, StorageService.Verb verb)
     {
-        assert id != null;
         assert from != null;
         assert messageType != null;
         assert verb != null;
@@ -61,10 +81,11 @@ public class Header
         messageId_ = id;
         from_ = from;
         type_ = messageType;
+        stage_ = stageCode(messageType);
         verb_ = verb;        
     }
     
-    Header(String id, InetAddress from, String messageType, StorageService.Verb verb, Map<String, byte[]> details)
+    Header(int id, InetAddress from, String messageType, StorageService.Verb verb, Map<String, byte[]> details)
     {
         this(id, from, messageType, verb);
         details_ = details;
@@ -72,9 +93,32 @@ public class Header
 
     Header(InetAddress from, String messageType, StorageService.Verb verb)
     {
-        this(Integer.toString(idGen_.incrementAndGet()), from, messageType, verb);
+        this(idGen_.incrementAndGet(), from, messageType, verb);
     }        
 
+    private static byte stageCode(String messageType)
+    {
+        // stage names are constants, so identity almost always matches
+        for (byte i = 0; i < STAGES.length; i++)
+        {
+            if (STAGES[i] == messageType)
+                return i;
+        }
+        for (byte i = 0; i < STAGES.length; i++)
+        {
+            if (STAGES[i].equals(messageType))
+                return i;
+        }
+        return UNKNOWN_STAGE;
+    }
+
+    static String stageName(byte stage) throws IOException
+    {
+        if (stage < 0 || stage >= STAGES.length)
+            throw new IOException("Unknown stage code " + stage);
+        return STAGES[stage];
+    }
+
     InetAddress getFrom()
     {
         return from_;
@@ -85,12 +129,20 @@ public class Header
         return type_;
     }
 
+    /**
+     * @return code of the message type, or UNKNOWN_STAGE
+     */
+    byte getStage()
+    {
+        return stage_;
+    }
+
     StorageService.Verb getVerb()
     {
         return verb_;
     }
 
-    String getMessageId()
+    int getMessageId()
     {
         return messageId_;
     }
@@ -112,26 +164,48 @@ public class Header
     }
 }
 
+/**
+ * Version 1 writes id and message type as strings and an int verb ordinal and detail count.
+ * Version 2 writes an int id, single bytes for the stage code, verb ordinal and flags,
+ * and the details only when the corresponding flag is set.
+ */
 class HeaderSerializer implements ICompactSerializer<Header>
 {
+    private static final int HAS_DETAILS = 1;
+
     public void serialize(Header t, DataOutputStream dos) throws IOException
-    {           
-        dos.writeUTF(t.getMessageId());
-        CompactEndPointSerializationHelper.serialize(t.getFrom(), dos);
-        dos.writeUTF(t.getMessageType());
-        dos.writeInt(t.getVerb().ordinal());
-        
-        /* Serialize the message header */
-        if (t.details_==null)
+    {
+        serialize(t, dos, MessagingService.CURRENT_VERSION);
+    }
+
+    public void serialize(Header t, DataOutputStream dos, int version) throws IOException
+    {
+        if (version < MessagingService.VERSION_2)
         {
-            dos.writeInt(0);
+            dos.writeUTF(Integer.toString(t.getMessageId()));
+            CompactEndPointSerializationHelper.serialize(t.getFrom(), dos);
+            dos.writeUTF(t.getMessageType());
+            dos.writeInt(t.getVerb().ordinal());
+            dos.writeInt(t.details_ == null ? 0 : t.details_.size());
         }
         else
         {
-            int size = t.details_.size();
-            dos.writeInt(size);
-            Set<String> keys = t.details_.keySet();
+            dos.writeInt(t.getMessageId());
+            CompactEndPointSerializationHelper.serialize(t.getFrom(), dos);
+            dos.writeByte(t.getStage());
+            if (t.getStage() == Header.UNKNOWN_STAGE)
+                dos.writeUTF(t.getMessageType());
+            dos.writeByte(t.getVerb().ordinal());
+            boolean hasDetails = t.details_ != null && !t.details_.isEmpty();
+            dos.writeByte(hasDetails ? HAS_DETAILS : 0);
+            if (!hasDetails)
+                return;
+            dos.writeInt(t.details_.size());
+        }
 
+        if (t.details_ != null)
+        {
+            Set<String> keys = t.details_.keySet();
             for( String key : keys )
             {
                 dos.writeUTF(key);
@@ -142,15 +216,64 @@ class HeaderSerializer implements ICompactSerializer<Header>
         }
     }
 
+    /**
+     * @return number of bytes serialize will write
+     */
+    public int serializedSize(Header t, int version)
+    {
+        int size = 1 + t.getFrom().getAddress().length;
+        if (version < MessagingService.VERSION_2)
+            size += utfSize(Integer.toString(t.getMessageId())) + utfSize(t.getMessageType()) + 4 + 4;
+        else
+            size += 4 + 1 + (t.getStage() == Header.UNKNOWN_STAGE ? utfSize(t.getMessageType()) : 0) + 1 + 1;
+
+        if (t.details_ != null && !t.details_.isEmpty())
+        {
+            if (version >= MessagingService.VERSION_2)
+                size += 4;
+            for (Map.Entry<String, byte[]> entry : t.details_.entrySet())
+                size += utfSize(entry.getKey()) + 4 + entry.getValue().length;
+        }
+        return size;
+    }
+
+    private static int utfSize(String s)
+    {
+        return 2 + FBUtilities.encodedUTF8Length(s);
+    }
+
     public Header deserialize(DataInputStream dis) throws IOException
     {
-        String id = dis.readUTF();
-        InetAddress from = CompactEndPointSerializationHelper.deserialize(dis);
-        String type = dis.readUTF();
-        int verbOrdinal = dis.readInt();
-        
+        return deserialize(dis, MessagingService.CURRENT_VERSION);
+    }
+
+    public Header deserialize(DataInputStream dis, int version) throws IOException
+    {
+        int id;
+        InetAddress from;
+        String type;
+        int verbOrdinal;
+        int size;
+        if (version < MessagingService.VERSION_2)
+        {
+            id = Integer.parseInt(dis.readUTF());
+            from = CompactEndPointSerializationHelper.deserialize(dis);
+            type = dis.readUTF();
+            verbOrdinal = dis.readInt();
+            size = dis.readInt();
+        }
+        else
+        {
+            id = dis.readInt();
+            from = CompactEndPointSerializationHelper.deserialize(dis);
+            byte stage = dis.readByte();
+            type = stage == Header.UNKNOWN_STAGE ? dis.readUTF() : Header.stageName(stage);
+            verbOrdinal = dis.readUnsignedByte();
+            int flags = dis.readUnsignedByte();
+            size = (flags & HAS_DETAILS) == 0 ? 0 : dis.readInt();
+        }
+
         /* Deserializing the message header */
-        int size = dis.readInt();
         Map<String, byte[]> details = null;
         if (size>0)
         {
@@ -168,5 +291,3 @@ class HeaderSerializer implements ICompactSerializer<Header>
         return new Header(id, from, type, StorageService.VERBS[verbOrdinal], details);
     }
 }
-
-
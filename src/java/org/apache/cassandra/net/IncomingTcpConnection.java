@@ -58,6 +58,7 @@ public class IncomingTcpConnection extends Thread
     {
         DataInputStream input;
         boolean isStream;
+        int version, maxVersion;
         try
         {
             // determine the connection type to decide whether to buffer
@@ -65,6 +66,8 @@ public class IncomingTcpConnection extends Thread
             MessagingService.validateMagic(input.readInt());
             int header = input.readInt();
             isStream = MessagingService.getBits(header, 3, 1) == 1;
+            version = MessagingService.getVersion(header);
+            maxVersion = MessagingService.getMaxVersion(header);
             if (!isStream)
                 // we should buffer
                 input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 4096));
@@ -80,7 +83,9 @@ public class IncomingTcpConnection extends Thread
             {
                 if (isStream)
                 {
-                    new IncomingStreamReader(socket.getChannel()).read();
+                    // unbuffered, so the name is all that is read before the file
+                    String file = version >= MessagingService.VERSION_2 ? input.readUTF() : null;
+                    new IncomingStreamReader(socket.getChannel(), file).read();
                     break;
                 }
                 else
@@ -89,13 +94,16 @@ public class IncomingTcpConnection extends Thread
                     byte[] contentBytes = new byte[size];
                     input.readFully(contentBytes);
                     
-                    Message message = Message.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(contentBytes)));
+                    Message message = Message.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(contentBytes)), version);
+                    MessagingService.setVersion(message.getFrom(), maxVersion);
                     MessagingService.receive(message);
                 }
                 // prepare to read the next message
                 MessagingService.validateMagic(input.readInt());
                 int header = input.readInt();
                 assert isStream == (MessagingService.getBits(header, 3, 1) == 1) : "Connections cannot change type: " + isStream;
+                version = MessagingService.getVersion(header);
+                maxVersion = MessagingService.getMaxVersion(header);
             }
             catch (EOFException e)
             {
@@ -22,9 +22,11 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Arrays;
 
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.service.StorageService;
 
 public class Message
@@ -42,7 +44,9 @@ public class Message
     }
     
     final Header header_;
-    private final byte[] body_;
+    private byte[] body_;
+    /* body to be serialized straight into the outbound buffer when sent, rather than into a byte[] first */
+    private final Body<?> deferredBody_;
 
     Message(Header header, byte[] body)
     {
@@ -51,6 +55,16 @@ public class Message
 
         header_ = header;
         body_ = body;
+        deferredBody_ = null;
+    }
+
+    Message(Header header, Body<?> body)
+    {
+        assert header != null;
+        assert body != null;
+
+        header_ = header;
+        deferredBody_ = body;
     }
 
     public Message(InetAddress from, String messageType, StorageService.Verb verb, byte[] body)
@@ -68,11 +82,41 @@ public class Message
         header_.setDetail(key, value);
     }
 
+    /**
+     * @return serialized body; a deferred body is serialized on first call, which only local deliveries,
+     * message sinks and bodies changed since they were sized need. Its length is the one actually written.
+     */
     public byte[] getMessageBody()
     {
+        if (body_ == null)
+        {
+            DataOutputBuffer buffer = new DataOutputBuffer(deferredBody_.size);
+            try
+            {
+                deferredBody_.serialize(buffer);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            body_ = buffer.getLength() == buffer.getData().length ? buffer.getData() : Arrays.copyOf(buffer.getData(), buffer.getLength());
+        }
         return body_;
     }
 
+    int getMessageBodySize()
+    {
+        return body_ == null ? deferredBody_.size : body_.length;
+    }
+
+    void serializeMessageBody(DataOutputStream dos) throws IOException
+    {
+        if (body_ == null)
+            deferredBody_.serialize(dos);
+        else
+            dos.write(body_);
+    }
+
     public InetAddress getFrom()
     {
         return header_.getFrom();
@@ -88,7 +132,7 @@ public class Message
         return header_.getVerb();
     }
 
-    public String getMessageId()
+    public int getMessageId()
     {
         return header_.getMessageId();
     }
@@ -99,6 +143,17 @@ public class Message
         Header header = new Header(getMessageId(), from, StageManager.RESPONSE_STAGE, StorageService.Verb.READ_RESPONSE);
         return new Message(header, args);
     }
+
+    /**
+     * @return reply which serializes the body when it is sent, straight into the outbound buffer
+     * @param size number of bytes the serializer will write for the body; if the body changes meanwhile,
+     * it is serialized into a byte[] as usual
+     */
+    public <T> Message getReply(InetAddress from, T body, ICompactSerializer<T> serializer, int size)
+    {
+        Header header = new Header(getMessageId(), from, StageManager.RESPONSE_STAGE, StorageService.Verb.READ_RESPONSE);
+        return new Message(header, new Body<T>(body, serializer, size));
+    }
     
     public String toString()
     {
@@ -114,21 +169,62 @@ public class Message
         	.append(separator);
         return sbuf.toString();
     }
+
+    private static class Body<T>
+    {
+        final T object;
+        final ICompactSerializer<T> serializer;
+        final int size;
+
+        Body(T object, ICompactSerializer<T> serializer, int size)
+        {
+            this.object = object;
+            this.serializer = serializer;
+            this.size = size;
+        }
+
+        void serialize(DataOutputStream dos) throws IOException
+        {
+            serializer.serialize(object, dos);
+        }
+    }
 }
 
 class MessageSerializer implements ICompactSerializer<Message>
 {
     public void serialize(Message t, DataOutputStream dos) throws IOException
     {
-        Header.serializer().serialize( t.header_, dos);
-        byte[] bytes = t.getMessageBody();
-        dos.writeInt(bytes.length);
-        dos.write(bytes);
+        serialize(t, dos, MessagingService.CURRENT_VERSION);
+    }
+
+    public void serialize(Message t, DataOutputStream dos, int version) throws IOException
+    {
+        Header.serializer().serialize(t.header_, dos, version);
+        dos.writeInt(t.getMessageBodySize());
+        t.serializeMessageBody(dos);
+    }
+
+    /**
+     * @return number of bytes serialize will write
+     */
+    public int serializedSize(Message t)
+    {
+        return serializedSize(t, MessagingService.CURRENT_VERSION);
+    }
+
+    public int serializedSize(Message t, int version)
+    {
+        return Header.serializer().serializedSize(t.header_, version) + 4 + t.getMessageBodySize();
     }
 
     public Message deserialize(DataInputStream dis) throws IOException
     {
-        Header header = Header.serializer().deserialize(dis);
+        return deserialize(dis, MessagingService.CURRENT_VERSION);
+    }
+
+    public Message deserialize(DataInputStream dis, int version) throws IOException
+    {
+        Header header = Header.serializer().deserialize(dis, version);
         int size = dis.readInt();
         byte[] bytes = new byte[size];
         dis.readFully(bytes);
@@ -20,6 +20,7 @@ package org.apache.cassandra.net;
 
 import java.io.IOError;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
@@ -31,8 +32,11 @@ import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
 
 
 import com.google.common.base.Function;
@@ -40,10 +44,10 @@ import com.google.common.base.Function;
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.HintedHandOffManager;
-import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.locator.ILatencySubscriber;
 import org.apache.cassandra.net.io.SerializerType;
 import org.apache.cassandra.net.sink.SinkManager;
@@ -51,22 +55,32 @@ import org.apache.cassandra.service.ConsistencyChecker;
 import org.apache.cassandra.service.GCInspector;
 import org.apache.cassandra.service.QuorumResponseHandler;
 import org.apache.cassandra.service.StorageService;
-import org.apache.cassandra.utils.ExpiringMap;
+import org.apache.cassandra.utils.ExpiringLongMap;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import org.apache.cassandra.utils.SimpleCondition;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
-public class MessagingService
+public class MessagingService implements MessagingServiceMBean
 {
-    private static int version_ = 1;
+    /** string message ids and stage names */
+    public static final int VERSION_1 = 1;
+    /** binary message header, see HeaderSerializer */
+    public static final int VERSION_2 = 2;
+    public static final int CURRENT_VERSION = VERSION_2;
     //TODO: make this parameter dynamic somehow.  Not sure if config is appropriate.
     private static SerializerType serializerType_ = SerializerType.BINARY;
 
     /** we preface every message with this number so the recipient can validate the sender is sane */
     public static final int PROTOCOL_MAGIC = 0xCA552DFA;
+    /** magic, header and length preceding every message */
+    public static final int PROTOCOL_HEADER_SIZE = 4 + 4 + 4;
 
     /* This records all the results mapped by message Id */
-    private static ExpiringMap<String, CallbackInfo> callbacks;
+    private static ExpiringLongMap<CallbackInfo> callbacks;
+
+    /* Maximum protocol version advertised by each endpoint in the headers of its messages */
+    private static final NonBlockingHashMap<InetAddress, Integer> versions_ = new NonBlockingHashMap<InetAddress, Integer>();
 
     /* Lookup table for registering message handlers based on the verb. */
     private static Map<StorageService.Verb, IVerbHandler> verbHandlers_;
@@ -87,12 +101,18 @@ public class MessagingService
     private SocketThread socketThread;
     private SimpleCondition listenGate;
     private static final Map<StorageService.Verb, AtomicInteger> droppedMessages = new EnumMap<StorageService.Verb, AtomicInteger>(StorageService.Verb.class);
+    private static final Map<StorageService.Verb, AtomicInteger> pendingCallbacks = new EnumMap<StorageService.Verb, AtomicInteger>(StorageService.Verb.class);
+    private static final Map<StorageService.Verb, AtomicLong> expiredCallbacks = new EnumMap<StorageService.Verb, AtomicLong>(StorageService.Verb.class);
     private final List<ILatencySubscriber> subscribers = new ArrayList<ILatencySubscriber>();
 
     static
     {
         for (StorageService.Verb verb : StorageService.Verb.values())
+        {
             droppedMessages.put(verb, new AtomicInteger());
+            pendingCallbacks.put(verb, new AtomicInteger());
+            expiredCallbacks.put(verb, new AtomicLong());
+        }
     }
 
     public Object clone() throws CloneNotSupportedException
@@ -106,11 +126,13 @@ public class MessagingService
         listenGate = new SimpleCondition();
         verbHandlers_ = new HashMap<StorageService.Verb, IVerbHandler>();
 
-        Function<Pair<String, CallbackInfo>, ?> timeoutReporter = new Function<Pair<String, CallbackInfo>, Object>()
+        Function<Pair<Long, CallbackInfo>, ?> timeoutReporter = new Function<Pair<Long, CallbackInfo>, Object>()
         {
-            public Object apply(Pair<String, CallbackInfo> pair)
+            public Object apply(Pair<Long, CallbackInfo> pair)
             {
                 CallbackInfo expiredCallbackInfo = pair.right;
+                pendingCallbacks.get(expiredCallbackInfo.verb).decrementAndGet();
+                expiredCallbacks.get(expiredCallbackInfo.verb).incrementAndGet();
                 maybeAddLatency(expiredCallbackInfo.callback, expiredCallbackInfo.target, (double) DatabaseDescriptor.getRpcTimeout());
 
                 // hintlog v2
@@ -124,10 +146,16 @@ public class MessagingService
                 return null;
             }
         };
-        callbacks = new ExpiringMap<String, CallbackInfo>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()), timeoutReporter);
+        callbacks = new ExpiringLongMap<CallbackInfo>((long) (1.1 * DatabaseDescriptor.getRpcTimeout()), timeoutReporter);
 
         defaultExecutor_ = new JMXEnabledThreadPoolExecutor("MISCELLANEOUS-POOL");
-        streamExecutor_ = new JMXEnabledThreadPoolExecutor("MESSAGE-STREAMING-POOL");
+        // a thread per file in flight, bounded by StreamOutManager for each destination
+        streamExecutor_ = new JMXEnabledThreadPoolExecutor(DatabaseDescriptor.getStreamFilesInFlight(),
+                                                           Integer.MAX_VALUE,
+                                                           60,
+                                                           TimeUnit.SECONDS,
+                                                           new SynchronousQueue<Runnable>(),
+                                                           new NamedThreadFactory("MESSAGE-STREAMING-POOL"));
 
         TimerTask logDropped = new TimerTask()
         {
@@ -138,6 +166,15 @@ public class MessagingService
         };
         Timer timer = new Timer("DroppedMessagesLogger");
         timer.schedule(logDropped, LOG_DROPPED_INTERVAL_IN_MS, LOG_DROPPED_INTERVAL_IN_MS);
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("org.apache.cassandra.net:type=MessagingService"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
     }
 
     private Future<?> scheduleMutationHint(Message mutationMessage, InetAddress mutationTarget)
@@ -227,8 +264,13 @@ public class MessagingService
         OutboundTcpConnectionPool cp = connectionManagers_.get(to);
         if (cp == null)
         {
-            connectionManagers_.putIfAbsent(to, new OutboundTcpConnectionPool(to));
-            cp = connectionManagers_.get(to);
+            OutboundTcpConnectionPool newCp = new OutboundTcpConnectionPool(to);
+            cp = connectionManagers_.putIfAbsent(to, newCp);
+            if (cp == null)
+            {
+                newCp.start();
+                cp = newCp;
+            }
         }
         return cp;
     }
@@ -269,9 +311,10 @@ public class MessagingService
         if (hintEnabled && message.getVerb() == StorageService.Verb.MUTATION)
             previous = callbacks.put(message.getMessageId(), new CallbackInfo(to, cb, message));
         else
-            previous = callbacks.put(message.getMessageId(), new CallbackInfo(to, cb));
+            previous = callbacks.put(message.getMessageId(), new CallbackInfo(to, cb, message.getVerb()));
 
         assert previous == null;
+        pendingCallbacks.get(message.getVerb()).incrementAndGet();
     }
 
     /**
@@ -284,14 +327,14 @@ public class MessagingService
      *           suggest that a timeout occurred to the invoker of the send().
      * @return an reference to message id used to match with the result
      */
-    public String sendRR(Message message, InetAddress to, IAsyncCallback cb)
+    public int sendRR(Message message, InetAddress to, IAsyncCallback cb)
     {        
         return sendRR(message,to,cb,DatabaseDescriptor.hintedHandoffEnabled());
     }
 
-    public String sendRR(Message message, InetAddress to, IAsyncCallback cb, boolean hintEnabled)
+    public int sendRR(Message message, InetAddress to, IAsyncCallback cb, boolean hintEnabled)
     {        
-        String messageId = message.getMessageId();
+        int messageId = message.getMessageId();
         addCallback(cb, message, to,hintEnabled);
         sendOneWay(message, to);
         return messageId;
@@ -319,26 +362,8 @@ public class MessagingService
             return;
         }
 
-        // get pooled connection (really, connection queue)
-        OutboundTcpConnection connection = getConnection(to, message);
-
-        // pack message with header in a bytebuffer
-        byte[] data;
-        try
-        {
-            DataOutputBuffer buffer = new DataOutputBuffer();
-            Message.serializer().serialize(message, buffer);
-            data = buffer.getData();
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
-        }
-        assert data.length > 0;
-        ByteBuffer buffer = packIt(data , false);
-
-        // write it
-        connection.write(buffer);
+        // get pooled connection (really, connection queue) and write it
+        getConnection(to, message).write(message);
     }
     
     public IAsyncResult sendRR(Message message, InetAddress to)
@@ -358,15 +383,14 @@ public class MessagingService
      * Stream a file from source to destination. This is highly optimized
      * to not hold any of the contents of the file in memory.
      * @param file name of file to stream.
-     * @param startPosition position inside the file
-     * @param endPosition
+     * @param sections (start, end) positions of parts of the file to send one after another
      * @param to endpoint to which we need to stream the file.
     */
 
-    public void stream(String file, long startPosition, long endPosition, InetAddress from, InetAddress to)
+    public void stream(String file, List<Pair<Long, Long>> sections, InetAddress from, InetAddress to)
     {
         /* Streaming asynchronously on streamExector_ threads. */
-        Runnable streamingTask = new FileStreamTask(file, startPosition, endPosition, from, to);
+        Runnable streamingTask = new FileStreamTask(file, sections, from, to);
         streamExecutor_.execute(streamingTask);
     }
     
@@ -423,16 +447,80 @@ public class MessagingService
         }
     }
 
-    public static CallbackInfo removeRegisteredCallback(String messageId)
+    public static CallbackInfo removeRegisteredCallback(int messageId)
+    {
+        CallbackInfo callbackInfo = callbacks.remove(messageId);
+        if (callbackInfo != null)
+            pendingCallbacks.get(callbackInfo.verb).decrementAndGet();
+        return callbackInfo;
+    }
+
+    public Map<String, Integer> getPendingCallbacks()
+    {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<StorageService.Verb, AtomicInteger> entry : pendingCallbacks.entrySet())
+        {
+            if (entry.getValue().get() > 0)
+                result.put(entry.getKey().toString(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public Map<String, Long> getExpiredCallbacks()
     {
-        return callbacks.remove(messageId);
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<StorageService.Verb, AtomicLong> entry : expiredCallbacks.entrySet())
+        {
+            if (entry.getValue().get() > 0)
+                result.put(entry.getKey().toString(), entry.getValue().get());
+        }
+        return result;
     }
 
-    public static long getRegisteredCallbackAge(String messageId)
+    public static long getRegisteredCallbackAge(int messageId)
     {
         return callbacks.getAge(messageId);
     }
 
+    /**
+     * Remembers the maximum protocol version the endpoint reads, so the messages sent to it are readable there.
+     */
+    public static void setVersion(InetAddress endpoint, int version)
+    {
+        Integer previous = versions_.put(endpoint, version);
+        if ((previous == null || previous != version) && logger_.isDebugEnabled())
+            logger_.debug("Setting protocol version of " + endpoint + " to " + version);
+    }
+
+    /**
+     * @return protocol version to use for messages to the endpoint: the lesser of the current one and the one
+     * it advertised, or VERSION_1 if it was not heard from yet, since nodes of VERSION_1 cannot read anything else
+     */
+    public static int getVersion(InetAddress endpoint)
+    {
+        if (endpoint.equals(FBUtilities.getLocalAddress()))
+            return CURRENT_VERSION;
+        Integer version = versions_.get(endpoint);
+        return version == null ? VERSION_1 : Math.min(CURRENT_VERSION, version);
+    }
+
+    /**
+     * @return protocol version of message or stream in the protocol header int
+     */
+    public static int getVersion(int header)
+    {
+        return getBits(header, 15, 8);
+    }
+
+    /**
+     * @return maximum protocol version of the sender in the protocol header int;
+     * VERSION_1 for senders, which did not advertise it
+     */
+    public static int getMaxVersion(int header)
+    {
+        return Math.max(VERSION_1, getBits(header, 23, 8));
+    }
+
     public static void validateMagic(int magic) throws IOException
     {
         if (magic != PROTOCOL_MAGIC)
@@ -444,7 +532,11 @@ public class MessagingService
         return x >>> (p + 1) - n & ~(-1 << n);
     }
         
-    public static ByteBuffer packIt(byte[] bytes, boolean compress)
+    /**
+     * Puts protocol header of a message of the given length into the buffer:
+     * magic, header int (see below) and the length.
+     */
+    public static void packHeader(ByteBuffer buffer, int length, boolean compress, int version)
     {
         /*
              Setting up the protocol header. This is 4 bytes long
@@ -453,8 +545,9 @@ public class MessagingService
              is turned on or off. It is turned off by default. The 4th
              bit indicates if we are in streaming mode. It is turned off
              by default. The 5th-8th bits are reserved for future use.
-             The next 8 bits indicate a version number. Remaining 15 bits 
-             are not used currently.            
+             The next 8 bits indicate a version number of the message,
+             the next 8 bits the maximum version the sender reads; nodes
+             of VERSION_1 ignore them. Remaining 8 bits are not used currently.
         */
         int header = 0;
         // Setting up the serializer bit
@@ -463,18 +556,19 @@ public class MessagingService
         if (compress)
             header |= 4;
         // Setting up the version bit
-        header |= (version_ << 8);
+        header |= (version << 8);
+        header |= (CURRENT_VERSION << 16);
 
-        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + bytes.length);
         buffer.putInt(PROTOCOL_MAGIC);
         buffer.putInt(header);
-        buffer.putInt(bytes.length);
-        buffer.put(bytes);
-        buffer.flip();
-        return buffer;
+        buffer.putInt(length);
     }
         
-    public static ByteBuffer constructStreamHeader(boolean compress)
+    /**
+     * Since VERSION_2 the header is followed by the name of the streamed file (see IncomingTcpConnection),
+     * so receiver can tell apart files streamed over concurrent connections.
+     */
+    public static ByteBuffer constructStreamHeader(boolean compress, int version)
     {
         /* 
         Setting up the protocol header. This is 4 bytes long
@@ -483,8 +577,9 @@ public class MessagingService
         is turned on or off. It is turned off by default. The 4th
         bit indicates if we are in streaming mode. It is turned off
         by default. The following 4 bits are reserved for future use. 
-        The next 8 bits indicate a version number. Remaining 15 bits 
-        are not used currently.            
+        The next 8 bits indicate a version number of the stream,
+        the next 8 bits the maximum version the sender reads.
+        Remaining 8 bits are not used currently.
         */
         int header = 0;
         // Setting up the serializer bit
@@ -495,7 +590,8 @@ public class MessagingService
         // set streaming bit
         header |= 8;
         // Setting up the version bit
-        header |= (version_ << 8);
+        header |= (version << 8);
+        header |= (CURRENT_VERSION << 16);
         /* Finished the protocol header setup */
 
         ByteBuffer buffer = ByteBuffer.allocate(4 + 4);
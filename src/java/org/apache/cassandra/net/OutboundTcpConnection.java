@@ -21,20 +21,29 @@ package org.apache.cassandra.net;
  */
 
 
-import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.util.ByteBufferOutputStream;
 import org.apache.cassandra.utils.FBUtilities;
 
+/**
+ * Writes messages to a peer. Senders serialize messages with protocol header straight into pooled direct buffers
+ * (heap ones, if message is too large to pool); the connection thread writes everything queued by then
+ * with a single gathering write to the socket channel.
+ */
 public class OutboundTcpConnection extends Thread
 {
     private static final Logger logger = Logger.getLogger(OutboundTcpConnection.class);
@@ -42,10 +51,33 @@ public class OutboundTcpConnection extends Thread
     private static final ByteBuffer CLOSE_SENTINEL = ByteBuffer.allocate(0);
     private static final int OPEN_RETRY_DELAY = 100; // ms between retries
 
+    /** messages up to this size, with protocol header, are serialized into pooled buffers */
+    static final int POOLED_BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    /** most messages written with one gathering write */
+    private static final int MAX_COALESCED = 128;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private static final ThreadLocal<SerializeStream> serializeStreams = new ThreadLocal<SerializeStream>()
+    {
+        @Override
+        protected SerializeStream initialValue()
+        {
+            return new SerializeStream(new ByteBufferOutputStream());
+        }
+    };
+
     private final InetAddress endpoint;
     private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<ByteBuffer>();
-    private DataOutputStream output;
-    private Socket socket;
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_COALESCED];
+    private SocketChannel channel;
+
+    // updated by connection thread only
+    private volatile long messages;
+    private volatile long bytes;
+    private volatile long flushes;
 
     public OutboundTcpConnection(InetAddress remoteEp)
     {
@@ -53,11 +85,11 @@ public class OutboundTcpConnection extends Thread
         this.endpoint = remoteEp;
     }
 
-    public void write(ByteBuffer buffer)
+    public void write(Message message)
     {
         try
         {
-            queue.put(buffer);
+            queue.put(pack(message, MessagingService.getVersion(endpoint)));
         }
         catch (InterruptedException e)
         {
@@ -65,10 +97,113 @@ public class OutboundTcpConnection extends Thread
         }
     }
 
+    /**
+     * @return buffer with protocol header and message, ready to be written to socket
+     */
+    static ByteBuffer pack(Message message)
+    {
+        return pack(message, MessagingService.CURRENT_VERSION);
+    }
+
+    static ByteBuffer pack(Message message, int version)
+    {
+        ByteBuffer buffer = serialize(message, version);
+        if (buffer == null)
+        {
+            // deferred body of live data (a row shared with the row cache) changed after it was sized,
+            // so it is serialized into a byte[] of the length actually written, and that is sent
+            if (logger.isDebugEnabled())
+                logger.debug("Body of " + message.getMessageId() + " changed its size while serialized, copying it");
+            message.getMessageBody();
+            buffer = serialize(message, version);
+            if (buffer == null)
+                throw new IllegalStateException("Serialized size of " + message + " does not match its length");
+        }
+        return buffer;
+    }
+
+    /**
+     * @return null, if the message did not fill the buffer of its serialized size exactly
+     */
+    private static ByteBuffer serialize(Message message, int version)
+    {
+        int size = Message.serializer().serializedSize(message, version);
+        ByteBuffer buffer = allocate(MessagingService.PROTOCOL_HEADER_SIZE + size);
+        MessagingService.packHeader(buffer, size, false, version);
+
+        SerializeStream out = serializeStreams.get();
+        out.stream.setBuffer(buffer);
+        try
+        {
+            Message.serializer().serialize(message, out, version);
+        }
+        catch (BufferOverflowException e)
+        {
+            recycle(buffer);
+            return null;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            out.stream.setBuffer(null);
+        }
+        if (buffer.hasRemaining())
+        {
+            recycle(buffer);
+            return null;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int size)
+    {
+        // direct allocation is slow and may call System.gc() when direct memory runs low
+        if (size > POOLED_BUFFER_SIZE)
+            return ByteBuffer.allocate(size);
+
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            return (ByteBuffer) ByteBuffer.allocateDirect(POOLED_BUFFER_SIZE).limit(size);
+        pooledBuffers.decrementAndGet();
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    static void recycle(ByteBuffer buffer)
+    {
+        if (buffer.capacity() != POOLED_BUFFER_SIZE || !buffer.isDirect())
+            return;
+        // the count may slightly exceed the max under contention, not a problem
+        if (pooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS)
+        {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        bufferPool.offer(buffer);
+    }
+
     public void closeSocket()
     {
-        queue.clear();
-        write(CLOSE_SENTINEL);
+        clearQueue();
+        try
+        {
+            queue.put(CLOSE_SENTINEL);
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void clearQueue()
+    {
+        ByteBuffer bb;
+        while ((bb = queue.poll()) != null)
+            recycle(bb);
     }
 
     public void run()
@@ -81,23 +216,55 @@ public class OutboundTcpConnection extends Thread
                 disconnect();
                 continue;
             }
-            if (socket != null || connect())
-                writeConnected(bb);
+
+            // coalesce messages queued meanwhile, up to the close request
+            int count = 0;
+            boolean close = false;
+            batch[count++] = bb;
+            while (count < batch.length && (bb = queue.poll()) != null)
+            {
+                if (bb == CLOSE_SENTINEL)
+                {
+                    close = true;
+                    break;
+                }
+                batch[count++] = bb;
+            }
+
+            if (channel != null || connect())
+                writeConnected(count);
             else
                 // clear out the queue, else gossip messages back up.
-                queue.clear();            
+                clearQueue();
+
+            for (int i = 0; i < count; i++)
+            {
+                recycle(batch[i]);
+                batch[i] = null;
+            }
+            if (close)
+                disconnect();
         }
     }
 
-    private void writeConnected(ByteBuffer bb)
+    private void writeConnected(int count)
     {
+        long size = 0;
+        for (int i = 0; i < count; i++)
+            size += batch[i].remaining();
+
         try
         {
-            output.write(bb.array(), 0, bb.limit());
-            if (queue.peek() == null)
+            int offset = 0;
+            while (offset < count)
             {
-                output.flush();
+                channel.write(batch, offset, count - offset);
+                flushes++;
+                while (offset < count && !batch[offset].hasRemaining())
+                    offset++;
             }
+            messages += count;
+            bytes += size;
         }
         catch (IOException e)
         {
@@ -108,19 +275,18 @@ public class OutboundTcpConnection extends Thread
 
     private void disconnect()
     {
-        if (socket != null)
+        if (channel != null)
         {
             try
             {
-                socket.close();
+                channel.close();
             }
             catch (IOException e)
             {
                 if (logger.isDebugEnabled())
                     logger.debug("exception closing connection to " + endpoint, e);
             }
-            output = null;
-            socket = null;
+            channel = null;
         }
     }
 
@@ -147,16 +313,17 @@ public class OutboundTcpConnection extends Thread
         {
             try
             {
+                channel = SocketChannel.open();
                 // zero means 'bind on any available port.'
-                socket = new Socket(endpoint, DatabaseDescriptor.getStoragePort(), FBUtilities.getLocalAddress(), 0);
-                socket.setKeepAlive(true);
-                socket.setTcpNoDelay(true);
-                output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 4096));
+                channel.socket().bind(new InetSocketAddress(FBUtilities.getLocalAddress(), 0));
+                channel.connect(new InetSocketAddress(endpoint, DatabaseDescriptor.getStoragePort()));
+                channel.socket().setKeepAlive(true);
+                channel.socket().setTcpNoDelay(true);
                 return true;
             }
             catch (IOException e)
             {
-                socket = null;
+                disconnect();
                 if (logger.isTraceEnabled())
                     logger.trace("unable to connect to " + endpoint, e);
                 try
@@ -171,4 +338,38 @@ public class OutboundTcpConnection extends Thread
         }
         return false;
     }
+
+    /** messages written to the peer */
+    public long getMessages()
+    {
+        return messages;
+    }
+
+    /** bytes written to the peer, including protocol headers */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /** write calls made to the socket */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+
+    public int getPendingMessages()
+    {
+        return queue.size();
+    }
+
+    private static class SerializeStream extends DataOutputStream
+    {
+        final ByteBufferOutputStream stream;
+
+        SerializeStream(ByteBufferOutputStream stream)
+        {
+            super(stream);
+            this.stream = stream;
+        }
+    }
 }
@@ -18,21 +18,45 @@
 
 package org.apache.cassandra.net;
 
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 
-import org.apache.cassandra.concurrent.StageManager;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-class OutboundTcpConnectionPool
+
+class OutboundTcpConnectionPool implements OutboundTcpConnectionPoolMBean
 {
+    public static final String MBEAN_DOMAIN_AND_TYPE = "org.apache.cassandra.net:type=OutboundConnections";
+
+    private final InetAddress remoteEp;
     private final OutboundTcpConnection cmdCon;
     private final OutboundTcpConnection ackCon;
 
     OutboundTcpConnectionPool(InetAddress remoteEp)
     {
+        this.remoteEp = remoteEp;
         cmdCon = new OutboundTcpConnection(remoteEp);
-        cmdCon.start();
         ackCon = new OutboundTcpConnection(remoteEp);
+    }
+
+    /**
+     * starts connection threads and registers the mbean; done once this pool is known to be the only one for the peer
+     */
+    void start()
+    {
+        cmdCon.start();
         ackCon.start();
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName(MBEAN_DOMAIN_AND_TYPE + ",peer=" + ObjectName.quote(remoteEp.getHostAddress())));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -41,7 +65,8 @@ class OutboundTcpConnectionPool
      */
     OutboundTcpConnection getConnection(Message msg)
     {
-        return msg.getMessageType().equals(StageManager.RESPONSE_STAGE) || msg.getMessageType().equals(StageManager.GOSSIP_STAGE)
+        byte stage = msg.header_.getStage();
+        return stage == Header.RESPONSE_STAGE || stage == Header.GOSSIP_STAGE
                ? ackCon
                : cmdCon;
     }
@@ -51,4 +76,44 @@ class OutboundTcpConnectionPool
         for (OutboundTcpConnection con : new OutboundTcpConnection[] { cmdCon, ackCon })
             con.closeSocket();
     }
+
+    public long getCommandMessages()
+    {
+        return cmdCon.getMessages();
+    }
+
+    public long getCommandBytes()
+    {
+        return cmdCon.getBytes();
+    }
+
+    public long getCommandFlushes()
+    {
+        return cmdCon.getFlushes();
+    }
+
+    public int getCommandPendingMessages()
+    {
+        return cmdCon.getPendingMessages();
+    }
+
+    public long getResponseMessages()
+    {
+        return ackCon.getMessages();
+    }
+
+    public long getResponseBytes()
+    {
+        return ackCon.getBytes();
+    }
+
+    public long getResponseFlushes()
+    {
+        return ackCon.getFlushes();
+    }
+
+    public int getResponsePendingMessages()
+    {
+        return ackCon.getPendingMessages();
+    }
 }
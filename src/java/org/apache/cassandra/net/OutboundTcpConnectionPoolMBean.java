@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.net;
+
+/**
+ * Outbound traffic to a peer. Commands (requests) and responses, together with gossip,
+ * are written by separate connections. Flushes are write calls made to the socket, each of them
+ * writes all messages queued by then, so messages per flush show how well writes are coalesced.
+ */
+public interface OutboundTcpConnectionPoolMBean
+{
+    public long getCommandMessages();
+    public long getCommandBytes();
+    public long getCommandFlushes();
+    public int getCommandPendingMessages();
+
+    public long getResponseMessages();
+    public long getResponseBytes();
+    public long getResponseFlushes();
+    public int getResponsePendingMessages();
+}
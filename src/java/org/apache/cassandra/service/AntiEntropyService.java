@@ -347,6 +347,7 @@ public class AntiEntropyService
         private transient long validated;
         private transient MerkleTree.TreeRange range;
         private transient MerkleTree.TreeRangeIterator ranges;
+        private transient MessageDigest digest;
 
         public final static MerkleTree.RowHash EMPTY_ROW = new MerkleTree.RowHash(null, new byte[0]);
         
@@ -393,6 +394,8 @@ public class AntiEntropyService
                         break;
                 }
             }
+            tree.digestVersion(DigestVersions.getVersion());
+            digest = DigestVersions.newRowDigest(tree.digestVersion());
             logger.debug("Prepared AEService tree of size " + tree.size() + " for " + cf);
             mintoken = tree.partitioner().getMinimumToken();
             ranges = tree.invalids(new Range(mintoken, mintoken));
@@ -450,12 +453,10 @@ public class AntiEntropyService
         private MerkleTree.RowHash rowHash(CompactedRow row)
         {
             validated++;
-            // MerkleTree uses XOR internally, so we want lots of output bits here
-            MessageDigest messageDigest = FBUtilities.createDigest("SHA-256");
-            messageDigest.update(row.key.key.getBytes());
+            digest.update(row.key.key.getBytes());
             DataOutputBuffer buffer = (DataOutputBuffer) row.buffer;
-            messageDigest.update( buffer.getData(), 0, buffer.getLength());
-            return new MerkleTree.RowHash(row.key.token, messageDigest.digest());
+            digest.update(buffer.getData(), 0, buffer.getLength());
+            return new MerkleTree.RowHash(row.key.token, digest.digest());
         }
 
         /**
@@ -553,6 +554,14 @@ public class AntiEntropyService
             if (rtree.partitioner() == null)
                 rtree.partitioner(ss.getPartitioner());
 
+            // trees of nodes started between digest version switches are not comparable
+            if (digestVersion(ltree) != digestVersion(rtree))
+            {
+                logger.warn("Cannot compare " + local + " and " + remote + " for " + cf + ": row hashes of version "
+                            + digestVersion(ltree) + " and " + digestVersion(rtree) + ", repair again later");
+                return;
+            }
+
             // determine the ranges where responsibility overlaps
             Set<Range> interesting = new HashSet(ss.getRangesForEndPoint(cf.left, local));
             interesting.retainAll(ss.getRangesForEndPoint(cf.left, remote));
@@ -579,6 +588,11 @@ public class AntiEntropyService
             }
         }
         
+        private static int digestVersion(MerkleTree tree)
+        {
+            return tree.digestVersion() == 0 ? DigestVersions.VERSION_1 : tree.digestVersion();
+        }
+
         /**
          * Sends our list of differences to the remote endpoint using the
          * Streaming API.
@@ -125,8 +125,12 @@ public class ConsistencyChecker implements Runnable
                 ByteArrayInputStream bufIn = new ByteArrayInputStream(body);
                 ReadResponse result = ReadResponse.serializer().deserialize(new DataInputStream(bufIn));
                 byte[] digest = result.digest();
+                // the replica may compute other digests, if it switched digest versions
+                byte[] expected = DigestVersions.getVersion(digest) == DigestVersions.getVersion(dataDigest)
+                                ? dataDigest
+                                : ColumnFamily.digest(row_.cf, DigestVersions.getVersion(digest));
 
-                if (!Arrays.equals(dataDigest, digest))
+                if (!Arrays.equals(expected, digest))
                 {
                     ReadCommand readCommand = constructReadMessage(false);
                     DataRepairHandler handler = new DataRepairHandler();
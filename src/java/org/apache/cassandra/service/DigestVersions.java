@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.gms.EndPointState;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.gms.IEndPointStateChangeSubscriber;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Murmur3Digest;
+
+/**
+ * Negotiates how read digests and merkle tree row hashes are computed, so that all nodes compute them alike.
+ *
+ * Every node advertises the latest version it knows in gossip, and uses the lowest version advertised
+ * by the members of the ring and the nodes it has heard of. Nodes not advertising any, or not heard of yet,
+ * are of version 1, as is a node alone, so the cheaper digests of version 2 are computed only after all
+ * nodes of the cluster were upgraded and advertised it.
+ *
+ * Read digests are prefixed with their version since version 2, so a digest can be verified against data
+ * even if the nodes switched versions in between.
+ */
+public class DigestVersions implements IEndPointStateChangeSubscriber
+{
+    /** MD5 read digests, SHA-256 row hashes */
+    public static final int VERSION_1 = 1;
+    /** 128 bit Murmur3 read digests and row hashes */
+    public static final int VERSION_2 = 2;
+    public static final int CURRENT_VERSION = VERSION_2;
+
+    public static final String APPSTATE_DIGEST = "DIGEST";
+
+    private static final Logger logger = Logger.getLogger(DigestVersions.class);
+
+    public static final DigestVersions instance = new DigestVersions();
+
+    private final Map<InetAddress, Integer> versions = new ConcurrentHashMap<InetAddress, Integer>();
+    private volatile int version = VERSION_1;
+
+    private DigestVersions()
+    {
+    }
+
+    public void gossiperStarting()
+    {
+        Gossiper.instance.addLocalApplicationState(APPSTATE_DIGEST, Integer.toString(CURRENT_VERSION));
+        Gossiper.instance.register(this);
+    }
+
+    /**
+     * @return version of digests computed by this node now
+     */
+    public static int getVersion()
+    {
+        return instance.version;
+    }
+
+    /**
+     * @return version the digest was computed with
+     */
+    public static int getVersion(byte[] digest)
+    {
+        // MD5 digests are not prefixed
+        return digest.length == 16 ? VERSION_1 : digest[0];
+    }
+
+    /**
+     * @return digest for a read response of the version
+     */
+    public static MessageDigest newReadDigest(int version)
+    {
+        return version == VERSION_1 ? FBUtilities.createDigest("MD5") : new Murmur3Digest();
+    }
+
+    /**
+     * @return digest for a merkle tree row hash of the version
+     */
+    public static MessageDigest newRowDigest(int version)
+    {
+        // MerkleTree uses XOR internally, so we want lots of output bits here
+        return version == VERSION_1 ? FBUtilities.createDigest("SHA-256") : new Murmur3Digest();
+    }
+
+    private void setVersion(InetAddress endpoint, ApplicationState state)
+    {
+        versions.put(endpoint, state == null ? VERSION_1 : Integer.valueOf(state.getValue()));
+        negotiate();
+    }
+
+    private synchronized void negotiate()
+    {
+        TokenMetadata tokenMetadata = StorageService.instance.getTokenMetadata();
+        Set<InetAddress> endpoints = new HashSet<InetAddress>(versions.keySet());
+        for (Token token : tokenMetadata.sortedTokens())
+            endpoints.add(tokenMetadata.getEndPoint(token));
+        endpoints.addAll(tokenMetadata.getBootstrapTokens().values());
+        endpoints.addAll(tokenMetadata.getLeavingEndPoints());
+        endpoints.remove(FBUtilities.getLocalAddress());
+
+        int min = endpoints.isEmpty() ? VERSION_1 : CURRENT_VERSION;
+        for (InetAddress endpoint : endpoints)
+        {
+            Integer v = versions.get(endpoint);
+            min = Math.min(min, v == null ? VERSION_1 : v);
+        }
+        if (min != version)
+        {
+            logger.info("Switching digests from version " + version + " to " + min);
+            version = min;
+        }
+    }
+
+    public void onJoin(InetAddress endpoint, EndPointState epState)
+    {
+        setVersion(endpoint, epState.getApplicationState(APPSTATE_DIGEST));
+    }
+
+    public void onChange(InetAddress endpoint, String stateName, ApplicationState state)
+    {
+        if (stateName.equals(APPSTATE_DIGEST))
+            setVersion(endpoint, state);
+    }
+
+    public void onAlive(InetAddress endpoint, EndPointState state) {}
+
+    public void onDead(InetAddress endpoint, EndPointState state) {}
+
+    public void onRemove(InetAddress endpoint)
+    {
+        versions.remove(endpoint);
+        negotiate();
+    }
+}
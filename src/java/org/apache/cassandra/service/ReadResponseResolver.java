@@ -129,7 +129,7 @@ public class ReadResponseResolver extends SimpleReadResponseResolver implements
         {
             for (ColumnFamily cf : versions)
             {
-                byte[] digest2 = ColumnFamily.digest(cf);
+                byte[] digest2 = ColumnFamily.digest(cf, DigestVersions.getVersion(digest));
                 if (!Arrays.equals(digest, digest2))
                     throw new DigestMismatchException(key, digest, digest2);
             }
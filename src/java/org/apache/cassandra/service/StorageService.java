@@ -365,6 +365,7 @@ public class StorageService implements IEndPointStateChangeSubscriber, StorageSe
         {
             DatabaseDescriptor.getEndPointSnitch(table).gossiperStarting();
         }
+        DigestVersions.instance.gossiperStarting();
         Gossiper.instance.register(this);
         // touching class to make it register itself to gossip, so it will get information, preloaded from persistent store
         StorageLoadBalancer loadBalancer = StorageLoadBalancer.instance;
@@ -18,6 +18,7 @@
 
 package org.apache.cassandra.streaming;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -30,6 +31,7 @@ import java.util.List;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.TokenBucket;
 import org.apache.log4j.Logger;
 
 public class IncomingStreamReader
@@ -39,35 +41,42 @@ public class IncomingStreamReader
     private CompletedFileStatus streamStatus;
     private SocketChannel socketChannel;
     
-    private static final int MEGABIT_BYTES = 1024*1024/8;
+    private static final int CHUNK_SIZE = 1024*1024/8;
     
 
-    public IncomingStreamReader(SocketChannel socketChannel)
+    /**
+     * @param file source file name sent by the sender, null if it is too old to send it
+     */
+    public IncomingStreamReader(SocketChannel socketChannel, String file)
     {
         this.socketChannel = socketChannel;
         InetSocketAddress remoteAddress = (InetSocketAddress)socketChannel.socket().getRemoteSocketAddress();
-        pendingFile = StreamInManager.getStreamContext(remoteAddress.getAddress());
+        pendingFile = StreamInManager.getStreamContext(remoteAddress.getAddress(), file);
         StreamInManager.activeStreams.put(remoteAddress.getAddress(), pendingFile);
         assert pendingFile != null;
-        streamStatus = StreamInManager.getStreamStatus(remoteAddress.getAddress());
+        streamStatus = StreamInManager.getStreamStatus(remoteAddress.getAddress(), pendingFile.getSourceFile());
         assert streamStatus != null;
         
         
-        String fileLocation = StreamInManager.getFileLocation(remoteAddress.getAddress(), pendingFile.getNewName());
-        if (fileLocation == null){
-            String[] pieces = FBUtilities.strip(pendingFile.getNewName(), "-");
-            try {
-                List<PendingFile> incomingFiles = StreamInManager.getIncomingFiles(remoteAddress.getAddress());
-                
-                long expectedDataFileSize = Math.max(pendingFile.getExpectedBytes(),  getExpectedDataFileSize(pendingFile.getNewName(), incomingFiles));
-                fileLocation = DatabaseDescriptor.getDataFileLocation(Table.open(pendingFile.getTable()).getColumnFamilyStore(pieces[0]), expectedDataFileSize);
-            } catch (IOException e) {
-               throw new IllegalStateException("Can't open table "+pendingFile.getTable(), e);
+        // components of an sstable may come over concurrent connections, they must all go to the same location
+        String fileLocation;
+        synchronized (StreamInManager.class)
+        {
+            fileLocation = StreamInManager.getFileLocation(remoteAddress.getAddress(), pendingFile.getNewName());
+            if (fileLocation == null){
+                String[] pieces = FBUtilities.strip(pendingFile.getNewName(), "-");
+                try {
+                    List<PendingFile> incomingFiles = StreamInManager.getIncomingFiles(remoteAddress.getAddress());
+
+                    long expectedDataFileSize = Math.max(pendingFile.getExpectedBytes(),  getExpectedDataFileSize(pendingFile.getNewName(), incomingFiles));
+                    fileLocation = DatabaseDescriptor.getDataFileLocation(Table.open(pendingFile.getTable()).getColumnFamilyStore(pieces[0]), expectedDataFileSize);
+                } catch (IOException e) {
+                   throw new IllegalStateException("Can't open table "+pendingFile.getTable(), e);
+                }
+                StreamInManager.setFileLocation(remoteAddress.getAddress(), pendingFile.getNewName(), fileLocation);
+                if (logger.isDebugEnabled())
+                    logger.debug("Registered location for  " + pendingFile.getNewName()+", at "+ fileLocation);
             }
-            StreamInManager.setFileLocation(remoteAddress.getAddress(), pendingFile.getNewName(), fileLocation);
-            if (logger.isDebugEnabled())
-                logger.debug("Registered location for  " + pendingFile.getNewName()+", at "+ fileLocation);
-            
         }
         
         
@@ -112,28 +121,27 @@ public class IncomingStreamReader
         long bytesRead = 0;
         try
         {
-            long rateControlledBytes = 0;
+            TokenBucket throughput = StreamingService.instance.getThroughput();
             while (bytesRead < pendingFile.getExpectedBytes()) {
-                bytesRead += fc.transferFrom(socketChannel, bytesRead, MEGABIT_BYTES);
+                long bytesTransferred = fc.transferFrom(socketChannel, bytesRead, Math.min(CHUNK_SIZE, pendingFile.getExpectedBytes() - bytesRead));
+                if (bytesTransferred == 0)
+                    throw new EOFException("Stream of " + pendingFile.getSourceFile() + " ended at " + bytesRead + " bytes");
+                bytesRead += bytesTransferred;
                 pendingFile.update(bytesRead);
-                
-                while (bytesRead-rateControlledBytes > MEGABIT_BYTES)
-                {
-                    // we received megabit. make pause, if we received it too fast
-                    StreamingService.instance.getStreamRateControl().control();
-                    rateControlledBytes+=MEGABIT_BYTES;
-                }
+                // shared by all incoming streams
+                throughput.acquire(bytesTransferred);
             }
             if (logger.isDebugEnabled())
                 logger.debug("Receiving stream: finished reading chunk, awaiting more for "+targetFile);
         }
         catch (IOException ex)
         {
-            /* Ask the source node to re-stream this file. */
+            /* Delete the orphaned file, before the source node is asked to re-stream it. */
+            fc.close();
+            targetFile.delete();
             streamStatus.setAction(CompletedFileStatus.StreamCompletionAction.STREAM);
+            StreamInManager.retryStreamContext(remoteAddress.getAddress(), pendingFile);
             handleStreamCompletion(remoteAddress.getAddress());
-            /* Delete the orphaned file. */
-            targetFile.delete();
             logger.debug("Receiving stream: recovering from IO error",ex);
             throw ex;
         }
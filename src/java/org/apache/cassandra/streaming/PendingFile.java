@@ -24,8 +24,11 @@ package org.apache.cassandra.streaming;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.utils.Pair;
 
 class PendingFile
 {
@@ -47,6 +50,8 @@ class PendingFile
     private long ptr_;
     private transient String newName_;
     private transient String targetFile_;
+    // sections of the source file to stream; known by the sender only
+    private transient List<Pair<Long, Long>> sections_;
 
     public PendingFile(String sourceFile, long expectedBytes, String table)
     {
@@ -54,6 +59,29 @@ class PendingFile
         expectedBytes_ = expectedBytes;
         table_ = table;
         ptr_ = 0;
+        sections_ = Arrays.asList(new Pair<Long, Long>(0L, expectedBytes));
+    }
+
+    /**
+     * @param sections (start, end) positions of the parts of the file to stream, one after another
+     */
+    public PendingFile(String sourceFile, List<Pair<Long, Long>> sections, String table)
+    {
+        this(sourceFile, totalLength(sections), table);
+        sections_ = sections;
+    }
+
+    private static long totalLength(List<Pair<Long, Long>> sections)
+    {
+        long length = 0;
+        for (Pair<Long, Long> section : sections)
+            length += section.right - section.left;
+        return length;
+    }
+
+    public List<Pair<Long, Long>> getSections()
+    {
+        return sections_;
     }
 
     public void update(long ptr)
@@ -97,7 +125,7 @@ class PendingFile
             return false;
 
         PendingFile rhs = (PendingFile)o;
-        return sourceFile_.hashCode() == rhs.hashCode();
+        return sourceFile_.equals(rhs.sourceFile_) && expectedBytes_ == rhs.expectedBytes_;
     }
 
     public String getNewName() {
@@ -28,6 +28,7 @@ import java.net.InetAddress;
 import org.apache.log4j.Logger;
 
 import org.apache.cassandra.db.Table;
+import org.apache.cassandra.io.SSTable;
 import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.io.SSTableWriter;
 import org.apache.cassandra.net.MessagingService;
@@ -45,8 +46,9 @@ class StreamCompletionHandler implements IStreamComplete
 
     public void onStreamCompletion(InetAddress host, PendingFile pendingFile, CompletedFileStatus streamStatus) throws IOException
     {
+        boolean received = streamStatus.getAction() == CompletedFileStatus.StreamCompletionAction.DELETE;
         /* Parse the stream context and the file to the list of SSTables in the associated Column Family Store. */
-        if (pendingFile.getSourceFile().contains("-Data.db"))
+        if (received && pendingFile.getSourceFile().contains("-Data.db"))
         {
             String tableName = pendingFile.getTable();
             String file =  pendingFile.getTargetFile() ;
@@ -56,7 +58,12 @@ class StreamCompletionHandler implements IStreamComplete
             //Open the file to see if all parts are now here
             try
             {
-                SSTableReader sstable = SSTableWriter.renameAndOpen(pendingFile.getTargetFile());
+                // only data is streamed for sections of sstables, see StreamOut.
+                // other components, if any, were streamed before data (see StreamOutManager); while index of one
+                // file is built here, the others keep streaming over their connections
+                SSTableReader sstable = new File(SSTable.indexFilename(file)).exists()
+                                        ? SSTableWriter.renameAndOpen(file)
+                                        : SSTableWriter.recoverAndOpen(file);
                 //TODO add a sanity check that this sstable has all its parts and is ok
                 Table.open(tableName).getColumnFamilyStore(temp[0]).addSSTable(sstable);
                 logger.info("Streaming added " + sstable.getFilename());
@@ -73,7 +80,7 @@ class StreamCompletionHandler implements IStreamComplete
         MessagingService.instance.sendOneWay(streamStatus.makeStreamStatusMessage(), host);
 
         /* If we're done with everything for this host, remove from bootstrap sources */
-        if (StreamInManager.isDone(host) && StorageService.instance.isBootstrapMode())
+        if (received && StreamInManager.finishStream(host, pendingFile) && StorageService.instance.isBootstrapMode())
         {
             StorageService.instance.removeBootstrapSource(host, pendingFile.getTable());
         }
@@ -53,7 +53,7 @@ public class StreamFinishedVerbHandler implements IVerbHandler
                 case STREAM:
                     if (logger.isDebugEnabled())
                         logger.debug("Need to re-stream file " + streamStatus.getFile());
-                    StreamOutManager.get(message.getFrom()).startNext();
+                    StreamOutManager.get(message.getFrom()).retry(streamStatus.getFile());
                     break;
 
                 default:
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,12 +50,29 @@ class StreamInManager
 
     public static final Multimap<InetAddress, PendingFile> activeStreams = Multimaps.synchronizedMultimap(HashMultimap.<InetAddress, PendingFile>create());
 
-    public synchronized static PendingFile getStreamContext(InetAddress key)
+    /* Files of the current session with each source, to tell when all of them are done */
+    private static final Map<InetAddress, StreamProgress> progress_ = new Hashtable<InetAddress, StreamProgress>();
+
+    /**
+     * @param file source file of the context, or null for the first one (senders of VERSION_1 stream files one after another)
+     */
+    public synchronized static PendingFile getStreamContext(InetAddress key, String file)
     {        
         List<PendingFile> context = ctxBag_.get(key);
         if ( context == null )
             throw new IllegalStateException("Streaming context has not been set for " + key);
-        PendingFile pendingFile = context.remove(0);
+        PendingFile pendingFile = null;
+        for (Iterator<PendingFile> iter = context.iterator(); iter.hasNext() && pendingFile == null; )
+        {
+            PendingFile candidate = iter.next();
+            if (file == null || file.equals(candidate.getSourceFile()))
+            {
+                pendingFile = candidate;
+                iter.remove();
+            }
+        }
+        if (pendingFile == null)
+            throw new IllegalStateException("Streaming context has not been set for " + file + " from " + key);
         if ( context.isEmpty() )
             ctxBag_.remove(key);
         return pendingFile;
@@ -79,12 +97,23 @@ class StreamInManager
         context.put(fileName, fileLocation);
     }
     
-    public synchronized static CompletedFileStatus getStreamStatus(InetAddress key)
+    public synchronized static CompletedFileStatus getStreamStatus(InetAddress key, String file)
     {
         List<CompletedFileStatus> status = streamStatusBag_.get(key);
         if ( status == null )
             throw new IllegalStateException("Streaming status has not been set for " + key);
-        CompletedFileStatus streamStatus = status.remove(0);
+        CompletedFileStatus streamStatus = null;
+        for (Iterator<CompletedFileStatus> iter = status.iterator(); iter.hasNext() && streamStatus == null; )
+        {
+            CompletedFileStatus candidate = iter.next();
+            if (file.equals(candidate.getFile()))
+            {
+                streamStatus = candidate;
+                iter.remove();
+            }
+        }
+        if (streamStatus == null)
+            throw new IllegalStateException("Streaming status has not been set for " + file + " from " + key);
         if ( status.isEmpty() )
             streamStatusBag_.remove(key);
         return streamStatus;
@@ -110,13 +139,35 @@ class StreamInManager
         return list;
     }
 
-    /*
-     * This method helps determine if the StreamCompletionHandler needs
-     * to be invoked for the data being streamed from a source. 
-    */
-    public synchronized static boolean isDone(InetAddress key)
+    /** progress of the current session with each source. */
+    public static Map<InetAddress, String> getProgress()
     {
-        return (ctxBag_.get(key) == null);
+        Map<InetAddress, String> map = new HashMap<InetAddress, String>();
+        synchronized (progress_)
+        {
+            for (Map.Entry<InetAddress, StreamProgress> entry : progress_.entrySet())
+            {
+                List<PendingFile> active;
+                synchronized (activeStreams)
+                {
+                    active = new ArrayList<PendingFile>(activeStreams.get(entry.getKey()));
+                }
+                map.put(entry.getKey(), entry.getValue().toString(active));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Marks the file received and added.
+     * Files are received concurrently, so the one done last is not necessarily the one started last.
+     * @return true if all files of the session with the source are done
+     */
+    public synchronized static boolean finishStream(InetAddress key, PendingFile pendingFile)
+    {
+        StreamProgress progress = progress_.get(key);
+        progress.complete(pendingFile);
+        return progress.isComplete();
     }
     
     public synchronized static IStreamComplete getStreamCompletionHandler(InetAddress key)
@@ -144,6 +195,14 @@ class StreamInManager
             ctxBag_.put(key, context);
         }
         context.add(pendingFile);
+
+        StreamProgress progress = progress_.get(key);
+        if (progress == null || progress.isComplete())
+        {
+            progress = new StreamProgress();
+            progress_.put(key, progress);
+        }
+        progress.add(pendingFile);
         
         /* Record the stream status for this stream context */
         List<CompletedFileStatus> status = streamStatusBag_.get(key);
@@ -154,4 +213,26 @@ class StreamInManager
         }
         status.add( streamStatus );
     }
+
+    /**
+     * Expects the file, which failed to be received, again.
+     */
+    public synchronized static void retryStreamContext(InetAddress key, PendingFile pendingFile)
+    {
+        List<PendingFile> context = ctxBag_.get(key);
+        if ( context == null )
+        {
+            context = new ArrayList<PendingFile>();
+            ctxBag_.put(key, context);
+        }
+        context.add(pendingFile);
+
+        List<CompletedFileStatus> status = streamStatusBag_.get(key);
+        if ( status == null )
+        {
+            status = new ArrayList<CompletedFileStatus>();
+            streamStatusBag_.put(key, status);
+        }
+        status.add(new CompletedFileStatus(pendingFile.getSourceFile(), pendingFile.getExpectedBytes()));
+    }
 }
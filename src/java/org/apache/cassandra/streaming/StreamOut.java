@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -33,10 +34,18 @@ import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
 
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.CompactionManager;
 import org.apache.cassandra.db.Table;
 import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.CLibrary;
+import org.apache.cassandra.utils.Pair;
 
 
 /**
@@ -59,7 +68,7 @@ public class StreamOut
     static String TABLE_NAME = "STREAMING-TABLE-NAME";
 
     /**
-     * Split out files for all tables on disk locally for each range and then stream them to the target endpoint.
+     * Stream sections of sstables of all column families of the table holding the ranges to the target endpoint.
     */
     public static void transferRanges(InetAddress target, String tableName, Collection<Range> ranges, Runnable callback)
     {
@@ -69,7 +78,7 @@ public class StreamOut
 
         /*
          * (1) dump all the memtables to disk.
-         * (2) anticompaction -- split out the keys in the range specified
+         * (2) find sections of sstables holding the ranges and hard link the sstables, so they stay until streamed
          * (3) transfer the data.
         */
         try
@@ -78,14 +87,23 @@ public class StreamOut
             logger.info("Flushing memtables for " + tableName + "...");
             table.flushAndWait();
 
-            logger.info("Performing anticompaction ...");
-            /* Get the list of files that need to be streamed */
-            transferSSTables(target, table.forceAntiCompaction(ranges, target), tableName); // SSTR GC deletes the file when done
+            List<PendingFile> pendingFiles = new ArrayList<PendingFile>();
+            for (ColumnFamilyStore cfStore : table.getColumnFamilyStores())
+                pendingFiles.addAll(createPendingFiles(cfStore, ranges, target));
+            transferPendingFiles(target, pendingFiles.toArray(new PendingFile[pendingFiles.size()]), tableName);
         }
         catch (IOException e)
         {
             throw new IOError(e);
         }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
         finally
         {
             StreamOutManager.remove(target);
@@ -94,6 +112,92 @@ public class StreamOut
             callback.run();
     }
 
+    /**
+     * Sstables wholly in the ranges are sent as they are. Of others, just the sections of data file
+     * holding the ranges are sent and the receiver builds index and filter for them.
+     * Compressed sstables cannot be cut into sections, so they are anticompacted. So are all the others for targets
+     * of VERSION_1, which cannot build index and filter of a section.
+     * Domain split CF is sent whole, if its domain is in the ranges, and skipped, if its domain starts out of them.
+     */
+    private static List<PendingFile> createPendingFiles(ColumnFamilyStore cfStore, Collection<Range> ranges, InetAddress target)
+    throws IOException, ExecutionException, InterruptedException
+    {
+        String tableName = cfStore.getTable().name;
+        List<PendingFile> pendingFiles = new ArrayList<PendingFile>();
+        List<SSTableReader> anticompacted = new ArrayList<SSTableReader>();
+
+        CFMetaData cfMetaData = DatabaseDescriptor.getCFMetaData(tableName, cfStore.getColumnFamilyName());
+        Range cfRange = new Range(cfMetaData.domainMinToken, cfMetaData.domainMaxToken);
+        if (cfMetaData.domainSplit && !Range.isRangeInRanges(cfRange, ranges) && !Range.isTokenInRanges(cfMetaData.domainMinToken, ranges))
+        {
+            logger.debug(cfStore.getColumnFamilyName() + "' range " + cfRange + " is completely out of " + ranges);
+            return pendingFiles;
+        }
+        boolean wholeDomain = cfMetaData.domainSplit && Range.isRangeInRanges(cfRange, ranges);
+        boolean streamSections = MessagingService.getVersion(target) >= MessagingService.VERSION_2;
+        if (wholeDomain)
+            logger.debug(cfStore.getColumnFamilyName() + "' range " + cfRange + " contained fully in " + ranges);
+
+        // references to sstables keep their files from being deleted until they are linked
+        for (SSTableReader sstable : cfStore.getSSTables())
+        {
+            if (wholeDomain)
+            {
+                addWhole(pendingFiles, sstable, target);
+                continue;
+            }
+
+            List<Pair<Long, Long>> sections = sstable.getPositionsForRanges(ranges);
+            if (sections.isEmpty())
+                continue;
+
+            if (sections.size() == 1 && sections.get(0).left == 0 && sections.get(0).right == sstable.length())
+            {
+                addWhole(pendingFiles, sstable, target);
+            }
+            else if (sstable.isCompressed() || !streamSections)
+            {
+                anticompacted.add(sstable);
+            }
+            else
+            {
+                pendingFiles.add(new PendingFile(link(sstable.getFilename(), target), sections, tableName));
+            }
+        }
+
+        if (!anticompacted.isEmpty())
+        {
+            for (String filename : CompactionManager.instance.submitAnticompaction(cfStore, anticompacted, ranges, target).get())
+                pendingFiles.add(new PendingFile(filename, new File(filename).length(), tableName));
+        }
+        return pendingFiles;
+    }
+
+    private static void addWhole(List<PendingFile> pendingFiles, SSTableReader sstable, InetAddress target) throws IOException
+    {
+        // data file goes last, see SSTable.getAllFilenames
+        for (String filename : sstable.getAllFilenames())
+        {
+            String link = link(filename, target);
+            pendingFiles.add(new PendingFile(link, new File(link).length(), sstable.getTableName()));
+        }
+    }
+
+    /**
+     * Hard links the file into streaming directory of the target, on the same disk. The link is deleted when streamed.
+     */
+    private static String link(String filename, InetAddress target) throws IOException
+    {
+        File file = new File(filename);
+        File streamingDir = new File(file.getParentFile(), DatabaseDescriptor.STREAMING_SUBDIR + File.separator + target.getHostAddress());
+        FileUtils.createDirectory(streamingDir.getPath());
+        File link = new File(streamingDir, file.getName());
+        if (link.exists())
+            FileUtils.deleteWithConfirm(link);
+        CLibrary.createHardLink(file, link);
+        return link.getAbsolutePath();
+    }
+
     /**
      * Transfers a group of sstables from a single table to the target endpoint
      * and then marks them as ready for local deletion.
@@ -107,7 +211,12 @@ public class StreamOut
             File file = new File(filename);
             pendingFiles[i++] = new PendingFile(file.getAbsolutePath(), file.length(), table);
         }
-        logger.info("Stream context metadata " + StringUtils.join(pendingFiles, ", " + " " + filenames.size() + " sstables."));
+        transferPendingFiles(target, pendingFiles, table);
+    }
+
+    private static void transferPendingFiles(InetAddress target, PendingFile[] pendingFiles, String table) throws IOException
+    {
+        logger.info("Stream context metadata " + StringUtils.join(pendingFiles, ", ") + " " + pendingFiles.length + " files.");
         StreamOutManager.get(target).addFilesToStream(pendingFiles);
         StreamInitiateMessage biMessage = new StreamInitiateMessage(pendingFiles);
         Message message = StreamInitiateMessage.makeStreamInitiateMessage(biMessage);
@@ -27,13 +27,14 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.SimpleCondition;
 
 /**
- * This class manages the streaming of multiple files one after the other.
+ * This class manages the streaming of multiple files to a host, several of them at once.
 */
 public class StreamOutManager
 {   
@@ -56,7 +57,7 @@ public class StreamOutManager
        
     public static void remove(InetAddress to)
     {
-        if (streamManagers.containsKey(to) && streamManagers.get(to).files.size() == 0)
+        if (streamManagers.containsKey(to) && streamManagers.get(to).getFiles().size() == 0)
             streamManagers.remove(to);
         pendingDestinations.remove(to);
     }
@@ -84,12 +85,23 @@ public class StreamOutManager
         return list;
     }    
 
+    /** progress of the current session with each destination. */
+    public static Map<InetAddress, String> getProgress()
+    {
+        Map<InetAddress, String> map = new HashMap<InetAddress, String>();
+        for (Map.Entry<InetAddress, StreamOutManager> entry : streamManagers.entrySet())
+            map.put(entry.getKey(), entry.getValue().getProgressString());
+        return map;
+    }
+
     // we need sequential and random access to the files. hence, the map and the list.
     private final List<PendingFile> files = new ArrayList<PendingFile>();
     private final Map<String, PendingFile> fileMap = new HashMap<String, PendingFile>();
+    // files being streamed now, each by its own FileStreamTask
+    private final Set<PendingFile> inFlight = new HashSet<PendingFile>();
     
     private final InetAddress to;
-    private long totalBytes = 0L;
+    private StreamProgress progress = new StreamProgress();
     private final SimpleCondition condition = new SimpleCondition();
     
     private StreamOutManager(InetAddress to)
@@ -97,42 +109,95 @@ public class StreamOutManager
         this.to = to;
     }
     
-    public void addFilesToStream(PendingFile[] pendingFiles)
+    public synchronized void addFilesToStream(PendingFile[] pendingFiles)
     {
         // reset the condition in case this SOM is getting reused before it can be removed.
         condition.reset();
+        if (files.isEmpty())
+            progress = new StreamProgress();
         for (PendingFile pendingFile : pendingFiles)
         {
             if (logger.isDebugEnabled())
               logger.debug("Adding file " + pendingFile.getSourceFile() + " to be streamed.");
             files.add(pendingFile);
             fileMap.put(pendingFile.getSourceFile() , pendingFile);
-            totalBytes += pendingFile.getExpectedBytes();
+            progress.add(pendingFile);
         }
     }
 
     public void update(String path, long pos)
     {
-        PendingFile pf = fileMap.get(path);
+        PendingFile pf;
+        synchronized (this)
+        {
+            pf = fileMap.get(path);
+        }
         if (pf != null)
             pf.update(pos);
     }
     
-    public void startNext()
+    /**
+     * Starts streaming of the next files, up to StreamFilesInFlight at once. Peers of VERSION_1 are not sent
+     * file names and match received files to their contexts by order, so files are streamed to them one by one, in order.
+     */
+    public synchronized void startNext()
     {
-        if (files.size() > 0)
+        boolean ordered = MessagingService.getVersion(to) < MessagingService.VERSION_2;
+        int limit = ordered ? 1 : DatabaseDescriptor.getStreamFilesInFlight();
+        while (inFlight.size() < limit)
         {
-            File file = new File(files.get(0).getSourceFile() );
+            PendingFile pendingFile = ordered ? (files.isEmpty() ? null : files.get(0)) : nextFile();
+            if (pendingFile == null)
+                break;
+            inFlight.add(pendingFile);
+            File file = new File(pendingFile.getSourceFile());
             if (logger.isDebugEnabled())
-              logger.debug("Streaming " + file.length() + " length file " + file + " ...");
-            MessagingService.instance.stream(file.getAbsolutePath(), 0L, file.length(), FBUtilities.getLocalAddress(), to);
+              logger.debug("Streaming " + pendingFile.getExpectedBytes() + " bytes of " + file.length() + " length file " + file + " ...");
+            MessagingService.instance.stream(pendingFile.getSourceFile(), pendingFile.getSections(), FBUtilities.getLocalAddress(), to);
+        }
+    }
+
+    /**
+     * Data file of an sstable is opened as soon as it is received, so it is streamed only when
+     * the other components of the sstable are done.
+     */
+    private PendingFile nextFile()
+    {
+        for (PendingFile pendingFile : files)
+        {
+            if (inFlight.contains(pendingFile))
+                continue;
+            if (!pendingFile.getSourceFile().endsWith("-Data.db"))
+                return pendingFile;
+
+            String prefix = pendingFile.getSourceFile().substring(0, pendingFile.getSourceFile().length() - "Data.db".length());
+            boolean componentsDone = true;
+            for (PendingFile other : files)
+            {
+                if (other != pendingFile && other.getSourceFile().startsWith(prefix))
+                    componentsDone = false;
+            }
+            if (componentsDone)
+                return pendingFile;
         }
+        return null;
+    }
+
+    /**
+     * Streams the file again, as the destination failed to receive it.
+     */
+    public synchronized void retry(String file)
+    {
+        PendingFile pf = fileMap.get(file);
+        if (pf != null)
+            inFlight.remove(pf);
+        startNext();
     }
     
     /**
      * Drops all files to steam to to endpoint and remove them from temp storage.
      */
-    public void reset() {
+    public synchronized void reset() {
         while (files.size()>0) {
             PendingFile file = files.remove(0);
             if (file==null)
@@ -144,19 +209,23 @@ public class StreamOutManager
             FileUtils.delete(file.getSourceFile());
             fileMap.remove(file.getSourceFile());
         }
+        inFlight.clear();
 
         condition.signalAll();
     }
 
-    public void finishAndStartNext(String file) throws IOException
+    public synchronized void finishAndStartNext(String file) throws IOException
     {
-        File f = new File(file);
-        if (logger.isDebugEnabled())
-          logger.debug("Deleting file " + file + " after streaming " + f.length() + "/" + totalBytes + " bytes.");
         FileUtils.delete(file);
-        PendingFile pf = files.remove(0);
+        PendingFile pf = fileMap.remove(file);
         if (pf != null)
-            fileMap.remove(pf.getSourceFile());
+        {
+            files.remove(pf);
+            inFlight.remove(pf);
+            progress.complete(pf);
+        }
+        if (logger.isDebugEnabled())
+          logger.debug("Deleted file " + file + " after streaming, " + getProgressString());
         if (files.size() > 0)
         {
             startNext();
@@ -168,6 +237,11 @@ public class StreamOutManager
             condition.signalAll();
         }
     }
+
+    private synchronized String getProgressString()
+    {
+        return progress.toString(inFlight);
+    }
     
     public void waitForStreamCompletion()
     {
@@ -181,8 +255,8 @@ public class StreamOutManager
         }
     }
 
-    List<PendingFile> getFiles()
+    synchronized List<PendingFile> getFiles()
     {
-        return Collections.unmodifiableList(files);
+        return new ArrayList<PendingFile>(files);
     }
 }
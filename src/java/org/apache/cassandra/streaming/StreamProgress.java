@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.streaming;
+
+import java.util.Collection;
+
+/**
+ * Progress of a streaming session with a host: files and bytes to stream and streamed so far.
+ */
+class StreamProgress
+{
+    private int files;
+    private long bytes;
+    private int completedFiles;
+    private long completedBytes;
+
+    public synchronized void add(PendingFile pendingFile)
+    {
+        files++;
+        bytes += pendingFile.getExpectedBytes();
+    }
+
+    public synchronized void complete(PendingFile pendingFile)
+    {
+        completedFiles++;
+        completedBytes += pendingFile.getExpectedBytes();
+    }
+
+    public synchronized boolean isComplete()
+    {
+        return completedFiles == files;
+    }
+
+    /**
+     * @param active files being streamed now, counted by bytes streamed so far
+     */
+    public synchronized String toString(Collection<PendingFile> active)
+    {
+        long streamedBytes = completedBytes;
+        for (PendingFile pendingFile : active)
+            streamedBytes += pendingFile.getPtr();
+        return String.format("%d/%d files, %d/%d bytes, %d in flight", completedFiles, files, streamedBytes, bytes, active.size());
+    }
+}
@@ -23,14 +23,16 @@ import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.utils.RateControl;
+import org.apache.cassandra.utils.TokenBucket;
 import org.apache.log4j.Logger;
 
 public class StreamingService implements StreamingServiceMBean
@@ -39,7 +41,10 @@ public class StreamingService implements StreamingServiceMBean
     public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.streaming:type=StreamingService";
     public static final StreamingService instance = new StreamingService();
     
-    private RateControl streamRateControl = null;
+    private static final int MEGABIT_BYTES = 1024*1024/8;
+
+    /* throughput of all incoming streams together */
+    private final TokenBucket throughput = new TokenBucket((long) DatabaseDescriptor.getStreamInMBits() * MEGABIT_BYTES);
 
     private StreamingService()
     {
@@ -127,18 +132,45 @@ public class StreamingService implements StreamingServiceMBean
     public void setStreamInMBits(int newMBits)
     {
         DatabaseDescriptor.setStreamInMBits(newMBits);
-
-        if (streamRateControl!=null)
-            streamRateControl = new RateControl(newMBits);
+        throughput.setRate((long) newMBits * MEGABIT_BYTES);
     }
 
     /**
-     * @return the streamRateControl
+     * @return limit of bytes per second received by all incoming streams
      */
-    public RateControl getStreamRateControl()
+    public TokenBucket getThroughput()
+    {
+        return throughput;
+    }
+
+    public int getStreamFilesInFlight()
+    {
+        return DatabaseDescriptor.getStreamFilesInFlight();
+    }
+
+    public void setStreamFilesInFlight(int filesInFlight)
+    {
+        if (filesInFlight < 1)
+            throw new IllegalArgumentException("At least one file must be in flight: " + filesInFlight);
+        DatabaseDescriptor.setStreamFilesInFlight(filesInFlight);
+    }
+
+    public Map<String, String> getOutgoingSessions()
+    {
+        return toStringKeys(StreamOutManager.getProgress());
+    }
+
+    public Map<String, String> getIncomingSessions()
+    {
+        return toStringKeys(StreamInManager.getProgress());
+    }
+
+    private static Map<String, String> toStringKeys(Map<InetAddress, String> progress)
     {
-        RateControl rc = streamRateControl;
-        return rc == null ? streamRateControl = new RateControl(getStreamInMBits()) : rc;
+        Map<String, String> map = new HashMap<String, String>();
+        for (Map.Entry<InetAddress, String> entry : progress.entrySet())
+            map.put(entry.getKey().getHostAddress(), entry.getValue());
+        return map;
     }
     
     /* (non-Javadoc)
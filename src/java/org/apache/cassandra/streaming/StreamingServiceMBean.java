@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface StreamingServiceMBean
@@ -50,6 +51,17 @@ public interface StreamingServiceMBean
      * @param newMBits
      */
     void setStreamInMBits(int newMBits);
+
+    /** files streamed to a host at the same time */
+    int getStreamFilesInFlight();
+
+    void setStreamFilesInFlight(int filesInFlight);
+
+    /** progress of streaming to each host, as files and bytes done out of total */
+    Map<String, String> getOutgoingSessions();
+
+    /** progress of streaming from each host, as files and bytes done out of total */
+    Map<String, String> getIncomingSessions();
     
     /**
      * Cancels all streaming to host
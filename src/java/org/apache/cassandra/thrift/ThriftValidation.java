@@ -31,7 +31,9 @@ import org.apache.cassandra.db.IColumn;
 import org.apache.cassandra.db.KeyspaceNotDefinedException;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.MarshalException;
+import org.apache.cassandra.dht.BinaryRandomPartitioner;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.dht.RandomPartitioner;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.service.StorageService;
@@ -376,8 +378,10 @@ public class ThriftValidation
             Token endToken = p.decorateKey(range.end_key).token;
             if (startToken.compareTo(endToken) > 0 && !endToken.equals(p.getMinimumToken()))
             {
-                if (p instanceof RandomPartitioner)
+                if (p instanceof RandomPartitioner || p instanceof BinaryRandomPartitioner)
                     throw new InvalidRequestException("start key's md5 sorts after end key's md5.  this is not allowed; you probably should not specify end key at all, under RandomPartitioner");
+                else if (p instanceof Murmur3Partitioner)
+                    throw new InvalidRequestException("start key's hash sorts after end key's hash.  this is not allowed; you probably should not specify end key at all, under Murmur3Partitioner");
                 else
                     throw new InvalidRequestException("start key must sort before (or equal to) finish key in your partitioner!");
             }
@@ -372,6 +372,7 @@ public class NodeCmd {
                 outs.println("\t\tSpace used (total): " + cfstore.getTotalDiskSpaceUsed());
                 outs.println("\t\tMemtable Columns Count: " + cfstore.getMemtableColumnsCount());
                 outs.println("\t\tMemtable Data Size: " + cfstore.getMemtableDataSize());
+                outs.println("\t\tMemtable Live Size: " + cfstore.getMemtableLiveSize());
                 outs.println("\t\tMemtable Switch Count: " + cfstore.getMemtableSwitchCount());
                 outs.println("\t\tRead Count: " + cfstore.getReadCount());
                 outs.println("\t\tRead Latency: " + String.format("%01.3f", cfstore.getRecentReadLatencyMicros() / 1000) + " ms.");
@@ -385,6 +386,7 @@ public class NodeCmd {
                     outs.println("\t\tKey cache capacity: " + keyCacheMBean.getCapacity());
                     outs.println("\t\tKey cache size: " + keyCacheMBean.getSize());
                     outs.println("\t\tKey cache hit rate: " + keyCacheMBean.getRecentHitRate());
+                    outs.println("\t\tKey cache evictions: " + keyCacheMBean.getEvictions());
                 }
                 else
                 {
@@ -397,6 +399,7 @@ public class NodeCmd {
                     outs.println("\t\tRow cache capacity: " + rowCacheMBean.getCapacity());
                     outs.println("\t\tRow cache size: " + rowCacheMBean.getSize());
                     outs.println("\t\tRow cache hit rate: " + rowCacheMBean.getRecentHitRate());
+                    outs.println("\t\tRow cache evictions: " + rowCacheMBean.getEvictions());
                 }
                 else
                 {
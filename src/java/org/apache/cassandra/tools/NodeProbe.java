@@ -58,6 +58,7 @@ import org.apache.cassandra.service.StorageServiceMBean;
 import org.apache.cassandra.streaming.StreamingService;
 import org.apache.cassandra.streaming.StreamingServiceMBean;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.lang.StringUtils;
 
 /**
  * JMX client operations for Cassandra.
@@ -542,11 +543,11 @@ public class NodeProbe
      */
     public String getCompactionStatus()
     {
-        String cf=mcmProxy.getColumnFamilyInProgress();
+        List<String> compactions=mcmProxy.getCompactionsInProgress();
         
-        if (cf!=null)
+        if (!compactions.isEmpty())
         {
-            return (mcmProxy.isMajorCompaction() ? "Major " : "" )+"Compacting "+cf+", progress "+mcmProxy.getBytesCompacted()+"/"+mcmProxy.getBytesTotalInProgress();
+            return StringUtils.join(compactions, "\n");
         } else
         {
             return "Not active";
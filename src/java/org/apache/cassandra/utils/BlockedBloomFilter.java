@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.DatabaseDescriptor.FilterAccessMode;
+import org.apache.cassandra.utils.obs.IBitSet;
+import org.apache.cassandra.utils.obs.OffheapIBitSet;
+import org.apache.cassandra.utils.obs.OpenBitSet;
+
+/**
+ * Cache-blocked bloom filter (BloomFilterMode blocked). Bitset is split into 512 bit blocks, one cache line each;
+ * the first hash of element selects its block and all its bits are set within that block, derived from the second hash.
+ * So a lookup costs a single cache (and TLB) miss instead of one per hash function, which matters for large filters.
+ *
+ * Elements are not spread evenly between blocks, so for the same number of bits per element false positive
+ * rate is higher, than of standard filter. EXTRA_BUCKETS more buckets per element are allocated to compensate
+ * for it partially: with 15 target buckets such filter is 20% larger and has about twice as many false positives.
+ */
+public class BlockedBloomFilter extends BloomFilter
+{
+    static final int BLOCK_SHIFT = 9;
+    static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+    static final int EXTRA_BUCKETS = 3;
+
+    BlockedBloomFilter(int hashes, IBitSet bs)
+    {
+        super(hashes, bs);
+    }
+
+    public static BlockedBloomFilter create(long numElements, int targetBucketsPerElem)
+    {
+        BloomCalculations.BloomSpecification spec = computeSpec(numElements, targetBucketsPerElem);
+        long bits = numElements * (spec.bucketsPerElement + EXTRA_BUCKETS);
+        bits = Math.max(1, (bits + BLOCK_MASK) >>> BLOCK_SHIFT) << BLOCK_SHIFT;
+
+        IBitSet bs = DatabaseDescriptor.getFilterAccessMode() == FilterAccessMode.standard ? new OpenBitSet( bits ) : new OffheapIBitSet( bits );
+
+        return new BlockedBloomFilter(spec.K, bs);
+    }
+
+    @Override
+    void setBits(long hash1, long hash2)
+    {
+        IBitSet bs = bitset;
+        long block = Math.abs(hash1 % (bs.capacity() >>> BLOCK_SHIFT)) << BLOCK_SHIFT;
+        // odd step visits hashCount distinct bits of the block
+        int bit = (int) hash2;
+        int step = (int) (hash2 >>> 32) | 1;
+        for (int i = 0; i < hashCount; ++i)
+        {
+            bs.set(block + (bit & BLOCK_MASK));
+            bit += step;
+        }
+    }
+
+    @Override
+    boolean hasFirstBit(long hash1, long hash2)
+    {
+        IBitSet bs = bitset;
+        long blocks = bs.capacity() >>> BLOCK_SHIFT;
+        if (blocks == 0)
+        {
+            // closed filter
+            return true;
+        }
+
+        return bs.get((Math.abs(hash1 % blocks) << BLOCK_SHIFT) + ((int) hash2 & BLOCK_MASK));
+    }
+
+    @Override
+    boolean hasBits(long hash1, long hash2)
+    {
+        IBitSet bs = bitset;
+        long blocks = bs.capacity() >>> BLOCK_SHIFT;
+        if (blocks == 0)
+        {
+            // closed filter
+            return true;
+        }
+
+        long block = Math.abs(hash1 % blocks) << BLOCK_SHIFT;
+        int bit = (int) hash2;
+        int step = (int) (hash2 >>> 32) | 1;
+        for (int i = 0; i < hashCount; ++i)
+        {
+            if (!bs.get(block + (bit & BLOCK_MASK)))
+            {
+                return false;
+            }
+            bit += step;
+        }
+
+        return true;
+    }
+}
@@ -118,7 +118,7 @@ public class BloomFilter extends Filter implements Closeable
         return new BloomFilter(spec.K, new OpenBitSet(numElements * spec.bucketsPerElement + EXCESS));
     }
 
-    private static BloomCalculations.BloomSpecification computeSpec( long numElements, int targetBucketsPerElem )
+    static BloomCalculations.BloomSpecification computeSpec( long numElements, int targetBucketsPerElem )
     {
         int maxBucketsPerElement = Math.max(1, BloomCalculations.maxBucketsPerElement(numElements));
         int bucketsPerElement = Math.min(targetBucketsPerElem, maxBucketsPerElement);
@@ -189,7 +189,7 @@ public class BloomFilter extends Filter implements Closeable
     static long[] getHashBuckets(ByteBuffer b, int hashCount, long max)
     {
         long[] result = new long[hashCount];
-        long hash1 = MurmurHash.hash64(b, b.position(), b.remaining(), 0L);
+        final long hash1 = MurmurHash.hash64(b, b.position(), b.remaining(), 0L);
         long hash2 = MurmurHash.hash64(b, b.position(), b.remaining(), hash1);
         for (int i = 0; i < hashCount; ++i)
         {
@@ -208,15 +208,9 @@ public class BloomFilter extends Filter implements Closeable
     {
         elementCount++;
         
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
+        final long hash1 = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
         final long hash2 = MurmurHash.hash64(key, key.position(), key.remaining(), hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            hash1+=hash2;
-            bitset.set(bucketIndex);
-        }
+        setBits(hash1, hash2);
     }
 
     /**
@@ -229,83 +223,43 @@ public class BloomFilter extends Filter implements Closeable
     
     public boolean isPresent(ByteBuffer key)
     {
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
+        final long hash1 = MurmurHash.hash64(key, key.position(), key.remaining(), 0L);
         final long hash2 = MurmurHash.hash64(key, key.position(), key.remaining(), hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            if (!bitset.get(bucketIndex))
-            {
-                return false;
-            }
-            hash1+=hash2;
-        }
-
-        return true;
+        return hasBits(hash1, hash2);
     }
     
     public void add(byte[] key)
     {
         elementCount++;
         
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64u(key, 0, key.length, 0L);
+        final long hash1 = MurmurHash.hash64u(key, 0, key.length, 0L);
         final long hash2 = MurmurHash.hash64u(key, 0, key.length, hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            hash1+=hash2;
-            bitset.set(bucketIndex);
-        }
+        setBits(hash1, hash2);
     }
     
     public boolean isPresent(byte[] key)
     {
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64u(key, 0, key.length, 0L);
+        final long hash1 = MurmurHash.hash64u(key, 0, key.length, 0L);
         final long hash2 = MurmurHash.hash64u(key, 0, key.length, hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            if (!bitset.get(bucketIndex))
-            {
-                return false;
-            }
-            hash1+=hash2;
-        }
-
-        return true;
+        return hasBits(hash1, hash2);
     }
 
     public void add(String key)
     {
         elementCount++;
         
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64u(key, 0L);
+        final long hash1 = MurmurHash.hash64u(key, 0L);
         final long hash2 = MurmurHash.hash64u(key, hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            hash1+=hash2;
-            bitset.set(bucketIndex);
-        }
+        setBits(hash1, hash2);
     }
     
     public void add(String key, byte[] column)
     {
         elementCount++;
         
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64u(key, column, 0L);
+        final long hash1 = MurmurHash.hash64u(key, column, 0L);
         final long hash2 = MurmurHash.hash64u(key, column, hash1);
-        for (int i = 0; i < hashCount; ++i)
-        {
-            long bucketIndex = Math.abs(hash1 % max);
-            hash1+=hash2;
-            bitset.set(bucketIndex);
-        }
+        setBits(hash1, hash2);
     }
 
     /**
@@ -318,9 +272,93 @@ public class BloomFilter extends Filter implements Closeable
 
     public boolean isPresent(String key, byte[] column)
     {
-        final long max = buckets();
-        long hash1 = MurmurHash.hash64u(key, column, 0L);
+        final long hash1 = MurmurHash.hash64u(key, column, 0L);
         final long hash2 = MurmurHash.hash64u(key, column, hash1);
+        return hasBits(hash1, hash2);
+    }
+
+    /**
+     * Hashes of a key (or key+column) computed once, so filters of all sstables can be probed without rehashing it
+     */
+    public static final class Hash
+    {
+        public final long hash1;
+        public final long hash2;
+
+        Hash(long hash1, long hash2)
+        {
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+        }
+    }
+
+    public static Hash hash(String key)
+    {
+        return hash(key, ByteBufferUtil.EMPTY_BYTES);
+    }
+
+    public static Hash hash(String key, byte[] column)
+    {
+        final long hash1 = MurmurHash.hash64u(key, column, 0L);
+        return new Hash(hash1, MurmurHash.hash64u(key, column, hash1));
+    }
+
+    public boolean isPresent(Hash hash)
+    {
+        return hasBits(hash.hash1, hash.hash2);
+    }
+
+    /**
+     * Probes all filters with the same precomputed hash. The first pass reads only the first bit of every filter;
+     * these reads are independent, so their cache misses overlap like prefetches do, and most absent keys
+     * are rejected by it already. The second pass checks remaining bits of filters, which passed the first one.
+     *
+     * @param present receives result of filters[i].isPresent(hash) at i
+     */
+    public static void isPresent(Hash hash, BloomFilter[] filters, boolean[] present)
+    {
+        for (int i = 0; i < filters.length; i++)
+        {
+            present[i] = filters[i].hasFirstBit(hash.hash1, hash.hash2);
+        }
+        for (int i = 0; i < filters.length; i++)
+        {
+            if (present[i])
+            {
+                present[i] = filters[i].hasBits(hash.hash1, hash.hash2);
+            }
+        }
+    }
+
+    /**
+     * @return false, if the first bit of element, which hashes are hash1 and hash2, is not set
+     */
+    boolean hasFirstBit(long hash1, long hash2)
+    {
+        IBitSet bs = bitset;
+        return bs.get(Math.abs(hash1 % bs.capacity()));
+    }
+
+    /**
+     * Sets bits of element, which hashes are hash1 and hash2
+     */
+    void setBits(long hash1, long hash2)
+    {
+        final long max = buckets();
+        for (int i = 0; i < hashCount; ++i)
+        {
+            long bucketIndex = Math.abs(hash1 % max);
+            hash1+=hash2;
+            bitset.set(bucketIndex);
+        }
+    }
+
+    /**
+     * @return true, if all bits of element, which hashes are hash1 and hash2, are set
+     */
+    boolean hasBits(long hash1, long hash2)
+    {
+        final long max = buckets();
         for (int i = 0; i < hashCount; ++i)
         {
             long bucketIndex = Math.abs(hash1 % max);
@@ -332,7 +370,6 @@ public class BloomFilter extends Filter implements Closeable
         }
 
         return true;
-
     }
     
     private static ByteBuffer toByteBuffer(String s)
@@ -31,11 +31,18 @@ import org.apache.cassandra.utils.obs.OpenBitSet;
 
 public class BloomFilterSerializer implements ICompactSerializer2<BloomFilter>
 {
+    /**
+     * Written before hash count of BlockedBloomFilter. Hash count is always positive, so filters
+     * serialized before blocked ones were introduced are read as standard.
+     */
+    static final int BLOCKED_FORMAT = -1;
 
     protected void serializeHeader( BloomFilter bf, DataOutput dos ) throws IOException
     {
         long wordsLength = bf.bitset.sizeInWords();
         
+        if (bf instanceof BlockedBloomFilter)
+            dos.writeInt(BLOCKED_FORMAT);
         dos.writeInt(bf.getHashCount());
         if (wordsLength < Integer.MAX_VALUE ) {
             dos.writeInt( (int) wordsLength );
@@ -55,6 +62,9 @@ public class BloomFilterSerializer implements ICompactSerializer2<BloomFilter>
     public BloomFilter deserialize(DataInput dis) throws IOException
     {
         int hashes = dis.readInt();
+        boolean blocked = hashes == BLOCKED_FORMAT;
+        if (blocked)
+            hashes = dis.readInt();
         long bitLength = dis.readInt();
         if (bitLength<0) {
             bitLength = dis.readLong();
@@ -62,7 +72,7 @@ public class BloomFilterSerializer implements ICompactSerializer2<BloomFilter>
         
         IBitSet bs = deserializeBitSet( dis, bitLength );
         
-        return new BloomFilter(hashes, bs);
+        return blocked ? new BlockedBloomFilter(hashes, bs) : new BloomFilter(hashes, bs);
     }
 
     protected IBitSet deserializeBitSet( DataInput dis, long wordLength ) throws IOException
@@ -77,7 +87,7 @@ public class BloomFilterSerializer implements ICompactSerializer2<BloomFilter>
         // padding to the closest long word boundary
         long words = bf.bitset.sizeInWords();
 
-        return serializeSize( words ) ;
+        return serializeSize( words ) + ( bf instanceof BlockedBloomFilter ? 4 : 0 );
     }
 
     public long serializeSize( long words )
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+
+/**
+ * Map keyed by primitive longs, whose entries expire after a fixed time.
+ *
+ * Expiration uses a hashed timing wheel: each entry is also queued in the bucket of the tick it
+ * expires at, and a thread visits one bucket per tick, so put and remove are O(1) and entries
+ * expire within a tick of their time, no matter how many there are. Removed entries are dropped
+ * from their bucket when it is visited.
+ */
+public class ExpiringLongMap<V>
+{
+    private static final Logger logger = LoggerFactory.getLogger(ExpiringLongMap.class);
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    private static class CacheableObject<T>
+    {
+        private final long key;
+        // cleared by whoever takes it out of the map, so that it is not held by the wheel till expiration
+        private T value;
+        private final long age;
+        private final long deadline;
+
+        CacheableObject(long key, T value, long deadline)
+        {
+            this.key = key;
+            this.value = value;
+            this.age = System.currentTimeMillis();
+            this.deadline = deadline;
+        }
+
+        T take()
+        {
+            T result = value;
+            value = null;
+            return result;
+        }
+    }
+
+    private final Function<Pair<Long, V>, ?> postExpireHook;
+    private final NonBlockingHashMapLong<CacheableObject<V>> cache = new NonBlockingHashMapLong<CacheableObject<V>>();
+    private final ConcurrentLinkedQueue<CacheableObject<V>>[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long expirationTicks;
+    private final long start = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean shutdown;
+    private static int counter = 0;
+
+    public ExpiringLongMap(long expiration, Function<Pair<Long, V>, ?> postExpireHook)
+    {
+        this(expiration, DEFAULT_TICK_MILLIS, postExpireHook);
+    }
+
+    /**
+     * @param expiration the TTL for objects in the cache in milliseconds
+     * @param tickMillis precision of expiration in milliseconds
+     */
+    public ExpiringLongMap(long expiration, long tickMillis, Function<Pair<Long, V>, ?> postExpireHook)
+    {
+        this.postExpireHook = postExpireHook;
+        if (expiration <= 0 || tickMillis <= 0)
+        {
+            throw new IllegalArgumentException("Argument specified must be a positive number");
+        }
+
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        expirationTicks = (expiration + tickMillis - 1) / tickMillis;
+        // a bucket holds entries of a single round, unless put runs ahead of a late worker
+        int size = Integer.highestOneBit((int) Math.min(expirationTicks + 1, 1 << 20)) << 1;
+        mask = size - 1;
+        wheel = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new ConcurrentLinkedQueue<CacheableObject<V>>();
+
+        worker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                runWheel();
+            }
+        }, "EXPIRING-LONG-MAP-TIMER-" + (++counter));
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private long currentTick()
+    {
+        return (System.nanoTime() - start) / tickNanos;
+    }
+
+    private void runWheel()
+    {
+        long tick = 0;
+        while (!shutdown)
+        {
+            // visit a tick once it has fully passed, catching up without sleeping if late
+            long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                catch (InterruptedException e)
+                {
+                    continue;
+                }
+            }
+            tick++;
+            try
+            {
+                expire(tick);
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error expiring entries", t);
+            }
+        }
+    }
+
+    private void expire(long tick)
+    {
+        Iterator<CacheableObject<V>> iter = wheel[(int) (tick & mask)].iterator();
+        while (iter.hasNext())
+        {
+            CacheableObject<V> co = iter.next();
+            if (co.deadline > tick)
+                continue; // a later round
+            iter.remove();
+            if (cache.remove(co.key, co))
+            {
+                V value = co.take();
+                if (postExpireHook != null)
+                    postExpireHook.apply(new Pair<Long, V>(co.key, value));
+            }
+        }
+    }
+
+    public void shutdown()
+    {
+        shutdown = true;
+        worker.interrupt();
+    }
+
+    public V put(long key, V value)
+    {
+        // current tick has partly passed already, so the entry lives for expiration plus up to a tick
+        CacheableObject<V> co = new CacheableObject<V>(key, value, currentTick() + expirationTicks + 1);
+        CacheableObject<V> previous = cache.put(key, co);
+        wheel[(int) (co.deadline & mask)].add(co);
+        return previous == null ? null : previous.take();
+    }
+
+    public V get(long key)
+    {
+        CacheableObject<V> co = cache.get(key);
+        return co == null ? null : co.value;
+    }
+
+    public V remove(long key)
+    {
+        CacheableObject<V> co = cache.remove(key);
+        return co == null ? null : co.take();
+    }
+
+    /**
+     * @return time the key was put, in milliseconds, or 0 if there is no such key
+     */
+    public long getAge(long key)
+    {
+        CacheableObject<V> co = cache.get(key);
+        return co == null ? 0 : co.age;
+    }
+
+    public int size()
+    {
+        return cache.size();
+    }
+
+    public boolean containsKey(long key)
+    {
+        return cache.containsKey(key);
+    }
+
+    public boolean isEmpty()
+    {
+        return cache.isEmpty();
+    }
+}
@@ -210,6 +210,23 @@ public class FBUtilities
         else return (bytes1.length < bytes2.length)? -1 : 1;
     }
 
+    /**
+     * same as {@link #compareByteArrays(byte[], byte[])}, but the first array is read in place from buffer
+     */
+    public static int compareByteArrays(ByteBuffer buffer, int offset, int length, byte[] bytes)
+    {
+        int minLength = Math.min(length, bytes.length);
+        for (int i = 0; i < minLength; i++)
+        {
+            byte b = buffer.get(offset + i);
+            if (b == bytes[i])
+                continue;
+            return (b & 0xFF) < (bytes[i] & 0xFF) ? -1 : 1;
+        }
+        if (length == bytes.length) return 0;
+        else return length < bytes.length ? -1 : 1;
+    }
+
     /**
      * @return The bitwise XOR of the inputs. The output will be the same length as the
      * longer input, but if either input is null, the output will be null.
@@ -246,6 +263,15 @@ public class FBUtilities
         return createDigest(type).digest(data);
     }
 
+    /**
+     * Updates the digest with the long as DataOutput.writeLong would write it, without buffering it.
+     */
+    public static void updateWithLong(MessageDigest digest, long l)
+    {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            digest.update((byte) (l >>> shift));
+    }
+
     public static MessageDigest createDigest(String type)
     {
         try
@@ -65,6 +65,8 @@ public class MerkleTree implements Serializable
     private long maxsize;
     private long size;
     private Hashable root;
+    // how the row hashes were computed: 0 in trees of nodes not versioning them
+    private int digestVersion;
 
     /**
      * @param partitioner The partitioner in use.
@@ -83,6 +85,16 @@ public class MerkleTree implements Serializable
         root = new Leaf(null);
     }
 
+    public int digestVersion()
+    {
+        return digestVersion;
+    }
+
+    public void digestVersion(int digestVersion)
+    {
+        this.digestVersion = digestVersion;
+    }
+
     static byte inc(byte in)
     {
         assert in < Byte.MAX_VALUE;
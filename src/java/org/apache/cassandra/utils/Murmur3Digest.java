@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.security.MessageDigest;
+
+/**
+ * MessageDigest computing {@link MurmurHash#hash3_x64_128} with seed 0 incrementally, so it can replace
+ * MD5 where the data is fed piecewise, but no protection against forged collisions is needed.
+ *
+ * The digest is the first half of the hash followed by the second one, both big-endian.
+ * Not thread safe, like other digests.
+ */
+public class Murmur3Digest extends MessageDigest
+{
+    private static final int BLOCK = 16;
+
+    private final byte[] buffer = new byte[BLOCK];
+    private int buffered;
+    private long length;
+    private long h1;
+    private long h2;
+
+    public Murmur3Digest()
+    {
+        super("Murmur3-128");
+    }
+
+    protected int engineGetDigestLength()
+    {
+        return BLOCK;
+    }
+
+    protected void engineUpdate(byte input)
+    {
+        buffer[buffered++] = input;
+        length++;
+        if (buffered == BLOCK)
+        {
+            mixBlock(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    protected void engineUpdate(byte[] input, int offset, int len)
+    {
+        length += len;
+        if (buffered > 0)
+        {
+            int n = Math.min(len, BLOCK - buffered);
+            System.arraycopy(input, offset, buffer, buffered, n);
+            buffered += n;
+            offset += n;
+            len -= n;
+            if (buffered < BLOCK)
+                return;
+            mixBlock(buffer, 0);
+            buffered = 0;
+        }
+        for (; len >= BLOCK; offset += BLOCK, len -= BLOCK)
+            mixBlock(input, offset);
+        System.arraycopy(input, offset, buffer, 0, len);
+        buffered = len;
+    }
+
+    private void mixBlock(byte[] block, int offset)
+    {
+        h1 ^= MurmurHash.mixK1(getLong(block, offset));
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= MurmurHash.mixK2(getLong(block, offset + 8));
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long getLong(byte[] block, int offset)
+    {
+        return getTail(block, offset, 8);
+    }
+
+    /** @return little-endian long of up to 8 bytes */
+    private static long getTail(byte[] block, int offset, int count)
+    {
+        long k = 0;
+        for (int i = count - 1; i >= 0; i--)
+            k = (k << 8) | (block[offset + i] & 0xff);
+        return k;
+    }
+
+    protected byte[] engineDigest()
+    {
+        if (buffered > 8)
+            h2 ^= MurmurHash.mixK2(getTail(buffer, 8, buffered - 8));
+        if (buffered > 0)
+            h1 ^= MurmurHash.mixK1(getTail(buffer, 0, Math.min(buffered, 8)));
+        long[] hash = MurmurHash.fmix128(h1, h2, length);
+        engineReset();
+
+        byte[] digest = new byte[BLOCK];
+        for (int i = 0; i < 8; i++)
+        {
+            digest[i] = (byte) (hash[0] >>> (56 - (i << 3)));
+            digest[i + 8] = (byte) (hash[1] >>> (56 - (i << 3)));
+        }
+        return digest;
+    }
+
+    protected void engineReset()
+    {
+        buffered = 0;
+        length = 0;
+        h1 = 0;
+        h2 = 0;
+    }
+}
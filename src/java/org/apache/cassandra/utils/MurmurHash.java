@@ -146,6 +146,96 @@ public class MurmurHash
         return h64;
     }
     
+    /**
+     * 128 bit x64 variant of MurmurHash3, see http://code.google.com/p/smhasher/
+     *
+     * @return the two 64 bit halves of the hash
+     */
+    public static long[] hash3_x64_128(ByteBuffer key, int offset, int length, long seed)
+    {
+        long h1 = seed;
+        long h2 = seed;
+
+        int blocks = length >> 4;
+        for (int i = 0; i < blocks; i++)
+        {
+            int i_16 = offset + (i << 4);
+            h1 ^= mixK1(getLong(key, i_16));
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(getLong(key, i_16 + 8));
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // the tail of up to 15 bytes
+        int tail = offset + (blocks << 4);
+        int rem = length & 0xf;
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = rem - 1; i >= 8; i--)
+            k2 ^= ((long) key.get(tail + i) & 0xff) << ((i - 8) << 3);
+        for (int i = Math.min(rem, 8) - 1; i >= 0; i--)
+            k1 ^= ((long) key.get(tail + i) & 0xff) << (i << 3);
+        h2 ^= mixK2(k2);
+        h1 ^= mixK1(k1);
+
+        return fmix128(h1, h2, length);
+    }
+
+    private static long getLong(ByteBuffer key, int offset)
+    {
+        return ((long) key.get(offset + 0) & 0xff)         | (((long) key.get(offset + 1) & 0xff) << 8)  |
+               (((long) key.get(offset + 2) & 0xff) << 16) | (((long) key.get(offset + 3) & 0xff) << 24) |
+               (((long) key.get(offset + 4) & 0xff) << 32) | (((long) key.get(offset + 5) & 0xff) << 40) |
+               (((long) key.get(offset + 6) & 0xff) << 48) | (((long) key.get(offset + 7) & 0xff) << 56);
+    }
+
+    static long mixK1(long k1)
+    {
+        k1 *= 0x87c37b91114253d5L;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= 0x4cf5ad432745937fL;
+        return k1;
+    }
+
+    static long mixK2(long k2)
+    {
+        k2 *= 0x4cf5ad432745937fL;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= 0x87c37b91114253d5L;
+        return k2;
+    }
+
+    /**
+     * Finalizes the hash state of hash3_x64_128 after all blocks and the tail were mixed in.
+     */
+    static long[] fmix128(long h1, long h2, long length)
+    {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{ h1, h2 };
+    }
+
+    private static long fmix(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
     private static final Unsafe unsafe = JavaInternals.getUnsafe();
     private static final int byteBase =  unsafe.arrayBaseOffset(byte[].class);
     
@@ -0,0 +1,56 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+/**
+ * Rough estimates of on-heap object sizes, assuming 64 bit JVM with compressed oops
+ * (which is the case for heaps below 32G).
+ */
+public class ObjectSizes
+{
+    public static final int OBJECT_HEADER = 12;
+    public static final int REFERENCE = 4;
+    public static final int ARRAY_HEADER = 16;
+
+    /** ConcurrentSkipListMap node (key, value, next) plus index nodes, which are built for every 2nd node on average */
+    public static final int SKIPLIST_ENTRY = align(OBJECT_HEADER + 3 * REFERENCE) + align(OBJECT_HEADER + 3 * REFERENCE) / 2;
+    /** empty ConcurrentSkipListMap with its head node and head index */
+    public static final int SKIPLIST = align(OBJECT_HEADER + 8 * REFERENCE) + 2 * align(OBJECT_HEADER + 4 * REFERENCE);
+
+    public static final int ATOMIC_INTEGER = align(OBJECT_HEADER + 4);
+    public static final int ATOMIC_LONG = align(OBJECT_HEADER + 8);
+
+    public static int align(int size)
+    {
+        return (size + 7) & ~7;
+    }
+
+    public static int sizeOfArray(byte[] bytes)
+    {
+        return align(ARRAY_HEADER + bytes.length);
+    }
+
+    /**
+     * @return size of string together with its char array
+     */
+    public static int sizeOf(String s)
+    {
+        return align(OBJECT_HEADER + REFERENCE + 2 * 4) + align(ARRAY_HEADER + 2 * s.length());
+    }
+}
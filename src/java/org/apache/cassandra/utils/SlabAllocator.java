@@ -0,0 +1,163 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * Bump-the-pointer allocator of byte regions in off-heap (direct) slabs.
+ *
+ * Regions are never freed individually; the whole arena is released at once by {@link #free()}.
+ * Each region is addressed by a long reference: slab number in the high int, offset in the low one,
+ * so callers can index regions without keeping any per-region heap object around.
+ *
+ * allocate is threadsafe. Reading a region is safe for any thread which obtained its reference
+ * through a happens-before edge with the writer (e.g. a concurrent map).
+ */
+public class SlabAllocator
+{
+    public static final int SLAB_SIZE = 1024 * 1024;
+    /** regions larger than this get a slab of their own to not waste the tail of the current one */
+    private static final int MAX_CLONED_SIZE = SLAB_SIZE / 4;
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+    private int slabCount = 0;
+    private ByteBuffer current;
+    private int currentIndex;
+
+    private volatile long allocated = 0;
+    private volatile boolean freed = false;
+
+    /**
+     * reserves size bytes and copies data into them
+     *
+     * @return reference to region
+     */
+    public long allocate(byte[] data, int offset, int size)
+    {
+        long ref = allocate(size);
+        ByteBuffer region = slab(ref).duplicate();
+        region.position(offset(ref));
+        region.put(data, offset, size);
+        return ref;
+    }
+
+    public synchronized long allocate(int size)
+    {
+        assert !freed;
+
+        if (size > MAX_CLONED_SIZE)
+            return addSlab(ByteBuffer.allocateDirect(size), size);
+
+        if (current == null || current.remaining() < size)
+        {
+            current = ByteBuffer.allocateDirect(SLAB_SIZE);
+            currentIndex = slabCount;
+            return addSlab(current, size);
+        }
+
+        int offset = current.position();
+        current.position(offset + size);
+        allocated += size;
+        return ((long) currentIndex << 32) | offset;
+    }
+
+    private long addSlab(ByteBuffer slab, int size)
+    {
+        ByteBuffer[] s = slabs;
+        if (slabCount == s.length)
+            s = Arrays.copyOf(s, s.length * 2);
+        s[slabCount] = slab;
+        // publishing (possibly the same) array through volatile makes new slab visible to readers
+        slabs = s;
+
+        slab.position(size);
+        allocated += size;
+        return (long) (slabCount++) << 32;
+    }
+
+    /**
+     * @return slab of region. Region starts at {@link #offset(long)} in it.
+     */
+    public ByteBuffer slab(long ref)
+    {
+        return slabs[(int) (ref >>> 32)];
+    }
+
+    public static int offset(long ref)
+    {
+        return (int) ref;
+    }
+
+    /**
+     * @return read only buffer, positioned at start of the region and limited by its length
+     */
+    public ByteBuffer region(long ref, int length)
+    {
+        ByteBuffer region = slab(ref).asReadOnlyBuffer();
+        region.limit(offset(ref) + length).position(offset(ref));
+        return region;
+    }
+
+    /**
+     * @return bytes, handed out to regions so far
+     */
+    public long allocated()
+    {
+        return allocated;
+    }
+
+    /**
+     * @return bytes of direct memory held by this allocator
+     */
+    public synchronized long capacity()
+    {
+        long capacity = 0;
+        for (int i = 0; i < slabCount; i++)
+            capacity += slabs[i].capacity();
+        return capacity;
+    }
+
+    public boolean isFreed()
+    {
+        return freed;
+    }
+
+    /**
+     * Releases all slabs immediately, not waiting for GC to finalize them.
+     * No region of this allocator may be accessed after this call.
+     */
+    public synchronized void free()
+    {
+        if (freed)
+            return;
+
+        freed = true;
+        for (int i = 0; i < slabCount; i++)
+        {
+            FileUtils.clean(slabs[i]);
+            slabs[i] = null;
+        }
+        slabCount = 0;
+        current = null;
+    }
+}
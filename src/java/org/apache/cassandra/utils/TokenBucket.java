@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits throughput of all threads sharing the bucket to the rate of tokens (bytes, usually) per second.
+ *
+ * The bucket refills continuously and holds up to a second of tokens, so short bursts pass unthrottled.
+ * A thread taking more tokens than there are takes them in advance and sleeps until they would have
+ * been refilled, so the threads are throttled in the order they come, without holding the lock while sleeping.
+ */
+public class TokenBucket
+{
+    private long rate;
+    // may go negative when tokens are taken in advance
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate tokens per second, 0 for unlimited
+     */
+    public TokenBucket(long rate)
+    {
+        setRate(rate);
+    }
+
+    public synchronized void setRate(long rate)
+    {
+        assert rate >= 0 : rate;
+        this.rate = rate;
+        tokens = rate;
+        lastRefill = System.nanoTime();
+    }
+
+    public synchronized long getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Takes the tokens, pausing the current thread until the rate allows them.
+     */
+    public void acquire(long count)
+    {
+        long pauseNanos = take(count);
+        if (pauseNanos <= 0)
+            return;
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(pauseNanos);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return nanos to wait for the taken tokens
+     */
+    synchronized long take(long count)
+    {
+        if (rate == 0)
+            return 0;
+
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+        tokens -= count;
+        return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+}
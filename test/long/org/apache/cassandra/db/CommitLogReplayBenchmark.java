@@ -0,0 +1,91 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * Measures replay throughput of commit log segments filled with small mutations of distinct keys.
+ * Not a unit test; run it with -Dstorage-config=test/conf [segments] [segment size, MB]
+ */
+public class CommitLogReplayBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int segmentSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        // only explicit flushes, test config flushes every 20 operations
+        DatabaseDescriptor.setMemtableThroughput(1024);
+        DatabaseDescriptor.setMemtableOperations(100);
+        CleanupHelper.cleanupAndLeaveDirs();
+        Table.open("Keyspace1");
+
+        CommitLog.setSegmentSize(segmentSize * 1024 * 1024);
+        CommitLog.instance().resetUnsafe();
+
+        // log records are written directly, so they are only applied by replay
+        byte[] value = new byte[100];
+        long mutations = 0;
+        while (CommitLog.instance().segmentsCount() <= segments)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", "key" + mutations);
+            rm.add(new QueryPath("Standard1", null, "c".getBytes()), value, 0);
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            RowMutation.serializer().serialize(rm, buffer);
+            CommitLog.instance().add(rm, buffer);
+            mutations++;
+        }
+        CommitLog.instance().forceNewSegment();
+
+        File[] files = new File(DatabaseDescriptor.getLogFileLocation()).listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.matches("CommitLog-\\d+\\.log(\\.z)?");
+            }
+        });
+        Arrays.sort(files, new FileUtils.FileComparator());
+        long bytes = 0;
+        for (File file : files)
+            bytes += file.length();
+
+        long start = System.currentTimeMillis();
+        CommitLog.recover(files, true);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        System.out.println(String.format("Replayed %d mutations from %d segments (%.1f MB) in %d ms: %d mutations/s, %.1f MB/s",
+                                         mutations,
+                                         files.length,
+                                         bytes / 1048576.0,
+                                         elapsed,
+                                         mutations * 1000 / elapsed,
+                                         bytes / 1048576.0 * 1000 / elapsed));
+        System.exit(0);
+    }
+}
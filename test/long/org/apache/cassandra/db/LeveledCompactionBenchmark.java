@@ -0,0 +1,113 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+
+/**
+ * Writes the same update-heavy load to size-tiered Standard3 and leveled StandardLeveled column families
+ * of Keyspace2 and reports how many sstables a read of a row has to look into, while compactions catch up
+ * with writes and after they are done.
+ * Not a unit test; run it with -Dstorage-config=test/conf [keys] [updates]
+ */
+public class LeveledCompactionBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        CleanupHelper.cleanupAndLeaveDirs();
+        Table table = Table.open("Keyspace2");
+        for (String cf : new String[]{ "Standard3", "StandardLeveled" })
+            run(table.getColumnFamilyStore(cf), keys, updates);
+        System.exit(0);
+    }
+
+    /**
+     * Measures reads after every tenth of updates, while compactions are still catching up, and once they are done.
+     */
+    private static void run(ColumnFamilyStore store, int keys, int updates) throws Exception
+    {
+        // same sequence of rows for both column families
+        Random random = new Random(0);
+        byte[] value = new byte[1024];
+        long start = System.currentTimeMillis();
+        double touched = 0;
+        int maxTouched = 0;
+        for (int round = 0; round < 10; round++)
+        {
+            for (int i = 0; i < updates / 10; i++)
+            {
+                RowMutation rm = new RowMutation("Keyspace2", "key" + random.nextInt(keys));
+                rm.add(new QueryPath(store.getColumnFamilyName(), null, ("c" + random.nextInt(10)).getBytes()), value, round * (updates / 10) + i);
+                rm.apply();
+            }
+            int[] sample = sstablesPerRead(store, keys);
+            touched += (double) sample[0] / keys;
+            maxTouched = Math.max(maxTouched, sample[1]);
+        }
+        String name = store.getColumnFamilyName() + " (" + store.getCompactionStrategy().getClass().getSimpleName() + ")";
+        System.out.println(String.format("%s while writing: %.2f sstables read per row on average (max %d)", name, touched / 10, maxTouched));
+
+        store.forceBlockingFlush();
+        // let background compactions finish
+        ICompactionStrategy strategy = store.getCompactionStrategy();
+        while (strategy.getEstimatedRemainingTasks(store.getSSTables(), 4, 32) > 0
+               || !CompactionManager.instance.getCompactionsInProgress().isEmpty())
+        {
+            CompactionManager.instance.submitMinorIfNeeded(store).get();
+            Thread.sleep(10);
+        }
+        long time = System.currentTimeMillis() - start;
+        int[] sample = sstablesPerRead(store, keys);
+        System.out.println(String.format("%s compacted: %d sstables, %.2f sstables read per row (max %d), written and compacted in %dms",
+                                         name, store.getSSTables().size(), (double) sample[0] / keys, sample[1], time));
+    }
+
+    /**
+     * @return total number of sstables containing the keys and maximum per key
+     */
+    private static int[] sstablesPerRead(ColumnFamilyStore store, int keys) throws Exception
+    {
+        IPartitioner partitioner = StorageService.getPartitioner();
+        Collection<SSTableReader> sstables = store.getSSTables();
+        int touched = 0, maxTouched = 0;
+        for (int i = 0; i < keys; i++)
+        {
+            DecoratedKey key = partitioner.decorateKey("key" + i);
+            int n = 0;
+            for (SSTableReader sstable : sstables)
+            {
+                if (sstable.mayContainKey(key) && sstable.getPosition(key) != null)
+                    n++;
+            }
+            touched += n;
+            maxTouched = Math.max(maxTouched, n);
+        }
+        return new int[]{ touched, maxTouched };
+    }
+}
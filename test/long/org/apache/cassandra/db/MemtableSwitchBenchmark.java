@@ -0,0 +1,124 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.filter.QueryPath;
+
+/**
+ * Measures write throughput to one column family, while memtable of another one is switched and flushed
+ * continuously. Not a unit test; run it with -Dstorage-config=test/conf [threads] [seconds]
+ */
+public class MemtableSwitchBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // only explicit flushes, test config flushes every 20 operations
+        DatabaseDescriptor.setMemtableThroughput(1024);
+        DatabaseDescriptor.setMemtableOperations(100);
+        CleanupHelper.cleanupAndLeaveDirs();
+        ColumnFamilyStore flushed = Table.open("Keyspace1").getColumnFamilyStore("Standard2");
+
+        run(threads, seconds, null);
+        long idle = run(threads, seconds, null);
+        long flushing = run(threads, seconds, flushed);
+
+        System.out.println(String.format("%d writers: %d writes/s without flushes, %d writes/s while flushing another CF (%.1f%%)",
+                                         threads, idle, flushing, 100.0 * flushing / idle));
+        System.exit(0);
+    }
+
+    /**
+     * @return writes per second to Standard1 made by threads
+     */
+    private static long run(int threads, int seconds, final ColumnFamilyStore flushed) throws Exception
+    {
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong flushes = new AtomicLong();
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+        final CountDownLatch done = new CountDownLatch(threads + 1);
+
+        for (int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+            new Thread("writer-" + t)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; System.currentTimeMillis() < end; i++)
+                        {
+                            RowMutation rm = new RowMutation("Keyspace1", "key" + thread + "-" + i);
+                            rm.add(new QueryPath("Standard1", null, "c".getBytes()), "v".getBytes(), 0);
+                            rm.apply();
+                            writes.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        new Thread("flusher")
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; flushed != null && System.currentTimeMillis() < end; i++)
+                    {
+                        RowMutation rm = new RowMutation("Keyspace1", "flushed" + i);
+                        rm.add(new QueryPath(flushed.getColumnFamilyName(), null, "c".getBytes()), "v".getBytes(), 0);
+                        rm.apply();
+                        flushed.forceBlockingFlush();
+                        flushes.incrementAndGet();
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }
+        }.start();
+
+        done.await();
+        if (flushed != null)
+            System.out.println(flushes.get() + " flushes of " + flushed.getColumnFamilyName());
+        return writes.get() / seconds;
+    }
+}
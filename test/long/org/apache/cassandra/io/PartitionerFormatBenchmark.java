@@ -0,0 +1,152 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.collections.iterators.CollatingIterator;
+
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.BinaryRandomPartitioner;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Compares RandomPartitioner, BinaryRandomPartitioner and Murmur3Partitioner sstable formats: cost of decorating keys,
+ * of SSTableReader.getPosition and of merging rows of overlapping sstables as compaction does.
+ * Not a unit test; run it with -Dstorage-config=test/conf [keys]
+ */
+public class PartitionerFormatBenchmark
+{
+    private static final int SSTABLES = 4;
+    private static final int LOOKUPS = 200000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        ColumnFamily cf = ColumnFamily.create(SSTableUtils.TABLENAME, SSTableUtils.CFNAME);
+        cf.addColumn(new Column("c".getBytes(), "v".getBytes(), 0));
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        ColumnFamily.serializer().serializeWithIndexes(cf, buffer, false);
+        byte[] row = new byte[buffer.getLength()];
+        System.arraycopy(buffer.getData(), 0, row, 0, row.length);
+
+        run(new RandomPartitioner(), keys, row);
+        run(new BinaryRandomPartitioner(), keys, row);
+        run(new Murmur3Partitioner(), keys, row);
+        System.exit(0);
+    }
+
+    private static void run(IPartitioner partitioner, int keys, byte[] row) throws Exception
+    {
+        // every key is in two sstables
+        List<List<DecoratedKey>> sstableKeys = new ArrayList<List<DecoratedKey>>();
+        for (int i = 0; i < SSTABLES; i++)
+            sstableKeys.add(new ArrayList<DecoratedKey>());
+        for (int i = 0; i < keys; i++)
+        {
+            DecoratedKey key = partitioner.decorateKey("key" + i);
+            sstableKeys.get(i % SSTABLES).add(key);
+            sstableKeys.get((i + 1) % SSTABLES).add(key);
+        }
+        List<SSTableReader> sstables = new ArrayList<SSTableReader>();
+        for (List<DecoratedKey> list : sstableKeys)
+        {
+            Collections.sort(list, DecoratedKey.comparator);
+            File f = SSTableUtils.tempSSTableFile(SSTableUtils.TABLENAME, SSTableUtils.CFNAME);
+            SSTableWriter writer = new SSTableWriter(f.getAbsolutePath(), list.size(), list.size(), partitioner);
+            for (DecoratedKey key : list)
+                writer.append(key, row);
+            sstables.add(writer.closeAndOpenReader());
+        }
+
+        Random random = new Random(0);
+        String[] lookupKeys = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            lookupKeys[i] = "key" + random.nextInt(keys);
+        DecoratedKey[] lookups = new DecoratedKey[LOOKUPS];
+
+        long decorateNanos = Long.MAX_VALUE, lookupNanos = Long.MAX_VALUE, mergeNanos = Long.MAX_VALUE;
+        int merged = 0;
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+                lookups[i] = partitioner.decorateKey(lookupKeys[i]);
+            decorateNanos = Math.min(decorateNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+            {
+                SSTableReader sstable = sstables.get(Integer.parseInt(lookupKeys[i].substring(3)) % SSTABLES);
+                if (sstable.getPosition(lookups[i]) == null)
+                    throw new AssertionError(lookups[i]);
+            }
+            lookupNanos = Math.min(lookupNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            merged = merge(sstables);
+            mergeNanos = Math.min(mergeNanos, System.nanoTime() - start);
+        }
+        if (merged != keys)
+            throw new AssertionError(merged + " rows merged of " + keys);
+
+        System.out.println(String.format("%-24s index %d KB: %.1f ns/decorateKey, %.1f ns/getPosition, %.0f merged rows/s",
+                                         partitioner.getClass().getSimpleName(),
+                                         new File(sstables.get(0).indexFilename()).length() / 1024,
+                                         (double) decorateNanos / LOOKUPS,
+                                         (double) lookupNanos / LOOKUPS,
+                                         merged * 1e9 / mergeNanos));
+    }
+
+    /**
+     * Collates rows of sstables by key and counts distinct ones, as CompactionIterator does before
+     * deserializing the rows.
+     */
+    private static int merge(List<SSTableReader> sstables) throws Exception
+    {
+        CollatingIterator iter = FBUtilities.<IteratingRow>getCollatingIterator();
+        for (SSTableReader sstable : sstables)
+            iter.addIterator(sstable.getScanner(CompactionIterator.FILE_BUFFER_SIZE));
+
+        int rows = 0;
+        DecoratedKey last = null;
+        while (iter.hasNext())
+        {
+            IteratingRow row = (IteratingRow) iter.next();
+            if (last == null || !last.equals(row.getKey()))
+                rows++;
+            last = row.getKey();
+        }
+        for (Object scanner : iter.getIterators())
+            ((SSTableScanner) scanner).close();
+        return rows;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ReadResponse;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * Compares heap allocated and time taken per read reply packed for the socket, when the response
+ * is serialized into a byte[] first as it used to be, and when it is serialized straight into the outbound buffer.
+ * Not a unit test; run it with -Dstorage-config=test/conf [columns per row] [value size]
+ */
+public class ReadReplyBenchmark
+{
+    private static final int REPLIES = 10000;
+    private static final int ROUNDS = 20;
+
+    private static final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception
+    {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Random random = new Random(0);
+        ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard1");
+        for (int j = 0; j < columns; j++)
+        {
+            byte[] value = new byte[valueSize];
+            random.nextBytes(value);
+            cf.addColumn(new Column(("c" + j).getBytes(), value, j));
+        }
+        ReadResponse response = new ReadResponse(new Row("key", cf));
+        Message request = new Message(FBUtilities.getLocalAddress(), StageManager.READ_STAGE, StorageService.Verb.READ, new byte[0]);
+        DataOutputBuffer buffer = new DataOutputBuffer();
+
+        for (boolean deferred : new boolean[] { false, true })
+        {
+            long nanos = Long.MAX_VALUE, allocated = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long start = System.nanoTime();
+                for (int i = 0; i < REPLIES; i++)
+                {
+                    Message reply;
+                    if (deferred)
+                    {
+                        reply = request.getReply(FBUtilities.getLocalAddress(), response, ReadResponse.serializer(), response.serializedSize());
+                    }
+                    else
+                    {
+                        buffer.reset();
+                        ReadResponse.serializer().serialize(response, buffer);
+                        byte[] bytes = new byte[buffer.getLength()];
+                        System.arraycopy(buffer.getData(), 0, bytes, 0, bytes.length);
+                        reply = request.getReply(FBUtilities.getLocalAddress(), bytes);
+                    }
+                    ByteBuffer packed = OutboundTcpConnection.pack(reply);
+                    OutboundTcpConnection.recycle(packed);
+                }
+                nanos = Math.min(nanos, System.nanoTime() - start);
+                allocated = Math.min(allocated, threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore);
+            }
+
+            System.out.println(String.format("%s, %d columns of %d bytes: %.2f us and %d bytes allocated per reply",
+                                             deferred ? "serialized into outbound buffer" : "serialized into byte[]",
+                                             columns,
+                                             valueSize,
+                                             nanos / 1000.0 / REPLIES,
+                                             allocated / REPLIES));
+        }
+        System.exit(0);
+    }
+}
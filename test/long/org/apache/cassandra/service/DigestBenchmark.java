@@ -0,0 +1,93 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.service;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+/**
+ * Compares CPU cost of read digests of rows, and throughput of hashing rows for merkle trees
+ * as validation compactions do, of both digest versions.
+ * Not a unit test; run it with -Dstorage-config=test/conf [columns per row] [value size]
+ */
+public class DigestBenchmark
+{
+    private static final int ROWS = 1000;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception
+    {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Random random = new Random(0);
+        ColumnFamily[] rows = new ColumnFamily[ROWS];
+        DataOutputBuffer[] serialized = new DataOutputBuffer[ROWS];
+        for (int i = 0; i < ROWS; i++)
+        {
+            rows[i] = ColumnFamily.create("Keyspace1", "Standard1");
+            for (int j = 0; j < columns; j++)
+            {
+                byte[] value = new byte[valueSize];
+                random.nextBytes(value);
+                rows[i].addColumn(new Column(("c" + j).getBytes(), value, j));
+            }
+            serialized[i] = new DataOutputBuffer();
+            ColumnFamily.serializer().serialize(rows[i], serialized[i]);
+        }
+
+        for (int version = DigestVersions.VERSION_1; version <= DigestVersions.CURRENT_VERSION; version++)
+        {
+            long digestNanos = Long.MAX_VALUE, hashNanos = Long.MAX_VALUE;
+            long bytes = 0;
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                long start = System.nanoTime();
+                for (ColumnFamily cf : rows)
+                    ColumnFamily.digest(cf, version);
+                digestNanos = Math.min(digestNanos, System.nanoTime() - start);
+
+                // as Validator.rowHash, reusing the digest
+                MessageDigest digest = DigestVersions.newRowDigest(version);
+                bytes = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < ROWS; i++)
+                {
+                    digest.update(("key" + i).getBytes());
+                    digest.update(serialized[i].getData(), 0, serialized[i].getLength());
+                    digest.digest();
+                    bytes += serialized[i].getLength();
+                }
+                hashNanos = Math.min(hashNanos, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("version %d, %d columns of %d bytes: %.1f us/read digest, %.1f MB/s of rows hashed for merkle trees",
+                                             version,
+                                             columns,
+                                             valueSize,
+                                             digestNanos / 1000.0 / ROWS,
+                                             bytes * 1000.0 / hashNanos));
+        }
+        System.exit(0);
+    }
+}
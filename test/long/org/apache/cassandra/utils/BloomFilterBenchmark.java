@@ -0,0 +1,137 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.DatabaseDescriptor.FilterAccessMode;
+
+/**
+ * Compares lookup cost and false positive rate of standard and cache-blocked bloom filters, which are much
+ * larger than CPU caches, and cost of probing filters of many sstables one by one and batched with a single hash.
+ * Not a unit test; run it with -Dstorage-config=test/conf [elements] [standard|offheap]
+ */
+public class BloomFilterBenchmark
+{
+    private static final int PROBES = 1000000;
+    private static final int ROUNDS = 5;
+    private static final int SSTABLES = 24;
+
+    public static void main(String[] args) throws Exception
+    {
+        long elements = args.length > 0 ? Long.parseLong(args[0]) : 20000000;
+        if (args.length > 1)
+            DatabaseDescriptor.setFilterAccessMode(FilterAccessMode.valueOf(args[1]));
+
+        String[] present = new String[PROBES];
+        String[] absent = new String[PROBES];
+        for (int i = 0; i < PROBES; i++)
+        {
+            present[i] = "key" + (i * (elements / PROBES));
+            absent[i] = "absent" + i;
+        }
+
+        run("standard", BloomFilter.create(elements, 15), elements, present, absent);
+        run("blocked", BlockedBloomFilter.create(elements, 15), elements, present, absent);
+        runBatched(elements, absent);
+        System.exit(0);
+    }
+
+    private static void run(String name, BloomFilter bf, long elements, String[] present, String[] absent)
+    {
+        for (long i = 0; i < elements; i++)
+            bf.add("key" + i);
+
+        long presentNanos = Long.MAX_VALUE, absentNanos = Long.MAX_VALUE;
+        int falsePositives = 0;
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            for (String key : present)
+            {
+                if (!bf.isPresent(key))
+                    throw new AssertionError(key);
+            }
+            presentNanos = Math.min(presentNanos, System.nanoTime() - start);
+
+            falsePositives = 0;
+            start = System.nanoTime();
+            for (String key : absent)
+            {
+                if (bf.isPresent(key))
+                    falsePositives++;
+            }
+            absentNanos = Math.min(absentNanos, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format("%-8s %d MB, %d hashes: %.1f ns/present key, %.1f ns/absent key, false positive rate %.5f",
+                                         name,
+                                         bf.bitset.sizeInWords() * 8 / 1048576,
+                                         bf.getHashCount(),
+                                         (double) presentNanos / present.length,
+                                         (double) absentNanos / absent.length,
+                                         (double) falsePositives / absent.length));
+        bf.close();
+    }
+
+    private static void runBatched(long elements, String[] keys) throws Exception
+    {
+        BloomFilter[] filters = new BloomFilter[SSTABLES];
+        for (int i = 0; i < filters.length; i++)
+            filters[i] = BloomFilter.create(elements / SSTABLES, 15);
+        for (long i = 0; i < elements; i++)
+            filters[(int) (i % SSTABLES)].add("key" + i);
+
+        long singleNanos = Long.MAX_VALUE, batchedNanos = Long.MAX_VALUE;
+        int found = 0;
+        boolean[] present = new boolean[SSTABLES];
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            for (String key : keys)
+            {
+                for (BloomFilter bf : filters)
+                {
+                    if (bf.isPresent(key))
+                        found++;
+                }
+            }
+            singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (String key : keys)
+            {
+                BloomFilter.isPresent(BloomFilter.hash(key), filters, present);
+                for (boolean p : present)
+                {
+                    if (p)
+                        found++;
+                }
+            }
+            batchedNanos = Math.min(batchedNanos, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format("%d sstables: %.1f ns/key probed one by one, %.1f ns/key batched (%d positives)",
+                                         SSTABLES,
+                                         (double) singleNanos / keys.length,
+                                         (double) batchedNanos / keys.length,
+                                         found));
+        for (BloomFilter bf : filters)
+            bf.close();
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.cassandra.cache;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.SSTable;
+
+import static org.junit.Assert.*;
+
+public class PackedKeyCacheTest
+{
+    @Test
+    public void testGetPut()
+    {
+        PackedKeyCache cache = new PackedKeyCache(1000);
+        cache.put(1, 11, 12, 100, 10);
+        cache.put(2, 11, 12, 200, 20);
+
+        SSTable.PositionSize info = cache.get(1, 11, 12);
+        assertEquals(100, info.position);
+        assertEquals(10, info.size);
+        assertEquals(200, cache.get(2, 11, 12).position);
+        // both hashes and generation must match
+        assertNull(cache.get(3, 11, 12));
+        assertNull(cache.get(1, 11, 13));
+        assertEquals(2, cache.getSize());
+        assertEquals(4, cache.getRequests());
+        assertEquals(2, cache.getHits());
+
+        // replaces position of the same key
+        cache.put(1, 11, 12, 300, 30);
+        assertEquals(300, cache.get(1, 11, 12).position);
+        assertEquals(2, cache.getSize());
+
+        cache.clear();
+        assertNull(cache.get(1, 11, 12));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        PackedKeyCache cache = new PackedKeyCache(1000);
+        Random random = new Random(0);
+        long[] hashes = new long[10000];
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashes[i] = random.nextLong();
+            cache.put(1, hashes[i], i, i, 1);
+            // keep hitting the first key, so it is never evicted
+            assertNotNull(cache.get(1, hashes[0], 0));
+        }
+        assertTrue(cache.getSize() <= 1000);
+        assertEquals(hashes.length - cache.getSize(), cache.getEvictions());
+
+        int found = 0;
+        for (int i = 0; i < hashes.length; i++)
+        {
+            SSTable.PositionSize info = cache.get(1, hashes[i], i);
+            if (info != null)
+            {
+                assertEquals(i, info.position);
+                found++;
+            }
+        }
+        assertEquals(cache.getSize(), found);
+    }
+
+    @Test
+    public void testResizeAndWrite() throws IOException
+    {
+        PackedKeyCache cache = new PackedKeyCache(0);
+        cache.put(1, 1, 1, 1, 1);
+        assertNull(cache.get(1, 1, 1));
+
+        cache.updateCapacity(100);
+        for (int i = 0; i < 100; i++)
+            cache.put(i, i, i, i, i);
+        int size = cache.getSize();
+        assertTrue(size > 90);
+
+        cache.updateCapacity(100000);
+        assertEquals(size, cache.getSize());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(size, cache.write(new DataOutputStream(bytes)));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        PackedKeyCache loaded = new PackedKeyCache(1000);
+        for (int i = 0; i < size; i++)
+            loaded.put(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        assertEquals(0, in.available());
+        for (int i = 0; i < 100; i++)
+        {
+            SSTable.PositionSize info = cache.get(i, i, i);
+            if (info != null)
+                assertEquals(i, loaded.get(i, i, i).size);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.apache.cassandra.concurrent;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import org.junit.Test;
+
+public class JMXEnabledThreadPoolExecutorTest
+{
+    @Test
+    public void testAllocatedBytes() throws InterruptedException
+    {
+        JMXEnabledThreadPoolExecutor executor = new JMXEnabledThreadPoolExecutor("ALLOCATING-TEST");
+        if (executor.getAllocatedBytes() < 0)
+            return; // not measured by this JVM
+
+        Runnable runnable = new Runnable()
+        {
+            public void run()
+            {
+                byte[][] arrays = new byte[100][];
+                for (int i = 0; i < arrays.length; i++)
+                    arrays[i] = new byte[1024];
+            }
+        };
+        for (int i = 0; i < 10; i++)
+            executor.execute(runnable);
+        while (executor.getCompletedTaskCount() < 10)
+            Thread.sleep(10);
+        long allocated = executor.getAllocatedBytes();
+        assert allocated >= 10 * 100 * 1024 : allocated;
+        executor.shutdown();
+    }
+}
@@ -47,6 +47,7 @@ import org.apache.cassandra.db.filter.SliceQueryFilter;
 import org.apache.cassandra.db.filter.NamesQueryFilter;
 import org.apache.cassandra.db.filter.ColumnsMayExistQueryFilter.ColumnCollector;
 import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.utils.BlockedBloomFilter;
 
 public class ColumnFamilyStoreTest extends CleanupHelper
 {
@@ -212,6 +213,45 @@ public class ColumnFamilyStoreTest extends CleanupHelper
         TableTest.reTest(store, r);
     }
 
+    @Test
+    public void testBlockedBloomFilter() throws Exception
+    {
+        List<RowMutation> rms = new LinkedList<RowMutation>();
+        for (int i = 0; i < 100; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace2", "row" + i);
+            rm.add(new QueryPath("StandardBlockedBloom", null, "Column1".getBytes()), "asdf".getBytes(), 0);
+            rms.add(rm);
+        }
+        final ColumnFamilyStore store = Util.writeColumnFamily(rms);
+        for (SSTableReader sstable : store.getSSTables())
+            assert sstable.getBloomFilter() instanceof BlockedBloomFilter;
+
+        Runnable r = new WrappedRunnable()
+        {
+            public void runMayThrow() throws IOException
+            {
+                for (int i = 0; i < 100; i++)
+                {
+                    FastRowMayExistQueryFilter filter = new FastRowMayExistQueryFilter("row" + i, new QueryPath("StandardBlockedBloom", null, null));
+                    store.getColumnFamily(filter);
+                    assert filter.mayExist();
+
+                    ColumnCollectorImplementation cc = new ColumnCollectorImplementation();
+                    store.getColumnFamily(new ColumnsMayExistQueryFilter("row" + i, new QueryPath("StandardBlockedBloom"),
+                            Arrays.asList(new byte[][] {"Column1".getBytes()}), cc, 1));
+                    assert cc.getC() == 1;
+                }
+
+                FastRowMayExistQueryFilter filter = new FastRowMayExistQueryFilter("row100", new QueryPath("StandardBlockedBloom", null, null));
+                store.getColumnFamily(filter);
+                assert !filter.mayExist();
+            }
+        };
+
+        TableTest.reTest(store, r);
+    }
+
     @Test
     public void testListener() throws Exception
     {
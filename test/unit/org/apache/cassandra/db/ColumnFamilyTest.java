@@ -28,6 +28,10 @@ import org.junit.Test;
 
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.service.DigestVersions;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static junit.framework.Assert.assertEquals;
 import static org.apache.cassandra.Util.column;
 
 public class ColumnFamilyTest
@@ -129,4 +133,30 @@ public class ColumnFamilyTest
         //addcolumns will only add if timestamp >= old timestamp
         assert Arrays.equals(val, cf_result.getColumn("col2".getBytes()).value());
     }
+
+    @Test
+    public void testDigestVersions() throws IOException
+    {
+        ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard1");
+        cf.addColumn(column("c1", "v1", 1));
+
+        // version 1 digests are as computed before versioning
+        DataOutputBuffer bufOut = new DataOutputBuffer();
+        bufOut.write("c1".getBytes());
+        bufOut.write("v1".getBytes());
+        bufOut.writeLong(1);
+        bufOut.writeBoolean(false);
+        byte[] md5 = FBUtilities.createDigest("MD5").digest(Arrays.copyOf(bufOut.getData(), bufOut.getLength()));
+        byte[] digest = ColumnFamily.digest(cf, DigestVersions.VERSION_1);
+        assert Arrays.equals(md5, digest);
+        assertEquals(DigestVersions.VERSION_1, DigestVersions.getVersion(digest));
+
+        digest = ColumnFamily.digest(cf, DigestVersions.VERSION_2);
+        assertEquals(17, digest.length);
+        assertEquals(DigestVersions.VERSION_2, DigestVersions.getVersion(digest));
+        assert Arrays.equals(digest, ColumnFamily.digest(cf, DigestVersions.getVersion(digest)));
+
+        cf.addColumn(column("c1", "v1", 2));
+        assert !Arrays.equals(digest, ColumnFamily.digest(cf, DigestVersions.VERSION_2));
+    }
 }
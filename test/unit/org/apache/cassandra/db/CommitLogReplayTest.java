@@ -0,0 +1,89 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.filter.IdentityQueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static org.apache.cassandra.Util.column;
+
+public class CommitLogReplayTest extends CleanupHelper
+{
+    @Test
+    public void testReplayManySegments() throws Exception
+    {
+        // test config flushes every 20 operations; memtables pick up thresholds on creation
+        DatabaseDescriptor.setMemtableOperations(1.0);
+        DatabaseDescriptor.setMemtableThroughput(128);
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store1 = table.getColumnFamilyStore("Standard1");
+        ColumnFamilyStore store2 = table.getColumnFamilyStore("Standard2");
+        store1.forceBlockingFlush();
+        store2.forceBlockingFlush();
+
+        CommitLog.setSegmentSize(16 * 1024);
+        CommitLog.instance().resetUnsafe();
+
+        // every key is written twice across many segments, second time in another CF too
+        for (int round = 0; round < 2; round++)
+        {
+            for (int i = 0; i < 500; i++)
+            {
+                RowMutation rm = new RowMutation("Keyspace1", "key" + i);
+                ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard1");
+                cf.addColumn(column("col", "val" + round, round));
+                rm.add(cf);
+                if (round == 1)
+                {
+                    cf = ColumnFamily.create("Keyspace1", "Standard2");
+                    cf.addColumn(column("col", "val" + round, round));
+                    rm.add(cf);
+                }
+                rm.apply();
+            }
+        }
+        assert CommitLog.instance().segmentsCount() > 4 : CommitLog.instance().segmentsCount();
+
+        store1.clearUnsafe();
+        store2.clearUnsafe();
+        CommitLog.recover();
+
+        for (int i = 0; i < 500; i++)
+        {
+            assertValue(store1, "key" + i, "val1");
+            assertValue(store2, "key" + i, "val1");
+        }
+    }
+
+    private void assertValue(ColumnFamilyStore store, String key, String value) throws IOException
+    {
+        ColumnFamily cf = store.getColumnFamily(new IdentityQueryFilter(key, new QueryPath(store.getColumnFamilyName())));
+        assertNotNull(key, cf);
+        assertEquals(key, value, new String(cf.getColumn("col".getBytes()).value()));
+    }
+}
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
@@ -34,9 +36,12 @@ import org.junit.Test;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
 
 public class CompactionsTest extends CleanupHelper
 {
@@ -79,6 +84,52 @@ public class CompactionsTest extends CleanupHelper
         assertEquals(inserted.size(), Util.getRangeSlice(store).rows.size());
     }
 
+    @Test
+    public void testConcurrentCompactionsDoNotShareSSTables() throws Exception
+    {
+        CompactionManager.instance.disableAutoCompaction();
+
+        Table table = Table.open(TABLE1);
+        final ColumnFamilyStore store = table.getColumnFamilyStore("Standard2");
+        for (int j = 0; j < 8; j++)
+        {
+            RowMutation rm = new RowMutation(TABLE1, "key" + j);
+            rm.add(new QueryPath("Standard2", null, "c".getBytes()), new byte[0], j);
+            rm.apply();
+            store.forceBlockingFlush();
+        }
+        assertEquals(8, store.getSSTables().size());
+
+        // two minor compactions take distinct halves, the third finds nothing to do
+        List<SSTableReader> first = CompactionManager.instance.markMinorCompacting(store, 4, 4);
+        List<SSTableReader> second = CompactionManager.instance.markMinorCompacting(store, 4, 4);
+        assertEquals(4, first.size());
+        assertEquals(4, second.size());
+        Set<SSTableReader> all = new HashSet<SSTableReader>(first);
+        all.addAll(second);
+        assertEquals(8, all.size());
+        assertNull(CompactionManager.instance.markMinorCompacting(store, 4, 4));
+
+        // major compaction waits for both and holds back minor ones meanwhile
+        Future major = CompactionManager.instance.submitMajor(store);
+        try
+        {
+            major.get(1, TimeUnit.SECONDS);
+            fail("major compaction must wait for running ones");
+        }
+        catch (TimeoutException e)
+        {
+            // expected
+        }
+        CompactionManager.instance.unmarkCompacting(store, first);
+        assertNull(CompactionManager.instance.markMinorCompacting(store, 2, 4));
+        CompactionManager.instance.unmarkCompacting(store, second);
+        major.get();
+
+        assertEquals(1, store.getSSTables().size());
+        assertEquals(8, Util.getRangeSlice(store).rows.size());
+    }
+
     @Test
     public void testGetBuckets()
     {
@@ -0,0 +1,123 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class FlushWritersTest extends CleanupHelper
+{
+    @Test
+    public void testDiskOf()
+    {
+        FlushWriters writers = FlushWriters.instance;
+        String[] directories = DatabaseDescriptor.getAllDataFileLocations();
+        for (int i = 0; i < directories.length; i++)
+        {
+            String location = new File(directories[i], "Keyspace1").getAbsolutePath();
+            assertEquals(i, writers.diskOf(location));
+        }
+        assertEquals(0, writers.diskOf(null));
+    }
+
+    @Test
+    public void testBackPressure() throws Exception
+    {
+        final FlushWriters writers = FlushWriters.instance;
+        String directory = new File(DatabaseDescriptor.getAllDataFileLocations()[0]).getAbsolutePath();
+        long bytes = writers.getPendingFlushBytes().get(directory);
+        long blocked = writers.getBlockedWrites();
+
+        List<Condition> flushes = new ArrayList<Condition>();
+        for (int i = 0; i <= writers.getMaxPendingFlushes(); i++)
+            flushes.add(writers.startFlush(0, 100));
+        assertEquals(bytes + 100 * flushes.size(), (long) writers.getPendingFlushBytes().get(directory));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> write = executor.submit(new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                writers.awaitFlushCapacity();
+                return null;
+            }
+        });
+        try
+        {
+            write.get(200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("write is not blocked by pending flushes");
+        }
+        catch (TimeoutException e)
+        {
+            // expected
+        }
+
+        flushes.get(0).signalAll();
+        assertNull(write.get(10, TimeUnit.SECONDS));
+        assertEquals(blocked + 1, writers.getBlockedWrites());
+        executor.shutdown();
+
+        for (Condition flush : flushes.subList(1, flushes.size()))
+            flush.signalAll();
+        assertEquals(bytes, (long) writers.getPendingFlushBytes().get(directory));
+    }
+
+    @Test
+    public void testFailedFlush() throws Exception
+    {
+        FlushWriters writers = FlushWriters.instance;
+        String directory = new File(DatabaseDescriptor.getAllDataFileLocations()[0]).getAbsolutePath();
+        long bytes = writers.getPendingFlushBytes().get(directory);
+        ColumnFamilyStore cfs = Table.open("Keyspace1").getColumnFamilyStore("Standard1");
+        Memtable memtable = new Memtable(cfs)
+        {
+            @Override
+            public Iterator<Map.Entry<DecoratedKey, ColumnFamily>> getEntryIterator()
+            {
+                throw new RuntimeException("simulated flush failure");
+            }
+        };
+        memtable.freeze();
+
+        Condition condition = writers.startFlush(0, 100);
+        memtable.flushAndSignal(condition, null, writers.writer(0), null);
+        assert condition.await(10000, TimeUnit.MILLISECONDS);
+        assertEquals(bytes, (long) writers.getPendingFlushBytes().get(directory));
+        // failed memtable is kept for reads
+        assert cfs.getMemtablesPendingFlush().remove(memtable);
+    }
+}
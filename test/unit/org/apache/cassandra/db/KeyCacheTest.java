@@ -0,0 +1,72 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.SSTable;
+import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+
+import static junit.framework.Assert.assertEquals;
+
+public class KeyCacheTest extends CleanupHelper
+{
+    @Test
+    public void testSavedKeyCache() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard4");
+
+        for (int j = 0; j < 10; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", String.valueOf(j));
+            rm.add(new QueryPath("Standard4", null, "0".getBytes()), new byte[0], j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        assert sstable.getGeneration() > 0;
+        assert store.getKeyCacheCapacity() > 0;
+
+        // index lookups cache positions
+        SSTable.PositionSize[] positions = new SSTable.PositionSize[10];
+        for (int j = 0; j < 10; j++)
+        {
+            DecoratedKey dk = StorageService.getPartitioner().decorateKey(String.valueOf(j));
+            positions[j] = sstable.getPosition(dk);
+            assert sstable.getCachedPosition(dk) != null;
+        }
+        assertEquals(10, store.getKeyCacheSize());
+
+        store.submitKeyCacheWrite().get();
+        store.reloadSavedKeyCache();
+        assertEquals(10, store.getKeyCacheSize());
+        for (int j = 0; j < 10; j++)
+        {
+            SSTable.PositionSize cached = sstable.getCachedPosition(StorageService.getPartitioner().decorateKey(String.valueOf(j)));
+            assertEquals(positions[j].position, cached.position);
+            assertEquals(positions[j].size, cached.size);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.SSTableReader;
+import org.apache.cassandra.service.StorageService;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class LeveledCompactionStrategyTest extends CleanupHelper
+{
+    public static final String TABLE2 = "Keyspace2";
+    private static final int KEYS = 400;
+    private static final int COLUMNS = 10;
+
+    @Test
+    public void testLeveledCompaction() throws Exception
+    {
+        ColumnFamilyStore store = Table.open(TABLE2).getColumnFamilyStore("StandardLeveled");
+        LeveledCompactionStrategy strategy = (LeveledCompactionStrategy) store.getCompactionStrategy();
+
+        // 1MB sstables; every pass overwrites the same 4MB of rows
+        byte[] value = new byte[1024];
+        for (int pass = 0; pass < 3; pass++)
+        {
+            for (int i = 0; i < KEYS; i++)
+            {
+                RowMutation rm = new RowMutation(TABLE2, "key" + i);
+                for (int c = 0; c < COLUMNS; c++)
+                    rm.add(new QueryPath("StandardLeveled", null, ("c" + c).getBytes()), value, pass);
+                rm.apply();
+            }
+            store.forceBlockingFlush();
+        }
+        compactUntilDone(store);
+
+        int[] levels = strategy.getManifest().getLevelSizes();
+        assertTrue(levels[1] + levels[2] > 1);
+
+        // sstables of a level must not overlap
+        Collection<SSTableReader> sstables = store.getSSTables();
+        for (SSTableReader sstable : sstables)
+        {
+            int level = strategy.getManifest().getLevel(sstable);
+            if (level == 0)
+                continue;
+            for (SSTableReader other : sstables)
+            {
+                if (other == sstable || strategy.getManifest().getLevel(other) != level)
+                    continue;
+                assertTrue(sstable.getLastKey().compareTo(other.getFirstKey()) < 0
+                           || other.getLastKey().compareTo(sstable.getFirstKey()) < 0);
+            }
+        }
+
+        for (int i = 0; i < KEYS; i++)
+        {
+            ColumnFamily cf = store.getColumnFamily("key" + i, new QueryPath("StandardLeveled"), new byte[0], new byte[0], false, 100);
+            assertNotNull(cf);
+            assertEquals(COLUMNS, cf.getColumnCount());
+            assertEquals(2, cf.getColumn("c0".getBytes()).timestamp());
+        }
+
+        // levels survive restart
+        File manifestFile = LeveledManifest.manifestFile(TABLE2, "StandardLeveled");
+        assertTrue(manifestFile.exists());
+        LeveledManifest reloaded = LeveledManifest.create(manifestFile, 1024 * 1024, sstables);
+        for (SSTableReader sstable : sstables)
+            assertEquals(strategy.getManifest().getLevel(sstable), reloaded.getLevel(sstable));
+    }
+
+    @Test
+    public void testReadSkipsSSTablesOutOfKeyRange() throws Exception
+    {
+        ColumnFamilyStore store = Table.open(TABLE2).getColumnFamilyStore("StandardLeveled");
+        for (int i = 0; i < 10; i++)
+        {
+            RowMutation rm = new RowMutation(TABLE2, "m" + i);
+            rm.add(new QueryPath("StandardLeveled", null, "c".getBytes()), "v".getBytes(), 0);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        assertFalse(store.getSSTables().isEmpty());
+
+        IPartitioner partitioner = StorageService.getPartitioner();
+        for (SSTableReader sstable : store.getSSTables())
+        {
+            assertTrue(sstable.mayContainKey(sstable.getFirstKey()));
+            assertTrue(sstable.mayContainKey(sstable.getLastKey()));
+            assertFalse(sstable.mayContainKey(partitioner.decorateKey("a")));
+            assertFalse(sstable.mayContainKey(partitioner.decorateKey("z")));
+        }
+        assertEquals(1, store.getColumnFamily("m5", new QueryPath("StandardLeveled"), new byte[0], new byte[0], false, 100).getColumnCount());
+        assertNull(store.getColumnFamily("z", new QueryPath("StandardLeveled"), new byte[0], new byte[0], false, 100));
+    }
+
+    private static void compactUntilDone(ColumnFamilyStore store) throws Exception
+    {
+        // other tests in this JVM may have disabled compaction
+        CompactionManager.instance.setMinimumCompactionThreshold(4);
+        CompactionManager.instance.setMaximumCompactionThreshold(32);
+
+        ICompactionStrategy strategy = store.getCompactionStrategy();
+        while (true)
+        {
+            while (strategy.getEstimatedRemainingTasks(store.getSSTables(), 4, 32) > 0)
+                CompactionManager.instance.submitMinorIfNeeded(store).get();
+            if (CompactionManager.instance.getCompactionsInProgress().isEmpty()
+                && strategy.getEstimatedRemainingTasks(store.getSSTables(), 4, 32) == 0)
+                break;
+            Thread.sleep(10);
+        }
+    }
+}
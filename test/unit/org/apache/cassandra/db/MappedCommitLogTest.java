@@ -0,0 +1,172 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.db.filter.IdentityQueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.util.FileUtils;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+public class MappedCommitLogTest extends CleanupHelper
+{
+    private static final byte[] VALUE = new byte[500];
+
+    @BeforeClass
+    public static void mmapMode()
+    {
+        DatabaseDescriptor.setCommitLogMode(DatabaseDescriptor.CommitLogMode.mmap);
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception
+    {
+        final ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard1");
+        Set<File> before = start(store);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++)
+        {
+            final int thread = t;
+            writers.add(executor.submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    write(store, "concurrent" + thread + "-", 250);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> writer : writers)
+            writer.get();
+        executor.shutdown();
+        assert CommitLog.instance().segmentsCount() > 1;
+
+        store.clearUnsafe();
+        replay(before);
+
+        for (int t = 0; t < 8; t++)
+        {
+            for (int i = 0; i < 250; i++)
+                assertNotNull(get(store, "concurrent" + t + "-" + i));
+        }
+    }
+
+    @Test
+    public void testRecycle() throws Exception
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("Standard2");
+        Set<File> before = start(store);
+
+        write(store, "old", 300);
+        CommitLog.instance().forceNewSegment();
+        store.forceBlockingFlush();
+        int recycled = CommitLog.instance().recycledSegmentsCount();
+        assert recycled > 1 : recycled;
+
+        write(store, "new", 300);
+        assert CommitLog.instance().recycledSegmentsCount() < recycled;
+
+        // reused segments still contain old records, which must not be replayed
+        store.clearUnsafe();
+        replay(before);
+        for (int i = 0; i < 300; i++)
+        {
+            assertNull(get(store, "old" + i));
+            assertNotNull(get(store, "new" + i));
+        }
+    }
+
+    /**
+     * @return log files existing before test
+     */
+    private Set<File> start(ColumnFamilyStore store) throws Exception
+    {
+        // test config flushes every 20 operations; memtables pick up thresholds on creation
+        DatabaseDescriptor.setMemtableOperations(1.0);
+        DatabaseDescriptor.setMemtableThroughput(128);
+        write(store, "init", 1);
+        store.forceBlockingFlush();
+
+        Set<File> before = new HashSet<File>(Arrays.asList(logFiles()));
+        CommitLog.setSegmentSize(64 * 1024);
+        CommitLog.instance().resetUnsafe();
+        return before;
+    }
+
+    private void replay(Set<File> before) throws IOException
+    {
+        List<File> files = new ArrayList<File>();
+        for (File file : logFiles())
+        {
+            if (!before.contains(file))
+                files.add(file);
+        }
+        CommitLog.recover(files.toArray(new File[files.size()]), true);
+    }
+
+    private File[] logFiles()
+    {
+        File[] files = new File(DatabaseDescriptor.getLogFileLocation()).listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.matches("CommitLog-\\d+\\.log(\\.z)?");
+            }
+        });
+        Arrays.sort(files, new FileUtils.FileComparator());
+        return files;
+    }
+
+    private void write(ColumnFamilyStore store, String prefix, int rows) throws IOException
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", prefix + i);
+            rm.add(new QueryPath(store.getColumnFamilyName(), null, "c".getBytes()), VALUE, 0);
+            rm.apply();
+        }
+    }
+
+    private ColumnFamily get(ColumnFamilyStore store, String key) throws IOException
+    {
+        return store.getColumnFamily(new IdentityQueryFilter(key, new QueryPath(store.getColumnFamilyName())));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.filter.IdentityQueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+public class MemtableSwitchTest extends CleanupHelper
+{
+    private static final int THREADS = 8;
+    private static final int ROWS = 200;
+
+    @Test
+    public void testWritesDuringSwitches() throws Exception
+    {
+        final ColumnFamilyStore store = Table.open("Keyspace2").getColumnFamilyStore("Standard1");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREADS; t++)
+        {
+            final int thread = t;
+            writers.add(executor.submit(new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    for (int i = 0; i < ROWS; i++)
+                    {
+                        RowMutation rm = new RowMutation("Keyspace2", key(thread, i));
+                        rm.add(new QueryPath("Standard1", null, "c".getBytes()), "v".getBytes(), 0);
+                        rm.apply();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // switch memtables concurrently with writes, in addition to ones switched by thresholds
+        boolean done = false;
+        while (!done)
+        {
+            store.forceBlockingFlush();
+            done = true;
+            for (Future<?> writer : writers)
+                done &= writer.isDone();
+        }
+        for (Future<?> writer : writers)
+            writer.get();
+        executor.shutdown();
+        store.forceBlockingFlush();
+
+        assertEquals(0, store.getMemtablesPendingFlush().size());
+        for (int t = 0; t < THREADS; t++)
+        {
+            for (int i = 0; i < ROWS; i++)
+            {
+                ColumnFamily cf = store.getColumnFamily(new IdentityQueryFilter(key(t, i), new QueryPath("Standard1")));
+                assertNotNull(key(t, i), cf);
+                assertNotNull(key(t, i), cf.getColumn("c".getBytes()));
+            }
+        }
+    }
+
+    private static String key(int thread, int i)
+    {
+        return "key" + thread + "-" + i;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.filter.QueryPath;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+public class MeteredFlusherTest extends CleanupHelper
+{
+    @Test
+    public void testFlushLargest() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore large = table.getColumnFamilyStore("Standard1");
+        ColumnFamilyStore small = table.getColumnFamilyStore("Standard2");
+
+        double operations = DatabaseDescriptor.getMemtableOperations();
+        DatabaseDescriptor.setMemtableOperations(1.0);
+        try
+        {
+            // memtables pick up thresholds on creation
+            write(large, 1, 1);
+            large.forceBlockingFlush();
+            write(small, 1, 1);
+            small.forceBlockingFlush();
+
+            write(large, 100, 200);
+            write(small, 1, 10);
+            Memtable largeMemtable = large.getMemtableThreadSafe();
+            Memtable smallMemtable = small.getMemtableThreadSafe();
+
+            // small columns take much more heap than their serialized size
+            assert largeMemtable.getLiveSize() > 1024 * 1024 : largeMemtable.getLiveSize();
+            assert largeMemtable.getLiveSize() > 3 * largeMemtable.getCurrentThroughput();
+            assertEquals(largeMemtable.getLiveSize(), large.getMemtableLiveSize());
+
+            DatabaseDescriptor.setMemtableTotalSpaceInMB(1);
+            new MeteredFlusher().run();
+
+            assertNotSame(largeMemtable, large.getMemtableThreadSafe());
+            assertSame(smallMemtable, small.getMemtableThreadSafe());
+            assert large.getMemtableBudgetSwitchCount() > 0;
+            assertEquals(0, small.getMemtableBudgetSwitchCount());
+        }
+        finally
+        {
+            DatabaseDescriptor.setMemtableTotalSpaceInMB(0);
+            DatabaseDescriptor.setMemtableOperations(operations);
+        }
+    }
+
+    private void write(ColumnFamilyStore cfs, int rows, int columns) throws IOException
+    {
+        for (int i = 0; i < rows; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", "key" + i);
+            for (int j = 0; j < columns; j++)
+                rm.add(new QueryPath(cfs.getColumnFamilyName(), null, ("c" + j).getBytes()), "v".getBytes(), 0);
+            rm.apply();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.filter.IdentityQueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.utils.SlabAllocator;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static org.apache.cassandra.Util.addMutation;
+import static org.apache.cassandra.Util.getBytes;
+
+public class OffheapMemtableTest extends CleanupHelper
+{
+    @Test
+    public void testSlabAllocator()
+    {
+        SlabAllocator allocator = new SlabAllocator();
+        byte[] small = "small".getBytes();
+        byte[] large = new byte[SlabAllocator.SLAB_SIZE / 2];
+        large[large.length - 1] = 42;
+
+        long ref1 = allocator.allocate(small, 0, small.length);
+        long ref2 = allocator.allocate(large, 0, large.length);
+        long ref3 = allocator.allocate(small, 1, small.length - 1);
+
+        assertEquals('s', allocator.region(ref1, small.length).get());
+        assertEquals(42, allocator.region(ref2, large.length).get(large.length - 1));
+        assertEquals('m', allocator.region(ref3, small.length - 1).get());
+        // small regions share slab, large one has its own
+        assertEquals(allocator.slab(ref1), allocator.slab(ref3));
+        assertEquals(2 * small.length - 1 + large.length, allocator.allocated());
+
+        allocator.free();
+        assert allocator.isFreed();
+    }
+
+    @Test
+    public void testStandardReadWriteFlush() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("StandardOffheap");
+        assert store.getMemtableThreadSafe() instanceof OffheapMemtable;
+
+        for (int i = 0; i < 5; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", "key" + i);
+            rm.add(new QueryPath("StandardOffheap", null, "c1".getBytes()), "old".getBytes(), 0);
+            rm.add(new QueryPath("StandardOffheap", null, "c2".getBytes()), "v2".getBytes(), 0);
+            rm.apply();
+        }
+        // overwrite and delete columns of already stored rows
+        RowMutation rm = new RowMutation("Keyspace1", "key1");
+        rm.add(new QueryPath("StandardOffheap", null, "c1".getBytes()), "new".getBytes(), 1);
+        rm.delete(new QueryPath("StandardOffheap", null, "c2".getBytes()), 1);
+        rm.apply();
+
+        assertRow(store);
+        Memtable memtable = store.getMemtableThreadSafe();
+
+        store.forceBlockingFlush();
+
+        assertNull(memtable.getColumnFamily("key1"));
+        assertEquals(1, store.getSSTables().size());
+        assertRow(store);
+    }
+
+    private void assertRow(ColumnFamilyStore store)
+    {
+        ColumnFamily cf = store.getColumnFamily(new IdentityQueryFilter("key1", new QueryPath("StandardOffheap")));
+        assertNotNull(cf);
+        assertEquals("new", new String(cf.getColumn("c1".getBytes()).value()));
+        assert cf.getColumn("c2".getBytes()).isMarkedForDelete();
+
+        cf = store.getColumnFamily(new IdentityQueryFilter("key2", new QueryPath("StandardOffheap")));
+        assertEquals("old", new String(cf.getColumn("c1".getBytes()).value()));
+        assertEquals("v2", new String(cf.getColumn("c2".getBytes()).value()));
+    }
+
+    @Test
+    public void testWideRowUpdates() throws IOException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("StandardOffheap");
+        OffheapMemtable memtable = new OffheapMemtable(store);
+        int columns = 2000;
+        long bytes = 0;
+        assert memtable.startWrite();
+        for (int i = 0; i < columns; i++)
+        {
+            ColumnFamily cf = ColumnFamily.create("Keyspace1", "StandardOffheap");
+            cf.addColumn(new Column(("c" + i).getBytes(), "value".getBytes(), i));
+            bytes += cf.size();
+            memtable.put("key", cf);
+        }
+        memtable.finishWrite();
+
+        ColumnFamily cf = memtable.getColumnFamily("key");
+        assertEquals(columns, cf.getSortedColumns().size());
+        assertEquals("value", new String(cf.getColumn(("c" + (columns - 1)).getBytes()).value()));
+        // the row is not copied on every update; that would take about 50MB
+        assert memtable.getOffheapSize() <= 2 * SlabAllocator.SLAB_SIZE : memtable.getOffheapSize() + " for " + bytes;
+
+        memtable.clearUnsafe();
+        assertNull(memtable.getColumnFamily("key"));
+        assertEquals(0, memtable.getOffheapSize());
+    }
+
+    @Test
+    public void testSuper() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("SuperOffheap");
+
+        RowMutation rm = new RowMutation("Keyspace1", "key1");
+        addMutation(rm, "SuperOffheap", "sc1", 1, "v1", 0);
+        rm.apply();
+        rm = new RowMutation("Keyspace1", "key1");
+        addMutation(rm, "SuperOffheap", "sc1", 2, "v2", 0);
+        rm.apply();
+
+        ColumnFamily cf = store.getColumnFamily(new IdentityQueryFilter("key1", new QueryPath("SuperOffheap")));
+        SuperColumn sc = (SuperColumn) cf.getColumn("sc1".getBytes());
+        assertEquals(2, sc.getSubColumns().size());
+
+        store.forceBlockingFlush();
+
+        cf = store.getColumnFamily(new IdentityQueryFilter("key1", new QueryPath("SuperOffheap")));
+        sc = (SuperColumn) cf.getColumn("sc1".getBytes());
+        assertEquals("v2", new String(sc.getSubColumn(getBytes(2)).value()));
+    }
+}
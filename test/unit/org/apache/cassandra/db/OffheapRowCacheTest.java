@@ -0,0 +1,123 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.cache.SerializingCache;
+import org.apache.cassandra.db.filter.NamesQueryFilter;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.ICompactSerializer2;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+public class OffheapRowCacheTest extends CleanupHelper
+{
+    private static final ICompactSerializer2<byte[]> bytesSerializer = new ICompactSerializer2<byte[]>()
+    {
+        public void serialize(byte[] bytes, DataOutput dos) throws IOException
+        {
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+
+        public byte[] deserialize(DataInput dis) throws IOException
+        {
+            byte[] bytes = new byte[dis.readInt()];
+            dis.readFully(bytes);
+            return bytes;
+        }
+    };
+
+    @Test
+    public void testSerializingCache()
+    {
+        // 1MB over 16 segments, so 64KB each
+        SerializingCache<Integer, byte[]> cache = new SerializingCache<Integer, byte[]>(1, bytesSerializer);
+        byte[] value = new byte[1000];
+        value[999] = 42;
+        for (int i = 0; i < 2000; i++)
+            cache.put(i, value);
+
+        // evicted by weight, not by count
+        assert cache.weightedSize() <= 1024 * 1024 : cache.weightedSize();
+        assert cache.size() < 1100 : cache.size();
+        assertEquals(2000 - cache.size(), cache.evictions());
+        assertEquals(cache.size(), cache.keySet().size());
+
+        // the most recent ones survive; a copy is returned
+        byte[] cached = cache.get(1999);
+        assertNotNull(cached);
+        assertEquals(42, cached[999]);
+        assert cached != value;
+        assertNull(cache.get(0));
+
+        // values larger than a segment are not cached at all
+        cache.put(1999, new byte[128 * 1024]);
+        assertNull(cache.get(1999));
+
+        cache.remove(1998);
+        assertNull(cache.get(1998));
+        cache.setCapacity(0);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void testRowCache() throws IOException, ExecutionException, InterruptedException
+    {
+        ColumnFamilyStore store = Table.open("Keyspace1").getColumnFamilyStore("StandardRowCacheOffheap");
+        // in megabytes
+        assertEquals(1, store.getRowCacheCapacity());
+
+        RowMutation rm = new RowMutation("Keyspace1", "key1");
+        rm.add(new QueryPath("StandardRowCacheOffheap", null, "c1".getBytes()), "v1".getBytes(), 0);
+        rm.apply();
+        store.forceBlockingFlush();
+
+        assertColumn(store, "v1");
+        assertEquals(1, store.getRowCacheSize());
+        assertColumn(store, "v1");
+
+        // writes invalidate cached row
+        rm = new RowMutation("Keyspace1", "key1");
+        rm.add(new QueryPath("StandardRowCacheOffheap", null, "c1".getBytes()), "v2".getBytes(), 1);
+        rm.apply();
+        assertEquals(0, store.getRowCacheSize());
+        assertColumn(store, "v2");
+        assertEquals(1, store.getRowCacheSize());
+
+        store.invalidateRowCache();
+        assertEquals(0, store.getRowCacheSize());
+    }
+
+    private void assertColumn(ColumnFamilyStore store, String value)
+    {
+        ColumnFamily cf = store.getColumnFamily(new NamesQueryFilter("key1", new QueryPath("StandardRowCacheOffheap"), "c1".getBytes()));
+        assertEquals(value, new String(cf.getColumn("c1".getBytes()).value()));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db.commitlog;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+
+public class GroupCommitLogTest extends CleanupHelper
+{
+    @BeforeClass
+    public static void mmapMode()
+    {
+        DatabaseDescriptor.setCommitLogMode(DatabaseDescriptor.CommitLogMode.mmap);
+    }
+
+    /**
+     * batch mode write must not be acknowledged, while a record preceding it in the segment is still being written
+     */
+    @Test
+    public void testWriteCompletedAhead() throws Exception
+    {
+        assert DatabaseDescriptor.getCommitLogSync() == DatabaseDescriptor.CommitLogSync.batch;
+        final CommitLog log = CommitLog.instance();
+        final MappedCommitLogSegment segment = (MappedCommitLogSegment) log.getContext().get().getSegment();
+
+        final RowMutation rm = new RowMutation("Keyspace1", "key");
+        rm.add(new QueryPath("Standard1", null, "c".getBytes()), "v".getBytes(), 0);
+        final DataOutputBuffer serialized = rm.getSerializedBuffer();
+
+        final CountDownLatch earlierAllocated = new CountDownLatch(1);
+        final CountDownLatch completeEarlier = new CountDownLatch(1);
+        final CommitLog.LogRecordAdder earlier = log.new LogRecordAdder(rm, serialized)
+        {
+            @Override
+            public void run()
+            {
+                long position = segment.allocate(100);
+                earlierAllocated.countDown();
+                try
+                {
+                    completeEarlier.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new AssertionError(e);
+                }
+                segment.complete(position, position + 100);
+                written(segment, position);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> earlierWrite = executor.submit(new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                log.add(earlier);
+                return null;
+            }
+        });
+        earlierAllocated.await();
+        Future<?> laterWrite = executor.submit(new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                log.add(rm, serialized);
+                return null;
+            }
+        });
+
+        try
+        {
+            laterWrite.get(500, TimeUnit.MILLISECONDS);
+            throw new AssertionError("write acknowledged before the record preceding it was completed");
+        }
+        catch (TimeoutException e)
+        {
+            // expected
+        }
+
+        completeEarlier.countDown();
+        earlierWrite.get(10, TimeUnit.SECONDS);
+        laterWrite.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,114 @@
+package org.apache.cassandra.dht;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+import org.junit.Test;
+
+public class BinaryRandomPartitionerTest extends PartitionerTestCase<LongPairToken>
+{
+    public void initPartitioner()
+    {
+        partitioner = new BinaryRandomPartitioner();
+    }
+
+    @Test
+    public void testSameTokensAsRandomPartitioner()
+    {
+        RandomPartitioner random = new RandomPartitioner();
+        for (int i = 0; i < 10000; i++)
+        {
+            String key = "key" + i;
+            LongPairToken token = tok(key);
+            BigIntegerToken expected = random.getToken(key);
+            assertEquals(expected.token, token.toBigInteger());
+            assertEquals(expected.toString(), token.toString());
+
+            LongPairToken other = tok("key" + (i + 1));
+            assertEquals(Integer.signum(expected.compareTo(random.getToken("key" + (i + 1)))),
+                         Integer.signum(token.compareTo(other)));
+        }
+        assert partitioner.getMinimumToken().compareTo(tok("a")) < 0;
+    }
+
+    @Test
+    public void testDiskFormatOrder()
+    {
+        List<DecoratedKey<LongPairToken>> keys = new ArrayList<DecoratedKey<LongPairToken>>();
+        keys.add(partitioner.decorateKey(""));
+        keys.add(new DecoratedKey<LongPairToken>(new LongPairToken(0, 0), "zero"));
+        keys.add(new DecoratedKey<LongPairToken>(new LongPairToken(Long.MAX_VALUE, -1), "max"));
+        for (int i = 0; i < 1000; i++)
+            keys.add(partitioner.decorateKey("key" + i));
+
+        for (DecoratedKey<LongPairToken> key : keys)
+        {
+            String disk = partitioner.convertToDiskFormat(key);
+            // one byte per char
+            assertEquals(disk.length(), FBUtilities.encodedUTF8Length(disk));
+            DecoratedKey<LongPairToken> result = partitioner.convertFromDiskFormat(disk);
+            assertEquals(key.token, result.token);
+            assertEquals(key.key, result.key);
+
+            for (DecoratedKey<LongPairToken> other : keys)
+            {
+                String otherDisk = partitioner.convertToDiskFormat(other);
+                assertEquals(Integer.signum(key.compareTo(other)),
+                             Integer.signum(disk.substring(0, 22).compareTo(otherDisk.substring(0, 22))));
+            }
+        }
+    }
+
+    @Test
+    public void testMidpointMatchesRandomPartitioner()
+    {
+        RandomPartitioner random = new RandomPartitioner();
+        String[][] pairs = { {"a", "b"}, {"b", "a"}, {"a", "a"}, {"", "a"}, {"a", ""}, {"", ""} };
+        for (String[] pair : pairs)
+        {
+            BigInteger expected = random.midpoint(random.getToken(pair[0]), random.getToken(pair[1])).token;
+            assertEquals(expected, partitioner.midpoint(tok(pair[0]), tok(pair[1])).toBigInteger());
+        }
+    }
+
+    @Test
+    public void testDescribeOwnership()
+    {
+        List<Token> tokens = new ArrayList<Token>();
+        tokens.add(LongPairToken.valueOf(BigInteger.ZERO));
+        tokens.add(LongPairToken.valueOf(BigInteger.ONE.shiftLeft(125)));
+        tokens.add(LongPairToken.valueOf(BigInteger.ONE.shiftLeft(126)));
+        Map<Token, Float> ownerships = partitioner.describeOwnership(tokens);
+        assertEquals(0.5f, ownerships.get(tokens.get(0)), 0.0001f);
+        assertEquals(0.25f, ownerships.get(tokens.get(1)), 0.0001f);
+        assertEquals(0.25f, ownerships.get(tokens.get(2)), 0.0001f);
+    }
+}
@@ -0,0 +1,125 @@
+package org.apache.cassandra.dht;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.utils.FBUtilities;
+import org.junit.Test;
+
+public class Murmur3PartitionerTest extends PartitionerTestCase<LongToken>
+{
+    public void initPartitioner()
+    {
+        partitioner = new Murmur3Partitioner();
+    }
+
+    @Override
+    @Test
+    public void testMidpointMinimum()
+    {
+        // only 64 bits to split
+        LongToken mintoken = partitioner.getMinimumToken();
+        assert mintoken.compareTo(partitioner.midpoint(mintoken, mintoken)) != 0;
+        assertMidpoint(mintoken, tok("a"), 16);
+        assertMidpoint(mintoken, tok("aaa"), 16);
+        assertMidpoint(mintoken, mintoken, 62);
+        assertMidpoint(tok("a"), mintoken, 16);
+    }
+
+    @Test
+    public void testMidpointValues()
+    {
+        assertEquals(0L, (long) partitioner.midpoint(new LongToken(-10), new LongToken(10)).token);
+        assertEquals(0L, (long) partitioner.midpoint(Murmur3Partitioner.MINIMUM, Murmur3Partitioner.MINIMUM).token);
+        // wrapping around Long.MAX_VALUE
+        assertEquals(Long.MIN_VALUE + 4, (long) partitioner.midpoint(new LongToken(Long.MAX_VALUE - 5), new LongToken(Long.MIN_VALUE + 15)).token);
+        assertEquals(Long.MIN_VALUE + 10, (long) partitioner.midpoint(new LongToken(10), new LongToken(10)).token);
+    }
+
+    @Test
+    public void testDiskFormatOrder()
+    {
+        List<DecoratedKey<LongToken>> keys = new ArrayList<DecoratedKey<LongToken>>();
+        keys.add(partitioner.decorateKey(""));
+        keys.add(new DecoratedKey<LongToken>(new LongToken(0), "zero"));
+        keys.add(new DecoratedKey<LongToken>(new LongToken(-1), "minus one"));
+        keys.add(new DecoratedKey<LongToken>(new LongToken(Long.MAX_VALUE), "max"));
+        for (int i = 0; i < 1000; i++)
+            keys.add(partitioner.decorateKey("key" + i));
+
+        for (DecoratedKey<LongToken> key : keys)
+        {
+            String disk = partitioner.convertToDiskFormat(key);
+            // one byte per char
+            assertEquals(disk.length(), FBUtilities.encodedUTF8Length(disk));
+            DecoratedKey<LongToken> result = partitioner.convertFromDiskFormat(disk);
+            assertEquals(key.token, result.token);
+            assertEquals(key.key, result.key);
+
+            for (DecoratedKey<LongToken> other : keys)
+            {
+                String otherDisk = partitioner.convertToDiskFormat(other);
+                assertEquals(Integer.signum(key.compareTo(other)),
+                             Integer.signum(disk.substring(0, 11).compareTo(otherDisk.substring(0, 11))));
+            }
+        }
+    }
+
+    @Test
+    public void testDescribeOwnership()
+    {
+        List<Token> tokens = new ArrayList<Token>();
+        tokens.add(new LongToken(Long.MIN_VALUE / 2));
+        tokens.add(new LongToken(0));
+        tokens.add(new LongToken(Long.MAX_VALUE / 2));
+        Map<Token, Float> ownerships = partitioner.describeOwnership(tokens);
+        assertEquals(0.5f, ownerships.get(tokens.get(0)), 0.0001f);
+        assertEquals(0.25f, ownerships.get(tokens.get(1)), 0.0001f);
+        assertEquals(0.25f, ownerships.get(tokens.get(2)), 0.0001f);
+    }
+
+    @Test
+    public void testRanges()
+    {
+        // keys spread over the whole ring
+        int negative = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            if (tok("key" + i).token < 0)
+                negative++;
+        }
+        assert negative > 400 && negative < 600 : negative;
+
+        LongToken left = new LongToken(100), right = new LongToken(-100);
+        assert new Range(left, right, partitioner).contains(new LongToken(Long.MAX_VALUE));
+        assert new Range(left, right, partitioner).contains(new LongToken(Long.MIN_VALUE + 1));
+        assert !new Range(left, right, partitioner).contains(new LongToken(0));
+        assert new Range(right, left, partitioner).contains(new LongToken(0));
+    }
+}
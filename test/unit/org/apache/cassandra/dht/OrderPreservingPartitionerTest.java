@@ -19,6 +19,7 @@
 package org.apache.cassandra.dht;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -43,4 +44,13 @@ public class OrderPreservingPartitionerTest extends PartitionerTestCase<StringTo
         assert tok("asdf").compareTo(tok("asdf")) == 0;
         assert tok("asdz").compareTo(tok("asdf")) > 0;
     }
+
+    @Test
+    public void testTokenFactoryCompareSupplementary()
+    {
+        // surrogate pairs sort below U+E000..U+FFFF in strings, but above them in UTF-8
+        assertTokenFactoryCompare(Arrays.<Token>asList(tok("a\uD800\uDC00"), tok("a\uDBFF\uDFFF"), tok("a\uD800\uDC01b"),
+                                                       tok("a\uE000"), tok("a\uFFFF"), tok("a\uD7FF"), tok("a\u00E9"),
+                                                       tok("a"), tok("ab"), tok("")));
+    }
 }
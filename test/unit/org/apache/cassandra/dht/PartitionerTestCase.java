@@ -18,6 +18,9 @@
 */
 package org.apache.cassandra.dht;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
@@ -110,6 +113,37 @@ public abstract class PartitionerTestCase<T extends Token> {
         assert tok("a").compareTo(factory.fromByteArray(factory.toByteArray(tok("a")))) == 0;
     }
     
+    @Test
+    public void testTokenFactoryCompare()
+    {
+        List<Token> tokens = new ArrayList<Token>();
+        tokens.add(partitioner.getMinimumToken());
+        Random rand = new Random(1);
+        for (int i = 0; i < 100; i++)
+            tokens.add(tok(Integer.toString(rand.nextInt(1000))));
+        for (int i = 0; i < 10; i++)
+            tokens.add(partitioner.getRandomToken());
+        assertTokenFactoryCompare(tokens);
+    }
+
+    protected void assertTokenFactoryCompare(List<Token> tokens)
+    {
+        Token.TokenFactory factory = partitioner.getTokenFactory();
+        for (Token left : tokens)
+        {
+            // stored behind some other bytes, as in the index summary
+            byte[] bytes = factory.toByteArray(left);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+            buffer.position(3);
+            buffer.put(bytes);
+            for (Token right : tokens)
+            {
+                int cmp = factory.compare(buffer, 3, bytes.length, factory.toByteArray(right));
+                assertEquals(left + " vs " + right, Integer.signum(left.compareTo(right)), Integer.signum(cmp));
+            }
+        }
+    }
+
     @Test
     public void testTokenFactoryStrings()
     {
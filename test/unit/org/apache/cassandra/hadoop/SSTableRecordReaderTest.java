@@ -0,0 +1,123 @@
+package org.apache.cassandra.hadoop;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.IColumn;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import static junit.framework.Assert.assertEquals;
+
+public class SSTableRecordReaderTest extends CleanupHelper
+{
+    @Test
+    public void testReadSnapshot() throws Exception
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard1");
+        for (int i = 0; i < 10; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", "key" + i);
+            rm.add(new QueryPath("Standard1", null, "c1".getBytes()), "v1".getBytes(), 0);
+            rm.add(new QueryPath("Standard1", null, "c2".getBytes()), "v2".getBytes(), 0);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+
+        // versions of rows in the other sstable are merged
+        RowMutation rm = new RowMutation("Keyspace1", "key1");
+        rm.add(new QueryPath("Standard1", null, "c1".getBytes()), "v3".getBytes(), 1);
+        rm.apply();
+        rm = new RowMutation("Keyspace1", "key2");
+        rm.delete(new QueryPath("Standard1"), 1);
+        rm.apply();
+        store.forceBlockingFlush();
+        table.snapshot("hadoop");
+
+        // written after the snapshot
+        rm = new RowMutation("Keyspace1", "key3");
+        rm.add(new QueryPath("Standard1", null, "c1".getBytes()), "v4".getBytes(), 2);
+        rm.apply();
+        store.forceBlockingFlush();
+
+        SliceRange range = new SliceRange(ByteBuffer.wrap(new byte[0]), ByteBuffer.wrap(new byte[0]), false, 100);
+        SortedMap<String, SortedMap<byte[], IColumn>> rows = read("", "", new SlicePredicate().setSlice_range(range));
+        assertEquals(9, rows.size());
+        assert !rows.containsKey("key2");
+        assertEquals(2, rows.get("key0").size());
+        assertEquals("v3", new String(rows.get("key1").get("c1".getBytes()).value()));
+        assertEquals("v1", new String(rows.get("key3").get("c1".getBytes()).value()));
+
+        // split (key4, key7]
+        SlicePredicate names = new SlicePredicate().setColumn_names(Arrays.asList(ByteBuffer.wrap("c2".getBytes())));
+        rows = read(token("key4"), token("key7"), names);
+        assertEquals(Arrays.asList("key5", "key6", "key7"), Arrays.asList(rows.keySet().toArray()));
+        for (SortedMap<byte[], IColumn> columns : rows.values())
+        {
+            assertEquals(1, columns.size());
+            assertEquals("v2", new String(columns.get("c2".getBytes()).value()));
+        }
+    }
+
+    private String token(String key)
+    {
+        IPartitioner partitioner = StorageService.getPartitioner();
+        return partitioner.getTokenFactory().toString(partitioner.getToken(key));
+    }
+
+    private SortedMap<String, SortedMap<byte[], IColumn>> read(String startToken, String endToken, SlicePredicate predicate) throws Exception
+    {
+        Configuration conf = new Configuration();
+        ConfigHelper.setColumnFamily(conf, "Keyspace1", "Standard1");
+        ConfigHelper.setSlicePredicate(conf, predicate);
+        ConfigHelper.setInputSnapshot(conf, "hadoop");
+        ColumnFamilySplit split = new ColumnFamilySplit(startToken, endToken, new String[]{ InetAddress.getLocalHost().getHostName() });
+        TaskAttemptContext context = new TaskAttemptContext(conf, new TaskAttemptID());
+
+        SSTableRecordReader reader = (SSTableRecordReader) new LocalColumnFamilyInputFormat().createRecordReader(split, context);
+        reader.initialize(split, context);
+        SortedMap<String, SortedMap<byte[], IColumn>> rows = new TreeMap<String, SortedMap<byte[], IColumn>>();
+        while (reader.nextKeyValue())
+            rows.put(reader.getCurrentKey(), reader.getCurrentValue());
+        assertEquals(1.0f, reader.getProgress());
+        reader.close();
+        return rows;
+    }
+}
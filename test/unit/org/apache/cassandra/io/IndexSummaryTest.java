@@ -0,0 +1,142 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.BinaryRandomPartitioner;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.service.StorageService;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexSummaryTest
+{
+    @Test
+    public void testScanPosition()
+    {
+        testScanPosition(StorageService.getPartitioner());
+        testScanPosition(new RandomPartitioner());
+        testScanPosition(new BinaryRandomPartitioner());
+        testScanPosition(new Murmur3Partitioner());
+    }
+
+    private void testScanPosition(IPartitioner partitioner)
+    {
+        int interval = DatabaseDescriptor.getIndexInterval();
+        DecoratedKey[] keys = new DecoratedKey[10 * interval];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = partitioner.decorateKey("key" + i);
+        Arrays.sort(keys);
+
+        // index positions are 10 bytes apart, as if keys were on disk
+        IndexSummary summary = new IndexSummary(partitioner);
+        for (int i = 0; i < keys.length; i++)
+            summary.maybeAddEntry(keys[i], i * 100, 100, i * 10, (i + 1) * 10);
+        summary.complete();
+
+        assertEquals(10, summary.size());
+        List<IndexSummary.KeyPosition> positions = summary.getIndexPositions();
+        for (int i = 0; i < positions.size(); i++)
+        {
+            assertEquals(keys[i * interval], positions.get(i).key);
+            assertEquals(keys[i * interval].key, positions.get(i).key.key);
+            assertEquals(i * interval * 10, positions.get(i).indexPosition);
+        }
+
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(i / interval * interval * 10, summary.getIndexScanPosition(keys[i]));
+        assertEquals(-1, summary.getIndexScanPosition(new DecoratedKey(partitioner.getMinimumToken(), "")));
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException
+    {
+        IPartitioner partitioner = StorageService.getPartitioner();
+        IndexSummary summary = new IndexSummary(partitioner);
+        DecoratedKey[] keys = new DecoratedKey[5 * DatabaseDescriptor.getIndexInterval()];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = partitioner.decorateKey(String.format("key%05d", i));
+            summary.maybeAddEntry(keys[i], i * 100, 100, i * 10, (i + 1) * 10);
+        }
+        summary.complete();
+
+        File file = File.createTempFile("IndexSummaryTest", "-Summary.db");
+        file.deleteOnExit();
+        summary.save(file.getPath(), keys.length * 10);
+
+        IndexSummary loaded = IndexSummary.load(file.getPath(), partitioner, keys.length * 10);
+        assertEquals(summary.size(), loaded.size());
+        assertEquals(summary.getLastIndexPosition(), loaded.getLastIndexPosition());
+        for (int i = 0; i < summary.size(); i++)
+        {
+            assertEquals(summary.getIndexPositions().get(i).key, loaded.getIndexPositions().get(i).key);
+            assertEquals(summary.getIndexPositions().get(i).indexPosition, loaded.getIndexPositions().get(i).indexPosition);
+        }
+        for (DecoratedKey key : keys)
+            assertEquals(summary.getIndexScanPosition(key), loaded.getIndexScanPosition(key));
+
+        // summary of another index
+        assert IndexSummary.load(file.getPath(), partitioner, keys.length * 10 + 1) == null;
+        file.delete();
+        assert IndexSummary.load(file.getPath(), partitioner, keys.length * 10) == null;
+    }
+
+    @Test
+    public void testCorrupted() throws IOException
+    {
+        IPartitioner partitioner = StorageService.getPartitioner();
+        IndexSummary summary = new IndexSummary(partitioner);
+        for (int i = 0; i < 5 * DatabaseDescriptor.getIndexInterval(); i++)
+            summary.maybeAddEntry(partitioner.decorateKey(String.format("key%05d", i)), i * 100, 100, i * 10, (i + 1) * 10);
+        summary.complete();
+
+        File file = File.createTempFile("IndexSummaryTest", "-Summary.db");
+        file.deleteOnExit();
+        summary.save(file.getPath(), 1000);
+        assert IndexSummary.load(file.getPath(), partitioner, 1000) != null;
+
+        // zero filled past the header, as a file not synced before a crash may be
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long length = raf.length();
+        raf.seek(length / 2);
+        raf.write(new byte[(int) (length - length / 2)]);
+        raf.close();
+        assert IndexSummary.load(file.getPath(), partitioner, 1000) == null;
+
+        // truncated
+        summary.save(file.getPath(), 1000);
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length - 1);
+        raf.close();
+        assert IndexSummary.load(file.getPath(), partitioner, 1000) == null;
+        file.delete();
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.cassandra.io;
  */
 
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -30,6 +31,7 @@ import org.junit.Test;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.NamesQueryFilter;
 import org.apache.cassandra.db.filter.QueryPath;
 import org.apache.cassandra.io.util.BufferedRandomAccessFile;
 import org.apache.cassandra.io.util.FileDataInput;
@@ -97,4 +99,93 @@ public class SSTableReaderTest extends CleanupHelper
             assertEquals(nextKey, file.readUTF());
         }
     }
+
+    @Test
+    public void testSummaryComponent() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("Standard2");
+
+        for (int j = 0; j < 10; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", String.valueOf(j));
+            rm.add(new QueryPath("Standard2", null, "0".getBytes()), new byte[0], j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        File summary = new File(sstable.summaryFilename());
+        assert summary.exists();
+
+        // opens from summary component
+        SSTableReader reopened = SSTableReader.open(sstable.getFilename());
+        assert !reopened.isSummaryRebuilt();
+        assert reopened.getOpenTime() >= 0;
+        assertKeysFound(reopened);
+
+        // rebuilds missing summary from index and saves it again
+        summary.delete();
+        reopened = SSTableReader.open(sstable.getFilename());
+        assert reopened.isSummaryRebuilt();
+        assert summary.exists();
+        assertKeysFound(reopened);
+        assert !SSTableReader.open(sstable.getFilename()).isSummaryRebuilt();
+    }
+
+    @Test
+    public void testCompressedSSTable() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table = Table.open("Keyspace1");
+        ColumnFamilyStore store = table.getColumnFamilyStore("StandardCompressed");
+        CompactionManager.instance.disableAutoCompaction();
+
+        // two sstables of rows spanning several 4KB chunks
+        byte[] value = new byte[1000];
+        Arrays.fill(value, (byte) 'x');
+        for (int i = 0; i < 2; i++)
+        {
+            for (int j = i; j < 100; j += 2)
+            {
+                RowMutation rm = new RowMutation("Keyspace1", String.valueOf(j));
+                rm.add(new QueryPath("StandardCompressed", null, "0".getBytes()), value, j);
+                rm.apply();
+            }
+            store.forceBlockingFlush();
+        }
+        CompactionManager.instance.submitMajor(store).get();
+        assertEquals(1, store.getSSTables().size());
+
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        assert sstable.isCompressed();
+        assert sstable.onDiskLength() < sstable.length() / 4 : sstable.onDiskLength() + " of " + sstable.length();
+        assert sstable.getAllFilenames().contains(sstable.compressionInfoFilename());
+
+        for (int j = 0; j < 100; j++)
+        {
+            ColumnFamily cf = store.getColumnFamily(new NamesQueryFilter(String.valueOf(j), new QueryPath("StandardCompressed"), "0".getBytes()));
+            assert cf != null : j;
+            assert Arrays.equals(value, cf.getColumn("0".getBytes()).value()) : j;
+        }
+
+        SSTableScanner scanner = sstable.getScanner(DatabaseDescriptor.getIndexedReadBufferSizeInKB() * 1024);
+        scanner.seekTo(StorageService.getPartitioner().decorateKey("50"));
+        int rows = 0;
+        while (scanner.hasNext())
+        {
+            assert scanner.next().getColumnFamily().getColumn("0".getBytes()) != null;
+            rows++;
+        }
+        scanner.close();
+        assertEquals(54, rows); // 50..59, then 6, 60..69 and so on to 99
+    }
+
+    private void assertKeysFound(SSTableReader sstable) throws IOException
+    {
+        for (int j = 0; j < 10; j++)
+        {
+            DecoratedKey dk = StorageService.getPartitioner().decorateKey(String.valueOf(j));
+            assert sstable.getPosition(dk) != null : j;
+        }
+        assert sstable.getPosition(StorageService.getPartitioner().decorateKey("10")) == null;
+    }
 }
@@ -26,6 +26,9 @@ import java.util.*;
 import org.apache.cassandra.CleanupHelper;
 import org.apache.cassandra.Util;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.io.SSTableUtils;
 import org.apache.cassandra.io.SSTableReader;
 import org.apache.cassandra.service.StorageService;
@@ -60,4 +63,56 @@ public class StreamingTest extends CleanupHelper
         assert rr.rows.size() == 1;
         assert rr.rows.get(0).key.equals("key");
     }
+
+    @Test
+    public void testTransferRanges() throws Exception
+    {
+        StorageService.instance.initServer();
+
+        IPartitioner partitioner = StorageService.getPartitioner();
+        List<Range> ranges = Arrays.asList(new Range(partitioner.getToken("key3"), partitioner.getToken("key6")),
+                                           new Range(partitioner.getToken("key8"), partitioner.getMinimumToken()));
+        List<String> expected = Arrays.asList("key4", "key5", "key6", "key9");
+        // sections of data file
+        assertTransferred("Keyspace1", "Standard1", ranges, expected);
+        // anticompacted, being compressed
+        assertTransferred("Keyspace1", "StandardCompressed", ranges, expected);
+        // sections with column bloom filter built by receiver
+        assertTransferred("Keyspace2", "Standard1c", ranges, expected);
+        // whole sstable
+        List<Range> all = Arrays.asList(new Range(partitioner.getMinimumToken(), partitioner.getMinimumToken()));
+        assertTransferred("Keyspace3", "Standard1", all, Arrays.asList("key0", "key1", "key2", "key3", "key4", "key5", "key6", "key7", "key8", "key9"));
+    }
+
+    private void assertTransferred(String tablename, String cfname, List<Range> ranges, List<String> expected) throws Exception
+    {
+        ColumnFamilyStore cfs = Table.open(tablename).getColumnFamilyStore(cfname);
+        for (int i = 0; i < 10; i++)
+        {
+            RowMutation rm = new RowMutation(tablename, "key" + i);
+            rm.add(new QueryPath(cfname, null, "col".getBytes()), ("val" + i).getBytes(), 0);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+        Set<SSTableReader> before = new HashSet<SSTableReader>(cfs.getSSTables());
+
+        StreamOut.transferRanges(LOCAL, tablename, ranges, null);
+
+        List<SSTableReader> added = new ArrayList<SSTableReader>(cfs.getSSTables());
+        added.removeAll(before);
+        assertEquals(1, added.size());
+        SSTableReader sstable = added.get(0);
+        List<String> keys = new ArrayList<String>();
+        SSTableScanner scanner = sstable.getScanner(1024);
+        while (scanner.hasNext())
+            keys.add(scanner.next().getKey().key);
+        scanner.close();
+        assertEquals(expected, keys);
+
+        IPartitioner partitioner = StorageService.getPartitioner();
+        for (String key : expected)
+            assert sstable.getPosition(partitioner.decorateKey(key)) != null : key;
+        if (!expected.contains("key7"))
+            assert sstable.getPosition(partitioner.decorateKey("key7")) == null;
+    }
 }
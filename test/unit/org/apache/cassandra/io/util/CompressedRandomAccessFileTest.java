@@ -0,0 +1,121 @@
+package org.apache.cassandra.io.util;
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedRandomAccessFileTest
+{
+    private static final int CHUNK = 4096;
+
+    @Test
+    public void testReadWrite() throws IOException
+    {
+        File data = File.createTempFile("compressed", "bin");
+        File info = File.createTempFile("compressed", "info");
+
+        // compressible text with random bytes mixed in; not a multiple of chunk size
+        Random random = new Random(0);
+        byte[] expected = new byte[CHUNK * 10 + 123];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = i % 7 == 0 ? (byte) random.nextInt() : (byte) ('a' + i % 13);
+
+        CompressedSequentialWriter writer = new CompressedSequentialWriter(data.getPath(), info.getPath(), CHUNK);
+        writer.write(expected, 0, 100);
+        writer.writeInt(0x01020304);
+        writer.write(expected, 104, expected.length - 104);
+        assertEquals(expected.length, writer.getFilePointer());
+        writer.close();
+        assertTrue(data.length() < expected.length);
+
+        CompressionMetadata metadata = CompressionMetadata.read(info.getPath());
+        assertEquals(CHUNK, metadata.chunkLength);
+        assertEquals(expected.length, metadata.dataLength);
+        assertEquals(11, metadata.chunkCount());
+
+        CompressedRandomAccessFile reader = new CompressedRandomAccessFile(data.getPath(), metadata);
+        assertEquals(expected.length, reader.length());
+        byte[] actual = new byte[100];
+        reader.readFully(actual);
+        for (int i = 0; i < 100; i++)
+            assertEquals(expected[i], actual[i]);
+        assertEquals(0x01020304, reader.readInt());
+
+        // random seeks, including ones across chunk boundaries
+        for (int i = 0; i < 100; i++)
+        {
+            int position = 104 + random.nextInt(expected.length - 104 - 50);
+            reader.seek(position);
+            byte[] bytes = new byte[50];
+            reader.readFully(bytes);
+            for (int j = 0; j < bytes.length; j++)
+                assertEquals(expected[position + j], bytes[j]);
+        }
+
+        reader.seek(expected.length - 1);
+        assertEquals(expected[expected.length - 1] & 0xFF, reader.read());
+        assertTrue(reader.isEOF());
+        assertEquals(-1, reader.read());
+        reader.close();
+    }
+
+    @Test
+    public void testChecksum() throws IOException
+    {
+        File data = File.createTempFile("compressed", "bin");
+        File info = File.createTempFile("compressed", "info");
+
+        CompressedSequentialWriter writer = new CompressedSequentialWriter(data.getPath(), info.getPath(), CHUNK);
+        writer.write(new byte[CHUNK * 3]);
+        writer.close();
+        CompressionMetadata metadata = CompressionMetadata.read(info.getPath());
+
+        // corrupt the second chunk
+        RandomAccessFile file = new RandomAccessFile(data, "rw");
+        file.seek(metadata.chunkOffset(1) + 1);
+        int b = file.read();
+        file.seek(metadata.chunkOffset(1) + 1);
+        file.write(b ^ 0xFF);
+        file.close();
+
+        CompressedRandomAccessFile reader = new CompressedRandomAccessFile(data.getPath(), metadata);
+        reader.seek(10);
+        reader.readByte();
+        try
+        {
+            reader.seek(CHUNK + 10);
+            fail("corrupted chunk was read");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("Checksum"));
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ReadResponse;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class MessageSerializerTest
+{
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        for (int version : new int[] { MessagingService.VERSION_1, MessagingService.VERSION_2 })
+        {
+            Message message = new Message(FBUtilities.getLocalAddress(), StageManager.READ_STAGE, StorageService.Verb.READ, new byte[] { 42 });
+            message.setHeader("detail", new byte[] { 1, 2, 3 });
+            Message copy = roundTrip(message, version);
+            assertEquals(StageManager.READ_STAGE, copy.getMessageType());
+            assertEquals(3, copy.getHeader("detail")[2]);
+
+            // no details, a reply, and a stage without a code
+            copy = roundTrip(message.getReply(FBUtilities.getLocalAddress(), new byte[0]), version);
+            assertEquals(message.getMessageId(), copy.getMessageId());
+            assertEquals(StageManager.RESPONSE_STAGE, copy.getMessageType());
+            assertNull(copy.getHeader("detail"));
+            copy = roundTrip(new Message(FBUtilities.getLocalAddress(), "CUSTOM-STAGE", StorageService.Verb.BINARY, new byte[0]), version);
+            assertEquals("CUSTOM-STAGE", copy.getMessageType());
+            copy = roundTrip(new Message(FBUtilities.getLocalAddress(), "", StorageService.Verb.STREAM_INITIATE, new byte[0]), version);
+            assertEquals("", copy.getMessageType());
+        }
+    }
+
+    @Test
+    public void testDeferredBody() throws IOException
+    {
+        ColumnFamily cf = ColumnFamily.create("Keyspace1", "Super1");
+        cf.addColumn(new QueryPath("Super1", "sc1".getBytes(), "c1".getBytes()), "v1".getBytes(), 0);
+        cf.addColumn(new QueryPath("Super1", "sc2".getBytes(), "c2".getBytes()), "v\u00e9".getBytes("UTF-8"), 1);
+        ReadResponse[] responses = { new ReadResponse(new Row("k\u00e9y", cf)),
+                                     new ReadResponse(new Row("key", null)),
+                                     new ReadResponse(new byte[16]) };
+        responses[2].setIsDigestQuery(true);
+
+        Message request = new Message(FBUtilities.getLocalAddress(), StageManager.READ_STAGE, StorageService.Verb.READ, new byte[0]);
+        for (ReadResponse response : responses)
+        {
+            DataOutputBuffer expected = new DataOutputBuffer();
+            ReadResponse.serializer().serialize(response, expected);
+            assertEquals(expected.getLength(), response.serializedSize());
+
+            Message reply = request.getReply(FBUtilities.getLocalAddress(), response, ReadResponse.serializer(), response.serializedSize());
+            Message copy = roundTrip(reply, MessagingService.CURRENT_VERSION);
+            assert Arrays.equals(Arrays.copyOf(expected.getData(), expected.getLength()), copy.getMessageBody());
+
+            // as packed for the socket, and as delivered locally
+            ByteBuffer packed = OutboundTcpConnection.pack(reply);
+            assertEquals(MessagingService.PROTOCOL_HEADER_SIZE + Message.serializer().serializedSize(reply), packed.remaining());
+            assert Arrays.equals(copy.getMessageBody(), reply.getMessageBody());
+        }
+    }
+
+    @Test
+    public void testCompactHeader() throws IOException
+    {
+        Message message = new Message(FBUtilities.getLocalAddress(), StageManager.MUTATION_STAGE, StorageService.Verb.MUTATION, new byte[0]);
+        // id, 4 address bytes and their length, stage, verb and flags
+        assertEquals(4 + 5 + 1 + 1 + 1 + 4, Message.serializer().serializedSize(message, MessagingService.VERSION_2));
+        assert Message.serializer().serializedSize(message, MessagingService.VERSION_1) > 30;
+    }
+
+    @Test
+    public void testProtocolVersion()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(MessagingService.PROTOCOL_HEADER_SIZE);
+        MessagingService.packHeader(buffer, 0, false, MessagingService.VERSION_1);
+        assertEquals(MessagingService.VERSION_1, MessagingService.getVersion(buffer.getInt(4)));
+        assertEquals(MessagingService.CURRENT_VERSION, MessagingService.getVersion(MessagingService.constructStreamHeader(false, MessagingService.CURRENT_VERSION).getInt(4)));
+
+        // a message of VERSION_1 still advertises what its sender reads; senders of VERSION_1 advertise nothing
+        assertEquals(MessagingService.CURRENT_VERSION, MessagingService.getMaxVersion(buffer.getInt(4)));
+        assertEquals(MessagingService.VERSION_1, MessagingService.getMaxVersion(MessagingService.VERSION_1 << 8));
+    }
+
+    @Test
+    public void testVersionNegotiation() throws IOException
+    {
+        InetAddress endpoint = InetAddress.getByName("127.0.0.99");
+        // the peer may be of VERSION_1, until it tells otherwise
+        assertEquals(MessagingService.VERSION_1, MessagingService.getVersion(endpoint));
+        MessagingService.setVersion(endpoint, MessagingService.CURRENT_VERSION + 1);
+        assertEquals(MessagingService.CURRENT_VERSION, MessagingService.getVersion(endpoint));
+        MessagingService.setVersion(endpoint, MessagingService.VERSION_1);
+        assertEquals(MessagingService.VERSION_1, MessagingService.getVersion(endpoint));
+        assertEquals(MessagingService.CURRENT_VERSION, MessagingService.getVersion(FBUtilities.getLocalAddress()));
+    }
+
+    private static Message roundTrip(Message message, int version) throws IOException
+    {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        Message.serializer().serialize(message, buffer, version);
+        assertEquals(Message.serializer().serializedSize(message, version), buffer.getLength());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.getData(), 0, buffer.getLength()));
+        Message copy = Message.serializer().deserialize(in, version);
+        assertEquals(0, in.available());
+        assertEquals(message.getMessageId(), copy.getMessageId());
+        assertEquals(message.getFrom(), copy.getFrom());
+        assertEquals(message.getVerb(), copy.getVerb());
+        assertEquals(message.getMessageBody().length, copy.getMessageBody().length);
+        return copy;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.ICompactSerializer;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static junit.framework.Assert.assertEquals;
+
+public class OutboundTcpConnectionTest
+{
+    private static Message message(int bodySize)
+    {
+        byte[] body = new byte[bodySize];
+        body[bodySize - 1] = 42;
+        Message message = new Message(FBUtilities.getLocalAddress(), StageManager.MUTATION_STAGE, StorageService.Verb.MUTATION, body);
+        message.setHeader("detail", new byte[] { 1, 2, 3 });
+        return message;
+    }
+
+    @Test
+    public void testPack() throws IOException
+    {
+        // pooled and large messages
+        for (int size : new int[] { 10, OutboundTcpConnection.POOLED_BUFFER_SIZE * 2 })
+        {
+            Message message = message(size);
+            ByteBuffer buffer = OutboundTcpConnection.pack(message);
+            assertEquals(MessagingService.PROTOCOL_HEADER_SIZE + Message.serializer().serializedSize(message), buffer.remaining());
+            assertEquals(size < OutboundTcpConnection.POOLED_BUFFER_SIZE, buffer.isDirect());
+
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            assertMessage(message, in);
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    public void testPackChangedBody() throws IOException
+    {
+        ICompactSerializer<byte[]> serializer = new ICompactSerializer<byte[]>()
+        {
+            public void serialize(byte[] bytes, DataOutputStream dos) throws IOException
+            {
+                dos.write(bytes);
+            }
+
+            public byte[] deserialize(DataInputStream dis) throws IOException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        // body grown or shrunk since it was sized, as a row shared with the row cache may
+        for (int sizeDelta : new int[] { -1, 1 })
+        {
+            byte[] body = message(100).getMessageBody();
+            Message reply = message(10).getReply(FBUtilities.getLocalAddress(), body, serializer, body.length + sizeDelta);
+            ByteBuffer buffer = OutboundTcpConnection.pack(reply);
+
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            MessagingService.validateMagic(in.readInt());
+            in.readInt();
+            assertEquals(bytes.length - MessagingService.PROTOCOL_HEADER_SIZE, in.readInt());
+            assertEquals(body.length, Message.serializer().deserialize(in).getMessageBody().length);
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception
+    {
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress(FBUtilities.getLocalAddress(), DatabaseDescriptor.getStoragePort()));
+        OutboundTcpConnection connection = new OutboundTcpConnection(FBUtilities.getLocalAddress());
+        connection.start();
+
+        int count = 1000;
+        Message message = message(100);
+        for (int i = 0; i < count; i++)
+            connection.write(message);
+
+        Socket socket = server.accept();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        for (int i = 0; i < count; i++)
+            assertMessage(message, in);
+
+        // counters are updated by the connection thread after the socket write returns
+        long bytes = count * (MessagingService.PROTOCOL_HEADER_SIZE + Message.serializer().serializedSize(message));
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((connection.getMessages() < count || connection.getBytes() < bytes) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, connection.getMessages());
+        assertEquals(bytes, connection.getBytes());
+        // messages queued while connecting are written together
+        assert connection.getFlushes() < count : connection.getFlushes();
+        assertEquals(0, connection.getPendingMessages());
+
+        connection.closeSocket();
+        assertEquals(-1, in.read());
+        socket.close();
+        server.close();
+    }
+
+    @Test
+    public void testMBean() throws Exception
+    {
+        InetAddress peer = InetAddress.getByName("127.0.0.2");
+        assert MessagingService.getConnectionPool(peer) == MessagingService.getConnectionPool(peer);
+        ObjectName name = new ObjectName(OutboundTcpConnectionPool.MBEAN_DOMAIN_AND_TYPE + ",peer=" + ObjectName.quote("127.0.0.2"));
+        assertEquals(0L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CommandMessages"));
+        assertEquals(0, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ResponsePendingMessages"));
+    }
+
+    private static void assertMessage(Message expected, DataInputStream in) throws IOException
+    {
+        MessagingService.validateMagic(in.readInt());
+        assertEquals(0, MessagingService.getBits(in.readInt(), 3, 1));
+        int size = in.readInt();
+        assertEquals(Message.serializer().serializedSize(expected), size);
+        Message message = Message.serializer().deserialize(in);
+        assertEquals(expected.getMessageId(), message.getMessageId());
+        assertEquals(expected.getVerb(), message.getVerb());
+        assertEquals(InetAddress.getByName("127.0.0.1"), message.getFrom());
+        assertEquals(3, message.getHeader("detail")[2]);
+        assertEquals(expected.getMessageBody().length, message.getMessageBody().length);
+        assertEquals(42, message.getMessageBody()[message.getMessageBody().length - 1]);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.locator.TokenMetadata;
+
+import static junit.framework.Assert.assertEquals;
+
+public class DigestVersionsTest
+{
+    private static void advertise(InetAddress endpoint, int version)
+    {
+        DigestVersions.instance.onChange(endpoint, DigestVersions.APPSTATE_DIGEST, new ApplicationState(Integer.toString(version)));
+    }
+
+    @Test
+    public void testNegotiation() throws UnknownHostException
+    {
+        InetAddress upgraded = InetAddress.getByName("127.0.0.2");
+        InetAddress old = InetAddress.getByName("127.0.0.3");
+        InetAddress silent = InetAddress.getByName("127.0.0.4");
+
+        // alone
+        assertEquals(DigestVersions.VERSION_1, DigestVersions.getVersion());
+        advertise(upgraded, DigestVersions.VERSION_2);
+        assertEquals(DigestVersions.VERSION_2, DigestVersions.getVersion());
+
+        // a ring member not heard of yet may be old
+        TokenMetadata tmd = StorageService.instance.getTokenMetadata();
+        tmd.updateNormalToken(StorageService.getPartitioner().getRandomToken(), silent);
+        advertise(upgraded, DigestVersions.VERSION_2);
+        assertEquals(DigestVersions.VERSION_1, DigestVersions.getVersion());
+        advertise(silent, DigestVersions.VERSION_2);
+        assertEquals(DigestVersions.VERSION_2, DigestVersions.getVersion());
+
+        advertise(old, DigestVersions.VERSION_1);
+        assertEquals(DigestVersions.VERSION_1, DigestVersions.getVersion());
+        DigestVersions.instance.onRemove(old);
+        assertEquals(DigestVersions.VERSION_2, DigestVersions.getVersion());
+
+        tmd.clearUnsafe();
+    }
+}
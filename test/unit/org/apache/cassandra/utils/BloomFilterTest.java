@@ -118,6 +118,65 @@ public class BloomFilterTest
         
         assert f2.isPresent("a");
         assert !f2.isPresent("b");
+        assert !(f2 instanceof BlockedBloomFilter);
+    }
+
+    @Test
+    public void testBlockedFalsePositives()
+    {
+        FilterTest.testFalsePositives(BlockedBloomFilter.create(FilterTest.ELEMENTS, FilterTest.spec.bucketsPerElement),
+                                      FilterTest.randomKeys(),
+                                      FilterTest.randomKeys2());
+        FilterTest.testFalsePositives(BlockedBloomFilter.create(FilterTest.ELEMENTS, FilterTest.spec.bucketsPerElement),
+                                      FilterTest.intKeys(),
+                                      FilterTest.randomKeys2());
+    }
+
+    @Test
+    public void testBlockedSerialize() throws IOException
+    {
+        BloomFilter bf = BlockedBloomFilter.create(FilterTest.ELEMENTS, 15);
+        for (int i = 0; i < FilterTest.ELEMENTS; i++)
+            bf.add("key" + i, FBUtilities.toByteArray(i));
+        DataOutputBuffer out = new DataOutputBuffer();
+        BloomFilter.serializerForSSTable().serialize(bf, out);
+        assert out.getLength() == BloomFilter.serializerForSSTable().serializeSize(bf);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.getData(), 0, out.getLength());
+        BloomFilter bf2 = BloomFilter.serializerForSSTable().deserialize(new DataInputStream(in));
+
+        assert bf2 instanceof BlockedBloomFilter;
+        assert bf2.getElementCount() == FilterTest.ELEMENTS;
+        for (int i = 0; i < FilterTest.ELEMENTS; i++)
+            assert bf2.isPresent("key" + i, FBUtilities.toByteArray(i));
+        assert !bf2.isPresent("b");
+    }
+
+    @Test
+    public void testBatchedIsPresent() throws IOException
+    {
+        BloomFilter[] filters = new BloomFilter[] { BloomFilter.create(FilterTest.ELEMENTS, 15),
+                                                    BlockedBloomFilter.create(FilterTest.ELEMENTS, 15),
+                                                    BloomFilter.create(FilterTest.ELEMENTS, 15),
+                                                    BlockedBloomFilter.create(FilterTest.ELEMENTS, 15) };
+        for (int i = 0; i < FilterTest.ELEMENTS; i++)
+            filters[i % filters.length].add("key" + i);
+        filters[3].close();
+
+        boolean[] present = new boolean[filters.length];
+        for (int i = 0; i < FilterTest.ELEMENTS * 2; i++)
+        {
+            String key = "key" + i;
+            BloomFilter.Hash hash = BloomFilter.hash(key);
+            BloomFilter.isPresent(hash, filters, present);
+            for (int j = 0; j < filters.length; j++)
+            {
+                assert present[j] == filters[j].isPresent(key) : key;
+                assert present[j] == filters[j].isPresent(hash) : key;
+            }
+            if (i < FilterTest.ELEMENTS)
+                assert present[i % filters.length] : key;
+        }
     }
 
     @Test
@@ -0,0 +1,75 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.base.Function;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class ExpiringLongMapTest
+{
+    @Test
+    public void testExpiration() throws InterruptedException
+    {
+        final ConcurrentLinkedQueue<Pair<Long, Long>> expired = new ConcurrentLinkedQueue<Pair<Long, Long>>();
+        ExpiringLongMap<Long> map = new ExpiringLongMap<Long>(200, 10, new Function<Pair<Long, Long>, Object>()
+        {
+            public Object apply(Pair<Long, Long> pair)
+            {
+                // key and time it expired
+                expired.add(new Pair<Long, Long>(pair.left, System.currentTimeMillis() - pair.right));
+                return null;
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        for (long i = 0; i < 1000; i++)
+            assertNull(map.put(i, start));
+        assertEquals(1000, map.size());
+        for (long i = 0; i < 1000; i += 2)
+            assertEquals(Long.valueOf(start), map.remove(i));
+        assert map.getAge(1) >= start;
+        assertEquals(0, map.getAge(0));
+
+        Thread.sleep(100);
+        assertEquals(500, map.size());
+        assert expired.isEmpty();
+
+        Thread.sleep(400);
+        assert map.isEmpty();
+        assertEquals(500, expired.size());
+        for (Pair<Long, Long> pair : expired)
+        {
+            assert pair.left % 2 == 1 : pair.left;
+            // expired on time, with some slack for a loaded machine
+            assert pair.right >= 199 && pair.right < 450 : pair.right;
+        }
+
+        // removed entries do not expire
+        map.put(1, 0L);
+        map.remove(1);
+        Thread.sleep(300);
+        assertEquals(500, expired.size());
+        map.shutdown();
+    }
+}
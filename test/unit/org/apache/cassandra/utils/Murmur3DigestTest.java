@@ -0,0 +1,78 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class Murmur3DigestTest
+{
+    @Test
+    public void testKnownHashes()
+    {
+        assertHash("hello", 0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L);
+        assertHash("The quick brown fox jumps over the lazy dog", 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L);
+        assertHash("", 0, 0);
+    }
+
+    private void assertHash(String s, long h1, long h2)
+    {
+        byte[] bytes = s.getBytes();
+        long[] hash = MurmurHash.hash3_x64_128(ByteBuffer.wrap(bytes), 0, bytes.length, 0);
+        assertEquals(h1, hash[0]);
+        assertEquals(h2, hash[1]);
+        assertEquals(FBUtilities.bytesToHex(toBytes(hash)), FBUtilities.bytesToHex(new Murmur3Digest().digest(bytes)));
+    }
+
+    @Test
+    public void testIncrementalUpdates()
+    {
+        Random random = new Random(0);
+        Murmur3Digest digest = new Murmur3Digest();
+        for (int length = 0; length < 100; length++)
+        {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            byte[] expected = toBytes(MurmurHash.hash3_x64_128(ByteBuffer.wrap(bytes), 0, length, 0));
+
+            // feed in pieces of random size, single bytes included
+            int offset = 0;
+            while (offset < length)
+            {
+                int n = random.nextInt(length - offset) + 1;
+                if (n == 1)
+                    digest.update(bytes[offset]);
+                else
+                    digest.update(bytes, offset, n);
+                offset += n;
+            }
+            assert Arrays.equals(expected, digest.digest()) : length;
+        }
+    }
+
+    private static byte[] toBytes(long[] hash)
+    {
+        return ByteBuffer.allocate(16).putLong(hash[0]).putLong(hash[1]).array();
+    }
+}
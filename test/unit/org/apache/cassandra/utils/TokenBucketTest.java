@@ -0,0 +1,64 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.utils;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+public class TokenBucketTest
+{
+    @Test
+    public void testShared() throws InterruptedException
+    {
+        final TokenBucket bucket = new TokenBucket(1000);
+        // a second worth is taken without pause
+        assertEquals(0, bucket.take(1000));
+
+        // the rest is shared by all threads
+        long start = System.currentTimeMillis();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j = 0; j < 5; j++)
+                        bucket.acquire(20);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.currentTimeMillis() - start;
+        assert elapsed >= 380 && elapsed < 1000 : elapsed;
+    }
+
+    @Test
+    public void testUnlimited()
+    {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.take(Long.MAX_VALUE / 2));
+        bucket.setRate(1000);
+        assertEquals(0, bucket.take(1000));
+        assert bucket.take(500) > 0;
+    }
+}